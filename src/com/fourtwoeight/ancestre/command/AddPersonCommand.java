@@ -3,6 +3,9 @@ package com.fourtwoeight.ancestre.command;
 import com.fourtwoeight.ancestre.model.Family;
 import com.fourtwoeight.ancestre.model.Person;
 
+import java.util.Collection;
+import java.util.Collections;
+
 public class AddPersonCommand implements Command {
 
     public AddPersonCommand(Person person, Family family){
@@ -26,6 +29,14 @@ public class AddPersonCommand implements Command {
         this.family.removePerson(this.person);
     }
 
+    /**
+     * @return the person added or removed
+     */
+    @Override
+    public Collection<Person> getChangedPersons() {
+        return Collections.singletonList(this.person);
+    }
+
     // Private Fields ==================================================================================================
 
     private Family family;
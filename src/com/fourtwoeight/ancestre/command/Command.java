@@ -1,5 +1,10 @@
 package com.fourtwoeight.ancestre.command;
 
+import com.fourtwoeight.ancestre.model.Person;
+
+import java.util.Collection;
+import java.util.Collections;
+
 public interface Command {
 
     /**
@@ -11,4 +16,13 @@ public interface Command {
      * Performs the actions necessary to undo the actions performed by execute.
      */
     void undo();
+
+    /**
+     * Returns the persons whose details, relationships or membership of the family were changed by the last call to
+     * execute or undo. These are journaled so only they need to be written when the family is saved.
+     * @return the persons changed, empty if the command does not change the family
+     */
+    default Collection<Person> getChangedPersons(){
+        return Collections.emptyList();
+    }
 }
@@ -0,0 +1,122 @@
+package com.fourtwoeight.ancestre.command;
+
+import com.fourtwoeight.ancestre.main.StateManager;
+import com.fourtwoeight.ancestre.model.Family;
+import com.fourtwoeight.ancestre.util.Progress;
+import javafx.application.Platform;
+import javafx.scene.control.Alert;
+import javafx.scene.control.Label;
+import javafx.stage.FileChooser;
+import javafx.stage.Stage;
+
+import java.io.File;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+public class OpenCommand implements Command {
+
+    // Private Static Fields ===========================================================================================
+
+    /**
+     * The logger for this class
+     */
+    private static final Logger LOGGER = Logger.getLogger(OpenCommand.class.getName());
+
+    // Public Methods ==================================================================================================
+
+    /**
+     * Constructor
+     * @param stage the stage to display the file chooser
+     * @param statusLabel the label to report the progress of the load on
+     * @param progressTracker shows the progress of the load once it has started
+     * @param familyListener is given the family on the JavaFX thread once it has loaded
+     */
+    public OpenCommand(Stage stage, Label statusLabel, Consumer<Progress> progressTracker,
+                       Consumer<Family> familyListener){
+        this.stateManager = StateManager.getInstance();
+        this.stage = stage;
+        this.statusLabel = statusLabel;
+        this.progressTracker = progressTracker;
+        this.familyListener = familyListener;
+    }
+
+    /**
+     * Opens the filechooser and loads the chosen family file in the background. The loaded family becomes the current
+     * family in the stateManager, the status label is updated once it is loaded and an error message is displayed
+     * upon failure.
+     */
+    @Override
+    public void execute() {
+        LOGGER.fine("Executing Open");
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Open Family");
+        fileChooser.setInitialDirectory(this.stateManager.getCurrentFamilyDirectory());
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Families", "*.fam", "*.famb", "*.ged",
+                "*.famt"));
+        File familyFile = fileChooser.showOpenDialog(this.stage);
+
+        if(familyFile == null){
+            LOGGER.finer("Open cancelled.");
+            return;
+        }
+
+        LOGGER.finer("Opening file: " + familyFile.getName());
+        StringBuilder errorMessage = new StringBuilder();
+        Progress progress = new Progress();
+        this.statusLabel.setText("Loading " + familyFile.getName() + "...");
+
+        this.stateManager.open(familyFile, progress, errorMessage).thenAccept(family -> Platform.runLater(() -> {
+            // Display error message upon failure
+            if(family != null){
+                this.statusLabel.setText("Loaded " + familyFile.getName());
+                this.familyListener.accept(family);
+            }
+            else if(progress.isCancelled()){
+                this.statusLabel.setText(errorMessage.toString());
+            }
+            else{
+                this.statusLabel.setText("Unable to load " + familyFile.getName());
+                Alert alert = new Alert(Alert.AlertType.ERROR);
+                alert.setTitle("Loading Error");
+                alert.setHeaderText(null);
+                alert.setContentText(errorMessage.toString());
+                alert.show();
+            }
+        }));
+        this.progressTracker.accept(progress);
+    }
+
+    /**
+     * Does nothing
+     */
+    @Override
+    public void undo() {
+        // Nothing to do if undone
+    }
+
+    // Private Fields ==================================================================================================
+    /**
+     * The state manager classs
+     */
+    private StateManager stateManager;
+
+    /**
+     * The stage to display the filechooser
+     */
+    private Stage stage;
+
+    /**
+     * The label to report the progress of the load on
+     */
+    private Label statusLabel;
+
+    /**
+     * Shows the progress of the load
+     */
+    private Consumer<Progress> progressTracker;
+
+    /**
+     * Is given the family once it has loaded
+     */
+    private Consumer<Family> familyListener;
+}
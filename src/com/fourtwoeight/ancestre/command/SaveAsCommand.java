@@ -1,13 +1,15 @@
 package com.fourtwoeight.ancestre.command;
 
 import com.fourtwoeight.ancestre.main.StateManager;
-import com.fourtwoeight.ancestre.model.Family;
-import com.fourtwoeight.ancestre.util.FileManager;
+import com.fourtwoeight.ancestre.util.Progress;
+import javafx.application.Platform;
 import javafx.scene.control.Alert;
+import javafx.scene.control.Label;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
 import java.io.File;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 public class SaveAsCommand implements Command {
@@ -24,14 +26,19 @@ public class SaveAsCommand implements Command {
     /**
      * Constructor
      * @param stage the stage to display the file saver
+     * @param statusLabel the label to report the progress of the save on
+     * @param progressTracker shows the progress of the save once it has started
      */
-    public SaveAsCommand( Stage stage){
+    public SaveAsCommand(Stage stage, Label statusLabel, Consumer<Progress> progressTracker){
         this.stateManager = StateManager.getInstance();
         this.stage = stage;
+        this.statusLabel = statusLabel;
+        this.progressTracker = progressTracker;
     }
 
     /**
-     * Opens the filechooser and saves the current family in the stateManager. Displays error message upon failure
+     * Opens the filechooser and saves the current family in the stateManager. The family is written in the
+     * background, the status label is updated once it is saved and an error message is displayed upon failure.
      */
     @Override
     public void execute() {
@@ -40,23 +47,40 @@ public class SaveAsCommand implements Command {
         fileChooser.setTitle("Save Family");
         fileChooser.setInitialDirectory(this.stateManager.getCurrentFamilyDirectory());
         fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("FAM","*.fam"));
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("FAMB","*.famb"));
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("GED","*.ged"));
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("FAMD","*.famd"));
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("FAMT","*.famt"));
         File familyFile = fileChooser.showSaveDialog(this.stage);
 
+        if(familyFile == null){
+            LOGGER.finer("Save cancelled.");
+            return;
+        }
+
         LOGGER.finer("Saving file as: " + familyFile.getName());
-        FileManager fileManager = FileManager.getInstance();
         StringBuilder errorMessage = new StringBuilder();
+        Progress progress = new Progress();
+        this.statusLabel.setText("Saving " + familyFile.getName() + "...");
 
-        // Display error message upon failure
-        if(!fileManager.save(this.stateManager.getFamily(),
-                familyFile.getName().split("\\.")[0],
-                familyFile.getParentFile(),
-                errorMessage)){
-            Alert alert = new Alert(Alert.AlertType.ERROR);
-            alert.setTitle("Saving Error");
-            alert.setHeaderText(null);
-            alert.setContentText(errorMessage.toString());
-        }
-
+        this.stateManager.saveAs(familyFile, progress, errorMessage).thenAccept(saved -> Platform.runLater(() -> {
+            // Display error message upon failure
+            if(saved){
+                this.statusLabel.setText("Saved " + familyFile.getName());
+            }
+            else if(progress.isCancelled()){
+                this.statusLabel.setText(errorMessage.toString());
+            }
+            else{
+                this.statusLabel.setText("Unable to save " + familyFile.getName());
+                Alert alert = new Alert(Alert.AlertType.ERROR);
+                alert.setTitle("Saving Error");
+                alert.setHeaderText(null);
+                alert.setContentText(errorMessage.toString());
+                alert.show();
+            }
+        }));
+        this.progressTracker.accept(progress);
     }
 
     /**
@@ -78,4 +102,14 @@ public class SaveAsCommand implements Command {
      */
     private Stage stage;
 
+    /**
+     * The label to report the progress of the save on
+     */
+    private Label statusLabel;
+
+    /**
+     * Shows the progress of the save
+     */
+    private Consumer<Progress> progressTracker;
+
 }
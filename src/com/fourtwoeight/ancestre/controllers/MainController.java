@@ -1,6 +1,7 @@
 package com.fourtwoeight.ancestre.controllers;
 
 
+import com.fourtwoeight.ancestre.command.OpenCommand;
 import com.fourtwoeight.ancestre.command.SaveAsCommand;
 import com.fourtwoeight.ancestre.main.StateManager;
 import com.fourtwoeight.ancestre.model.Family;
@@ -11,13 +12,19 @@ import static com.fourtwoeight.ancestre.model.Person.SEX.MALE;
 
 import com.fourtwoeight.ancestre.ui.GraphGenerator;
 import com.fourtwoeight.ancestre.util.FileManager;
+import com.fourtwoeight.ancestre.util.Progress;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.beans.binding.DoubleBinding;
 import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.SimpleDoubleProperty;
 import javafx.fxml.FXML;
 
+import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListView;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.TableView;
 import javafx.scene.control.TextArea;
 import javafx.scene.image.Image;
@@ -28,6 +35,7 @@ import javafx.scene.shape.Circle;
 
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 import org.graphsfx.graph.CircularReferenceException;
 import org.graphsfx.graph.TreeGraph;
 import org.graphsfx.model.GraphNode;
@@ -54,6 +62,11 @@ public class MainController {
 
     private static final String DEFAULT_FEMALE_PATH = "resources/images/default_female.png";
 
+    /**
+     * How often the progress of a load or save is shown
+     */
+    private static final Duration PROGRESS_INTERVAL = Duration.millis(200);
+
 
     // Public Fields ===================================================================================================
 
@@ -67,6 +80,11 @@ public class MainController {
         // Initialize graph
         this.graphContainer.getChildren().add(treeGraph);
 
+        // Initialize progress, which is polled while a load or save runs
+        this.progressTimeline = new Timeline(new KeyFrame(PROGRESS_INTERVAL, event -> updateProgress()));
+        this.progressTimeline.setCycleCount(Animation.INDEFINITE);
+        showProgressControls(false);
+
         // Set bindings
         setPortaitBindings();
         this.viewport.radiusProperty().bind(this.portriatRadius);
@@ -176,15 +194,37 @@ public class MainController {
     // Action handlers =================================================================================================
 
     /**
-     * Handles the saving of the current family by opening a file chooser and then saving the family.
+     * Handles the saving of the current family by opening a file chooser and then saving the family in the background.
      * This also sets the current family file for the current family in the stateManager.
      */
     @FXML
     private void saveAs(){
-        SaveAsCommand saveAsCommand = new SaveAsCommand(this.stage);
+        SaveAsCommand saveAsCommand = new SaveAsCommand(this.stage, this.statusLabel, this::trackProgress);
         saveAsCommand.execute();
     }
 
+    /**
+     * Handles the opening of a family by opening a file chooser and then loading the family in the background. The
+     * loaded family is shown once it has loaded.
+     */
+    @FXML
+    private void open(){
+        OpenCommand openCommand = new OpenCommand(this.stage, this.statusLabel, this::trackProgress, this::showFamily);
+        openCommand.execute();
+    }
+
+    /**
+     * Handles the cancel button, stopping the load or save whose progress is shown
+     */
+    @FXML
+    private void cancelProgress(){
+        if(this.progress != null){
+            LOGGER.fine("Cancelling load or save.");
+            this.progress.cancel();
+            this.cancelButton.setDisable(true);
+        }
+    }
+
 
 
     // Private Methods =================================================================================================
@@ -241,6 +281,69 @@ public class MainController {
         });
     }
 
+    /**
+     * Shows the progress of a load or save in the status bar until it finishes, replacing any progress already shown
+     * @param progress the progress of the load or save
+     */
+    private void trackProgress(Progress progress){
+        this.progress = progress;
+        this.progressBar.setProgress(ProgressBar.INDETERMINATE_PROGRESS);
+        this.progressLabel.setText("");
+        this.cancelButton.setDisable(false);
+        showProgressControls(true);
+        this.progressTimeline.play();
+    }
+
+    /**
+     * Updates the progress bar and label from the progress being shown, hiding them once it has finished
+     */
+    private void updateProgress(){
+        if(this.progress == null || this.progress.isDone()){
+            this.progressTimeline.stop();
+            showProgressControls(false);
+            this.progress = null;
+            return;
+        }
+
+        double fraction = this.progress.getFraction();
+        this.progressBar.setProgress((fraction >= 0) ? fraction : ProgressBar.INDETERMINATE_PROGRESS);
+
+        StringBuilder description = new StringBuilder(String.format("%,d persons", this.progress.getPersons()));
+        if(this.progress.getTotalBytes() > 0){
+            description.append(String.format(", %.1f of %.1f MB", this.progress.getBytes() / 1e6,
+                    this.progress.getTotalBytes() / 1e6));
+        }
+        long remainingMillis = this.progress.getRemainingMillis();
+        if(remainingMillis >= 0){
+            description.append(", about " + ((remainingMillis + 999) / 1000) + " s left");
+        }
+        this.progressLabel.setText(description.toString());
+    }
+
+    /**
+     * @param visible whether the progress bar, label and cancel button are shown
+     */
+    private void showProgressControls(boolean visible){
+        this.progressBar.setVisible(visible);
+        this.progressBar.setManaged(visible);
+        this.progressLabel.setVisible(visible);
+        this.progressLabel.setManaged(visible);
+        this.cancelButton.setVisible(visible);
+        this.cancelButton.setManaged(visible);
+    }
+
+    /**
+     * Shows a family which has been loaded, starting from its first member
+     * @param family the family
+     */
+    private void showFamily(Family family){
+        if(!family.getMemberView().isEmpty()){
+            Person person = family.getMemberView().iterator().next();
+            setPersonPane(person);
+            setGraphPane(person);
+        }
+    }
+
     /**
      * Sets the image for the person description pane
      * @param person The person to source the image from
@@ -288,6 +391,16 @@ public class MainController {
 
     private Stage stage;
 
+    /**
+     * Polls the progress being shown
+     */
+    private Timeline progressTimeline;
+
+    /**
+     * The progress of the load or save being shown, null if none is
+     */
+    private Progress progress;
+
     @FXML
     private TableView<String> index;
 
@@ -317,4 +430,16 @@ public class MainController {
 
     @FXML
     private ListView<String> childrenList;
+
+    @FXML
+    private Label statusLabel;
+
+    @FXML
+    private ProgressBar progressBar;
+
+    @FXML
+    private Label progressLabel;
+
+    @FXML
+    private Button cancelButton;
 }
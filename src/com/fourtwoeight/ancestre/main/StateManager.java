@@ -4,12 +4,20 @@ import com.fourtwoeight.ancestre.command.Command;
 import com.fourtwoeight.ancestre.model.Family;
 import com.fourtwoeight.ancestre.model.Person;
 import com.fourtwoeight.ancestre.util.CircularStack;
+import com.fourtwoeight.ancestre.util.FamilyFormat;
+import com.fourtwoeight.ancestre.util.FileManager;
+import com.fourtwoeight.ancestre.util.Progress;
 import org.graphsfx.model.GraphNode;
 
 import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 
 public class StateManager implements Runnable{
@@ -56,8 +64,13 @@ public class StateManager implements Runnable{
         while(true){
             if(!this.commandQueue.isEmpty()){
                 Command command = this.commandQueue.poll();
-                command.execute();
-                this.undoStack.add(command);
+
+                // Commands change the family, so they must not run while it is being snapshot
+                synchronized (this){
+                    command.execute();
+                    this.undoStack.add(command);
+                    saveChanges(command);
+                }
             }
 
             try {
@@ -76,6 +89,70 @@ public class StateManager implements Runnable{
         this.commandQueue.add(command);
     }
 
+    /**
+     * Saves the current family to the family file in the background. The family is snapshot before this returns, so
+     * commands can continue to change it while it is written. The family file becomes the current family file once the
+     * save succeeds, with the changes made while it was written journaled against it; until then, and if the save
+     * fails or is cancelled, changes are journaled against the previous family file.
+     * @param familyFile the family file to save to, its format is determined by its extension
+     * @param errorMsg the error message to alert the user if not saved successfully
+     * @return completes with 'true' if saved successfully. 'false' otherwise.
+     */
+    public synchronized CompletableFuture<Boolean> saveAs(File familyFile, StringBuilder errorMsg){
+        return saveAs(familyFile, new Progress(), errorMsg);
+    }
+
+    /**
+     * Saves the current family to the family file in the background, reporting its progress. See saveAs.
+     * @param familyFile the family file to save to, its format is determined by its extension
+     * @param progress the progress of the save, cancelling it stops the save
+     * @param errorMsg the error message to alert the user if not saved successfully
+     * @return completes with 'true' if saved successfully. 'false' otherwise.
+     */
+    public synchronized CompletableFuture<Boolean> saveAs(File familyFile, Progress progress, StringBuilder errorMsg){
+        String fileName = familyFile.getName().split("\\.")[0];
+        FamilyFormat format = FamilyFormat.fromFile(familyFile);
+        File directory = familyFile.getAbsoluteFile().getParentFile();
+        File savedFile = new File(directory, fileName + format.getExtension());
+        Family savedFamily = this.family;
+
+        // Persons changed after the snapshot are missing from the saved file until they are journaled against it
+        Set<Person> changedPersons = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.pendingSaves.add(changedPersons);
+
+        return FileManager.getInstance().saveAsync(savedFamily, fileName, directory, format, progress, errorMsg)
+                .thenApply(saved -> {
+                    finishSaveAs(savedFamily, savedFile, changedPersons, saved);
+                    return saved;
+                });
+    }
+
+    /**
+     * Loads a family file in the background, making it the current family once it has loaded. The current family is
+     * kept if the load fails or is cancelled.
+     * @param familyFile the family file to load, its format is determined by its extension
+     * @param progress the progress of the load, cancelling it stops the load
+     * @param errorMsg the error message to alert the user if not loaded successfully
+     * @return completes with the family loaded, null if it was not loaded
+     */
+    public CompletableFuture<Family> open(File familyFile, Progress progress, StringBuilder errorMsg){
+        Family loadedFamily = new Family();
+
+        return FileManager.getInstance().loadAsync(loadedFamily, familyFile, progress, errorMsg).thenApply(loaded -> {
+            if(!loaded){
+                return null;
+            }
+
+            // Commands change the family, so it must not be replaced while one is running
+            synchronized (this){
+                this.family = loadedFamily;
+                this.familyFile = familyFile;
+                this.selectedPerson = null;
+            }
+            return loadedFamily;
+        });
+    }
+
     /**
      * @return the person that is currently selected
      */
@@ -155,6 +232,65 @@ public class StateManager implements Runnable{
     }
 
 
+    // Private Methods =================================================================================================
+
+    /**
+     * Journals the persons changed by a command against the current family file, compacting the journal into the
+     * family file in the background once it has grown too large. Nothing is saved until the family has a family file.
+     * @param command the command which was executed
+     */
+    private void saveChanges(Command command){
+        Collection<Person> changedPersons = command.getChangedPersons();
+
+        for(Set<Person> pendingSave : this.pendingSaves){
+            pendingSave.addAll(changedPersons);
+        }
+
+        if(this.familyFile != null && !changedPersons.isEmpty()){
+            FileManager fileManager = FileManager.getInstance();
+            StringBuilder errorMsg = new StringBuilder();
+
+            if(!fileManager.saveChanges(this.family, this.familyFile, changedPersons, errorMsg)){
+                LOGGER.warning(errorMsg.toString());
+            }
+            else if(fileManager.needsCompaction(this.familyFile)
+                    && (this.compaction == null || this.compaction.isDone())){
+                this.compaction = fileManager.compact(this.family, this.familyFile, errorMsg);
+                this.compaction.thenAccept(compacted -> {
+                    if(!compacted){
+                        LOGGER.warning(errorMsg.toString());
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Makes a family file the current family file once the family has been saved to it, journaling against it the
+     * persons changed while it was written. Nothing changes if the save failed, those persons could not be journaled,
+     * or another family has been opened since.
+     * @param family the family which was saved
+     * @param familyFile the family file it was saved to
+     * @param changedPersons the persons changed since the family was snapshot
+     * @param saved whether the save succeeded
+     */
+    private synchronized void finishSaveAs(Family family, File familyFile, Set<Person> changedPersons, boolean saved){
+        this.pendingSaves.remove(changedPersons);
+
+        if(saved && this.family == family){
+            StringBuilder errorMsg = new StringBuilder();
+
+            // The previous family file holds every change, so it is kept if the changes cannot be journaled
+            if(changedPersons.isEmpty() || FileManager.getInstance().saveChanges(family, familyFile, changedPersons,
+                    errorMsg)){
+                this.familyFile = familyFile;
+            }
+            else{
+                LOGGER.warning(errorMsg.toString());
+            }
+        }
+    }
+
     // Private Fields ==================================================================================================
     /**
      * The selected person
@@ -188,5 +324,15 @@ public class StateManager implements Runnable{
      */
     CircularStack<Command> redoStack;
 
+    /**
+     * The compaction of the journal currently being written, if any
+     */
+    private CompletableFuture<Boolean> compaction;
+
+    /**
+     * The persons changed since each save as still being written was snapshot
+     */
+    private final Set<Set<Person>> pendingSaves = Collections.newSetFromMap(new IdentityHashMap<>());
+
 
 }
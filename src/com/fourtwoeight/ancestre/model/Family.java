@@ -3,11 +3,26 @@ package com.fourtwoeight.ancestre.model;
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlTransient;
 import java.util.*;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 @XmlRootElement
 public class Family {
 
+    // Public Static Fields ============================================================================================
+
+    /**
+     * The number of generations to walk to reach every ancestor or descendant
+     */
+    public static final int ALL_GENERATIONS = Integer.MAX_VALUE;
+
+    // Private Static Fields ===========================================================================================
+
+    private static final Logger LOGGER = Logger.getLogger(Family.class.getName());
+
     // Public Methods ==================================================================================================
 
     /**
@@ -28,13 +43,53 @@ public class Family {
         return this.familyName;
     }
 
+    /**
+     * Sets the name of the family
+     * @param familyName the name of the family
+     */
+    public void setFamilyName(String familyName){
+        this.familyName = familyName;
+    }
+
     /**
      * Returns the person mapped to the uuid
      * @param uuid the uuid string of the person
-     * @return the Person mapped to the uuid
+     * @return the Person mapped to the uuid, null if there is none or the string is not a uuid
      */
     public Person getPerson(String uuid){
-        return familyMembers.get(uuid);
+        Person person = null;
+
+        // Relationships are resolved by uuid string as families load, so the usual form is parsed directly rather than
+        // through the slower UUID.fromString
+        if(uuid != null && uuid.length() == 36 && uuid.charAt(8) == '-' && uuid.charAt(13) == '-'
+                && uuid.charAt(18) == '-' && uuid.charAt(23) == '-'){
+            long timeLow = parseHex(uuid, 0, 8);
+            long timeMid = parseHex(uuid, 9, 13);
+            long timeHigh = parseHex(uuid, 14, 18);
+            long clock = parseHex(uuid, 19, 23);
+            long node = parseHex(uuid, 24, 36);
+
+            if(timeLow >= 0 && timeMid >= 0 && timeHigh >= 0 && clock >= 0 && node >= 0){
+                return getPerson(new UUID((timeLow << 32) | (timeMid << 16) | timeHigh, (clock << 48) | node));
+            }
+        }
+
+        try {
+            person = getPerson(UUID.fromString(uuid));
+        } catch (IllegalArgumentException | NullPointerException e){
+            LOGGER.fine("Not a UUID: " + uuid);
+        }
+
+        return person;
+    }
+
+    /**
+     * Returns the person mapped to the uuid
+     * @param uuid the uuid of the person
+     * @return the Person mapped to the uuid, null if there is none or the uuid is null
+     */
+    public Person getPerson(UUID uuid){
+        return (uuid != null) ? familyMembers.get(uuid) : null;
     }
 
     /**
@@ -43,7 +98,17 @@ public class Family {
      */
     @XmlElement
     public List<Person> getFamilyMembers(){
-        return new LinkedList<Person>(familyMembers.values());
+        return new LinkedList<Person>(familyMembers);
+    }
+
+    /**
+     * Returns a read-only view of the family members. Unlike getFamilyMembers the members are not copied, so this
+     * should be preferred when iterating over large families.
+     * @return the unmodifiable collection of family members
+     */
+    @XmlTransient
+    public Collection<Person> getMemberView(){
+        return Collections.unmodifiableCollection(familyMembers);
     }
 
     /**
@@ -52,93 +117,468 @@ public class Family {
      * @return 'true' if the person is in the family, 'false' otherwise
      */
     public boolean isMember(Person person){
-        return familyMembers.containsValue(person);
+        return familyMembers.containsPerson(person);
     }
 
     /**
-     * Adds a person to the family
-     * @param person the person to add
+     * Adds a person to the family, replacing any member with the same uuid
+     * @param person the person to add, who must have a uuid
      */
     public void addPerson(Person person){
-        familyMembers.put(person.getUUIDString(), person);
+        if(person.getUUID() == null){
+            throw new IllegalArgumentException("A person without a UUID cannot be added to a family.");
+        }
+        Person replaced = familyMembers.put(person);
+        if(replaced != null && replaced != person && replaced.getOwner() == this){
+            replaced.setOwner(null);
+        }
+        person.setOwner(this);
+        this.graph = null;
+
+        if(this.names != null){
+            if(replaced != null){
+                this.names.remove(replaced);
+            }
+            this.names.add(person);
+        }
     }
 
     /**
-     * Removes a person from the family
+     * Removes a person from the family. Nothing is removed if the person is not a member, even if a member has the
+     * same uuid.
      * @param person the person to remove
      */
-    public void removePerson(Person person){ familyMembers.remove(person);}
+    public void removePerson(Person person){
+        if(familyMembers.remove(person)){
+            if(person.getOwner() == this){
+                person.setOwner(null);
+            }
+            this.graph = null;
+            if(this.names != null){
+                this.names.remove(person);
+            }
+        }
+    }
+
+    /**
+     * @return the number of members in the family
+     */
+    public int size(){
+        return familyMembers.size();
+    }
+
+    /**
+     * Returns a deep copy of the family which later changes to the family do not affect. Relationships are copied
+     * between the copied members, relatives outside of the family are left out. Each copy is dirty if its person is.
+     * @return the copy of the family
+     */
+    public Family snapshot(){
+        Family snapshot = new Family(getFamilyName());
+        IdentityHashMap<Person, Person> copies = new IdentityHashMap<>();
+
+        for(Person person : getMemberView()){
+            Person copy = new Person(person);
+            copies.put(person, copy);
+            snapshot.addPerson(copy);
+        }
+
+        for(Map.Entry<Person, Person> entry : copies.entrySet()){
+            Person person = entry.getKey();
+            Person copy = entry.getValue();
+
+            copy.setFather(copies.get(person.getFather()));
+            copy.setMother(copies.get(person.getMother()));
+            copy.setCurrentSpouse(copies.get(person.getCurrentSpouse()));
+
+            for(Person spouse : person.getSpouses()){
+                if(copies.containsKey(spouse)){
+                    copy.addSpouse(copies.get(spouse));
+                }
+            }
+            for(Person child : person.getChildren()){
+                if(copies.containsKey(child)){
+                    copy.addChild(copies.get(child));
+                }
+            }
+
+            // Setting the relatives marked the copy dirty, it is only dirty if the person is
+            copy.setDirty(person.isDirty());
+        }
+
+        return snapshot;
+    }
+
     /**
      * Finds and generates a list of people who are the ancestors for the passed in person
      * @param person the person to get ancestry for
-     * @return the list of Persons who are the ancestors for the person
+     * @return the list of Persons who are the ancestors for the person, nearest generation first
      */
     public List<Person> getAncestors(Person person){
-        HashSet<Person> ancestors = new HashSet<Person>();
-        getAncestorsHelper(person, ancestors);
+        return getAncestors(person, ALL_GENERATIONS);
+    }
 
-        return new LinkedList<Person>(ancestors);
+    /**
+     * Finds the ancestors of a person up to a number of generations back
+     * @param person the person to get ancestry for
+     * @param generations the number of generations, 1 for the parents, 2 for the parents and grandparents and so on
+     * @return the list of Persons who are the ancestors for the person, nearest generation first
+     */
+    public List<Person> getAncestors(Person person, int generations){
+        return collect(new LineageIterator(person, true, generations));
     }
 
     /**
      * Finds and generates a list of people who are the descendants for the passed in person
      * @param person the person to get descendants for
-     * @return the list of Persons who are the descendants for the person
+     * @return the list of Persons who are the descendants for the person, nearest generation first
      */
     public List<Person> getDescendants(Person person){
-        HashSet<Person> descendants = new HashSet<Person>();
-        getDescendantsHelper(person, descendants);
+        return getDescendants(person, ALL_GENERATIONS);
+    }
+
+    /**
+     * Finds the descendants of a person up to a number of generations down
+     * @param person the person to get descendants for
+     * @param generations the number of generations, 1 for the children, 2 for the children and grandchildren and so on
+     * @return the list of Persons who are the descendants for the person, nearest generation first
+     */
+    public List<Person> getDescendants(Person person, int generations){
+        return collect(new LineageIterator(person, false, generations));
+    }
+
+    /**
+     * Lazily walks the ancestors of a person, generation by generation. Each generation is only found once the
+     * generation before it has been iterated, so stopping early does not walk the rest of the tree.
+     * @param person the person to get ancestry for
+     * @param generations the number of generations to walk, ALL_GENERATIONS for every one
+     * @return an iterator over the ancestors and their generations, nearest generation first
+     */
+    public Iterator<Relative> ancestorIterator(Person person, int generations){
+        return new LineageIterator(person, true, generations);
+    }
+
+    /**
+     * Lazily walks the descendants of a person, generation by generation. Each generation is only found once the
+     * generation before it has been iterated, so stopping early does not walk the rest of the tree.
+     * @param person the person to get descendants for
+     * @param generations the number of generations to walk, ALL_GENERATIONS for every one
+     * @return an iterator over the descendants and their generations, nearest generation first
+     */
+    public Iterator<Relative> descendantIterator(Person person, int generations){
+        return new LineageIterator(person, false, generations);
+    }
+
+    /**
+     * Lazily streams the ancestors of a person, see ancestorIterator
+     * @param person the person to get ancestry for
+     * @param generations the number of generations to walk, ALL_GENERATIONS for every one
+     * @return a sequential stream of the ancestors and their generations, nearest generation first
+     */
+    public Stream<Relative> streamAncestors(Person person, int generations){
+        return stream(ancestorIterator(person, generations));
+    }
+
+    /**
+     * Lazily streams the descendants of a person, see descendantIterator
+     * @param person the person to get descendants for
+     * @param generations the number of generations to walk, ALL_GENERATIONS for every one
+     * @return a sequential stream of the descendants and their generations, nearest generation first
+     */
+    public Stream<Relative> streamDescendants(Person person, int generations){
+        return stream(descendantIterator(person, generations));
+    }
+
+    /**
+     * Returns whether one member is an ancestor of another, through fathers and mothers who are members, in constant
+     * time for almost every pair. The first query after the family or a member's parents or children change indexes the
+     * whole family, which takes about as long as building its graph. Changes made directly to the list returned by
+     * Person.getChildren are not seen. Not thread safe.
+     * @param ancestor the possible ancestor
+     * @param person the person
+     * @return 'true' if the ancestor is an ancestor of the person. 'false' otherwise, or if either is not a member.
+     */
+    public boolean isAncestor(Person ancestor, Person person){
+        ReachabilityIndex index = getReachabilityIndex();
+        FamilyGraph current = index.getGraph();
+        int ancestorId = current.getId(ancestor);
+        int personId = current.getId(person);
+
+        return ancestorId != FamilyGraph.NONE && personId != FamilyGraph.NONE && index.isAncestor(ancestorId, personId);
+    }
+
+    /**
+     * Returns whether one member is a descendant of another, see isAncestor
+     * @param descendant the possible descendant
+     * @param person the person
+     * @return 'true' if the descendant is a descendant of the person. 'false' otherwise, or if either is not a member.
+     */
+    public boolean isDescendant(Person descendant, Person person){
+        return isAncestor(person, descendant);
+    }
 
-        return new LinkedList<Person>(descendants);
+    /**
+     * Returns how a member is related to another by blood, through their nearest common ancestors up to
+     * Relationship.MAX_GENERATIONS back. Close relatives are found in microseconds whatever the size of the family; the
+     * first query after the family or a member's parents or children change builds its graph. Not thread safe.
+     * @param person the person the relationship is from
+     * @param relative the relative
+     * @return the relationship, null if either is not a member or they share no ancestor close enough
+     */
+    public Relationship getRelationship(Person person, Person relative){
+        RelationshipCalculator calculator = getRelationshipCalculator();
+        FamilyGraph current = calculator.getGraph();
+        int personId = current.getId(person);
+        int relativeId = current.getId(relative);
+
+        if(personId == FamilyGraph.NONE || relativeId == FamilyGraph.NONE){
+            return null;
+        }
+        return calculator.getRelationship(personId, relativeId);
+    }
+
+    /**
+     * Returns how every blood relative of a member is related to them, see getRelationship. This is far faster than
+     * asking for each relative in turn.
+     * @param person the person the relationships are from
+     * @return the relationships by relative, nearest first and not including the person, empty if they are not a
+     * member
+     */
+    public Map<Person, Relationship> getRelationships(Person person){
+        RelationshipCalculator calculator = getRelationshipCalculator();
+        int personId = calculator.getGraph().getId(person);
+
+        if(personId == FamilyGraph.NONE){
+            return new LinkedHashMap<>();
+        }
+        return calculator.getRelationships(personId);
+    }
+
+    /**
+     * Returns the shortest chain of fathers, mothers, children and spouses linking one member to another, such as a
+     * person, their mother, her brother and his wife. Links recorded on only one of the two people are followed
+     * either way. The first query after the family or a member's relatives change builds its graph. Not thread safe.
+     * @param from the member the chain starts at
+     * @param to the member the chain ends at
+     * @return the members along the chain, from and to included, null if either is not a member or nothing links them
+     */
+    public List<Person> getRelationshipPath(Person from, Person to){
+        PathFinder finder = getPathFinder();
+        FamilyGraph current = finder.getGraph();
+        int fromId = current.getId(from);
+        int toId = current.getId(to);
+
+        if(fromId == FamilyGraph.NONE || toId == FamilyGraph.NONE){
+            return null;
+        }
+        int[] path = finder.getPath(fromId, toId);
+        return (path == null) ? null : current.getPersons(path);
+    }
+
+    /**
+     * Finds members by name, such as "john smith", "jon smyth", "jo sm" or "Smith". Each word of the query must match
+     * one of a member's first, middle or last names, ignoring case and accents: exactly, as the start of the name, by
+     * sound, or, for words of four letters or more, within one or two typing mistakes. Members are ranked by how
+     * closely each word matches and then by name. The first search indexes the whole family; after that the index is
+     * kept up to date as members are added, removed or renamed through their setters. Not thread safe.
+     * @param query the words to find
+     * @param limit the most members to return
+     * @return the best matching members, best first, empty if there are none
+     */
+    public List<Person> findByName(String query, int limit){
+        if(this.names == null){
+            this.names = new NameIndex(getMemberView());
+        }
+        return this.names.search(query, limit);
+    }
+
+    /**
+     * Builds a compact graph of the relationships between the members, which traverses large families far faster and
+     * in far less memory than following the relatives of each person. The graph is a copy, so it does not see later
+     * changes to the family.
+     * @return the graph of the family
+     */
+    public FamilyGraph toGraph(){
+        return new FamilyGraph(this);
+    }
+
+    // Package Methods =================================================================================================
+
+    /**
+     * Drops the graph and the indexes built on it, called by members when their relationships change
+     */
+    void relationshipsChanged(){
+        // Only written when set, so members changed from several threads at once do not contend for the field
+        if(this.graph != null){
+            this.graph = null;
+        }
+    }
+
+    /**
+     * Queues a renamed member to be indexed again before the next search by name, called by members when their names
+     * change
+     * @param person the renamed member
+     */
+    void namesChanged(Person person){
+        if(this.names != null){
+            this.names.renamed(person);
+        }
     }
 
     // Private Methods =================================================================================================
 
     /**
-     * Helper method for getAncestors which recursively finds all the ancestors for the person.
+     * Helper method for getAncestors which finds all the ancestors for the person.
      * @param person Person to get parents for
      * @param ancestors Set of ancestors to add too.
      */
     public void getAncestorsHelper(Person person, Set<Person> ancestors ){
-        Person father = person.getFather();
-        Person mother = person.getMother();
-
-        // Gets the ancestors for the father
-        if(father != null){
-            if(!ancestors.contains(father)){
-                ancestors.add(father);
-                getAncestorsHelper(father, ancestors);
-            }
-        }
-
-        // Gets the ancestors for the mother
-        if(mother != null){
-            if(!ancestors.contains(mother)){
-                ancestors.add(mother);
-                getAncestorsHelper(mother, ancestors);
-            }
+        // Walked iteratively so long lines of ancestors cannot overflow the stack
+        for(Iterator<Relative> iterator = ancestorIterator(person, ALL_GENERATIONS); iterator.hasNext();){
+            ancestors.add(iterator.next().getPerson());
         }
     }
 
     /**
-     * Helper method for the getDescendants. Recursively finds all descendants for the person.
+     * Helper method for the getDescendants. Finds all descendants for the person.
      * @param person the person to get the descendants for
      * @param descendants the set of descendants
      */
     public void getDescendantsHelper(Person person, Set<Person> descendants){
-        List<Person> children = person.getChildren();
+        // Walked iteratively so long lines of descendants cannot overflow the stack
+        for(Iterator<Relative> iterator = descendantIterator(person, ALL_GENERATIONS); iterator.hasNext();){
+            descendants.add(iterator.next().getPerson());
+        }
+    }
 
-        for(Person child : children){
-            if(!descendants.contains(child)){
-                descendants.add(child);
-                getDescendantsHelper(child, descendants);
+    /**
+     * @param iterator an iterator over relatives
+     * @return the persons of the remaining relatives, in order
+     */
+    private static List<Person> collect(Iterator<Relative> iterator){
+        List<Person> persons = new ArrayList<>();
+        while(iterator.hasNext()){
+            persons.add(iterator.next().getPerson());
+        }
+        return persons;
+    }
+
+    /**
+     * @param iterator an iterator over relatives
+     * @return a sequential stream of the remaining relatives, in order
+     */
+    private static Stream<Relative> stream(Iterator<Relative> iterator){
+        int characteristics = Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL;
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, characteristics), false);
+    }
+
+    /**
+     * @return the reachability index of the family, rebuilt if the family has changed since it was built
+     */
+    private ReachabilityIndex getReachabilityIndex(){
+        FamilyGraph current = getCurrentGraph();
+
+        if(this.reachability == null){
+            this.reachability = new ReachabilityIndex(current);
+        }
+        return this.reachability;
+    }
+
+    /**
+     * @return the relationship calculator of the family, rebuilt if the family has changed since it was built
+     */
+    private RelationshipCalculator getRelationshipCalculator(){
+        FamilyGraph current = getCurrentGraph();
+
+        if(this.relationships == null){
+            this.relationships = new RelationshipCalculator(current);
+        }
+        return this.relationships;
+    }
+
+    /**
+     * @return the path finder of the family, rebuilt if the family has changed since it was built
+     */
+    private PathFinder getPathFinder(){
+        FamilyGraph current = getCurrentGraph();
+
+        if(this.paths == null){
+            this.paths = new PathFinder(current);
+        }
+        return this.paths;
+    }
+
+    /**
+     * Returns the graph the indexes of the family are built from, dropping the indexes when the graph is rebuilt
+     * @return the graph of the family, rebuilt if the family has changed since it was built
+     */
+    private FamilyGraph getCurrentGraph(){
+        if(this.graph == null){
+            this.graph = toGraph();
+            this.reachability = null;
+            this.relationships = null;
+            this.paths = null;
+        }
+        return this.graph;
+    }
+
+    /**
+     * @param string a string
+     * @param start the index of the first hex digit
+     * @param end the index after the last hex digit, at most 12 digits after start
+     * @return the value of the hex digits, -1 if any of them is not a hex digit
+     */
+    private static long parseHex(String string, int start, int end){
+        long value = 0;
+
+        for(int i = start; i < end; i++){
+            char c = string.charAt(i);
+            int digit;
+            if(c >= '0' && c <= '9'){
+                digit = c - '0';
+            }
+            else if(c >= 'a' && c <= 'f'){
+                digit = c - 'a' + 10;
             }
+            else if(c >= 'A' && c <= 'F'){
+                digit = c - 'A' + 10;
+            }
+            else{
+                return -1;
+            }
+            value = (value << 4) | digit;
         }
+        return value;
     }
 
     // Private Fields ==================================================================================================
 
     private String familyName;
 
-    private HashMap<String, Person> familyMembers = new HashMap<>();
+    private final PersonIndex familyMembers = new PersonIndex();
+
+    /**
+     * The graph the indexes below are built from, null until it is first needed and whenever the members or their
+     * relationships change
+     */
+    private FamilyGraph graph;
+
+    /**
+     * Answers isAncestor, null until it is first needed and whenever the graph is rebuilt
+     */
+    private ReachabilityIndex reachability;
+
+    /**
+     * Answers getRelationship, null until it is first needed and whenever the graph is rebuilt
+     */
+    private RelationshipCalculator relationships;
+
+    /**
+     * Answers getRelationshipPath, null until it is first needed and whenever the graph is rebuilt
+     */
+    private PathFinder paths;
+
+    /**
+     * Answers findByName, null until it is first needed and then kept up to date as members are added and removed
+     */
+    private NameIndex names;
 }
@@ -0,0 +1,563 @@
+package com.fourtwoeight.ancestre.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A compact copy of the relationships of a family, for traversing large families. Each member is given a dense int
+ * id, in the order of the family's member view, and their father, mother, current spouse, spouses and children are
+ * kept as ids in primitive arrays, with the children and spouses of every member packed one member after another. The
+ * ids map back to the members themselves, which still hold their details.
+ *
+ * The graph is built from the family as it is when the graph is made, relatives outside of the family are left out.
+ * Later changes to the family are not seen, so a new graph must be made once the family changes.
+ */
+public class FamilyGraph {
+
+    // Public Static Fields ============================================================================================
+
+    /**
+     * The id of a relative who is not a member of the family
+     */
+    public static final int NONE = -1;
+
+    // Private Static Fields ===========================================================================================
+
+    /**
+     * Generations with fewer members than this are walked on the calling thread, and larger generations are split
+     * into parts of about this many members for the pool. Below it the cost of forking outweighs the work.
+     */
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    // Public Methods ==================================================================================================
+
+    /**
+     * Constructor, builds the graph of the family
+     * @param family the family
+     */
+    public FamilyGraph(Family family){
+        this.persons = family.getMemberView().toArray(new Person[0]);
+        int size = this.persons.length;
+
+        // Members are found by identity, in a table at most half full
+        this.slots = new int[Math.max(2, Integer.highestOneBit(Math.max(1, size) * 2 - 1) << 1)];
+        Arrays.fill(this.slots, NONE);
+        for(int id = 0; id < size; id++){
+            int slot = slot(this.persons[id]);
+            while(this.slots[slot] != NONE){
+                slot = (slot + 1) & (this.slots.length - 1);
+            }
+            this.slots[slot] = id;
+        }
+
+        this.fathers = new int[size];
+        this.mothers = new int[size];
+        this.currentSpouses = new int[size];
+        this.childOffsets = new int[size + 1];
+        this.spouseOffsets = new int[size + 1];
+
+        // The relatives of every member are counted before they are packed
+        int childCount = 0;
+        int spouseCount = 0;
+        for(int id = 0; id < size; id++){
+            Person person = this.persons[id];
+            this.fathers[id] = getId(person.getFather());
+            this.mothers[id] = getId(person.getMother());
+            this.currentSpouses[id] = getId(person.getCurrentSpouse());
+            this.childOffsets[id] = childCount;
+            this.spouseOffsets[id] = spouseCount;
+            childCount += countMembers(person.getChildren());
+            spouseCount += countMembers(person.getSpouses());
+        }
+        this.childOffsets[size] = childCount;
+        this.spouseOffsets[size] = spouseCount;
+
+        this.children = new int[childCount];
+        this.spouses = new int[spouseCount];
+        for(int id = 0; id < size; id++){
+            packMembers(this.persons[id].getChildren(), this.children, this.childOffsets[id]);
+            packMembers(this.persons[id].getSpouses(), this.spouses, this.spouseOffsets[id]);
+        }
+
+        // The children each member lists may disagree with the fathers and mothers of the members, ancestry goes by
+        // the fathers and mothers
+        this.offspringOffsets = new int[size + 1];
+        for(int id = 0; id < size; id++){
+            if(this.fathers[id] != NONE){
+                this.offspringOffsets[this.fathers[id] + 1]++;
+            }
+            if(this.mothers[id] != NONE && this.mothers[id] != this.fathers[id]){
+                this.offspringOffsets[this.mothers[id] + 1]++;
+            }
+        }
+        for(int id = 0; id < size; id++){
+            this.offspringOffsets[id + 1] += this.offspringOffsets[id];
+        }
+        this.offspring = new int[this.offspringOffsets[size]];
+        int[] filled = Arrays.copyOf(this.offspringOffsets, size);
+        for(int id = 0; id < size; id++){
+            if(this.fathers[id] != NONE){
+                this.offspring[filled[this.fathers[id]]++] = id;
+            }
+            if(this.mothers[id] != NONE && this.mothers[id] != this.fathers[id]){
+                this.offspring[filled[this.mothers[id]]++] = id;
+            }
+        }
+    }
+
+    /**
+     * @return the number of members in the graph
+     */
+    public int size(){
+        return this.persons.length;
+    }
+
+    /**
+     * @param person a person
+     * @return the id of the person, NONE if they are not a member of the family
+     */
+    public int getId(Person person){
+        if(person == null){
+            return NONE;
+        }
+
+        for(int slot = slot(person); this.slots[slot] != NONE; slot = (slot + 1) & (this.slots.length - 1)){
+            if(this.persons[this.slots[slot]] == person){
+                return this.slots[slot];
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * @param id the id of a member
+     * @return the member
+     */
+    public Person getPerson(int id){
+        return this.persons[id];
+    }
+
+    /**
+     * @param ids the ids of members
+     * @return the members, in the same order
+     */
+    public List<Person> getPersons(int[] ids){
+        List<Person> persons = new ArrayList<>(ids.length);
+        for(int id : ids){
+            persons.add(this.persons[id]);
+        }
+        return persons;
+    }
+
+    /**
+     * @param id the id of a member
+     * @return the id of the member's father, NONE if they have none in the family
+     */
+    public int getFather(int id){
+        return this.fathers[id];
+    }
+
+    /**
+     * @param id the id of a member
+     * @return the id of the member's mother, NONE if they have none in the family
+     */
+    public int getMother(int id){
+        return this.mothers[id];
+    }
+
+    /**
+     * @param id the id of a member
+     * @return the id of the member's current spouse, NONE if they have none in the family
+     */
+    public int getCurrentSpouse(int id){
+        return this.currentSpouses[id];
+    }
+
+    /**
+     * @param id the id of a member
+     * @return the number of the member's children in the family
+     */
+    public int getChildCount(int id){
+        return this.childOffsets[id + 1] - this.childOffsets[id];
+    }
+
+    /**
+     * @param id the id of a member
+     * @param index the index of the child, from 0 to getChildCount
+     * @return the id of the child
+     */
+    public int getChild(int id, int index){
+        return this.children[this.childOffsets[id] + index];
+    }
+
+    /**
+     * @param id the id of a member
+     * @return the ids of the member's children in the family
+     */
+    public int[] getChildren(int id){
+        return Arrays.copyOfRange(this.children, this.childOffsets[id], this.childOffsets[id + 1]);
+    }
+
+    /**
+     * @param id the id of a member
+     * @return the number of the member's spouses in the family
+     */
+    public int getSpouseCount(int id){
+        return this.spouseOffsets[id + 1] - this.spouseOffsets[id];
+    }
+
+    /**
+     * @param id the id of a member
+     * @param index the index of the spouse, from 0 to getSpouseCount
+     * @return the id of the spouse
+     */
+    public int getSpouse(int id, int index){
+        return this.spouses[this.spouseOffsets[id] + index];
+    }
+
+    /**
+     * @param id the id of a member
+     * @return the ids of the member's spouses in the family
+     */
+    public int[] getSpouses(int id){
+        return Arrays.copyOfRange(this.spouses, this.spouseOffsets[id], this.spouseOffsets[id + 1]);
+    }
+
+    /**
+     * Finds every ancestor of a member, generation by generation
+     * @param id the id of the member
+     * @return the ids of the member's ancestors, not including the member
+     */
+    public int[] getAncestors(int id){
+        return closure(id, true);
+    }
+
+    /**
+     * Finds every descendant of a member, generation by generation
+     * @param id the id of the member
+     * @return the ids of the member's descendants, not including the member
+     */
+    public int[] getDescendants(int id){
+        return closure(id, false);
+    }
+
+    /**
+     * Finds every ancestor of a member, spreading each large generation over the common fork join pool. Only members
+     * with very large generations of ancestors can gain from it, and on a single processor it is slower than
+     * getAncestors.
+     * @param id the id of the member
+     * @return the ids of the member's ancestors, not including the member, generation by generation but in no
+     * particular order within a generation
+     */
+    public int[] getAncestorsInParallel(int id){
+        return parallelClosure(id, true, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Finds every descendant of a member, spreading each large generation over the common fork join pool. Only members
+     * with very large generations of descendants can gain from it, and on a single processor it is slower than
+     * getDescendants.
+     * @param id the id of the member
+     * @return the ids of the member's descendants, not including the member, generation by generation but in no
+     * particular order within a generation
+     */
+    public int[] getDescendantsInParallel(int id){
+        return parallelClosure(id, false, ForkJoinPool.commonPool());
+    }
+
+    // Package Methods =================================================================================================
+
+    /**
+     * @return the offspring of member id, the members whose father or mother they are, are
+     * getOffspring()[getOffspringOffsets()[id]] up to getOffspring()[getOffspringOffsets()[id + 1]]. Not to be changed.
+     */
+    int[] getOffspringOffsets(){
+        return this.offspringOffsets;
+    }
+
+    /**
+     * @return the offspring of every member, see getOffspringOffsets. Not to be changed.
+     */
+    int[] getOffspring(){
+        return this.offspring;
+    }
+
+    // Private Methods =================================================================================================
+
+    /**
+     * @param person a person
+     * @return the slot of the table to start looking for the person at
+     */
+    private int slot(Person person){
+        // Identity hash codes are spread over the table by a multiplicative hash
+        int hash = System.identityHashCode(person) * 0x9E3779B9;
+        return hash >>> (32 - Integer.numberOfTrailingZeros(this.slots.length));
+    }
+
+    /**
+     * Walks the parents or children of a member breadth first
+     * @param id the id of the member
+     * @param ancestors 'true' to follow parents, 'false' to follow children
+     * @return the ids reached, not including the member
+     */
+    private int[] closure(int id, boolean ancestors){
+        long[] visited = new long[(this.persons.length + 63) >>> 6];
+        int[] queue = new int[16];
+        int head = 0;
+        int tail = 0;
+
+        visited[id >>> 6] |= 1L << id;
+        queue[tail++] = id;
+
+        while(head < tail){
+            int current = queue[head++];
+
+            if(ancestors){
+                int father = this.fathers[current];
+                int mother = this.mothers[current];
+                if(father != NONE && (visited[father >>> 6] & (1L << father)) == 0){
+                    visited[father >>> 6] |= 1L << father;
+                    queue = grow(queue, tail);
+                    queue[tail++] = father;
+                }
+                if(mother != NONE && (visited[mother >>> 6] & (1L << mother)) == 0){
+                    visited[mother >>> 6] |= 1L << mother;
+                    queue = grow(queue, tail);
+                    queue[tail++] = mother;
+                }
+            }
+            else{
+                for(int i = this.childOffsets[current]; i < this.childOffsets[current + 1]; i++){
+                    int child = this.children[i];
+                    if((visited[child >>> 6] & (1L << child)) == 0){
+                        visited[child >>> 6] |= 1L << child;
+                        queue = grow(queue, tail);
+                        queue[tail++] = child;
+                    }
+                }
+            }
+        }
+
+        // The member is at the head of the queue
+        return Arrays.copyOfRange(queue, 1, tail);
+    }
+
+    /**
+     * Walks the parents or children of a member a generation at a time, expanding each generation in parallel once it
+     * reaches PARALLEL_THRESHOLD members. A relative reached from several members is claimed by whichever reaches them
+     * first.
+     * @param id the id of the member
+     * @param ancestors 'true' to follow parents, 'false' to follow children
+     * @param pool the pool to expand large generations in
+     * @return the ids reached, not including the member
+     */
+    private int[] parallelClosure(int id, boolean ancestors, ForkJoinPool pool){
+        AtomicLongArray visited = new AtomicLongArray((this.persons.length + 63) >>> 6);
+        claim(visited, id);
+
+        int[] generation = {id};
+        int[] reached = new int[16];
+        int count = 0;
+
+        while(generation.length > 0){
+            generation = (generation.length < PARALLEL_THRESHOLD)
+                    ? expand(generation, 0, generation.length, ancestors, visited)
+                    : pool.invoke(new ExpandTask(generation, 0, generation.length, ancestors, visited));
+
+            if(count + generation.length > reached.length){
+                reached = Arrays.copyOf(reached, Math.max(2 * reached.length, count + generation.length));
+            }
+            System.arraycopy(generation, 0, reached, count, generation.length);
+            count += generation.length;
+        }
+        return Arrays.copyOf(reached, count);
+    }
+
+    /**
+     * Finds the parents or children of part of a generation who have not been reached before
+     * @param generation the ids of the generation
+     * @param from the index of the first member of the part
+     * @param to the index after the last member of the part
+     * @param ancestors 'true' to follow parents, 'false' to follow children
+     * @param visited the bits of the members reached so far, shared between threads
+     * @return the ids of the relatives claimed
+     */
+    private int[] expand(int[] generation, int from, int to, boolean ancestors, AtomicLongArray visited){
+        int[] next = new int[16];
+        int count = 0;
+
+        for(int i = from; i < to; i++){
+            int current = generation[i];
+
+            if(ancestors){
+                int father = this.fathers[current];
+                int mother = this.mothers[current];
+                if(father != NONE && claim(visited, father)){
+                    next = grow(next, count);
+                    next[count++] = father;
+                }
+                if(mother != NONE && claim(visited, mother)){
+                    next = grow(next, count);
+                    next[count++] = mother;
+                }
+            }
+            else{
+                for(int j = this.childOffsets[current]; j < this.childOffsets[current + 1]; j++){
+                    int child = this.children[j];
+                    if(claim(visited, child)){
+                        next = grow(next, count);
+                        next[count++] = child;
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(next, count);
+    }
+
+    /**
+     * Sets the bit of a member unless another thread has set it first
+     * @param visited the bits of the members reached so far
+     * @param id the id of the member
+     * @return 'true' if the bit was set by this call. 'false' if it was already set.
+     */
+    private static boolean claim(AtomicLongArray visited, int id){
+        int word = id >>> 6;
+        long bit = 1L << id;
+
+        for(long bits = visited.get(word); (bits & bit) == 0; bits = visited.get(word)){
+            if(visited.compareAndSet(word, bits, bits | bit)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param queue a queue
+     * @param tail the number of ids in the queue
+     * @return the queue, or a larger copy of it if it is full
+     */
+    private static int[] grow(int[] queue, int tail){
+        return (tail < queue.length) ? queue : Arrays.copyOf(queue, 2 * queue.length);
+    }
+
+    /**
+     * @param relatives a list of relatives
+     * @return the number of relatives who are members
+     */
+    private int countMembers(List<Person> relatives){
+        int count = 0;
+        for(Person relative : relatives){
+            if(getId(relative) != NONE){
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes the ids of the relatives who are members into an array
+     * @param relatives a list of relatives
+     * @param ids the array to write to
+     * @param offset the position to write the first id at
+     */
+    private void packMembers(List<Person> relatives, int[] ids, int offset){
+        for(Person relative : relatives){
+            int id = getId(relative);
+            if(id != NONE){
+                ids[offset++] = id;
+            }
+        }
+    }
+
+    // Private Classes =================================================================================================
+
+    /**
+     * Expands part of a generation, splitting it in half until the parts are below PARALLEL_THRESHOLD
+     */
+    private class ExpandTask extends RecursiveTask<int[]> {
+
+        /**
+         * Constructor
+         * @param generation the ids of the generation
+         * @param from the index of the first member of the part
+         * @param to the index after the last member of the part
+         * @param ancestors 'true' to follow parents, 'false' to follow children
+         * @param visited the bits of the members reached so far, shared between threads
+         */
+        ExpandTask(int[] generation, int from, int to, boolean ancestors, AtomicLongArray visited){
+            this.generation = generation;
+            this.from = from;
+            this.to = to;
+            this.ancestors = ancestors;
+            this.visited = visited;
+        }
+
+        /**
+         * @return the ids of the relatives claimed by this part, the first half's before the second half's
+         */
+        @Override
+        protected int[] compute(){
+            if(this.to - this.from < PARALLEL_THRESHOLD){
+                return expand(this.generation, this.from, this.to, this.ancestors, this.visited);
+            }
+
+            int middle = (this.from + this.to) >>> 1;
+            ExpandTask first = new ExpandTask(this.generation, this.from, middle, this.ancestors, this.visited);
+            first.fork();
+            int[] second = new ExpandTask(this.generation, middle, this.to, this.ancestors, this.visited).compute();
+            int[] firstIds = first.join();
+
+            int[] ids = Arrays.copyOf(firstIds, firstIds.length + second.length);
+            System.arraycopy(second, 0, ids, firstIds.length, second.length);
+            return ids;
+        }
+
+        private final int[] generation;
+
+        private final int from;
+
+        private final int to;
+
+        private final boolean ancestors;
+
+        private final AtomicLongArray visited;
+    }
+
+    // Private Fields ==================================================================================================
+
+    private final Person[] persons;
+
+    /**
+     * An open addressing table of member ids by the identity of the member, NONE for an empty slot
+     */
+    private final int[] slots;
+
+    private final int[] fathers;
+
+    private final int[] mothers;
+
+    private final int[] currentSpouses;
+
+    /**
+     * The children of member id are children[childOffsets[id]] up to children[childOffsets[id + 1]]
+     */
+    private final int[] childOffsets;
+
+    private final int[] children;
+
+    /**
+     * The spouses of member id are spouses[spouseOffsets[id]] up to spouses[spouseOffsets[id + 1]]
+     */
+    private final int[] spouseOffsets;
+
+    private final int[] spouses;
+
+    private final int[] offspringOffsets;
+
+    private final int[] offspring;
+}
@@ -0,0 +1,97 @@
+package com.fourtwoeight.ancestre.model;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Walks the ancestors or descendants of a person generation by generation, finding each generation only as the one
+ * before it is iterated. A person reached along more than one line is returned once, at the nearest generation. The
+ * walk follows relatives as they are when it reaches them, so it should not be used while they are being changed.
+ */
+class LineageIterator implements Iterator<Relative> {
+
+    // Public Methods ==================================================================================================
+
+    /**
+     * @return 'true' if there is another relative. 'false' otherwise.
+     */
+    @Override
+    public boolean hasNext(){
+        return !this.queue.isEmpty();
+    }
+
+    /**
+     * @return the next relative, no nearer to the person than the one before it
+     */
+    @Override
+    public Relative next(){
+        Relative relative = this.queue.poll();
+        if(relative == null){
+            throw new NoSuchElementException();
+        }
+
+        // The next generation is only queued once this one is reached
+        if(relative.getGeneration() < this.generations){
+            Person person = relative.getPerson();
+            if(this.ancestors){
+                visit(person.getFather(), relative.getGeneration() + 1);
+                visit(person.getMother(), relative.getGeneration() + 1);
+            }
+            else{
+                for(Person child : person.getChildren()){
+                    visit(child, relative.getGeneration() + 1);
+                }
+            }
+        }
+        return relative;
+    }
+
+    // Package Methods =================================================================================================
+
+    /**
+     * Constructor
+     * @param person the person to start from, who is not returned
+     * @param ancestors 'true' to follow parents, 'false' to follow children
+     * @param generations the number of generations to walk, at least 0
+     */
+    LineageIterator(Person person, boolean ancestors, int generations){
+        if(generations < 0){
+            throw new IllegalArgumentException("Generations must not be negative: " + generations);
+        }
+        this.ancestors = ancestors;
+        this.generations = generations;
+
+        // The person is taken straight off the queue, queuing the first generation, and is marked visited so a cycle
+        // back to them does not return them
+        this.visited.add(person);
+        this.queue.add(new Relative(person, 0));
+        next();
+    }
+
+    // Private Methods =================================================================================================
+
+    /**
+     * Queues a relative the first time they are reached
+     * @param person the relative, may be null
+     * @param generation the generation they were reached at
+     */
+    private void visit(Person person, int generation){
+        if(person != null && this.visited.add(person)){
+            this.queue.add(new Relative(person, generation));
+        }
+    }
+
+    // Private Fields ==================================================================================================
+
+    private final boolean ancestors;
+
+    private final int generations;
+
+    private final ArrayDeque<Relative> queue = new ArrayDeque<>();
+
+    private final Set<Person> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+}
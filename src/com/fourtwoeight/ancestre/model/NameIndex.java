@@ -0,0 +1,629 @@
+package com.fourtwoeight.ancestre.model;
+
+import java.text.Normalizer;
+import java.util.*;
+
+/**
+ * Finds members of a family by name. The first, middle and last names of every member are split into words, folded to
+ * lower case without accents, and each distinct name is kept once in a sorted map with the members who have it, the
+ * names also being grouped by their Soundex and Metaphone codes.
+ *
+ * Each word of a query matches a member's name exactly, as its start, by sound, or within a small edit distance, in
+ * that order of preference, and a member matches when every word of the query does. Names within an edit distance are
+ * found by walking the sorted names as if they were a trie, sharing the distances of each prefix between the names
+ * which start with it and skipping every name under a prefix already too far away. Candidates are drawn from the
+ * query word matching the fewest members, best matching names first, until no member left could rank high enough.
+ *
+ * Members are added and removed one at a time as the family changes. Renamed members are queued as the family is told
+ * of them and indexed again at the next search, so a search never looks at members whose names have not changed. The
+ * index is not thread safe.
+ */
+class NameIndex {
+
+    // Private Static Fields ===========================================================================================
+
+    /**
+     * Query words this long match names an edit away, and words MIN_LENGTH_TWO_EDITS long two edits away
+     */
+    private static final int MIN_LENGTH_ONE_EDIT = 4;
+
+    private static final int MIN_LENGTH_TWO_EDITS = 7;
+
+    private static final int EXACT_COST = 0;
+
+    private static final int PREFIX_COST = 1;
+
+    private static final int PHONETIC_COST = 2;
+
+    /**
+     * The cost of a name an edit away from the query word, each further edit costing one more
+     */
+    private static final int EDIT_COST = 3;
+
+    /**
+     * The cost of a name the query word does not match
+     */
+    private static final int NO_MATCH = Integer.MAX_VALUE;
+
+    private static final Name[] NO_NAMES = new Name[0];
+
+    private static final int[] NO_COSTS = new int[0];
+
+    // Package Methods =================================================================================================
+
+    /**
+     * Constructor
+     * @param members the members to index
+     */
+    NameIndex(Collection<Person> members){
+        for(Person person : members){
+            add(person);
+        }
+    }
+
+    /**
+     * Indexes a member, if they are not already
+     * @param person the member
+     */
+    void add(Person person){
+        if(this.slots.containsKey(person)){
+            return;
+        }
+
+        int slot;
+        if(this.freeCount > 0){
+            slot = this.free[--this.freeCount];
+        }
+        else{
+            if(this.used == this.persons.length){
+                int capacity = Math.max(16, 2 * this.used);
+                this.persons = Arrays.copyOf(this.persons, capacity);
+                this.memberNames = Arrays.copyOf(this.memberNames, capacity);
+                this.marks = Arrays.copyOf(this.marks, capacity);
+            }
+            slot = this.used++;
+        }
+
+        this.persons[slot] = person;
+        this.slots.put(person, slot);
+        index(slot);
+    }
+
+    /**
+     * Stops indexing a member
+     * @param person the member
+     */
+    void remove(Person person){
+        Integer slot = this.slots.remove(person);
+        if(slot == null){
+            return;
+        }
+
+        unindex(slot);
+        this.persons[slot] = null;
+        if(this.freeCount == this.free.length){
+            this.free = Arrays.copyOf(this.free, Math.max(16, 2 * this.freeCount));
+        }
+        this.free[this.freeCount++] = slot;
+    }
+
+    /**
+     * Queues a member to be indexed again under their new names at the next search
+     * @param person the renamed member
+     */
+    void renamed(Person person){
+        if(this.slots.containsKey(person)){
+            this.renamed.add(person);
+        }
+    }
+
+    /**
+     * Finds the members whose names best match a query
+     * @param query one or more words, each of which must match one of a member's names
+     * @param limit the most members to return
+     * @return the best matching members, best first, ties in order of their names
+     */
+    List<Person> search(String query, int limit){
+        refresh();
+
+        List<String> words = words(query);
+        if(words.isEmpty() || limit <= 0){
+            return new ArrayList<>();
+        }
+
+        // The names each query word matches, and the word matching the fewest members to draw candidates from
+        int mark = nextMark();
+        List<Name> drawn = null;
+        int narrowest = 0;
+        long narrowestCount = Long.MAX_VALUE;
+        for(int w = 0; w < words.size(); w++){
+            List<Name> matched = match(words.get(w), w, words.size(), mark);
+            if(matched.isEmpty()){
+                return new ArrayList<>();
+            }
+
+            long count = 0;
+            for(Name name : matched){
+                count += name.count;
+            }
+            if(count < narrowestCount){
+                drawn = matched;
+                narrowest = w;
+                narrowestCount = count;
+            }
+        }
+        int drawnWord = narrowest;
+        drawn.sort(Comparator.comparingInt(name -> name.costs[drawnWord]));
+
+        // The best are kept in a heap with the worst on top. A member first reached through a name costs at least as
+        // much as the name, so once the worst kept is cheaper than the next name no member left can displace it.
+        Comparator<Candidate> order = Comparator.<Candidate>comparingInt(candidate -> candidate.cost)
+                .thenComparing(candidate -> this.memberNames[candidate.slot], NameIndex::compareNames);
+        PriorityQueue<Candidate> best = new PriorityQueue<>(limit + 1, order.reversed());
+        for(Name name : drawn){
+            if(best.size() == limit && best.peek().cost < name.costs[narrowest]){
+                break;
+            }
+
+            for(int i = 0; i < name.count; i++){
+                int slot = name.slots[i];
+                if(this.marks[slot] == mark){
+                    continue;
+                }
+                this.marks[slot] = mark;
+
+                int cost = cost(this.memberNames[slot], words.size(), mark);
+                if(cost == NO_MATCH){
+                    continue;
+                }
+                if(best.size() < limit){
+                    best.add(new Candidate(slot, cost));
+                }
+                else if(cost <= best.peek().cost){
+                    Candidate candidate = new Candidate(slot, cost);
+                    if(order.compare(candidate, best.peek()) < 0){
+                        best.poll();
+                        best.add(candidate);
+                    }
+                }
+            }
+        }
+
+        Candidate[] ranked = best.toArray(new Candidate[best.size()]);
+        Arrays.sort(ranked, order);
+        List<Person> persons = new ArrayList<>(ranked.length);
+        for(Candidate candidate : ranked){
+            persons.add(this.persons[candidate.slot]);
+        }
+        return persons;
+    }
+
+    // Private Methods =================================================================================================
+
+    /**
+     * Splits text into the words names are indexed by: runs of letters, folded to lower case without accents.
+     * Apostrophes are dropped, so O'Brien is the one word obrien.
+     * @param text the text, may be null
+     * @return the words, in order
+     */
+    private static List<String> words(String text){
+        List<String> words = new ArrayList<>();
+        if(text == null){
+            return words;
+        }
+
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder word = new StringBuilder();
+        for(int i = 0; i < decomposed.length(); i++){
+            char c = decomposed.charAt(i);
+            if(Character.isLetter(c)){
+                word.append(Character.toLowerCase(c));
+            }
+            else if(c != '\'' && c != '\u2019' && Character.getType(c) != Character.NON_SPACING_MARK
+                    && word.length() > 0){
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        if(word.length() > 0){
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    /**
+     * Indexes the members renamed since the last search under their new names
+     */
+    private void refresh(){
+        if(this.renamed.isEmpty()){
+            return;
+        }
+
+        for(Person person : this.renamed){
+            // Members removed since they were renamed have no slot
+            Integer slot = this.slots.get(person);
+            if(slot != null){
+                unindex(slot);
+                index(slot);
+            }
+        }
+        this.renamed.clear();
+    }
+
+    /**
+     * Adds the names of the member in a slot to the index
+     * @param slot the slot of the member
+     */
+    private void index(int slot){
+        Person person = this.persons[slot];
+        Set<String> distinct = new LinkedHashSet<>(words(person.getFirstName()));
+        if(person.getMiddleNames() != null){
+            for(String middleName : person.getMiddleNames()){
+                distinct.addAll(words(middleName));
+            }
+        }
+        distinct.addAll(words(person.getLastName()));
+
+        Name[] indexed = new Name[distinct.size()];
+        int count = 0;
+        for(String word : distinct){
+            Name name = this.names.get(word);
+            if(name == null){
+                name = new Name(word);
+                this.names.put(word, name);
+                group(this.soundex, Phonetics.soundex(word), name, true);
+                group(this.metaphone, Phonetics.metaphone(word), name, true);
+            }
+            name.add(slot);
+            indexed[count++] = name;
+        }
+        this.memberNames[slot] = indexed;
+    }
+
+    /**
+     * Removes the names of the member in a slot from the index
+     * @param slot the slot of the member
+     */
+    private void unindex(int slot){
+        for(Name name : this.memberNames[slot]){
+            name.remove(slot);
+            if(name.count == 0){
+                this.names.remove(name.text);
+                group(this.soundex, Phonetics.soundex(name.text), name, false);
+                group(this.metaphone, Phonetics.metaphone(name.text), name, false);
+            }
+        }
+        this.memberNames[slot] = NO_NAMES;
+    }
+
+    /**
+     * Adds a name to, or removes it from, the names with a phonetic code
+     * @param groups the names by phonetic code
+     * @param code the code of the name, not grouped if empty
+     * @param name the name
+     * @param add 'true' to add the name, 'false' to remove it
+     */
+    private static void group(Map<String, Set<Name>> groups, String code, Name name, boolean add){
+        if(code.isEmpty()){
+            return;
+        }
+        if(add){
+            groups.computeIfAbsent(code, key -> new HashSet<>(4)).add(name);
+        }
+        else{
+            Set<Name> group = groups.get(code);
+            if(group != null && group.remove(name) && group.isEmpty()){
+                groups.remove(code);
+            }
+        }
+    }
+
+    /**
+     * Finds the names a query word matches, recording the cost of each match on the name
+     * @param word the query word
+     * @param w the position of the word in the query
+     * @param words the number of words in the query
+     * @param mark the mark of the search
+     * @return the names the word matches, in no order
+     */
+    private List<Name> match(String word, int w, int words, int mark){
+        List<Name> matched = new ArrayList<>();
+
+        for(Name name : this.names.subMap(word, true, word + Character.MAX_VALUE, false).values()){
+            consider(matched, name, w, words, mark, (name.text.length() == word.length()) ? EXACT_COST : PREFIX_COST);
+        }
+        matchGroup(matched, this.soundex.get(Phonetics.soundex(word)), w, words, mark);
+        matchGroup(matched, this.metaphone.get(Phonetics.metaphone(word)), w, words, mark);
+
+        int maxDistance = (word.length() >= MIN_LENGTH_TWO_EDITS) ? 2 : (word.length() >= MIN_LENGTH_ONE_EDIT) ? 1 : 0;
+        if(maxDistance > 0){
+            matchWithinDistance(matched, word, maxDistance, w, words, mark);
+        }
+        return matched;
+    }
+
+    /**
+     * Records that a query word matches the names sounding like it
+     * @param matched the names the word matches so far
+     * @param group the names with the same phonetic code as the word, may be null
+     * @param w the position of the word in the query
+     * @param words the number of words in the query
+     * @param mark the mark of the search
+     */
+    private static void matchGroup(List<Name> matched, Set<Name> group, int w, int words, int mark){
+        if(group != null){
+            for(Name name : group){
+                consider(matched, name, w, words, mark, PHONETIC_COST);
+            }
+        }
+    }
+
+    /**
+     * Finds the names within an edit distance of a query word, counting a swap of neighbouring letters as one edit
+     * @param matched the names the word matches so far
+     * @param word the query word
+     * @param maxDistance the most edits allowed
+     * @param w the position of the word in the query
+     * @param words the number of words in the query
+     * @param mark the mark of the search
+     */
+    private void matchWithinDistance(List<Name> matched, String word, int maxDistance, int w, int words, int mark){
+        int length = word.length();
+
+        // rows[d][j] is the distance between the first d letters of the current name and the first j of the word
+        int[][] rows = new int[length + maxDistance + 2][length + 1];
+        for(int j = 0; j <= length; j++){
+            rows[0][j] = j;
+        }
+
+        String previous = "";
+        Map.Entry<String, Name> entry = this.names.firstEntry();
+        while(entry != null){
+            String text = entry.getKey();
+
+            // Rows for the prefix shared with the previous name are still valid
+            int shared = 0;
+            int limit = Math.min(previous.length(), text.length());
+            while(shared < limit && previous.charAt(shared) == text.charAt(shared)){
+                shared++;
+            }
+
+            int depth = shared;
+            boolean tooFar = false;
+            while(depth < text.length() && !tooFar){
+                depth++;
+                int[] row = rows[depth];
+                int[] above = rows[depth - 1];
+                char c = text.charAt(depth - 1);
+                row[0] = depth;
+                int smallest = depth;
+                for(int j = 1; j <= length; j++){
+                    int distance = Math.min(Math.min(row[j - 1], above[j]) + 1,
+                            above[j - 1] + ((c == word.charAt(j - 1)) ? 0 : 1));
+                    if(depth > 1 && j > 1 && c == word.charAt(j - 2) && text.charAt(depth - 2) == word.charAt(j - 1)){
+                        distance = Math.min(distance, rows[depth - 2][j - 2] + 1);
+                    }
+                    row[j] = distance;
+                    smallest = Math.min(smallest, distance);
+                }
+                tooFar = smallest > maxDistance;
+            }
+
+            if(tooFar){
+                // No name starting with this prefix can come back within the distance
+                previous = text.substring(0, depth);
+                entry = this.names.ceilingEntry(previous.substring(0, depth - 1) + (char) (text.charAt(depth - 1) + 1));
+            }
+            else{
+                previous = text;
+                int distance = rows[depth][length];
+                if(distance <= maxDistance){
+                    consider(matched, entry.getValue(), w, words, mark, EDIT_COST + distance - 1);
+                }
+                entry = this.names.higherEntry(text);
+            }
+        }
+    }
+
+    /**
+     * Records that a query word matches a name, keeping the cheapest cost if it matched already
+     * @param matched the names the word matches so far
+     * @param name the name
+     * @param w the position of the word in the query
+     * @param words the number of words in the query
+     * @param mark the mark of the search
+     * @param cost the cost of the match
+     */
+    private static void consider(List<Name> matched, Name name, int w, int words, int mark, int cost){
+        if(name.mark != mark){
+            name.mark = mark;
+            if(name.costs.length < words){
+                name.costs = new int[words];
+            }
+            Arrays.fill(name.costs, 0, words, NO_MATCH);
+        }
+        if(name.costs[w] == NO_MATCH){
+            matched.add(name);
+        }
+        name.costs[w] = Math.min(name.costs[w], cost);
+    }
+
+    /**
+     * @param names the names of a member
+     * @param words the number of words in the query
+     * @param mark the mark of the search
+     * @return the total cost of the best match of each query word among the names, NO_MATCH if a word matches none
+     */
+    private static int cost(Name[] names, int words, int mark){
+        int total = 0;
+        for(int w = 0; w < words; w++){
+            int best = NO_MATCH;
+            for(Name name : names){
+                if(name.mark == mark && name.costs[w] < best){
+                    best = name.costs[w];
+                }
+            }
+            if(best == NO_MATCH){
+                return NO_MATCH;
+            }
+            total += best;
+        }
+        return total;
+    }
+
+    /**
+     * @param first the names of a member
+     * @param second the names of another member
+     * @return the order of the names, name by name
+     */
+    private static int compareNames(Name[] first, Name[] second){
+        for(int i = 0; i < first.length && i < second.length; i++){
+            int order = first[i].text.compareTo(second[i].text);
+            if(order != 0){
+                return order;
+            }
+        }
+        return Integer.compare(first.length, second.length);
+    }
+
+    /**
+     * @return a mark no slot or name has been marked with, clearing the marks when they run out
+     */
+    private int nextMark(){
+        if(this.mark == Integer.MAX_VALUE){
+            Arrays.fill(this.marks, 0);
+            for(Name name : this.names.values()){
+                name.mark = 0;
+            }
+            this.mark = 0;
+        }
+        return ++this.mark;
+    }
+
+    // Private Classes =================================================================================================
+
+    /**
+     * A distinct name, with the slots of the members who have it in no order
+     */
+    private static class Name {
+
+        /**
+         * Constructor
+         * @param text the name
+         */
+        Name(String text){
+            this.text = text;
+        }
+
+        /**
+         * @param slot a slot to add
+         */
+        void add(int slot){
+            if(this.count == this.slots.length){
+                this.slots = Arrays.copyOf(this.slots, 2 * this.count);
+            }
+            this.slots[this.count++] = slot;
+        }
+
+        /**
+         * @param slot a slot to remove, which must be present
+         */
+        void remove(int slot){
+            for(int i = 0; i < this.count; i++){
+                if(this.slots[i] == slot){
+                    this.slots[i] = this.slots[--this.count];
+                    return;
+                }
+            }
+        }
+
+        private final String text;
+
+        private int[] slots = new int[1];
+
+        private int count;
+
+        /**
+         * The mark of the last search the name matched
+         */
+        private int mark;
+
+        /**
+         * The cost of the name's match to each word of that search
+         */
+        private int[] costs = NO_COSTS;
+    }
+
+    /**
+     * A member matching a search, and how well they match
+     */
+    private static class Candidate {
+
+        /**
+         * Constructor
+         * @param slot the slot of the member
+         * @param cost the cost of the match, lower being better
+         */
+        Candidate(int slot, int cost){
+            this.slot = slot;
+            this.cost = cost;
+        }
+
+        private final int slot;
+
+        private final int cost;
+    }
+
+    // Private Fields ==================================================================================================
+
+    /**
+     * Every distinct name of the members
+     */
+    private final TreeMap<String, Name> names = new TreeMap<>();
+
+    /**
+     * The names with each Soundex code
+     */
+    private final Map<String, Set<Name>> soundex = new HashMap<>();
+
+    /**
+     * The names with each Metaphone code
+     */
+    private final Map<String, Set<Name>> metaphone = new HashMap<>();
+
+    /**
+     * The slot of each member
+     */
+    private final Map<Person, Integer> slots = new IdentityHashMap<>();
+
+    /**
+     * The member in each slot, null in free slots
+     */
+    private Person[] persons = new Person[0];
+
+    /**
+     * The distinct names of the member in each slot, in the order they appear in their full name
+     */
+    private Name[][] memberNames = new Name[0][];
+
+    /**
+     * The mark of the search that last reached each slot
+     */
+    private int[] marks = new int[0];
+
+    /**
+     * The number of slots ever used
+     */
+    private int used;
+
+    private int[] free = new int[0];
+
+    private int freeCount;
+
+    private int mark;
+
+    /**
+     * The members renamed since the last search, each once
+     */
+    private final Set<Person> renamed = Collections.newSetFromMap(new IdentityHashMap<>());
+}
@@ -0,0 +1,266 @@
+package com.fourtwoeight.ancestre.model;
+
+import java.util.Arrays;
+
+/**
+ * Finds the shortest chain of fathers, mothers, children and spouses linking two members of a family. Every link is
+ * followed both ways, so a child is reached from a parent whether the parent lists the child or the child names the
+ * parent, and a spouse is reached whichever of the two records the marriage.
+ *
+ * The links of every member are packed into primitive arrays once, and a path is found by searching out from both
+ * members a generation of links at a time, the side with the smaller frontier going next, until the two searches
+ * meet. Each search only visits the members nearer than halfway along the path, so related members are linked in
+ * milliseconds whatever the size of the family.
+ *
+ * The finder is built from a FamilyGraph and does not see later changes to the family. Searches share their scratch
+ * space, so a finder is not thread safe.
+ */
+class PathFinder {
+
+    // Package Methods =================================================================================================
+
+    /**
+     * Constructor
+     * @param graph the graph of the family
+     */
+    PathFinder(FamilyGraph graph){
+        this.graph = graph;
+        int size = graph.size();
+
+        // Every link is counted at both of its ends, then packed and sorted so links recorded twice are kept once
+        int[] degrees = new int[size + 1];
+        for(int id = 0; id < size; id++){
+            forEachLink(id, degrees, null, null);
+        }
+        int total = 0;
+        for(int id = 0; id < size; id++){
+            int degree = degrees[id];
+            degrees[id] = total;
+            total += degree;
+        }
+        degrees[size] = total;
+
+        int[] cursors = Arrays.copyOf(degrees, size);
+        int[] packed = new int[total];
+        for(int id = 0; id < size; id++){
+            forEachLink(id, null, cursors, packed);
+        }
+
+        this.linkOffsets = new int[size + 1];
+        int count = 0;
+        for(int id = 0; id < size; id++){
+            this.linkOffsets[id] = count;
+            Arrays.sort(packed, degrees[id], degrees[id + 1]);
+            for(int i = degrees[id]; i < degrees[id + 1]; i++){
+                if(i == degrees[id] || packed[i] != packed[i - 1]){
+                    packed[count++] = packed[i];
+                }
+            }
+        }
+        this.linkOffsets[size] = count;
+        this.links = Arrays.copyOf(packed, count);
+
+        this.marks = new int[size];
+        this.via = new int[size];
+        this.forwardQueue = new int[size];
+        this.backwardQueue = new int[size];
+    }
+
+    /**
+     * @return the graph the finder was built from
+     */
+    FamilyGraph getGraph(){
+        return this.graph;
+    }
+
+    /**
+     * Finds a shortest chain of links between two members
+     * @param from the id of the member the chain starts at
+     * @param to the id of the member the chain ends at
+     * @return the ids along the chain, from and to included, null if no chain links them
+     */
+    int[] getPath(int from, int to){
+        if(from == to){
+            return new int[]{from};
+        }
+
+        int forward = nextMarks();
+        int backward = forward + 1;
+        this.marks[from] = forward;
+        this.marks[to] = backward;
+        this.via[from] = FamilyGraph.NONE;
+        this.via[to] = FamilyGraph.NONE;
+        this.forwardQueue[0] = from;
+        this.backwardQueue[0] = to;
+        int forwardHead = 0;
+        int forwardTail = 1;
+        int backwardHead = 0;
+        int backwardTail = 1;
+
+        // Links go both ways, so the first generation to touch the other search holds a shortest chain
+        while(forwardHead < forwardTail && backwardHead < backwardTail){
+            if(forwardTail - forwardHead <= backwardTail - backwardHead){
+                int tail = expand(this.forwardQueue, forwardHead, forwardTail, forward, backward);
+                if(tail < 0){
+                    return chain(this.meetingNear, this.meetingFar);
+                }
+                forwardHead = forwardTail;
+                forwardTail = tail;
+            }
+            else{
+                int tail = expand(this.backwardQueue, backwardHead, backwardTail, backward, forward);
+                if(tail < 0){
+                    return chain(this.meetingFar, this.meetingNear);
+                }
+                backwardHead = backwardTail;
+                backwardTail = tail;
+            }
+        }
+        return null;
+    }
+
+    // Private Methods =================================================================================================
+
+    /**
+     * Goes through the links a member records, counting or packing each of them at both ends
+     * @param id the id of the member
+     * @param degrees the link counts to add to, null when packing
+     * @param cursors the next free slot of each member's links, null when counting
+     * @param packed the links to pack into, null when counting
+     */
+    private void forEachLink(int id, int[] degrees, int[] cursors, int[] packed){
+        link(id, this.graph.getFather(id), degrees, cursors, packed);
+        link(id, this.graph.getMother(id), degrees, cursors, packed);
+        link(id, this.graph.getCurrentSpouse(id), degrees, cursors, packed);
+        for(int i = 0; i < this.graph.getChildCount(id); i++){
+            link(id, this.graph.getChild(id, i), degrees, cursors, packed);
+        }
+        for(int i = 0; i < this.graph.getSpouseCount(id); i++){
+            link(id, this.graph.getSpouse(id, i), degrees, cursors, packed);
+        }
+    }
+
+    /**
+     * Counts or packs a link at both of its ends
+     * @param id the id of the member recording the link
+     * @param other the id of the member linked to, may be NONE
+     * @param degrees the link counts to add to, null when packing
+     * @param cursors the next free slot of each member's links, null when counting
+     * @param packed the links to pack into, null when counting
+     */
+    private static void link(int id, int other, int[] degrees, int[] cursors, int[] packed){
+        if(other == FamilyGraph.NONE || other == id){
+            return;
+        }
+        if(degrees != null){
+            degrees[id]++;
+            degrees[other]++;
+        }
+        else{
+            packed[cursors[id]++] = other;
+            packed[cursors[other]++] = id;
+        }
+    }
+
+    /**
+     * Searches one generation of links further from one side, stopping when the other side is reached
+     * @param queue the members found by this side, in the order they were found
+     * @param head the index of the first member of the generation to search from
+     * @param tail the index after the last member of the generation
+     * @param own the mark of this side
+     * @param other the mark of the other side
+     * @return the index after the last member of the next generation, -1 if the other side was reached
+     */
+    private int expand(int[] queue, int head, int tail, int own, int other){
+        int next = tail;
+
+        for(int i = head; i < tail; i++){
+            int id = queue[i];
+            for(int j = this.linkOffsets[id]; j < this.linkOffsets[id + 1]; j++){
+                int linked = this.links[j];
+                if(this.marks[linked] == other){
+                    this.meetingNear = id;
+                    this.meetingFar = linked;
+                    return -1;
+                }
+                else if(this.marks[linked] != own){
+                    this.marks[linked] = own;
+                    this.via[linked] = id;
+                    queue[next++] = linked;
+                }
+            }
+        }
+        return next;
+    }
+
+    /**
+     * @param forwardEnd the member the search from the start reached last
+     * @param backwardEnd the member the search from the end reached last, linked to forwardEnd
+     * @return the ids along the chain from the start through both members to the end
+     */
+    private int[] chain(int forwardEnd, int backwardEnd){
+        int forwardLength = 0;
+        for(int id = forwardEnd; id != FamilyGraph.NONE; id = this.via[id]){
+            forwardLength++;
+        }
+        int length = forwardLength;
+        for(int id = backwardEnd; id != FamilyGraph.NONE; id = this.via[id]){
+            length++;
+        }
+
+        // The start side is walked back from where the searches met, so it is written from its far end
+        int[] path = new int[length];
+        int index = forwardLength;
+        for(int id = forwardEnd; id != FamilyGraph.NONE; id = this.via[id]){
+            path[--index] = id;
+        }
+        index = forwardLength;
+        for(int id = backwardEnd; id != FamilyGraph.NONE; id = this.via[id]){
+            path[index++] = id;
+        }
+        return path;
+    }
+
+    /**
+     * @return the first of two marks no member has been marked with, clearing the marks when they run out
+     */
+    private int nextMarks(){
+        if(this.mark >= Integer.MAX_VALUE - 2){
+            Arrays.fill(this.marks, 0);
+            this.mark = 0;
+        }
+        this.mark += 2;
+        return this.mark - 1;
+    }
+
+    // Private Fields ==================================================================================================
+
+    private final FamilyGraph graph;
+
+    /**
+     * The members linked to member id are links[linkOffsets[id]] up to links[linkOffsets[id + 1]]
+     */
+    private final int[] linkOffsets;
+
+    private final int[] links;
+
+    /**
+     * The mark of the search that found each member, members with older marks are unvisited
+     */
+    private final int[] marks;
+
+    /**
+     * The member each member was found from, back towards the member their search started at
+     */
+    private final int[] via;
+
+    private final int[] forwardQueue;
+
+    private final int[] backwardQueue;
+
+    private int mark;
+
+    private int meetingNear;
+
+    private int meetingFar;
+}
@@ -3,6 +3,7 @@ package com.fourtwoeight.ancestre.model;
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlTransient;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
@@ -47,6 +48,25 @@ public class Person {
         this.uuid = UUID.randomUUID();
     }
 
+    /**
+     * Copy Constructor. Copies the details of the person, but not their relationships.
+     * @param person the person to copy
+     */
+    public Person(Person person){
+        this.firstName = person.firstName;
+        if(person.middleNames != null){
+            this.middleNames = new ArrayList<>(person.middleNames);
+        }
+        this.lastName = person.lastName;
+        this.sex = person.sex;
+        this.birthDate = (person.birthDate != null) ? (Calendar) person.birthDate.clone() : null;
+        this.deathDate = (person.deathDate != null) ? (Calendar) person.deathDate.clone() : null;
+        this.description = person.description;
+        this.imagePath = person.imagePath;
+        this.uuid = person.uuid;
+        this.dirty = person.dirty;
+    }
+
     /**
      * @return if the person has a deathdate.
      */
@@ -82,16 +102,19 @@ public class Person {
         HashSet<Person> siblings = new HashSet<>();
 
         // Add all children that are not current person!
-        if(this.father != null){
-            for(Person sibling : this.father.getChildren()){
+        Person father = getFather();
+        Person mother = getMother();
+
+        if(father != null){
+            for(Person sibling : father.getChildren()){
                 if(sibling != this){
                     siblings.add(sibling);
                 }
             }
         }
 
-        if(this.mother != null){
-            for(Person sibling : this.mother.getChildren()){
+        if(mother != null){
+            for(Person sibling : mother.getChildren()){
                 if(sibling != this){
                     siblings.add(sibling);
                 }
@@ -115,6 +138,7 @@ public class Person {
      */
     public void setBirthDate(Calendar birthDate) {
         this.birthDate = birthDate;
+        this.dirty = true;
     }
 
     /**
@@ -132,6 +156,7 @@ public class Person {
      */
     public void setDeathDate(Calendar deathDate) {
         this.deathDate = deathDate;
+        this.dirty = true;
     }
 
     /**
@@ -147,6 +172,8 @@ public class Person {
      */
     public void setMother(Person mother) {
         this.mother = mother;
+        this.dirty = true;
+        relationshipsChanged();
     }
 
     /**
@@ -162,6 +189,8 @@ public class Person {
      */
     public void setFather(Person father) {
         this.father = father;
+        this.dirty = true;
+        relationshipsChanged();
     }
 
     /**
@@ -177,6 +206,8 @@ public class Person {
      */
     public void setCurrentSpouse(Person currentSpouse) {
         this.currentSpouse = currentSpouse;
+        this.dirty = true;
+        relationshipsChanged();
     }
 
     /**
@@ -193,6 +224,19 @@ public class Person {
     public void addSpouse(Person spouse){
         if(!this.spouses.contains(spouse)){
             this.spouses.add(spouse);
+            this.dirty = true;
+            relationshipsChanged();
+        }
+    }
+
+    /**
+     * Removes a spouse from the list of spouses
+     * @param spouse the spouse to remove
+     */
+    public void removeSpouse(Person spouse){
+        if(this.spouses.remove(spouse)){
+            this.dirty = true;
+            relationshipsChanged();
         }
     }
 
@@ -210,6 +254,19 @@ public class Person {
     public void addChild(Person child){
         if(!this.children.contains(child)){
             this.children.add(child);
+            this.dirty = true;
+            relationshipsChanged();
+        }
+    }
+
+    /**
+     * Removes a Person from the list of children the person has
+     * @param child the Person to be removed as a child
+     */
+    public void removeChild(Person child){
+        if(this.children.remove(child)){
+            this.dirty = true;
+            relationshipsChanged();
         }
     }
 
@@ -247,6 +304,8 @@ public class Person {
      */
     public void setFirstName(String firstName) {
         this.firstName = firstName;
+        this.dirty = true;
+        namesChanged();
     }
 
     /**
@@ -268,6 +327,8 @@ public class Person {
         // Add to list of middle names if not already in list
         if(!contains){
             this.middleNames.add(middleName);
+            this.dirty = true;
+            namesChanged();
         }
     }
 
@@ -285,6 +346,8 @@ public class Person {
      */
     public void setLastName(String lastName) {
         this.lastName = lastName;
+        this.dirty = true;
+        namesChanged();
     }
 
     /**
@@ -301,6 +364,7 @@ public class Person {
      */
     public void setDescription(String description) {
         this.description = description;
+        this.dirty = true;
     }
 
     /**
@@ -316,6 +380,7 @@ public class Person {
     @XmlElement
     public void setImagePath(String imagePath){
         this.imagePath = imagePath;
+        this.dirty = true;
     }
 
     /**
@@ -332,6 +397,7 @@ public class Person {
      */
     public void setSex(SEX sex) {
         this.sex = sex;
+        this.dirty = true;
     }
 
     /**
@@ -355,8 +421,69 @@ public class Person {
      */
     public void setUUID(UUID uuid){
         this.uuid = uuid;
+        this.dirty = true;
+    }
+
+    /**
+     * Returns whether the person has changed since they were last loaded from or saved to a directory store. Every
+     * setter marks the person dirty, but changes made directly to the lists returned by getMiddleNames, getSpouses and
+     * getChildren are not tracked, so whoever makes them must call setDirty.
+     * @return 'true' if the person has changed. 'false' otherwise.
+     */
+    @XmlTransient
+    public boolean isDirty(){
+        return this.dirty;
+    }
+
+    /**
+     * Marks the person as changed, or as saved
+     * @param dirty whether the person has changed since they were last saved
+     */
+    public void setDirty(boolean dirty){
+        this.dirty = dirty;
     }
 
+    // Package Methods =================================================================================================
+
+    /**
+     * @return the family the person belongs to, null if they belong to none
+     */
+    Family getOwner(){
+        return this.owner;
+    }
+
+    /**
+     * Sets the family the person belongs to, which is told whenever the father, mother, current spouse, spouses or
+     * children of the person change through their setters, addSpouse, removeSpouse, addChild or removeChild, and
+     * whenever their names change through their setters or addMiddleName. Changes made directly to the lists returned
+     * by getSpouses, getChildren and getMiddleNames are not told.
+     * @param owner the family, null when the person leaves it
+     */
+    void setOwner(Family owner){
+        this.owner = owner;
+    }
+
+    // Private Methods =================================================================================================
+
+    /**
+     * Tells the family the person belongs to that their relationships have changed
+     */
+    private void relationshipsChanged(){
+        Family family = this.owner;
+        if(family != null){
+            family.relationshipsChanged();
+        }
+    }
+
+    /**
+     * Tells the family the person belongs to that their names have changed
+     */
+    private void namesChanged(){
+        Family family = this.owner;
+        if(family != null){
+            family.namesChanged(this);
+        }
+    }
 
     // Private Fields ==================================================================================================
 
@@ -429,4 +556,14 @@ public class Person {
      * The unique identifier for the person
      */
     private UUID uuid;
+
+    /**
+     * Whether the person has changed since they were last saved to a directory store, new persons always have
+     */
+    private boolean dirty = true;
+
+    /**
+     * The family the person was last added to, null if they are not a member of any
+     */
+    private Family owner;
 }
@@ -0,0 +1,274 @@
+package com.fourtwoeight.ancestre.model;
+
+import java.util.AbstractCollection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The members of a family keyed by the two longs of their uuid, in an open addressing table with linear probing. Keys
+ * are held in primitive arrays, so adding or finding a person allocates nothing, and removing a person shifts the
+ * entries after them back rather than leaving a marker, so lookups never slow down as persons are removed. Iterates
+ * over the persons in table order.
+ */
+class PersonIndex extends AbstractCollection<Person> {
+
+    // Private Static Fields ===========================================================================================
+
+    private static final int MIN_CAPACITY = 16;
+
+    // Public Methods ==================================================================================================
+
+    /**
+     * @return the number of persons in the index
+     */
+    @Override
+    public int size(){
+        return this.size;
+    }
+
+    /**
+     * @param object an object
+     * @return 'true' if the object is a person in the index. 'false' otherwise.
+     */
+    @Override
+    public boolean contains(Object object){
+        return object instanceof Person && containsPerson((Person) object);
+    }
+
+    /**
+     * @return an iterator over the persons, which fails if the index is changed other than through it
+     */
+    @Override
+    public Iterator<Person> iterator(){
+        return new Iterator<Person>() {
+            @Override
+            public boolean hasNext(){
+                while(this.slot < persons.length && persons[this.slot] == null){
+                    this.slot++;
+                }
+                return this.slot < persons.length;
+            }
+
+            @Override
+            public Person next(){
+                if(modCount != this.expectedModCount){
+                    throw new ConcurrentModificationException();
+                }
+                if(!hasNext()){
+                    throw new NoSuchElementException();
+                }
+                return persons[this.slot++];
+            }
+
+            private int slot;
+
+            private final int expectedModCount = modCount;
+        };
+    }
+
+    // Package Methods =================================================================================================
+
+    /**
+     * Constructor, creates an empty index
+     */
+    PersonIndex(){
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * @param most the most significant bits of a uuid
+     * @param least the least significant bits of a uuid
+     * @return the person with the uuid, null if there is none
+     */
+    Person get(long most, long least){
+        int mask = this.persons.length - 1;
+
+        for(int slot = slot(most, least); this.persons[slot] != null; slot = (slot + 1) & mask){
+            if(this.mostSignificantBits[slot] == most && this.leastSignificantBits[slot] == least){
+                return this.persons[slot];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param uuid a uuid
+     * @return the person with the uuid, null if there is none
+     */
+    Person get(UUID uuid){
+        return get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * Adds a person, replacing any person with the same uuid
+     * @param person the person, who must have a uuid
+     * @return the person replaced, null if there was none
+     */
+    Person put(Person person){
+        long most = person.getUUID().getMostSignificantBits();
+        long least = person.getUUID().getLeastSignificantBits();
+        int mask = this.persons.length - 1;
+        int slot = slot(most, least);
+
+        for(; this.persons[slot] != null; slot = (slot + 1) & mask){
+            if(this.mostSignificantBits[slot] == most && this.leastSignificantBits[slot] == least){
+                Person replaced = this.persons[slot];
+                this.persons[slot] = person;
+                this.modCount++;
+                return replaced;
+            }
+        }
+
+        this.mostSignificantBits[slot] = most;
+        this.leastSignificantBits[slot] = least;
+        this.persons[slot] = person;
+        this.size++;
+        this.modCount++;
+
+        // Kept at most three quarters full so probes stay short
+        if(4 * this.size > 3 * this.persons.length){
+            resize(2 * this.persons.length);
+        }
+        return null;
+    }
+
+    /**
+     * Removes a person if they are the person indexed under their uuid
+     * @param person the person
+     * @return 'true' if the person was removed. 'false' if they were not in the index.
+     */
+    boolean remove(Person person){
+        if(person == null || person.getUUID() == null){
+            return false;
+        }
+
+        long most = person.getUUID().getMostSignificantBits();
+        long least = person.getUUID().getLeastSignificantBits();
+        int mask = this.persons.length - 1;
+
+        for(int slot = slot(most, least); this.persons[slot] != null; slot = (slot + 1) & mask){
+            if(this.mostSignificantBits[slot] == most && this.leastSignificantBits[slot] == least){
+                if(this.persons[slot] != person){
+                    return false;
+                }
+                delete(slot);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param person a person
+     * @return 'true' if the person is the person indexed under their uuid. 'false' otherwise.
+     */
+    boolean containsPerson(Person person){
+        return person != null && person.getUUID() != null && get(person.getUUID()) == person;
+    }
+
+    // Private Methods =================================================================================================
+
+    /**
+     * @param most the most significant bits of a uuid
+     * @param least the least significant bits of a uuid
+     * @return the slot to start looking for the uuid at
+     */
+    private int slot(long most, long least){
+        // Mixed so uuids which are not random, such as those made from sequential numbers, still spread out
+        long hash = (most ^ Long.rotateLeft(least, 32) ^ this.seed) * 0x9E3779B97F4A7C15L;
+        hash ^= hash >>> 29;
+        return (int) (hash >>> (64 - this.shift));
+    }
+
+    /**
+     * Empties a slot, moving back any entries after it which could not be placed in it or before it
+     * @param slot the slot to empty
+     */
+    private void delete(int slot){
+        int mask = this.persons.length - 1;
+        int hole = slot;
+
+        for(int next = (hole + 1) & mask; this.persons[next] != null; next = (next + 1) & mask){
+            int home = slot(this.mostSignificantBits[next], this.leastSignificantBits[next]);
+
+            // The entry may move into the hole if its home slot is not between the hole and where it is now
+            if(((next - home) & mask) >= ((next - hole) & mask)){
+                this.mostSignificantBits[hole] = this.mostSignificantBits[next];
+                this.leastSignificantBits[hole] = this.leastSignificantBits[next];
+                this.persons[hole] = this.persons[next];
+                hole = next;
+            }
+        }
+
+        this.persons[hole] = null;
+        this.size--;
+        this.modCount++;
+    }
+
+    /**
+     * Moves every entry into a new table
+     * @param capacity the capacity of the new table, a power of two
+     */
+    private void resize(int capacity){
+        long[] oldMostSignificantBits = this.mostSignificantBits;
+        long[] oldLeastSignificantBits = this.leastSignificantBits;
+        Person[] oldPersons = this.persons;
+        allocate(capacity);
+
+        int mask = capacity - 1;
+        for(int i = 0; i < oldPersons.length; i++){
+            if(oldPersons[i] != null){
+                int slot = slot(oldMostSignificantBits[i], oldLeastSignificantBits[i]);
+                while(this.persons[slot] != null){
+                    slot = (slot + 1) & mask;
+                }
+                this.mostSignificantBits[slot] = oldMostSignificantBits[i];
+                this.leastSignificantBits[slot] = oldLeastSignificantBits[i];
+                this.persons[slot] = oldPersons[i];
+            }
+        }
+    }
+
+    /**
+     * Creates empty arrays for a table
+     * @param capacity the capacity of the table, a power of two
+     */
+    private void allocate(int capacity){
+        this.mostSignificantBits = new long[capacity];
+        this.leastSignificantBits = new long[capacity];
+        this.persons = new Person[capacity];
+        this.shift = Integer.numberOfTrailingZeros(capacity);
+    }
+
+    // Private Fields ==================================================================================================
+
+    /**
+     * Families are saved in the order of their index, so a family loaded into an index hashed the same way would
+     * arrive sorted by slot and pile up in long runs. Each index is hashed differently.
+     */
+    private final long seed = ThreadLocalRandom.current().nextLong();
+
+    private long[] mostSignificantBits;
+
+    private long[] leastSignificantBits;
+
+    /**
+     * The person in each slot, null for an empty slot
+     */
+    private Person[] persons;
+
+    /**
+     * The number of bits of the hash used to find a slot
+     */
+    private int shift;
+
+    private int size;
+
+    /**
+     * Counts the changes made, so iterators can fail when the index is changed under them
+     */
+    private int modCount;
+}
@@ -0,0 +1,251 @@
+package com.fourtwoeight.ancestre.model;
+
+/**
+ * Encodes names by how they sound, so names spelt differently but said alike get the same code. Names are expected
+ * already normalized to lower case letters; letters outside a to z are skipped.
+ */
+final class Phonetics {
+
+    // Private Static Fields ===========================================================================================
+
+    /**
+     * The Soundex digit of each letter from a to z, '0' for letters which are not coded
+     */
+    private static final String SOUNDEX_DIGITS = "01230120022455012623010202";
+
+    /**
+     * The most characters kept of a Metaphone code
+     */
+    private static final int METAPHONE_LENGTH = 4;
+
+    // Package Static Methods ==========================================================================================
+
+    /**
+     * Encodes a name with American Soundex: its first letter followed by three digits for the consonants after it
+     * @param name a normalized name
+     * @return the Soundex code, empty if the name has no letter from a to z
+     */
+    static String soundex(String name){
+        StringBuilder code = new StringBuilder(4);
+        char last = '0';
+
+        for(int i = 0; i < name.length() && code.length() < 4; i++){
+            char c = name.charAt(i);
+            if(c < 'a' || c > 'z'){
+                continue;
+            }
+
+            char digit = SOUNDEX_DIGITS.charAt(c - 'a');
+            if(code.length() == 0){
+                code.append(Character.toUpperCase(c));
+            }
+            else if(digit != '0' && digit != last){
+                code.append(digit);
+            }
+
+            // H and W do not separate consonants with the same digit, vowels do
+            if(c != 'h' && c != 'w'){
+                last = digit;
+            }
+        }
+
+        if(code.length() == 0){
+            return "";
+        }
+        while(code.length() < 4){
+            code.append('0');
+        }
+        return code.toString();
+    }
+
+    /**
+     * Encodes a name with the original Metaphone rules, cut to its first four sounds
+     * @param name a normalized name
+     * @return the Metaphone code, empty if the name has no consonant sound
+     */
+    static String metaphone(String name){
+        StringBuilder letters = new StringBuilder(name.length());
+        for(int i = 0; i < name.length(); i++){
+            char c = name.charAt(i);
+            if(c >= 'a' && c <= 'z'){
+                letters.append(c);
+            }
+        }
+        String word = letters.toString();
+        StringBuilder code = new StringBuilder(METAPHONE_LENGTH);
+        int start = 0;
+
+        // Silent and changed first letters
+        if(word.startsWith("ae") || word.startsWith("gn") || word.startsWith("kn") || word.startsWith("pn")
+                || word.startsWith("wr")){
+            start = 1;
+        }
+        else if(word.startsWith("x")){
+            code.append('S');
+            start = 1;
+        }
+        else if(word.startsWith("wh")){
+            code.append('W');
+            start = 2;
+        }
+
+        for(int i = start; i < word.length() && code.length() < METAPHONE_LENGTH; i++){
+            char c = word.charAt(i);
+            char next = at(word, i + 1);
+
+            // Doubled letters sound once, except C
+            if(c == at(word, i - 1) && c != 'c' && i > start){
+                continue;
+            }
+
+            switch(c){
+                case 'a':
+                case 'e':
+                case 'i':
+                case 'o':
+                case 'u':
+                    if(i == 0){
+                        code.append(Character.toUpperCase(c));
+                    }
+                    break;
+                case 'b':
+                    if(!(at(word, i - 1) == 'm' && i == word.length() - 1)){
+                        code.append('B');
+                    }
+                    break;
+                case 'c':
+                    if(next == 'i' && at(word, i + 2) == 'a'){
+                        code.append('X');
+                    }
+                    else if(next == 'h'){
+                        code.append((at(word, i - 1) == 's') ? 'K' : 'X');
+                        i++;
+                    }
+                    else if(next == 'i' || next == 'e' || next == 'y'){
+                        if(at(word, i - 1) != 's'){
+                            code.append('S');
+                        }
+                    }
+                    else{
+                        code.append('K');
+                    }
+                    break;
+                case 'd':
+                    if(next == 'g' && isFrontVowel(at(word, i + 2))){
+                        code.append('J');
+                        i += 2;
+                    }
+                    else{
+                        code.append('T');
+                    }
+                    break;
+                case 'g':
+                    if(next == 'h' && i + 2 < word.length() && !isVowel(at(word, i + 2))){
+                        break;
+                    }
+                    if(next == 'n' && (i + 2 == word.length() || word.startsWith("ed", i + 2))){
+                        break;
+                    }
+                    if(isFrontVowel(next) && at(word, i - 1) != 'g'){
+                        code.append('J');
+                    }
+                    else{
+                        code.append('K');
+                    }
+                    break;
+                case 'h':
+                    if(isVowel(next) && "cgpst".indexOf(at(word, i - 1)) < 0){
+                        code.append('H');
+                    }
+                    break;
+                case 'k':
+                    if(at(word, i - 1) != 'c'){
+                        code.append('K');
+                    }
+                    break;
+                case 'p':
+                    code.append((next == 'h') ? 'F' : 'P');
+                    break;
+                case 'q':
+                    code.append('K');
+                    break;
+                case 's':
+                    if(next == 'h'){
+                        code.append('X');
+                        i++;
+                    }
+                    else if(next == 'i' && (at(word, i + 2) == 'o' || at(word, i + 2) == 'a')){
+                        code.append('X');
+                    }
+                    else{
+                        code.append('S');
+                    }
+                    break;
+                case 't':
+                    if(next == 'i' && (at(word, i + 2) == 'o' || at(word, i + 2) == 'a')){
+                        code.append('X');
+                    }
+                    else if(next == 'h'){
+                        code.append('0');
+                        i++;
+                    }
+                    else if(!(next == 'c' && at(word, i + 2) == 'h')){
+                        code.append('T');
+                    }
+                    break;
+                case 'v':
+                    code.append('F');
+                    break;
+                case 'w':
+                case 'y':
+                    if(isVowel(next)){
+                        code.append(Character.toUpperCase(c));
+                    }
+                    break;
+                case 'x':
+                    code.append("KS");
+                    break;
+                case 'z':
+                    code.append('S');
+                    break;
+                default:
+                    // F, J, L, M, N and R sound as they are written
+                    code.append(Character.toUpperCase(c));
+            }
+        }
+
+        return (code.length() > METAPHONE_LENGTH) ? code.substring(0, METAPHONE_LENGTH) : code.toString();
+    }
+
+    // Private Methods =================================================================================================
+
+    /**
+     * Constructor, the class only has static methods
+     */
+    private Phonetics(){}
+
+    /**
+     * @param word a word
+     * @param index an index, which may be outside the word
+     * @return the letter at the index, 0 if there is none
+     */
+    private static char at(String word, int index){
+        return (index >= 0 && index < word.length()) ? word.charAt(index) : 0;
+    }
+
+    /**
+     * @param c a letter
+     * @return 'true' if the letter is a vowel. 'false' otherwise.
+     */
+    private static boolean isVowel(char c){
+        return c == 'a' || c == 'e' || c == 'i' || c == 'o' || c == 'u';
+    }
+
+    /**
+     * @param c a letter
+     * @return 'true' if the letter softens a C, D or G before it. 'false' otherwise.
+     */
+    private static boolean isFrontVowel(char c){
+        return c == 'e' || c == 'i' || c == 'y';
+    }
+}
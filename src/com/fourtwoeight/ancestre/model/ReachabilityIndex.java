@@ -0,0 +1,415 @@
+package com.fourtwoeight.ancestre.model;
+
+import java.util.Arrays;
+
+/**
+ * Answers whether one member of a family is an ancestor of another without walking their lineage. Members are
+ * labelled by four depth first walks, two down through children and two up through parents, each in a different
+ * order. A walk gives each member their position in the order it finished them and the lowest position of anyone
+ * beyond them, and a member can only be an ancestor of another if their labels nest, which rules out almost every
+ * pair that are not related in constant time. Pairs where one was reached through the other by the first walk either
+ * way are related in constant time as well. The pairs left are settled by a search up from the younger member and
+ * down from the older one, meeting half way, which only steps to relatives whose labels could still nest.
+ *
+ * Each member also has a generation, one more than their furthest parent's, so nobody is an ancestor of someone in
+ * their own generation or one before it. A family whose relationships loop back on themselves cannot be labelled, in
+ * which case every query is settled by the search.
+ *
+ * The index is built from a FamilyGraph and does not see later changes to the family. Queries share their scratch
+ * space, so an index is not thread safe.
+ */
+class ReachabilityIndex {
+
+    // Private Static Fields ===========================================================================================
+
+    /**
+     * The labels of each member are kept together, a member's labels start at their id times LABELS
+     */
+    private static final int LABELS = 11;
+
+    private static final int GENERATION = 0;
+
+    /**
+     * The rank and, after it, the low of each walk. Ranks count from 1 in the order the walk finishes members, lows
+     * are the lowest rank of the member and everyone beyond them.
+     */
+    private static final int DOWN_FORWARD = 1;
+
+    private static final int DOWN_BACKWARD = 3;
+
+    private static final int UP_FORWARD = 5;
+
+    private static final int UP_BACKWARD = 7;
+
+    /**
+     * The lowest rank of the member and those the forward walks reached through them
+     */
+    private static final int DOWN_TREE = 9;
+
+    private static final int UP_TREE = 10;
+
+    // Package Methods =================================================================================================
+
+    /**
+     * Constructor, labels every member of the graph
+     * @param graph the graph of the family
+     */
+    ReachabilityIndex(FamilyGraph graph){
+        this.graph = graph;
+        int size = graph.size();
+
+        // Ancestry follows fathers and mothers, so the walks go through them and the offspring they imply
+        int[] parentOffsets = new int[size + 1];
+        for(int id = 0; id < size; id++){
+            int father = graph.getFather(id);
+            int mother = graph.getMother(id);
+            parentOffsets[id + 1] = parentOffsets[id] + ((father != FamilyGraph.NONE) ? 1 : 0)
+                    + ((mother != FamilyGraph.NONE && mother != father) ? 1 : 0);
+        }
+        int[] parents = new int[parentOffsets[size]];
+        for(int id = 0; id < size; id++){
+            int father = graph.getFather(id);
+            int mother = graph.getMother(id);
+            int parent = parentOffsets[id];
+            if(father != FamilyGraph.NONE){
+                parents[parent++] = father;
+            }
+            if(mother != FamilyGraph.NONE && mother != father){
+                parents[parent] = mother;
+            }
+        }
+        this.childOffsets = graph.getOffspringOffsets();
+        this.children = graph.getOffspring();
+
+        this.labels = new int[size * LABELS];
+        this.marks = new int[size];
+        this.stack = new int[Math.max(16, size)];
+        this.downStack = new int[size];
+
+        this.acyclic = label(this.childOffsets, this.children, DOWN_FORWARD, DOWN_TREE, true)
+                && label(this.childOffsets, this.children, DOWN_BACKWARD, -1, false)
+                && label(parentOffsets, parents, UP_FORWARD, UP_TREE, true)
+                && label(parentOffsets, parents, UP_BACKWARD, -1, false);
+        if(this.acyclic){
+            numberGenerations();
+        }
+    }
+
+    /**
+     * @return the graph the index was built from, which gives the ids of members
+     */
+    FamilyGraph getGraph(){
+        return this.graph;
+    }
+
+    /**
+     * @param ancestor the id of a member
+     * @param person the id of a member
+     * @return 'true' if the first member is an ancestor of the second. 'false' otherwise, including for the same
+     * member.
+     */
+    boolean isAncestor(int ancestor, int person){
+        if(ancestor == person){
+            return false;
+        }
+        if(this.acyclic){
+            if(!mayReach(ancestor, person)){
+                return false;
+            }
+            if(treeReaches(ancestor, person)){
+                return true;
+            }
+        }
+        return search(ancestor, person);
+    }
+
+    // Private Methods =================================================================================================
+
+    /**
+     * Walks every member depth first, giving each their rank in the order the walk finishes them and their low
+     * @param offsets the relatives of member id are relatives[offsets[id]] up to relatives[offsets[id + 1]]
+     * @param relatives the relatives to walk to from each member
+     * @param walk the label of the walk's ranks, its lows follow them
+     * @param tree the label of the lowest rank of those the walk reached through each member, -1 if not wanted
+     * @param forward 'true' to walk members and relatives in order, 'false' to walk them in reverse
+     * @return 'true' if no member can be walked back to. 'false' otherwise, in which case the labels are unusable.
+     */
+    private boolean label(int[] offsets, int[] relatives, int walk, int tree, boolean forward){
+        int size = this.graph.size();
+        int[] next = new int[size];
+        int rank = 0;
+
+        // While walking a rank of -1 marks a member not yet reached, 0 a member reached but not yet finished
+        for(int id = 0; id < size; id++){
+            this.labels[id * LABELS + walk] = -1;
+        }
+
+        for(int i = 0; i < size; i++){
+            int root = forward ? i : size - 1 - i;
+            if(this.labels[root * LABELS + walk] != -1){
+                continue;
+            }
+
+            int depth = 0;
+            this.stack[depth++] = root;
+            reach(root, walk, tree);
+
+            while(depth > 0){
+                int current = this.stack[depth - 1];
+                int first = offsets[current];
+                int last = offsets[current + 1] - 1;
+
+                if(first + next[current] <= last){
+                    int index = next[current]++;
+                    int relative = relatives[forward ? first + index : last - index];
+                    int relativeRank = this.labels[relative * LABELS + walk];
+
+                    if(relativeRank == -1){
+                        reach(relative, walk, tree);
+                        this.stack[depth++] = relative;
+                    }
+                    else if(relativeRank == 0){
+                        return false;
+                    }
+                    else{
+                        lower(current, walk + 1, this.labels[relative * LABELS + walk + 1]);
+                    }
+                }
+                else{
+                    this.labels[current * LABELS + walk] = ++rank;
+                    lower(current, walk + 1, rank);
+                    if(tree != -1){
+                        lower(current, tree, rank);
+                    }
+                    depth--;
+
+                    // The member's labels are final, so they are carried back to the member the walk came from
+                    if(depth > 0){
+                        int previous = this.stack[depth - 1];
+                        lower(previous, walk + 1, this.labels[current * LABELS + walk + 1]);
+                        if(tree != -1){
+                            lower(previous, tree, this.labels[current * LABELS + tree]);
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Marks a member as reached by a walk
+     * @param id the id of the member
+     * @param walk the label of the walk's ranks
+     * @param tree the label of the walk's tree, -1 if it has none
+     */
+    private void reach(int id, int walk, int tree){
+        this.labels[id * LABELS + walk] = 0;
+        this.labels[id * LABELS + walk + 1] = Integer.MAX_VALUE;
+        if(tree != -1){
+            this.labels[id * LABELS + tree] = Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * @param id the id of a member
+     * @param label a label of the member
+     * @param value the value to lower the label to if it is higher
+     */
+    private void lower(int id, int label, int value){
+        int position = id * LABELS + label;
+        this.labels[position] = Math.min(this.labels[position], value);
+    }
+
+    /**
+     * Numbers the generation of every member, visiting parents before their children in the reverse of the order the
+     * forward walk down finished them
+     */
+    private void numberGenerations(){
+        int size = this.graph.size();
+        int[] order = new int[size];
+        for(int id = 0; id < size; id++){
+            order[size - this.labels[id * LABELS + DOWN_FORWARD]] = id;
+            this.labels[id * LABELS + GENERATION] = 0;
+        }
+
+        for(int id : order){
+            int generation = this.labels[id * LABELS + GENERATION];
+            for(int i = this.childOffsets[id]; i < this.childOffsets[id + 1]; i++){
+                int child = this.children[i];
+                this.labels[child * LABELS + GENERATION] = Math.max(this.labels[child * LABELS + GENERATION],
+                        generation + 1);
+            }
+        }
+    }
+
+    /**
+     * @param ancestor the id of a member
+     * @param person the id of another member
+     * @return 'false' if the first member cannot be an ancestor of the second. 'true' if they may be.
+     */
+    private boolean mayReach(int ancestor, int person){
+        int a = ancestor * LABELS;
+        int p = person * LABELS;
+        int[] labels = this.labels;
+
+        // Walking down the person lies beyond the ancestor, walking up the ancestor lies beyond the person
+        return labels[a + GENERATION] < labels[p + GENERATION]
+                && labels[a + DOWN_FORWARD + 1] <= labels[p + DOWN_FORWARD + 1]
+                && labels[p + DOWN_FORWARD] <= labels[a + DOWN_FORWARD]
+                && labels[p + UP_FORWARD + 1] <= labels[a + UP_FORWARD + 1]
+                && labels[a + UP_FORWARD] <= labels[p + UP_FORWARD]
+                && labels[a + DOWN_BACKWARD + 1] <= labels[p + DOWN_BACKWARD + 1]
+                && labels[p + DOWN_BACKWARD] <= labels[a + DOWN_BACKWARD]
+                && labels[p + UP_BACKWARD + 1] <= labels[a + UP_BACKWARD + 1]
+                && labels[a + UP_BACKWARD] <= labels[p + UP_BACKWARD];
+    }
+
+    /**
+     * @param ancestor the id of a member
+     * @param person the id of another member
+     * @return 'true' if a forward walk reached one member through the other. 'false' otherwise.
+     */
+    private boolean treeReaches(int ancestor, int person){
+        int a = ancestor * LABELS;
+        int p = person * LABELS;
+
+        return (this.labels[a + DOWN_TREE] <= this.labels[p + DOWN_FORWARD]
+                        && this.labels[p + DOWN_FORWARD] < this.labels[a + DOWN_FORWARD])
+                || (this.labels[p + UP_TREE] <= this.labels[a + UP_FORWARD]
+                        && this.labels[a + UP_FORWARD] < this.labels[p + UP_FORWARD]);
+    }
+
+    /**
+     * Searches up the parents of a member for another member. Once labelled the search only climbs to parents who may
+     * be descendants of the member searched for, and meets a search down from that member half way, so each side
+     * covers half the generations between them.
+     * @param ancestor the id of the member searched for
+     * @param person the id of the member to start from
+     * @return 'true' if the member searched for is an ancestor. 'false' otherwise.
+     */
+    private boolean search(int ancestor, int person){
+        // Marks are compared against new numbers for every search, so they rarely need clearing. Members found to be
+        // ancestors of the person are marked with the first, descendants of the ancestor with the second.
+        if(this.search >= Integer.MAX_VALUE - 2){
+            Arrays.fill(this.marks, 0);
+            this.search = 0;
+        }
+        this.search += 2;
+        int up = this.search;
+        int down = this.search + 1;
+
+        // Every line from the ancestor to the person steps from a member before the middle generation to one in it or
+        // after it, and the searches stop at that step from either side
+        int middle = this.acyclic
+                ? (generation(ancestor) + generation(person) + 1) >>> 1
+                : Integer.MIN_VALUE;
+
+        int upDepth = 0;
+        int downDepth = 0;
+        this.stack[upDepth++] = person;
+        this.marks[person] = up;
+        if(this.acyclic){
+            this.downStack[downDepth++] = ancestor;
+            this.marks[ancestor] = down;
+        }
+
+        // The searches take turns, so a line is found as soon as they meet on it
+        while(upDepth > 0 || downDepth > 0){
+            if(upDepth > 0){
+                int current = this.stack[--upDepth];
+
+                for(int i = 0; i < 2; i++){
+                    int parent = (i == 0) ? this.graph.getFather(current) : this.graph.getMother(current);
+                    if(parent == ancestor){
+                        return true;
+                    }
+                    if(parent == FamilyGraph.NONE || this.marks[parent] == up){
+                        continue;
+                    }
+                    if(this.marks[parent] == down){
+                        return true;
+                    }
+                    this.marks[parent] = up;
+
+                    if(this.acyclic){
+                        if(generation(parent) < middle || !mayReach(ancestor, parent)){
+                            continue;
+                        }
+                        if(treeReaches(ancestor, parent)){
+                            return true;
+                        }
+                    }
+                    this.stack[upDepth++] = parent;
+                }
+            }
+
+            if(downDepth > 0){
+                int current = this.downStack[--downDepth];
+
+                for(int i = this.childOffsets[current]; i < this.childOffsets[current + 1]; i++){
+                    int child = this.children[i];
+                    if(this.marks[child] == up){
+                        return true;
+                    }
+                    if(this.marks[child] == down){
+                        continue;
+                    }
+                    this.marks[child] = down;
+
+                    if(generation(child) < middle && mayReach(child, person)){
+                        this.downStack[downDepth++] = child;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param id the id of a member
+     * @return the generation of the member
+     */
+    private int generation(int id){
+        return this.labels[id * LABELS + GENERATION];
+    }
+
+    // Private Fields ==================================================================================================
+
+    private final FamilyGraph graph;
+
+    /**
+     * The offspring of the graph, the children of member id by their fathers and mothers are
+     * children[childOffsets[id]] up to children[childOffsets[id + 1]]
+     */
+    private final int[] childOffsets;
+
+    private final int[] children;
+
+    /**
+     * The generation and walk labels of every member, LABELS to a member
+     */
+    private final int[] labels;
+
+    /**
+     * Whether no member is their own ancestor, so the labels can be used
+     */
+    private final boolean acyclic;
+
+    /**
+     * The number of the last search made of each member, scratch space for searches
+     */
+    private final int[] marks;
+
+    private int search;
+
+    /**
+     * Scratch space for walks and searches up, which never hold a member twice at once
+     */
+    private final int[] stack;
+
+    /**
+     * Scratch space for searches down
+     */
+    private final int[] downStack;
+}
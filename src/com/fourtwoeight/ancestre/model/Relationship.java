@@ -0,0 +1,184 @@
+package com.fourtwoeight.ancestre.model;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * How a relative is related to a person by blood, through their nearest common ancestors. The relationship is
+ * measured by the generations from each of them up to those ancestors: a father is one generation up from the person
+ * and none from himself, a first cousin two from each, a great-aunt three from the person and one from herself. A
+ * relationship through a single common ancestor, whose lines come down through children with different known other
+ * parents, is a half relationship.
+ */
+public class Relationship {
+
+    // Public Static Fields ============================================================================================
+
+    /**
+     * The most generations a relationship is looked for up from either person, enough for ninth cousins
+     */
+    public static final int MAX_GENERATIONS = 10;
+
+    // Private Static Fields ===========================================================================================
+
+    private static final String[] ORDINALS = {"first", "second", "third", "fourth", "fifth", "sixth", "seventh",
+            "eighth", "ninth", "tenth"};
+
+    private static final String[] TIMES = {"once", "twice"};
+
+    // Public Methods ==================================================================================================
+
+    /**
+     * Constructor
+     * @param person the person the relationship is from
+     * @param relative the relative
+     * @param personGenerations the generations from the person up to the nearest common ancestors
+     * @param relativeGenerations the generations from the relative up to the nearest common ancestors
+     * @param half whether the relationship is through a single common ancestor of different families
+     * @param commonAncestors the nearest common ancestors
+     */
+    public Relationship(Person person, Person relative, int personGenerations, int relativeGenerations, boolean half,
+                        List<Person> commonAncestors){
+        this.person = person;
+        this.relative = relative;
+        this.personGenerations = personGenerations;
+        this.relativeGenerations = relativeGenerations;
+        this.half = half;
+        this.commonAncestors = Collections.unmodifiableList(commonAncestors);
+    }
+
+    /**
+     * @return the person the relationship is from
+     */
+    public Person getPerson(){
+        return this.person;
+    }
+
+    /**
+     * @return the relative
+     */
+    public Person getRelative(){
+        return this.relative;
+    }
+
+    /**
+     * @return the generations from the person up to the nearest common ancestors, 0 if the relative is a descendant
+     */
+    public int getPersonGenerations(){
+        return this.personGenerations;
+    }
+
+    /**
+     * @return the generations from the relative up to the nearest common ancestors, 0 if the relative is an ancestor
+     */
+    public int getRelativeGenerations(){
+        return this.relativeGenerations;
+    }
+
+    /**
+     * @return 'true' if the relationship is through a single common ancestor of different families. 'false' otherwise.
+     */
+    public boolean isHalf(){
+        return this.half;
+    }
+
+    /**
+     * @return the nearest common ancestors, the relative if they are an ancestor and the person if they are a
+     * descendant
+     */
+    public List<Person> getCommonAncestors(){
+        return this.commonAncestors;
+    }
+
+    /**
+     * Names what the relative is to the person, such as "mother", "half-brother", "great-aunt" or "second cousin once
+     * removed". The sex of the relative picks the word where there is one for each sex.
+     * @return the name of the relationship
+     */
+    public String getName(){
+        int up = this.personGenerations;
+        int down = this.relativeGenerations;
+        String name;
+
+        if(up == 0 && down == 0){
+            name = "self";
+        }
+        else if(up == 0){
+            name = greats(down - 2) + ((down >= 2) ? "grand" : "") + bySex("son", "daughter", "child");
+        }
+        else if(down == 0){
+            name = greats(up - 2) + ((up >= 2) ? "grand" : "") + bySex("father", "mother", "parent");
+        }
+        else if(up == 1 && down == 1){
+            name = bySex("brother", "sister", "sibling");
+        }
+        else if(up == 1){
+            name = greats(down - 2) + bySex("nephew", "niece", "nephew or niece");
+        }
+        else if(down == 1){
+            name = greats(up - 2) + bySex("uncle", "aunt", "uncle or aunt");
+        }
+        else{
+            int degree = Math.min(up, down) - 1;
+            int removed = Math.abs(up - down);
+            name = ((degree <= ORDINALS.length) ? ORDINALS[degree - 1] : degree + "th") + " cousin";
+            if(removed > 0){
+                name += " " + ((removed <= TIMES.length) ? TIMES[removed - 1] : removed + " times") + " removed";
+            }
+        }
+
+        return this.half ? "half-" + name : name;
+    }
+
+    /**
+     * @return the name of the relationship
+     */
+    @Override
+    public String toString(){
+        return getName();
+    }
+
+    // Private Methods =================================================================================================
+
+    /**
+     * @param count the number of greats, none if less than 1
+     * @return "great-" repeated the number of times
+     */
+    private static String greats(int count){
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < count; i++){
+            builder.append("great-");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param male the word for a male relative
+     * @param female the word for a female relative
+     * @param unknown the word for a relative whose sex is not known
+     * @return the word for the relative
+     */
+    private String bySex(String male, String female, String unknown){
+        if(this.relative.getSex() == Person.SEX.MALE){
+            return male;
+        }
+        else if(this.relative.getSex() == Person.SEX.FEMALE){
+            return female;
+        }
+        return unknown;
+    }
+
+    // Private Fields ==================================================================================================
+
+    private final Person person;
+
+    private final Person relative;
+
+    private final int personGenerations;
+
+    private final int relativeGenerations;
+
+    private final boolean half;
+
+    private final List<Person> commonAncestors;
+}
@@ -0,0 +1,395 @@
+package com.fourtwoeight.ancestre.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds how members of a family are related by blood. The nearest common ancestors of two members are those with the
+ * fewest generations between them and the two members in total, and of those the fewest between them and the
+ * relative, each side counted along its shortest line. Only ancestors up to Relationship.MAX_GENERATIONS back from
+ * either member are looked at.
+ *
+ * A pair is settled by searching up from both members a generation at a time, the side with fewer generations
+ * searched going next, until no ancestor either side has yet to find could be nearer than the nearest found. Close
+ * relatives are found after a few generations whatever the size of the family. Every relative of one member is found
+ * at once by searching up from them and then down from each of their ancestors a generation at a time, each relative
+ * being settled in the first generation that reaches them.
+ *
+ * The calculator is built from a FamilyGraph and does not see later changes to the family. Calculations share their
+ * scratch space, so a calculator is not thread safe.
+ */
+class RelationshipCalculator {
+
+    // Private Static Fields ===========================================================================================
+
+    private static final int[] NO_IDS = new int[0];
+
+    // Package Methods =================================================================================================
+
+    /**
+     * Constructor
+     * @param graph the graph of the family
+     */
+    RelationshipCalculator(FamilyGraph graph){
+        this.graph = graph;
+        this.personGenerations = new int[graph.size()];
+        this.relativeGenerations = new int[graph.size()];
+        this.personMarks = new int[graph.size()];
+        this.relativeMarks = new int[graph.size()];
+    }
+
+    /**
+     * @return the graph the calculator was built from, which gives the ids of members
+     */
+    FamilyGraph getGraph(){
+        return this.graph;
+    }
+
+    /**
+     * @param person the id of a member
+     * @param relative the id of a member
+     * @return how the relative is related to the person, null if they have no common ancestor close enough
+     */
+    Relationship getRelationship(int person, int relative){
+        int mark = nextMark();
+        int[] personGeneration = {person};
+        int[] relativeGeneration = {relative};
+        int personLevel = 0;
+        int relativeLevel = 0;
+        List<Integer> common = new ArrayList<>();
+
+        this.personMarks[person] = mark;
+        this.personGenerations[person] = 0;
+        this.relativeMarks[relative] = mark;
+        this.relativeGenerations[relative] = 0;
+        if(person == relative){
+            common.add(person);
+        }
+
+        int nearest = Integer.MAX_VALUE;
+        while(true){
+            boolean personOpen = personLevel < Relationship.MAX_GENERATIONS && personGeneration.length > 0;
+            boolean relativeOpen = relativeLevel < Relationship.MAX_GENERATIONS && relativeGeneration.length > 0;
+
+            // A common ancestor not yet found by one side is at least a generation beyond what that side has searched
+            int bound = Math.min(personOpen ? personLevel + 1 : Integer.MAX_VALUE,
+                    relativeOpen ? relativeLevel + 1 : Integer.MAX_VALUE);
+            for(int id : common){
+                nearest = Math.min(nearest, this.personGenerations[id] + this.relativeGenerations[id]);
+            }
+            if(nearest < bound || (!personOpen && !relativeOpen)){
+                break;
+            }
+
+            if(personOpen && (!relativeOpen || personLevel <= relativeLevel)){
+                personGeneration = climb(personGeneration, ++personLevel, this.personMarks, this.personGenerations,
+                        this.relativeMarks, mark, common);
+            }
+            else{
+                relativeGeneration = climb(relativeGeneration, ++relativeLevel, this.relativeMarks,
+                        this.relativeGenerations, this.personMarks, mark, common);
+            }
+        }
+        if(common.isEmpty()){
+            return null;
+        }
+
+        // The nearest are those with the fewest generations in total, then the fewest from the relative
+        int best = -1;
+        for(int id : common){
+            if(best == -1 || isNearer(id, best)){
+                best = id;
+            }
+        }
+        List<Person> ancestors = new ArrayList<>();
+        int single = FamilyGraph.NONE;
+        for(int id : common){
+            if(this.personGenerations[id] == this.personGenerations[best]
+                    && this.relativeGenerations[id] == this.relativeGenerations[best]){
+                ancestors.add(this.graph.getPerson(id));
+                single = (ancestors.size() == 1) ? id : FamilyGraph.NONE;
+            }
+        }
+
+        int up = this.personGenerations[best];
+        int down = this.relativeGenerations[best];
+        boolean half = single != FamilyGraph.NONE && up > 0 && down > 0
+                && isHalf(single, lineChild(single, up, this.personMarks, this.personGenerations, mark),
+                        lineChild(single, down, this.relativeMarks, this.relativeGenerations, mark));
+        return new Relationship(this.graph.getPerson(person), this.graph.getPerson(relative), up, down, half,
+                ancestors);
+    }
+
+    /**
+     * Finds every blood relative of a member with a common ancestor close enough
+     * @param person the id of the member
+     * @return how each relative is related to the member, nearest first, not including the member
+     */
+    Map<Person, Relationship> getRelationships(int person){
+        int mark = nextMark();
+
+        // Every ancestor is found with their generations from the person
+        List<int[]> ancestorsByLevel = new ArrayList<>();
+        int[] generation = {person};
+        this.personMarks[person] = mark;
+        this.personGenerations[person] = 0;
+        ancestorsByLevel.add(generation);
+        for(int level = 1; level <= Relationship.MAX_GENERATIONS && generation.length > 0; level++){
+            generation = climb(generation, level, this.personMarks, this.personGenerations, null, mark, null);
+            ancestorsByLevel.add(generation);
+        }
+
+        // Relatives are settled in order of their total generations from the person through a common ancestor, the
+        // ancestors themselves with no generations down to them before anyone reached down from another
+        int[] levels = new int[this.graph.size()];
+        int[][] commonAncestors = new int[this.graph.size()][];
+        int[] lineChildren = new int[this.graph.size()];
+        List<Integer> settled = new ArrayList<>();
+        int[] previous = NO_IDS;
+        int[] offspring = this.graph.getOffspring();
+        int[] offsets = this.graph.getOffspringOffsets();
+
+        for(int level = 0; level <= 2 * Relationship.MAX_GENERATIONS; level++){
+            int[] current = new int[16];
+            int count = 0;
+
+            if(level < ancestorsByLevel.size()){
+                for(int ancestor : ancestorsByLevel.get(level)){
+                    // An ancestor may already be settled as the descendant of a nearer ancestor
+                    if(this.relativeMarks[ancestor] == mark){
+                        continue;
+                    }
+                    this.relativeMarks[ancestor] = mark;
+                    this.relativeGenerations[ancestor] = 0;
+                    levels[ancestor] = level;
+                    commonAncestors[ancestor] = new int[]{ancestor};
+                    lineChildren[ancestor] = FamilyGraph.NONE;
+                    current = append(current, count++, ancestor);
+                }
+            }
+
+            for(int parent : previous){
+                int down = this.relativeGenerations[parent] + 1;
+                if(down > Relationship.MAX_GENERATIONS){
+                    continue;
+                }
+
+                for(int i = offsets[parent]; i < offsets[parent + 1]; i++){
+                    int child = offspring[i];
+                    int lineChild = (down == 1) ? child : lineChildren[parent];
+
+                    if(this.relativeMarks[child] != mark){
+                        this.relativeMarks[child] = mark;
+                        this.relativeGenerations[child] = down;
+                        levels[child] = level;
+                        commonAncestors[child] = commonAncestors[parent];
+                        lineChildren[child] = lineChild;
+                        current = append(current, count++, child);
+                    }
+                    else if(levels[child] == level && this.relativeGenerations[child] > down){
+                        this.relativeGenerations[child] = down;
+                        commonAncestors[child] = commonAncestors[parent];
+                        lineChildren[child] = lineChild;
+                    }
+                    else if(levels[child] == level && this.relativeGenerations[child] == down){
+                        commonAncestors[child] = union(commonAncestors[child], commonAncestors[parent]);
+                        lineChildren[child] = Math.min(lineChildren[child], lineChild);
+                    }
+                }
+            }
+
+            previous = Arrays.copyOf(current, count);
+            for(int id : previous){
+                settled.add(id);
+            }
+        }
+
+        Map<Person, Relationship> relationships = new LinkedHashMap<>();
+        for(int relative : settled){
+            if(relative == person){
+                continue;
+            }
+
+            int down = this.relativeGenerations[relative];
+            int up = levels[relative] - down;
+            int[] common = commonAncestors[relative];
+            List<Person> ancestors = this.graph.getPersons(common);
+            boolean half = common.length == 1 && up > 0 && down > 0
+                    && isHalf(common[0], lineChild(common[0], up, this.personMarks, this.personGenerations, mark),
+                            lineChildren[relative]);
+            relationships.put(this.graph.getPerson(relative),
+                    new Relationship(this.graph.getPerson(person), this.graph.getPerson(relative), up, down, half,
+                            ancestors));
+        }
+        return relationships;
+    }
+
+    // Private Methods =================================================================================================
+
+    /**
+     * Finds the parents of a generation not yet found by a search
+     * @param generation the ids of the generation
+     * @param level the generations of the parents from where the search started
+     * @param marks the marks of the search
+     * @param generations the generations from where the search started of those it has found
+     * @param otherMarks the marks of the search from the other member, null if there is none
+     * @param mark the mark of members found by the current searches
+     * @param common collects the members both searches have found, null if there is no other search
+     * @return the ids of the parents found
+     */
+    private int[] climb(int[] generation, int level, int[] marks, int[] generations, int[] otherMarks, int mark,
+                        List<Integer> common){
+        int[] parents = new int[2 * generation.length];
+        int count = 0;
+
+        for(int id : generation){
+            for(int i = 0; i < 2; i++){
+                int parent = (i == 0) ? this.graph.getFather(id) : this.graph.getMother(id);
+                if(parent == FamilyGraph.NONE || marks[parent] == mark){
+                    continue;
+                }
+                marks[parent] = mark;
+                generations[parent] = level;
+                parents[count++] = parent;
+
+                if(otherMarks != null && otherMarks[parent] == mark){
+                    common.add(parent);
+                }
+            }
+        }
+        return Arrays.copyOf(parents, count);
+    }
+
+    /**
+     * @param id the id of a common ancestor
+     * @param other the id of another common ancestor
+     * @return 'true' if the first is nearer than the other. 'false' otherwise.
+     */
+    private boolean isNearer(int id, int other){
+        int total = this.personGenerations[id] + this.relativeGenerations[id];
+        int otherTotal = this.personGenerations[other] + this.relativeGenerations[other];
+        return total < otherTotal
+                || (total == otherTotal && this.relativeGenerations[id] < this.relativeGenerations[other]);
+    }
+
+    /**
+     * @param ancestor the id of a common ancestor
+     * @param generations the generations from the member up to the ancestor
+     * @param marks the marks of the search from the member
+     * @param searchGenerations the generations from the member of those the search found
+     * @param mark the mark of the search
+     * @return the id of the ancestor's child on the line down to the member, the lowest if there are several
+     */
+    private int lineChild(int ancestor, int generations, int[] marks, int[] searchGenerations, int mark){
+        int[] offspring = this.graph.getOffspring();
+        int[] offsets = this.graph.getOffspringOffsets();
+
+        for(int i = offsets[ancestor]; i < offsets[ancestor + 1]; i++){
+            int child = offspring[i];
+            if(marks[child] == mark && searchGenerations[child] == generations - 1){
+                return child;
+            }
+        }
+        return FamilyGraph.NONE;
+    }
+
+    /**
+     * @param ancestor the id of the single common ancestor
+     * @param first the id of the ancestor's child on one line
+     * @param second the id of the ancestor's child on the other line
+     * @return 'true' if the children's other parents are both known and different. 'false' otherwise.
+     */
+    private boolean isHalf(int ancestor, int first, int second){
+        if(first == FamilyGraph.NONE || second == FamilyGraph.NONE){
+            return false;
+        }
+        int firstOther = (this.graph.getFather(first) == ancestor)
+                ? this.graph.getMother(first)
+                : this.graph.getFather(first);
+        int secondOther = (this.graph.getFather(second) == ancestor)
+                ? this.graph.getMother(second)
+                : this.graph.getFather(second);
+        return firstOther != FamilyGraph.NONE && secondOther != FamilyGraph.NONE && firstOther != secondOther;
+    }
+
+    /**
+     * @return a mark no member has been marked with, clearing the marks when they run out
+     */
+    private int nextMark(){
+        if(this.mark == Integer.MAX_VALUE){
+            Arrays.fill(this.personMarks, 0);
+            Arrays.fill(this.relativeMarks, 0);
+            this.mark = 0;
+        }
+        return ++this.mark;
+    }
+
+    /**
+     * @param ids an array of ids
+     * @param count the number of ids in the array
+     * @param id the id to add
+     * @return the array, or a larger copy of it if it was full, with the id added
+     */
+    private static int[] append(int[] ids, int count, int id){
+        int[] appended = (count < ids.length) ? ids : Arrays.copyOf(ids, 2 * ids.length);
+        appended[count] = id;
+        return appended;
+    }
+
+    /**
+     * @param first a sorted array of distinct ids
+     * @param second a sorted array of distinct ids
+     * @return the sorted ids in either array
+     */
+    private static int[] union(int[] first, int[] second){
+        if(first == second){
+            return first;
+        }
+
+        int[] union = new int[first.length + second.length];
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        while(i < first.length || j < second.length){
+            if(j == second.length || (i < first.length && first[i] < second[j])){
+                union[count++] = first[i++];
+            }
+            else if(i == first.length || second[j] < first[i]){
+                union[count++] = second[j++];
+            }
+            else{
+                union[count++] = first[i++];
+                j++;
+            }
+        }
+        return Arrays.copyOf(union, count);
+    }
+
+    // Private Fields ==================================================================================================
+
+    private final FamilyGraph graph;
+
+    /**
+     * The generations from the person of the members the searches up from them have found
+     */
+    private final int[] personGenerations;
+
+    /**
+     * The generations from the relative of the members the searches up from them have found, or in batches the
+     * generations down from the nearest common ancestors of each relative settled
+     */
+    private final int[] relativeGenerations;
+
+    /**
+     * The members found by each side of a calculation are marked with its mark, so marks never need clearing between
+     * calculations
+     */
+    private final int[] personMarks;
+
+    private final int[] relativeMarks;
+
+    private int mark;
+}
@@ -0,0 +1,40 @@
+package com.fourtwoeight.ancestre.model;
+
+/**
+ * A person reached from another person by following parents or children, with the number of generations between
+ * them. Parents and children are one generation away, grandparents and grandchildren two and so on.
+ */
+public class Relative {
+
+    // Public Methods ==================================================================================================
+
+    /**
+     * Constructor
+     * @param person the person
+     * @param generation the number of generations between the person and the person they were reached from
+     */
+    public Relative(Person person, int generation){
+        this.person = person;
+        this.generation = generation;
+    }
+
+    /**
+     * @return the person
+     */
+    public Person getPerson(){
+        return this.person;
+    }
+
+    /**
+     * @return the number of generations between the person and the person they were reached from
+     */
+    public int getGeneration(){
+        return this.generation;
+    }
+
+    // Private Fields ==================================================================================================
+
+    private final Person person;
+
+    private final int generation;
+}
@@ -0,0 +1,92 @@
+package com.fourtwoeight.ancestre.util;
+
+import com.fourtwoeight.ancestre.model.Family;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Logger;
+
+/**
+ * Loads and saves whole families as B-tree family stores. A family is saved by writing a new store to a temporary file
+ * and moving it into place once it has been forced to disk, so a crash part way through leaves the last save as it
+ * was. Persons can be looked up and edited in a saved store without loading it, see BTreeFamilyStore.
+ */
+class BTreeFamilyStorage implements FamilyStorage {
+
+    // Private Static Fields ===========================================================================================
+
+    private static final Logger LOGGER = Logger.getLogger(BTreeFamilyStorage.class.getName());
+
+    // Public Methods ==================================================================================================
+
+    /**
+     * Loads every person in a store into the family
+     * @param family the family to load into
+     * @param familyFile the store to load
+     * @param progress the progress of the load
+     * @param errorMsg the error message to alert the user if not loaded successfully
+     * @return 'true' if loaded successfully. 'false' otherwise.
+     */
+    @Override
+    public boolean load(Family family, File familyFile, Progress progress, StringBuilder errorMsg){
+        boolean loaded = false;
+
+        try {
+            // A left over temporary file is from a save which never replaced the store
+            Files.deleteIfExists(PendingFile.tempFile(familyFile).toPath());
+        } catch (Exception e){
+            LOGGER.warning("Unable to delete temporary file for: " + familyFile.getName() + ". Caught exception: " + e);
+        }
+
+        try (BTreeFamilyStore store = new BTreeFamilyStore(familyFile)) {
+            progress.start(Progress.UNKNOWN, store.size());
+            store.load(family, progress);
+            loaded = true;
+        } catch (Exception e){
+            errorMsg.append("Unable to load " + FamilyFormat.BTREE.getExtension() + " file.");
+            LOGGER.severe("Caught exception: " + e.toString());
+        }
+
+        return loaded;
+    }
+
+    /**
+     * Saves the family as a new store which replaces any store already saved
+     * @param family the family to be saved
+     * @param fileName the name of the family file to be saved
+     * @param directory the directory to save the family
+     * @param progress the progress of the save
+     * @param errorMsg the error message to alert the user if not saved successfully
+     * @return 'true' if saved successfully. 'false' otherwise.
+     */
+    @Override
+    public boolean save(Family family, String fileName, File directory, Progress progress, StringBuilder errorMsg){
+        boolean saved = false;
+        File familyFile = new File(directory.getAbsoluteFile(), fileName + FamilyFormat.BTREE.getExtension());
+        File tempFile = PendingFile.tempFile(familyFile);
+
+        progress.start(Progress.UNKNOWN, family.getMemberView().size());
+
+        try {
+            Files.deleteIfExists(tempFile.toPath());
+            // Closing the store flushes it and forces it to disk
+            try (BTreeFamilyStore store = new BTreeFamilyStore(tempFile)) {
+                store.putFamily(family, progress);
+            }
+            Files.move(tempFile.toPath(), familyFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            PendingFile.syncDirectory(directory);
+            saved = true;
+        } catch (Exception e){
+            errorMsg.append("Unable to save " + FamilyFormat.BTREE.getExtension() + " file.");
+            LOGGER.severe("Caught exception: " + e.toString());
+        } finally {
+            if(!saved && tempFile.exists() && !tempFile.delete()){
+                LOGGER.warning("Unable to delete temporary file: " + tempFile.getName());
+            }
+        }
+
+        return saved;
+    }
+}
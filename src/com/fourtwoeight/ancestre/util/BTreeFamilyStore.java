@@ -0,0 +1,234 @@
+package com.fourtwoeight.ancestre.util;
+
+import com.fourtwoeight.ancestre.model.Family;
+import com.fourtwoeight.ancestre.model.Person;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * A family kept in a single B-tree file keyed by person uuid, so persons can be looked up, scanned by uuid range and
+ * updated in place without loading the whole family. Each person is stored as a PersonValue with their relatives
+ * referred to by uuid. Changes are written to the file when the store is flushed or closed. A store is not thread
+ * safe.
+ */
+public class BTreeFamilyStore implements Closeable {
+
+    // Private Static Fields ===========================================================================================
+
+    private static final Logger LOGGER = Logger.getLogger(BTreeFamilyStore.class.getName());
+
+    // Public Methods ==================================================================================================
+
+    /**
+     * Opens a store, creating an empty one if the file does not exist
+     * @param storeFile the store file
+     * @throws IOException if the file could not be opened or is not a store
+     */
+    public BTreeFamilyStore(File storeFile) throws IOException {
+        this.tree = new BTreeFile(storeFile);
+    }
+
+    /**
+     * @return the name of the family, null if it has none
+     */
+    public String getFamilyName(){
+        byte[] metadata = this.tree.getMetadata();
+        return (metadata.length > 0) ? new String(metadata, StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * @param familyName the name of the family
+     */
+    public void setFamilyName(String familyName){
+        this.tree.setMetadata((familyName != null) ? familyName.getBytes(StandardCharsets.UTF_8) : new byte[0]);
+    }
+
+    /**
+     * @return the number of persons in the store
+     */
+    public long size(){
+        return this.tree.size();
+    }
+
+    /**
+     * Looks up a person. Their father, mother, spouses and children are looked up as well, with only their details,
+     * so the person can be shown without loading the family.
+     * @param uuid the uuid of the person
+     * @return the person, null if they are not in the store
+     * @throws IOException if the store could not be read
+     */
+    public Person getPerson(UUID uuid) throws IOException {
+        byte[] bytes = this.tree.get(uuid);
+        if(bytes == null){
+            return null;
+        }
+
+        Map<UUID, Person> relatives = new HashMap<>();
+        for(UUID relative : PersonValue.decode(bytes).getRelatives()){
+            relatives.put(relative, getDetails(relative));
+        }
+
+        Person person = new Person();
+        person.setUUID(uuid);
+        PersonValue.decode(bytes).apply(person, relatives::get);
+        return person;
+    }
+
+    /**
+     * Looks up the details of the persons in a range of uuids, without their relationships
+     * @param from the first uuid of the range, null to start at the first person
+     * @param to the last uuid of the range, null to end at the last person
+     * @return the persons in uuid order
+     * @throws IOException if the store could not be read
+     */
+    public List<Person> getPersons(UUID from, UUID to) throws IOException {
+        List<Person> persons = new ArrayList<>();
+
+        this.tree.scan(from, to, (uuid, bytes) -> {
+            Person person = new Person();
+            person.setUUID(uuid);
+            PersonValue.decode(bytes).apply(person, relative -> null);
+            persons.add(person);
+        });
+        return persons;
+    }
+
+    /**
+     * Adds a person to the store, or replaces them if they are already in it. Their relatives are stored by uuid, the
+     * relatives themselves are not changed.
+     * @param person the person
+     * @throws IOException if the person could not be written
+     */
+    public void putPerson(Person person) throws IOException {
+        this.tree.put(person.getUUID(), PersonValue.encode(person, relative -> true));
+    }
+
+    /**
+     * Removes a person from the store. Relatives which refer to them are not changed.
+     * @param uuid the uuid of the person
+     * @return 'true' if the person was in the store. 'false' otherwise.
+     * @throws IOException if the store could not be read
+     */
+    public boolean removePerson(UUID uuid) throws IOException {
+        return this.tree.remove(uuid);
+    }
+
+    /**
+     * Loads every person in the store into a family, with their relationships resolved between them
+     * @param family the family to load into
+     * @throws IOException if the store could not be read
+     */
+    public void load(Family family) throws IOException {
+        load(family, new Progress());
+    }
+
+    /**
+     * Loads every person in the store into a family, with their relationships resolved between them, counting each
+     * person read against the progress
+     * @param family the family to load into
+     * @param progress the progress of the load
+     * @throws IOException if the store could not be read
+     */
+    public void load(Family family, Progress progress) throws IOException {
+        family.setFamilyName(getFamilyName());
+
+        // Every person is added before any relationships are applied so relatives can be resolved
+        List<Person> persons = new ArrayList<>();
+        List<PersonValue> values = new ArrayList<>();
+        this.tree.scan(null, null, (uuid, bytes) -> {
+            Person person = new Person();
+            person.setUUID(uuid);
+            family.addPerson(person);
+            persons.add(person);
+            values.add(PersonValue.decode(bytes));
+            progress.addPersons(1);
+        });
+
+        for(int i = 0; i < persons.size(); i++){
+            values.get(i).apply(persons.get(i), uuid -> {
+                Person relative = family.getPerson(uuid);
+                if(relative == null){
+                    LOGGER.warning("Unable to find person for UUID: " + uuid);
+                }
+                return relative;
+            });
+        }
+    }
+
+    /**
+     * Adds every member of a family to the store and sets its name. Relatives outside of the family are left out.
+     * @param family the family
+     * @throws IOException if a person could not be written
+     */
+    public void putFamily(Family family) throws IOException {
+        putFamily(family, new Progress());
+    }
+
+    /**
+     * Adds every member of a family to the store and sets its name, counting each member written against the
+     * progress. Relatives outside of the family are left out.
+     * @param family the family
+     * @param progress the progress of the save
+     * @throws IOException if a person could not be written
+     */
+    public void putFamily(Family family, Progress progress) throws IOException {
+        setFamilyName(family.getFamilyName());
+
+        // Put in uuid order so the leaves are filled one after another
+        List<Person> persons = new ArrayList<>(family.getMemberView());
+        persons.sort((a, b) -> a.getUUID().compareTo(b.getUUID()));
+        for(Person person : persons){
+            this.tree.put(person.getUUID(), PersonValue.encode(person, family::isMember));
+            progress.addPersons(1);
+        }
+    }
+
+    /**
+     * Writes every change to the file and forces it to disk
+     * @throws IOException if the changes could not be written
+     */
+    public void flush() throws IOException {
+        this.tree.flush();
+    }
+
+    /**
+     * Flushes the store and closes the file
+     * @throws IOException if the changes could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        this.tree.close();
+    }
+
+    // Private Methods =================================================================================================
+
+    /**
+     * @param uuid the uuid of a person
+     * @return the person with only their details, null if they are not in the store
+     * @throws IOException if the store could not be read
+     */
+    private Person getDetails(UUID uuid) throws IOException {
+        byte[] bytes = this.tree.get(uuid);
+        if(bytes == null){
+            return null;
+        }
+
+        Person person = new Person();
+        person.setUUID(uuid);
+        PersonValue.decode(bytes).apply(person, relative -> null);
+        return person;
+    }
+
+    // Private Fields ==================================================================================================
+
+    private final BTreeFile tree;
+}
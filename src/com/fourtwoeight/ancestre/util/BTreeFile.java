@@ -0,0 +1,817 @@
+package com.fourtwoeight.ancestre.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * A B+ tree of byte array values keyed by uuid, stored in fixed size pages of a single file. Values are kept in the
+ * leaves, which are linked in key order so ranges can be scanned, and values too large to share a leaf are kept in a
+ * chain of overflow pages. Keys are ordered as UUID.compareTo orders them.
+ *
+ * <pre>
+ *   page 0     header: magic, version, page size, root page, page count, free page, entry count, metadata
+ *   leaf       type, cell count, next leaf, then per cell the key, value length, whether the value overflows, and the
+ *              value or its first overflow page
+ *   internal   type, key count, first child, then per key the key and the child holding keys from it on
+ *   overflow   next overflow page, then value bytes
+ *   free       next free page
+ * </pre>
+ *
+ * Pages are decoded into nodes which are cached, and changed nodes are written back in place by flush. Between
+ * flushes only new overflow pages are written, which nothing in the file refers to yet, and pages freed since the last
+ * flush are not reused until it. A crash during a flush can still leave the tree inconsistent, so a tree which must
+ * survive a crash should be written to a temporary file and moved into place. Removing a value does not merge
+ * leaves, the space is reused by later puts. Instances are not thread safe.
+ */
+class BTreeFile implements Closeable {
+
+    // Package Static Fields ===========================================================================================
+
+    static final int MAGIC = 0x414E4254;
+
+    static final int VERSION = 1;
+
+    static final int PAGE_SIZE = 4096;
+
+    // Private Static Fields ===========================================================================================
+
+    private static final Logger LOGGER = Logger.getLogger(BTreeFile.class.getName());
+
+    private static final int HEADER_SIZE = 36;
+
+    /**
+     * The most metadata bytes which fit in the header page
+     */
+    private static final int MAX_METADATA = PAGE_SIZE - HEADER_SIZE;
+
+    private static final byte LEAF = 1;
+    private static final byte INTERNAL = 2;
+
+    /**
+     * The size of the type, count and first pointer at the start of a leaf or internal page
+     */
+    private static final int NODE_HEADER_SIZE = 7;
+
+    private static final int KEY_SIZE = 16;
+
+    /**
+     * The largest value kept in its leaf, larger values are kept in overflow pages so each leaf holds several cells
+     */
+    private static final int MAX_INLINE = 512;
+
+    /**
+     * The number of clean nodes kept in memory
+     */
+    private static final int CACHE_SIZE = 2048;
+
+    // Public Methods ==================================================================================================
+
+    /**
+     * Opens a tree, creating an empty one if the file does not exist or is empty
+     * @param file the file holding the tree
+     * @throws IOException if the file could not be opened or is not a tree
+     */
+    BTreeFile(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        try {
+            if(this.channel.size() == 0){
+                this.pageCount = 2;
+                this.rootPage = 1;
+                this.metadata = new byte[0];
+                Node root = new Node(this.rootPage, true);
+                this.nodes.put(root.page, root);
+                root.dirty = true;
+                this.headerDirty = true;
+            }
+            else{
+                readHeader();
+            }
+        } catch (IOException e){
+            this.channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Finds the value for a key
+     * @param key the key
+     * @return the value, null if there is none
+     * @throws IOException if the tree could not be read
+     */
+    byte[] get(UUID key) throws IOException {
+        Node leaf = findLeaf(key);
+        int index = Collections.binarySearch(leaf.keys, key);
+        byte[] value = (index >= 0) ? value(leaf.cells.get(index)) : null;
+        evict();
+        return value;
+    }
+
+    /**
+     * Sets the value for a key, replacing any value it already had
+     * @param key the key
+     * @param value the value
+     * @throws IOException if the tree could not be read or the value could not be written
+     */
+    void put(UUID key, byte[] value) throws IOException {
+        Cell cell = cell(value);
+        Split split = insert(this.rootPage, key, cell);
+
+        // The root split, so the tree grows a level
+        if(split != null){
+            Node root = new Node(allocate(), false);
+            root.children.add(this.rootPage);
+            root.keys.add(split.key);
+            root.children.add(split.page);
+            root.dirty = true;
+            this.nodes.put(root.page, root);
+            this.rootPage = root.page;
+            this.headerDirty = true;
+        }
+        evict();
+    }
+
+    /**
+     * Removes the value for a key
+     * @param key the key
+     * @return 'true' if the key had a value. 'false' otherwise.
+     * @throws IOException if the tree could not be read
+     */
+    boolean remove(UUID key) throws IOException {
+        Node leaf = findLeaf(key);
+        int index = Collections.binarySearch(leaf.keys, key);
+
+        if(index >= 0){
+            freeOverflow(leaf.cells.get(index));
+            leaf.keys.remove(index);
+            leaf.cells.remove(index);
+            leaf.dirty = true;
+            this.entryCount--;
+            this.headerDirty = true;
+        }
+        evict();
+        return index >= 0;
+    }
+
+    /**
+     * Visits every key and value in a range in key order
+     * @param from the first key of the range, null to start at the first key
+     * @param to the last key of the range, null to end at the last key
+     * @param visitor the visitor to give each key and value to
+     * @throws IOException if the tree could not be read
+     */
+    void scan(UUID from, UUID to, Visitor visitor) throws IOException {
+        Node leaf = (from != null) ? findLeaf(from) : firstLeaf();
+        int index = (from != null) ? Collections.binarySearch(leaf.keys, from) : 0;
+        if(index < 0){
+            index = -index - 1;
+        }
+
+        while(leaf != null){
+            for(; index < leaf.keys.size(); index++){
+                UUID key = leaf.keys.get(index);
+                if(to != null && key.compareTo(to) > 0){
+                    return;
+                }
+                visitor.visit(key, value(leaf.cells.get(index)));
+            }
+            leaf = (leaf.next != 0) ? node(leaf.next) : null;
+            index = 0;
+            evict();
+        }
+    }
+
+    /**
+     * @return the number of keys in the tree
+     */
+    long size(){
+        return this.entryCount;
+    }
+
+    /**
+     * @return the metadata stored alongside the tree
+     */
+    byte[] getMetadata(){
+        return this.metadata.clone();
+    }
+
+    /**
+     * Sets the metadata stored alongside the tree, which must fit in the header page
+     * @param metadata the metadata
+     */
+    void setMetadata(byte[] metadata){
+        if(metadata.length > MAX_METADATA){
+            throw new IllegalArgumentException("Metadata is " + metadata.length + " bytes, at most " + MAX_METADATA
+                    + " are allowed.");
+        }
+        this.metadata = metadata.clone();
+        this.headerDirty = true;
+    }
+
+    /**
+     * Writes every changed page to the file and forces it to disk
+     * @throws IOException if a page could not be written
+     */
+    void flush() throws IOException {
+        List<Node> dirty = new ArrayList<>();
+        for(Node node : this.nodes.values()){
+            if(node.dirty){
+                dirty.add(node);
+            }
+        }
+
+        // Written in page order so the file is extended in order
+        dirty.sort((a, b) -> Integer.compare(a.page, b.page));
+        for(Node node : dirty){
+            writeNode(node);
+        }
+
+        // Pages freed since the last flush are no longer referred to by any page written, so they can now be reused
+        for(int page : this.freedPages){
+            ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE);
+            buffer.putInt(this.freePage);
+            writePage(page, buffer);
+            this.freePage = page;
+            this.headerDirty = true;
+        }
+        this.freedPages.clear();
+
+        if(this.headerDirty || !dirty.isEmpty()){
+            writeHeader();
+        }
+        this.channel.force(true);
+        evict();
+    }
+
+    /**
+     * Flushes the tree and closes the file
+     * @throws IOException if the tree could not be flushed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            this.channel.close();
+        }
+    }
+
+    // Package Interfaces ==============================================================================================
+
+    /**
+     * Receives the keys and values of a scan
+     */
+    interface Visitor {
+
+        /**
+         * @param key the key
+         * @param value the value for the key
+         * @throws IOException if the value could not be used
+         */
+        void visit(UUID key, byte[] value) throws IOException;
+    }
+
+    // Private Methods =================================================================================================
+
+    /**
+     * Inserts a cell into the subtree below a page
+     * @param page the root page of the subtree
+     * @param key the key
+     * @param cell the cell for the value
+     * @return the split if the node at the page was split, null otherwise
+     * @throws IOException if the tree could not be read
+     */
+    private Split insert(int page, UUID key, Cell cell) throws IOException {
+        Node node = node(page);
+        int index = Collections.binarySearch(node.keys, key);
+
+        if(node.leaf){
+            if(index >= 0){
+                freeOverflow(node.cells.get(index));
+                node.cells.set(index, cell);
+            }
+            else{
+                index = -index - 1;
+                node.keys.add(index, key);
+                node.cells.add(index, cell);
+                this.entryCount++;
+                this.headerDirty = true;
+            }
+            node.dirty = true;
+            return (node.size() > PAGE_SIZE) ? splitLeaf(node, index) : null;
+        }
+
+        int child = (index >= 0) ? index + 1 : -index - 1;
+        Split split = insert(node.children.get(child), key, cell);
+        if(split == null){
+            return null;
+        }
+
+        node.keys.add(child, split.key);
+        node.children.add(child + 1, split.page);
+        node.dirty = true;
+        return (node.size() > PAGE_SIZE) ? splitInternal(node) : null;
+    }
+
+    /**
+     * Splits a leaf which has grown too large in two. A leaf which grew by appending at the end of the tree keeps all
+     * but the last cell, so a tree filled in key order has full leaves rather than half full ones.
+     * @param leaf the leaf
+     * @param inserted the index of the cell which was inserted
+     * @return the split
+     * @throws IOException if a page could not be allocated
+     */
+    private Split splitLeaf(Node leaf, int inserted) throws IOException {
+        int at;
+        if(inserted == leaf.keys.size() - 1 && leaf.next == 0){
+            at = leaf.keys.size() - 1;
+        }
+        else{
+            int half = leaf.size() / 2;
+            int size = NODE_HEADER_SIZE;
+            at = 0;
+            while(at < leaf.keys.size() - 1 && size < half){
+                size += leaf.cells.get(at).size();
+                at++;
+            }
+            at = Math.max(at, 1);
+        }
+
+        Node right = new Node(allocate(), true);
+        right.keys.addAll(leaf.keys.subList(at, leaf.keys.size()));
+        right.cells.addAll(leaf.cells.subList(at, leaf.cells.size()));
+        leaf.keys.subList(at, leaf.keys.size()).clear();
+        leaf.cells.subList(at, leaf.cells.size()).clear();
+        right.next = leaf.next;
+        leaf.next = right.page;
+        right.dirty = true;
+        this.nodes.put(right.page, right);
+
+        return new Split(right.keys.get(0), right.page);
+    }
+
+    /**
+     * Splits an internal node which has grown too large in two, moving its middle key up
+     * @param node the internal node
+     * @return the split
+     * @throws IOException if a page could not be allocated
+     */
+    private Split splitInternal(Node node) throws IOException {
+        int middle = node.keys.size() / 2;
+        UUID key = node.keys.get(middle);
+
+        Node right = new Node(allocate(), false);
+        right.keys.addAll(node.keys.subList(middle + 1, node.keys.size()));
+        right.children.addAll(node.children.subList(middle + 1, node.children.size()));
+        node.keys.subList(middle, node.keys.size()).clear();
+        node.children.subList(middle + 1, node.children.size()).clear();
+        right.dirty = true;
+        this.nodes.put(right.page, right);
+
+        return new Split(key, right.page);
+    }
+
+    /**
+     * @param key a key
+     * @return the leaf the key belongs in
+     * @throws IOException if the tree could not be read
+     */
+    private Node findLeaf(UUID key) throws IOException {
+        Node node = node(this.rootPage);
+
+        while(!node.leaf){
+            int index = Collections.binarySearch(node.keys, key);
+            node = node(node.children.get((index >= 0) ? index + 1 : -index - 1));
+        }
+        return node;
+    }
+
+    /**
+     * @return the leaf holding the smallest keys
+     * @throws IOException if the tree could not be read
+     */
+    private Node firstLeaf() throws IOException {
+        Node node = node(this.rootPage);
+
+        while(!node.leaf){
+            node = node(node.children.get(0));
+        }
+        return node;
+    }
+
+    /**
+     * Returns the node at a page, reading it if it is not cached
+     * @param page the page
+     * @return the node
+     * @throws IOException if the page could not be read or is not a node
+     */
+    private Node node(int page) throws IOException {
+        Node node = this.nodes.get(page);
+
+        if(node == null){
+            ByteBuffer buffer = readPage(page);
+            byte type = buffer.get();
+            if(type != LEAF && type != INTERNAL){
+                throw new IOException("Page " + page + " is not a tree node.");
+            }
+
+            node = new Node(page, type == LEAF);
+            int count = buffer.getShort() & 0xFFFF;
+            if(node.leaf){
+                node.next = buffer.getInt();
+                for(int i = 0; i < count; i++){
+                    node.keys.add(new UUID(buffer.getLong(), buffer.getLong()));
+                    Cell cell = new Cell();
+                    cell.length = buffer.getInt();
+                    if(buffer.get() == 0){
+                        cell.inline = new byte[cell.length];
+                        buffer.get(cell.inline);
+                    }
+                    else{
+                        cell.overflowPage = buffer.getInt();
+                    }
+                    node.cells.add(cell);
+                }
+            }
+            else{
+                node.children.add(buffer.getInt());
+                for(int i = 0; i < count; i++){
+                    node.keys.add(new UUID(buffer.getLong(), buffer.getLong()));
+                    node.children.add(buffer.getInt());
+                }
+            }
+            this.nodes.put(page, node);
+        }
+        return node;
+    }
+
+    /**
+     * Writes a node to its page
+     * @param node the node
+     * @throws IOException if the page could not be written
+     */
+    private void writeNode(Node node) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE);
+        buffer.put(node.leaf ? LEAF : INTERNAL);
+        buffer.putShort((short) node.keys.size());
+
+        if(node.leaf){
+            buffer.putInt(node.next);
+            for(int i = 0; i < node.keys.size(); i++){
+                putKey(buffer, node.keys.get(i));
+                Cell cell = node.cells.get(i);
+                buffer.putInt(cell.length);
+                if(cell.inline != null){
+                    buffer.put((byte) 0);
+                    buffer.put(cell.inline);
+                }
+                else{
+                    buffer.put((byte) 1);
+                    buffer.putInt(cell.overflowPage);
+                }
+            }
+        }
+        else{
+            buffer.putInt(node.children.get(0));
+            for(int i = 0; i < node.keys.size(); i++){
+                putKey(buffer, node.keys.get(i));
+                buffer.putInt(node.children.get(i + 1));
+            }
+        }
+
+        writePage(node.page, buffer);
+        node.dirty = false;
+    }
+
+    /**
+     * Creates the cell for a value, writing it to overflow pages if it is too large to keep in a leaf
+     * @param value the value
+     * @return the cell
+     * @throws IOException if an overflow page could not be written
+     */
+    private Cell cell(byte[] value) throws IOException {
+        Cell cell = new Cell();
+        cell.length = value.length;
+
+        if(value.length <= MAX_INLINE){
+            cell.inline = value.clone();
+            return cell;
+        }
+
+        // Overflow pages are written straight away as nothing refers to them until the leaf is written
+        int chunk = PAGE_SIZE - 4;
+        int pageCount = (value.length + chunk - 1) / chunk;
+        int[] pages = new int[pageCount];
+        for(int i = 0; i < pageCount; i++){
+            pages[i] = allocate();
+        }
+        for(int i = 0; i < pageCount; i++){
+            ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE);
+            buffer.putInt((i + 1 < pageCount) ? pages[i + 1] : 0);
+            buffer.put(value, i * chunk, Math.min(chunk, value.length - i * chunk));
+            writePage(pages[i], buffer);
+        }
+        cell.overflowPage = pages[0];
+        return cell;
+    }
+
+    /**
+     * @param cell a cell
+     * @return the value the cell holds, read from its overflow pages if it is not inline
+     * @throws IOException if an overflow page could not be read
+     */
+    private byte[] value(Cell cell) throws IOException {
+        if(cell.inline != null){
+            return cell.inline.clone();
+        }
+
+        byte[] value = new byte[cell.length];
+        int page = cell.overflowPage;
+        int offset = 0;
+        while(offset < value.length){
+            ByteBuffer buffer = readPage(page);
+            page = buffer.getInt();
+            int length = Math.min(buffer.remaining(), value.length - offset);
+            buffer.get(value, offset, length);
+            offset += length;
+        }
+        return value;
+    }
+
+    /**
+     * Frees the overflow pages of a cell, they join the free list on the next flush
+     * @param cell the cell
+     * @throws IOException if an overflow page could not be read
+     */
+    private void freeOverflow(Cell cell) throws IOException {
+        int page = (cell.inline == null) ? cell.overflowPage : 0;
+
+        while(page != 0){
+            this.freedPages.add(page);
+            page = readPage(page).getInt();
+        }
+    }
+
+    /**
+     * @return a page for a new node, reused from the free list if it has one
+     * @throws IOException if the free list could not be read
+     */
+    private int allocate() throws IOException {
+        this.headerDirty = true;
+
+        if(this.freePage != 0){
+            int page = this.freePage;
+            this.freePage = readPage(page).getInt();
+            return page;
+        }
+        return this.pageCount++;
+    }
+
+    /**
+     * Drops the least recently used clean nodes once the cache is full. Changed nodes stay until they are flushed.
+     */
+    private void evict(){
+        if(this.nodes.size() > CACHE_SIZE){
+            Iterator<Map.Entry<Integer, Node>> iterator = this.nodes.entrySet().iterator();
+            while(iterator.hasNext() && this.nodes.size() > CACHE_SIZE / 2){
+                Map.Entry<Integer, Node> entry = iterator.next();
+                if(!entry.getValue().dirty && entry.getKey() != this.rootPage){
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the header page
+     * @throws IOException if the header could not be read or the file is not a tree
+     */
+    private void readHeader() throws IOException {
+        ByteBuffer buffer = readPage(0);
+
+        if(buffer.getInt() != MAGIC){
+            throw new IOException("Not a B-tree file.");
+        }
+        int version = buffer.getInt();
+        if(version != VERSION){
+            throw new IOException("Unsupported B-tree version: " + version);
+        }
+        int pageSize = buffer.getInt();
+        if(pageSize != PAGE_SIZE){
+            throw new IOException("Unsupported B-tree page size: " + pageSize);
+        }
+
+        this.rootPage = buffer.getInt();
+        this.pageCount = buffer.getInt();
+        this.freePage = buffer.getInt();
+        this.entryCount = buffer.getLong();
+        int metadataLength = buffer.getInt();
+        if(metadataLength < 0 || metadataLength > MAX_METADATA){
+            throw new IOException("Malformed B-tree header.");
+        }
+        this.metadata = new byte[metadataLength];
+        buffer.get(this.metadata);
+        LOGGER.fine("Opened B-tree with " + this.entryCount + " keys in " + this.pageCount + " pages.");
+    }
+
+    /**
+     * Writes the header page
+     * @throws IOException if the header could not be written
+     */
+    private void writeHeader() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(PAGE_SIZE);
+        buffer.putInt(this.rootPage);
+        buffer.putInt(this.pageCount);
+        buffer.putInt(this.freePage);
+        buffer.putLong(this.entryCount);
+        buffer.putInt(this.metadata.length);
+        buffer.put(this.metadata);
+        writePage(0, buffer);
+        this.headerDirty = false;
+    }
+
+    /**
+     * @param page a page
+     * @return the contents of the page, positioned at its start
+     * @throws IOException if the page could not be read
+     */
+    private ByteBuffer readPage(int page) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE);
+        long position = (long) page * PAGE_SIZE;
+
+        while(buffer.hasRemaining()){
+            if(this.channel.read(buffer, position + buffer.position()) < 0){
+                throw new IOException("Page " + page + " is past the end of the file.");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Writes a whole page
+     * @param page the page
+     * @param buffer the contents of the page, which are padded to the page size
+     * @throws IOException if the page could not be written
+     */
+    private void writePage(int page, ByteBuffer buffer) throws IOException {
+        buffer.position(0);
+        buffer.limit(PAGE_SIZE);
+        long position = (long) page * PAGE_SIZE;
+
+        while(buffer.hasRemaining()){
+            this.channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    /**
+     * @param buffer the buffer to write to
+     * @param key the key to write
+     */
+    private static void putKey(ByteBuffer buffer, UUID key){
+        buffer.putLong(key.getMostSignificantBits());
+        buffer.putLong(key.getLeastSignificantBits());
+    }
+
+    // Private Classes =================================================================================================
+
+    /**
+     * A decoded leaf or internal page
+     */
+    private static class Node {
+
+        /**
+         * Constructor
+         * @param page the page the node is stored in
+         * @param leaf whether the node is a leaf
+         */
+        Node(int page, boolean leaf){
+            this.page = page;
+            this.leaf = leaf;
+        }
+
+        /**
+         * @return the number of bytes the node takes when written
+         */
+        int size(){
+            int size = NODE_HEADER_SIZE;
+
+            if(this.leaf){
+                for(Cell cell : this.cells){
+                    size += cell.size();
+                }
+            }
+            else{
+                size += this.keys.size() * (KEY_SIZE + 4);
+            }
+            return size;
+        }
+
+        private final int page;
+
+        private final boolean leaf;
+
+        private final List<UUID> keys = new ArrayList<>();
+
+        /**
+         * The cells of a leaf, one for each key
+         */
+        private final List<Cell> cells = new ArrayList<>();
+
+        /**
+         * The child pages of an internal node, one more than it has keys
+         */
+        private final List<Integer> children = new ArrayList<>();
+
+        /**
+         * The next leaf in key order, 0 for the last
+         */
+        private int next;
+
+        private boolean dirty;
+    }
+
+    /**
+     * The value of a leaf entry, held inline or in overflow pages
+     */
+    private static class Cell {
+
+        /**
+         * @return the number of bytes the cell takes in its leaf, including its key
+         */
+        int size(){
+            return KEY_SIZE + 5 + ((this.inline != null) ? this.inline.length : 4);
+        }
+
+        private int length;
+
+        private byte[] inline;
+
+        private int overflowPage;
+    }
+
+    /**
+     * The result of splitting a node: the smallest key of the new right node and its page
+     */
+    private static class Split {
+
+        /**
+         * Constructor
+         * @param key the key which separates the two nodes
+         * @param page the page of the new right node
+         */
+        Split(UUID key, int page){
+            this.key = key;
+            this.page = page;
+        }
+
+        private final UUID key;
+
+        private final int page;
+    }
+
+    // Private Fields ==================================================================================================
+
+    private final FileChannel channel;
+
+    /**
+     * Nodes which have been read or changed, in the order they were last used
+     */
+    private final LinkedHashMap<Integer, Node> nodes = new LinkedHashMap<>(16, 0.75f, true);
+
+    private int rootPage;
+
+    private int pageCount;
+
+    /**
+     * The first page of the free list, 0 if it is empty
+     */
+    private int freePage;
+
+    /**
+     * Pages freed since the last flush
+     */
+    private final List<Integer> freedPages = new ArrayList<>();
+
+    private long entryCount;
+
+    private byte[] metadata;
+
+    private boolean headerDirty;
+}
@@ -0,0 +1,537 @@
+package com.fourtwoeight.ancestre.util;
+
+import com.fourtwoeight.ancestre.model.Family;
+import com.fourtwoeight.ancestre.model.Person;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.function.IntFunction;
+import java.util.logging.Logger;
+
+/**
+ * Reads and writes the single file binary family format. The file is laid out as
+ * <pre>
+ *   header        magic, version, person count, string count, family name reference and section offsets
+ *   string index  one int per string giving its offset from the start of the string data
+ *   string data   each distinct string once, as a varint byte length followed by UTF-8 bytes
+ *   person index  one entry per person sorted by UUID: the UUID as two longs and the offset of its record
+ *   records       one record per person in index order
+ * </pre>
+ * A person's id is its position in the person index. Records refer to strings by varint string reference (0 for null,
+ * otherwise the string index + 1) and to other persons by varint id, so a relationship costs one to three bytes
+ * rather than a 36 character UUID.
+ */
+public class BinaryFamilyCodec {
+
+    // Package Static Fields ===========================================================================================
+
+    static final int MAGIC = 0x414E4342;
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 40;
+
+    static final int INDEX_ENTRY_SIZE = 24;
+
+    static final int NO_DATE = 0;
+    static final int HYBRID_DATE = 1;
+    static final int GREGORIAN_DATE = 2;
+
+    static final Date PURE_GREGORIAN = new Date(Long.MIN_VALUE);
+
+    // Private Static Fields ===========================================================================================
+
+    private static final Logger LOGGER = Logger.getLogger(BinaryFamilyCodec.class.getName());
+
+    // Public Methods ==================================================================================================
+
+    /**
+     * Writes the family and all of its members to the output stream. The stream is flushed but not closed.
+     * @param family the family to write
+     * @param outputStream the stream to write to
+     * @throws IOException if the data could not be written
+     */
+    public void write(Family family, OutputStream outputStream) throws IOException {
+        write(family, outputStream, new Progress());
+    }
+
+    /**
+     * Writes the family and all of its members to the output stream, counting each member written against the
+     * progress. The stream is flushed but not closed.
+     * @param family the family to write
+     * @param outputStream the stream to write to
+     * @param progress the progress of the save
+     * @throws IOException if the data could not be written
+     */
+    public void write(Family family, OutputStream outputStream, Progress progress) throws IOException {
+        LOGGER.fine("Writing binary family: " + family.getFamilyName());
+
+        // Assign dense ids in UUID order
+        Person[] persons = family.getMemberView().toArray(new Person[0]);
+        Arrays.sort(persons, Comparator.comparing(Person::getUUID));
+        IdentityHashMap<Person, Integer> ids = new IdentityHashMap<>();
+        for(int i = 0; i < persons.length; i++){
+            ids.put(persons[i], i);
+        }
+
+        // Build the string table
+        LinkedHashMap<String, Integer> strings = new LinkedHashMap<>();
+        addString(strings, family.getFamilyName());
+        for(Person person : persons){
+            addStrings(strings, person);
+        }
+
+        // Size every record so the index can be written ahead of them
+        ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream();
+        DataOutputStream recordOutput = new DataOutputStream(recordBuffer);
+        long[] recordOffsets = new long[persons.length];
+        long recordOffset = 0;
+        for(int i = 0; i < persons.length; i++){
+            recordOffsets[i] = recordOffset;
+            recordBuffer.reset();
+            writeRecord(recordOutput, persons[i], strings, ids);
+            recordOffset += recordBuffer.size();
+            progress.checkCancelled();
+        }
+
+        // Size the string data
+        int[] stringOffsets = new int[strings.size()];
+        int stringOffset = 0;
+        int stringIndex = 0;
+        for(String string : strings.keySet()){
+            stringOffsets[stringIndex++] = stringOffset;
+            int length = string.getBytes(StandardCharsets.UTF_8).length;
+            stringOffset += varIntLength(length) + length;
+        }
+
+        long stringDataOffset = HEADER_SIZE + 4L * strings.size();
+        long personIndexOffset = stringDataOffset + stringOffset;
+        long recordsOffset = personIndexOffset + (long) INDEX_ENTRY_SIZE * persons.length;
+
+        DataOutputStream output = new DataOutputStream(outputStream);
+
+        // Header
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(persons.length);
+        output.writeInt(strings.size());
+        output.writeInt(stringReference(strings, family.getFamilyName()));
+        output.writeInt(0);
+        output.writeLong(personIndexOffset);
+        output.writeLong(recordsOffset);
+
+        // String index and data
+        for(int offset : stringOffsets){
+            output.writeInt(offset);
+        }
+        for(String string : strings.keySet()){
+            writeString(output, string);
+        }
+
+        // Person index
+        for(int i = 0; i < persons.length; i++){
+            output.writeLong(persons[i].getUUID().getMostSignificantBits());
+            output.writeLong(persons[i].getUUID().getLeastSignificantBits());
+            output.writeLong(recordOffsets[i]);
+        }
+
+        // Records
+        for(Person person : persons){
+            writeRecord(output, person, strings, ids);
+            progress.addPersons(1);
+        }
+
+        output.flush();
+    }
+
+    /**
+     * Reads a binary family file, setting the family name and adding every person along with their relationships to
+     * the family
+     * @param family the family to load into
+     * @param inputStream the stream to read from
+     * @return 'true' if the family was read. 'false' if the stream is not a supported binary family file.
+     * @throws IOException if the stream could not be read
+     */
+    public boolean read(Family family, InputStream inputStream) throws IOException {
+        return read(family, inputStream, new Progress());
+    }
+
+    /**
+     * Reads a binary family file, setting the family name and adding every person along with their relationships to
+     * the family, counting each person read against the progress
+     * @param family the family to load into
+     * @param inputStream the stream to read from
+     * @param progress the progress of the load
+     * @return 'true' if the family was read. 'false' if the stream is not a supported binary family file.
+     * @throws IOException if the stream could not be read
+     */
+    public boolean read(Family family, InputStream inputStream, Progress progress) throws IOException {
+        LOGGER.fine("Reading binary family.");
+        DataInputStream input = new DataInputStream(inputStream);
+
+        // Header
+        if(input.readInt() != MAGIC){
+            LOGGER.severe("Not a binary family file.");
+            return false;
+        }
+        int version = input.readInt();
+        if(version != VERSION){
+            LOGGER.severe("Unsupported binary family version: " + version);
+            return false;
+        }
+        int personCount = input.readInt();
+        int stringCount = input.readInt();
+        int familyNameReference = input.readInt();
+        input.readInt();
+        input.readLong();
+        input.readLong();
+
+        // Strings, the offsets are only needed for random access
+        input.skipBytes(4 * stringCount);
+        String[] strings = new String[stringCount];
+        for(int i = 0; i < stringCount; i++){
+            strings[i] = readString(input);
+        }
+
+        // Persons, created up front so relationships can refer forward
+        Person[] persons = new Person[personCount];
+        for(int i = 0; i < personCount; i++){
+            persons[i] = new Person();
+            persons[i].setUUID(new UUID(input.readLong(), input.readLong()));
+            input.readLong();
+        }
+
+        // Records
+        for(Person person : persons){
+            readDetails(input, person, reference -> string(strings, reference));
+            readRelationships(input, person, id -> persons[id]);
+            progress.addPersons(1);
+        }
+
+        family.setFamilyName(string(strings, familyNameReference));
+        for(Person person : persons){
+            family.addPerson(person);
+        }
+
+        return true;
+    }
+
+    // Package Static Methods ==========================================================================================
+
+    /**
+     * Reads the details portion of a record, leaving the input positioned at the relationships
+     * @param input the input positioned at the start of the record
+     * @param person the person to fill in
+     * @param strings resolves a string reference to its string, null for reference 0
+     * @throws IOException if the record could not be read
+     */
+    static void readDetails(DataInput input, Person person, IntFunction<String> strings) throws IOException {
+        int sex = input.readUnsignedByte();
+        person.setSex(sex == 0 ? null : Person.SEX.values()[sex - 1]);
+        person.setFirstName(strings.apply(readVarInt(input)));
+        person.setLastName(strings.apply(readVarInt(input)));
+        person.setDescription(strings.apply(readVarInt(input)));
+        person.setImagePath(strings.apply(readVarInt(input)));
+
+        int middleNameCount = readVarInt(input);
+        for(int i = 0; i < middleNameCount; i++){
+            person.getMiddleNames().add(strings.apply(readVarInt(input)));
+        }
+
+        person.setBirthDate(readCalendar(input, strings));
+        person.setDeathDate(readCalendar(input, strings));
+    }
+
+    /**
+     * Reads the relationships portion of a record
+     * @param input the input positioned at the relationships
+     * @param person the person to fill in
+     * @param persons resolves a person id to its person, persons resolved to null are left out
+     * @throws IOException if the record could not be read
+     */
+    static void readRelationships(DataInput input, Person person, IntFunction<Person> persons) throws IOException {
+        person.setFather(person(persons, readVarInt(input)));
+        person.setMother(person(persons, readVarInt(input)));
+        person.setCurrentSpouse(person(persons, readVarInt(input)));
+
+        int spouseCount = readVarInt(input);
+        for(int i = 0; i < spouseCount; i++){
+            Person spouse = persons.apply(readVarInt(input));
+            if(spouse != null){
+                person.addSpouse(spouse);
+            }
+        }
+
+        int childCount = readVarInt(input);
+        for(int i = 0; i < childCount; i++){
+            Person child = persons.apply(readVarInt(input));
+            if(child != null){
+                person.addChild(child);
+            }
+        }
+    }
+
+    /**
+     * Writes an unsigned LEB128 varint
+     * @param output the output to write to
+     * @param value the non-negative value to write
+     * @throws IOException if the value could not be written
+     */
+    static void writeVarInt(DataOutput output, int value) throws IOException {
+        while((value & ~0x7F) != 0){
+            output.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte(value);
+    }
+
+    /**
+     * Reads an unsigned LEB128 varint
+     * @param input the input to read from
+     * @return the value read
+     * @throws IOException if the value could not be read
+     */
+    static int readVarInt(DataInput input) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+
+        do {
+            b = input.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while((b & 0x80) != 0);
+
+        return value;
+    }
+
+    /**
+     * Writes a string as a varint byte length followed by UTF-8 bytes
+     * @param output the output to write to
+     * @param string the string to write
+     * @throws IOException if the string could not be written
+     */
+    static void writeString(DataOutput output, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(output, bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * Reads a string written as a varint byte length followed by UTF-8 bytes
+     * @param input the input to read from
+     * @return the string read
+     * @throws IOException if the string could not be read
+     */
+    static String readString(DataInput input) throws IOException {
+        byte[] bytes = new byte[readVarInt(input)];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param strings the string table
+     * @param reference the string reference
+     * @return the referenced string, null for reference 0
+     */
+    static String string(String[] strings, int reference){
+        return (reference == 0) ? null : strings[reference - 1];
+    }
+
+    /**
+     * Writes the record for a single person
+     * @param output the output to write to
+     * @param person the person to write
+     * @param strings the string table
+     * @param ids the dense id of each person
+     * @throws IOException if the record could not be written
+     */
+    static void writeRecord(DataOutput output, Person person, Map<String, Integer> strings,
+                             Map<Person, Integer> ids) throws IOException {
+        output.writeByte(person.getSex() == null ? 0 : person.getSex().ordinal() + 1);
+        writeVarInt(output, stringReference(strings, person.getFirstName()));
+        writeVarInt(output, stringReference(strings, person.getLastName()));
+        writeVarInt(output, stringReference(strings, person.getDescription()));
+        writeVarInt(output, stringReference(strings, person.getImagePath()));
+
+        List<String> middleNames = (person.getMiddleNames() != null) ? person.getMiddleNames() : new ArrayList<>();
+        writeVarInt(output, middleNames.size());
+        for(String middleName : middleNames){
+            writeVarInt(output, stringReference(strings, middleName));
+        }
+
+        writeCalendar(output, person.getBirthDate(), strings);
+        writeCalendar(output, person.getDeathDate(), strings);
+
+        writeVarInt(output, personReference(ids, person.getFather()));
+        writeVarInt(output, personReference(ids, person.getMother()));
+        writeVarInt(output, personReference(ids, person.getCurrentSpouse()));
+        writePersonList(output, person.getSpouses(), ids);
+        writePersonList(output, person.getChildren(), ids);
+    }
+
+    /**
+     * Adds every string a person's record refers to into the string table
+     * @param strings the string table
+     * @param person the person
+     */
+    static void addStrings(Map<String, Integer> strings, Person person){
+        addString(strings, person.getFirstName());
+        addString(strings, person.getLastName());
+        addString(strings, person.getDescription());
+        addString(strings, person.getImagePath());
+
+        if(person.getMiddleNames() != null){
+            for(String middleName : person.getMiddleNames()){
+                addString(strings, middleName);
+            }
+        }
+        if(person.getBirthDate() != null){
+            addString(strings, person.getBirthDate().getTimeZone().getID());
+        }
+        if(person.getDeathDate() != null){
+            addString(strings, person.getDeathDate().getTimeZone().getID());
+        }
+    }
+
+    // Private Methods =================================================================================================
+
+    /**
+     * Writes a list of persons as a varint count followed by their ids. Persons outside the family are left out.
+     * @param output the output to write to
+     * @param people the persons to write
+     * @param ids the dense id of each person
+     * @throws IOException if the list could not be written
+     */
+    private static void writePersonList(DataOutput output, List<Person> people, Map<Person, Integer> ids)
+            throws IOException {
+        int count = 0;
+        for(Person person : people){
+            if(ids.containsKey(person)){
+                count++;
+            }
+        }
+
+        writeVarInt(output, count);
+        for(Person person : people){
+            Integer id = ids.get(person);
+            if(id != null){
+                writeVarInt(output, id);
+            }
+        }
+    }
+
+    /**
+     * Writes a calendar as its kind, epoch milliseconds and time zone
+     * @param output the output to write to
+     * @param calendar the calendar to write, may be null
+     * @param strings the string table
+     * @throws IOException if the calendar could not be written
+     */
+    private static void writeCalendar(DataOutput output, Calendar calendar, Map<String, Integer> strings)
+            throws IOException {
+        if(calendar == null){
+            output.writeByte(NO_DATE);
+        }
+        else{
+            boolean gregorian = calendar instanceof GregorianCalendar
+                    && ((GregorianCalendar) calendar).getGregorianChange().equals(PURE_GREGORIAN);
+            output.writeByte(gregorian ? GREGORIAN_DATE : HYBRID_DATE);
+            output.writeLong(calendar.getTimeInMillis());
+            writeVarInt(output, stringReference(strings, calendar.getTimeZone().getID()));
+        }
+    }
+
+    /**
+     * Reads a calendar written by writeCalendar
+     * @param input the input to read from
+     * @param strings resolves a string reference to its string
+     * @return the calendar read, may be null
+     * @throws IOException if the calendar could not be read
+     */
+    private static Calendar readCalendar(DataInput input, IntFunction<String> strings) throws IOException {
+        int kind = input.readUnsignedByte();
+        if(kind == NO_DATE){
+            return null;
+        }
+
+        long millis = input.readLong();
+        GregorianCalendar calendar = new GregorianCalendar(TimeZone.getTimeZone(strings.apply(readVarInt(input))));
+        if(kind == GREGORIAN_DATE){
+            calendar.setGregorianChange(PURE_GREGORIAN);
+        }
+        calendar.setTimeInMillis(millis);
+        return calendar;
+    }
+
+    /**
+     * Adds a string to the string table if it is not already present
+     * @param strings the string table
+     * @param string the string to add, nulls are ignored
+     */
+    private static void addString(Map<String, Integer> strings, String string){
+        if(string != null && !strings.containsKey(string)){
+            strings.put(string, strings.size());
+        }
+    }
+
+    /**
+     * @param strings the string table
+     * @param string the string
+     * @return the reference for the string, 0 for null
+     */
+    private static int stringReference(Map<String, Integer> strings, String string){
+        return (string == null) ? 0 : strings.get(string) + 1;
+    }
+
+    /**
+     * @param ids the dense id of each person
+     * @param person the person
+     * @return the reference for the person, 0 for null or a person outside of the family
+     */
+    private static int personReference(Map<Person, Integer> ids, Person person){
+        Integer id = (person != null) ? ids.get(person) : null;
+        return (id == null) ? 0 : id + 1;
+    }
+
+    /**
+     * @param persons resolves a person id to its person
+     * @param reference the person reference
+     * @return the referenced person, null for reference 0
+     */
+    private static Person person(IntFunction<Person> persons, int reference){
+        return (reference == 0) ? null : persons.apply(reference - 1);
+    }
+
+    /**
+     * @param value the value to be written as a varint
+     * @return the number of bytes the varint takes
+     */
+    private static int varIntLength(int value){
+        int length = 1;
+        while((value & ~0x7F) != 0){
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+}
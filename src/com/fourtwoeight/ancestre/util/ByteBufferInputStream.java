@@ -0,0 +1,62 @@
+package com.fourtwoeight.ancestre.util;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An input stream reading from the remaining bytes of a byte buffer. The buffer's position is advanced as bytes are
+ * read, so it always reflects how far the stream has got.
+ */
+class ByteBufferInputStream extends InputStream {
+
+    // Public Methods ==================================================================================================
+
+    /**
+     * Constructor
+     * @param buffer the buffer to read from, starting at its current position
+     */
+    ByteBufferInputStream(ByteBuffer buffer){
+        this.buffer = buffer;
+    }
+
+    /**
+     * @return the next byte, or -1 if the end of the buffer has been reached
+     */
+    @Override
+    public int read(){
+        return this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1;
+    }
+
+    /**
+     * Reads up to length bytes into the array
+     * @param bytes the array to read into
+     * @param offset the offset in the array to start writing at
+     * @param length the maximum number of bytes to read
+     * @return the number of bytes read, or -1 if the end of the buffer has been reached
+     */
+    @Override
+    public int read(byte[] bytes, int offset, int length){
+        if(length == 0){
+            return 0;
+        }
+        if(!this.buffer.hasRemaining()){
+            return -1;
+        }
+
+        int count = Math.min(length, this.buffer.remaining());
+        this.buffer.get(bytes, offset, count);
+        return count;
+    }
+
+    /**
+     * @return the number of bytes left in the buffer
+     */
+    @Override
+    public int available(){
+        return this.buffer.remaining();
+    }
+
+    // Private Fields ==================================================================================================
+
+    private final ByteBuffer buffer;
+}
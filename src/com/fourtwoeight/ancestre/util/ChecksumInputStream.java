@@ -0,0 +1,158 @@
+package com.fourtwoeight.ancestre.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+import static com.fourtwoeight.ancestre.util.ChecksumOutputStream.*;
+
+/**
+ * Checks the checksum written by ChecksumOutputStream while the file is read, in a single pass. The last bytes read
+ * are held back from the checksum until more are read, so once the end of the stream is reached they are either the
+ * trailer or the last of the contents. Files written before checksums were added have no trailer.
+ */
+class ChecksumInputStream extends FilterInputStream {
+
+    // Public Methods ==================================================================================================
+
+    /**
+     * Constructor
+     * @param inputStream the uncompressed stream to read
+     */
+    ChecksumInputStream(InputStream inputStream){
+        super(inputStream);
+    }
+
+    /**
+     * Reads a byte
+     * @return the byte, -1 at the end of the stream
+     * @throws IOException if the stream could not be read
+     */
+    @Override
+    public int read() throws IOException {
+        int value = this.in.read();
+        if(value >= 0){
+            this.single[0] = (byte) value;
+            update(this.single, 0, 1);
+        }
+        return value;
+    }
+
+    /**
+     * Reads up to length bytes into the array
+     * @param bytes the array to read into
+     * @param offset the offset in the array to start writing at
+     * @param length the most bytes to read
+     * @return the number of bytes read, -1 at the end of the stream
+     * @throws IOException if the stream could not be read
+     */
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        int read = this.in.read(bytes, offset, length);
+        if(read > 0){
+            update(bytes, offset, read);
+        }
+        return read;
+    }
+
+    /**
+     * Skips bytes by reading them, so they are still checked
+     * @param count the most bytes to skip
+     * @return the number of bytes skipped
+     * @throws IOException if the stream could not be read
+     */
+    @Override
+    public long skip(long count) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(count, 8192)];
+        long skipped = 0;
+        int read;
+
+        while(skipped < count && (read = read(buffer, 0, (int) Math.min(buffer.length, count - skipped))) > 0){
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    /**
+     * @return 'false', marks would let bytes be checked twice
+     */
+    @Override
+    public boolean markSupported(){
+        return false;
+    }
+
+    /**
+     * Reads the rest of the stream, which a parser may have stopped short of, and checks the trailer
+     * @return 'true' if the stream ends with a trailer. 'false' if it has none.
+     * @throws IOException if the stream could not be read
+     */
+    boolean finish() throws IOException {
+        byte[] buffer = new byte[8192];
+        while(read(buffer, 0, buffer.length) >= 0){
+            // Read to the end
+        }
+
+        String trailer = new String(this.held, 0, this.heldLength, StandardCharsets.US_ASCII);
+        if(this.heldLength == TRAILER_LENGTH && trailer.startsWith(TRAILER_PREFIX) && trailer.endsWith(TRAILER_SUFFIX)){
+            try {
+                this.expected = Long.parseLong(trailer.substring(TRAILER_PREFIX.length(),
+                        TRAILER_LENGTH - TRAILER_SUFFIX.length()), 16);
+                this.trailed = true;
+            } catch (NumberFormatException e){
+                this.trailed = false;
+            }
+        }
+
+        if(!this.trailed){
+            this.checksum.update(this.held, 0, this.heldLength);
+        }
+        return this.trailed;
+    }
+
+    /**
+     * @return 'true' if the stream ended with a trailer matching its contents. 'false' otherwise. Only valid once
+     * finished.
+     */
+    boolean isIntact(){
+        return this.trailed && this.expected == this.checksum.getValue();
+    }
+
+    // Private Methods =================================================================================================
+
+    /**
+     * Adds bytes read to the checksum, apart from the last TRAILER_LENGTH bytes read so far which are held back
+     * @param bytes the array holding the bytes read
+     * @param offset the offset of the bytes in the array
+     * @param length the number of bytes read
+     */
+    private void update(byte[] bytes, int offset, int length){
+        int release = Math.max(0, this.heldLength + length - TRAILER_LENGTH);
+
+        // The oldest bytes held are released first, then the oldest of those just read
+        int fromHeld = Math.min(release, this.heldLength);
+        this.checksum.update(this.held, 0, fromHeld);
+        System.arraycopy(this.held, fromHeld, this.held, 0, this.heldLength - fromHeld);
+        this.heldLength -= fromHeld;
+
+        int fromBytes = release - fromHeld;
+        this.checksum.update(bytes, offset, fromBytes);
+        System.arraycopy(bytes, offset + fromBytes, this.held, this.heldLength, length - fromBytes);
+        this.heldLength += length - fromBytes;
+    }
+
+    // Private Fields ==================================================================================================
+
+    private final CRC32 checksum = new CRC32();
+
+    private final byte[] held = new byte[TRAILER_LENGTH];
+
+    private final byte[] single = new byte[1];
+
+    private int heldLength;
+
+    private long expected;
+
+    private boolean trailed;
+}
@@ -0,0 +1,73 @@
+package com.fourtwoeight.ancestre.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Computes a CRC-32 of the uncompressed contents of a .fam or .rel file as they are written, and writes it after the
+ * document as an xml comment, so readers which do not look for it skip it. See ChecksumInputStream.
+ */
+class ChecksumOutputStream extends FilterOutputStream {
+
+    // Package Static Fields ===========================================================================================
+
+    static final String TRAILER_PREFIX = "<!--crc32:";
+
+    static final String TRAILER_SUFFIX = "-->\n";
+
+    /**
+     * The length of the trailer, the checksum is always written as eight hex digits
+     */
+    static final int TRAILER_LENGTH = TRAILER_PREFIX.length() + 8 + TRAILER_SUFFIX.length();
+
+    // Public Methods ==================================================================================================
+
+    /**
+     * Constructor
+     * @param outputStream the stream to write to
+     */
+    ChecksumOutputStream(OutputStream outputStream){
+        super(outputStream);
+    }
+
+    /**
+     * Writes a byte
+     * @param value the byte
+     * @throws IOException if the byte could not be written
+     */
+    @Override
+    public void write(int value) throws IOException {
+        this.out.write(value);
+        this.checksum.update(value);
+    }
+
+    /**
+     * Writes length bytes from the array, in one write rather than a byte at a time as FilterOutputStream does
+     * @param bytes the array to write from
+     * @param offset the offset in the array to start reading at
+     * @param length the number of bytes to write
+     * @throws IOException if the bytes could not be written
+     */
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        this.out.write(bytes, offset, length);
+        this.checksum.update(bytes, offset, length);
+    }
+
+    /**
+     * Writes the checksum of everything written so far. Nothing may be written after it.
+     * @throws IOException if the checksum could not be written
+     */
+    void writeTrailer() throws IOException {
+        String trailer = TRAILER_PREFIX + String.format("%08x", this.checksum.getValue()) + TRAILER_SUFFIX;
+        this.out.write(trailer.getBytes(StandardCharsets.US_ASCII));
+        this.out.flush();
+    }
+
+    // Private Fields ==================================================================================================
+
+    private final CRC32 checksum = new CRC32();
+}
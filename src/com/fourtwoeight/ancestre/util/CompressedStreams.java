@@ -0,0 +1,169 @@
+package com.fourtwoeight.ancestre.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Wraps the streams of family files so they can be stored gzip compressed. Compressed files are recognised by the gzip
+ * magic bytes when they are read, so compressed and uncompressed files can be loaded alike whatever their extension.
+ */
+final class CompressedStreams {
+
+    // Package Static Fields ===========================================================================================
+
+    /**
+     * The compression level which writes files uncompressed
+     */
+    static final int NO_COMPRESSION = Deflater.NO_COMPRESSION;
+
+    /**
+     * The highest compression level
+     */
+    static final int BEST_COMPRESSION = Deflater.BEST_COMPRESSION;
+
+    // Private Static Fields ===========================================================================================
+
+    /**
+     * The first two bytes of every gzip stream
+     */
+    private static final int GZIP_MAGIC = GZIPInputStream.GZIP_MAGIC;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Package Static Methods ==========================================================================================
+
+    /**
+     * Wraps a stream so what is written to it is compressed. The stream returned must be finished with finish once
+     * everything has been written.
+     * @param outputStream the stream to write the compressed data to
+     * @param level the compression level, from 1 for the fastest to 9 for the smallest. NO_COMPRESSION returns the
+     *              stream unchanged.
+     * @return the stream to write the uncompressed data to
+     * @throws IOException if the gzip header could not be written
+     */
+    static OutputStream compress(OutputStream outputStream, int level) throws IOException {
+        if(level == NO_COMPRESSION){
+            return outputStream;
+        }
+        return new CompressingOutputStream(outputStream, level);
+    }
+
+    /**
+     * Finishes a stream returned by compress, writing what is left of the compressed data without closing the stream
+     * beneath it
+     * @param outputStream the stream returned by compress
+     * @throws IOException if the compressed data could not be written
+     */
+    static void finish(OutputStream outputStream) throws IOException {
+        if(outputStream instanceof CompressingOutputStream){
+            ((CompressingOutputStream) outputStream).finish();
+        }
+        else{
+            outputStream.flush();
+        }
+    }
+
+    /**
+     * Wraps a stream which may hold gzip compressed data so it is read uncompressed. Closing the stream returned closes
+     * the stream given.
+     * @param inputStream the stream to read
+     * @return a buffered stream of the uncompressed data
+     * @throws IOException if the stream could not be read
+     */
+    static InputStream decompress(InputStream inputStream) throws IOException {
+        BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream, BUFFER_SIZE);
+
+        bufferedInputStream.mark(2);
+        int magic = bufferedInputStream.read() | (bufferedInputStream.read() << 8);
+        bufferedInputStream.reset();
+
+        if(magic == GZIP_MAGIC){
+            return new BufferedInputStream(new GZIPInputStream(bufferedInputStream, BUFFER_SIZE), BUFFER_SIZE);
+        }
+        return bufferedInputStream;
+    }
+
+    // Private Methods =================================================================================================
+
+    /**
+     * Constructor, not used as the class only has static methods
+     */
+    private CompressedStreams(){}
+
+    // Private Classes =================================================================================================
+
+    /**
+     * Buffers what is written in front of a gzip stream. The xml writers write a few bytes at a time, and deflating
+     * each of those writes separately is several times slower than deflating whole buffers.
+     */
+    private static class CompressingOutputStream extends BufferedOutputStream {
+
+        /**
+         * Constructor
+         * @param outputStream the stream to write the compressed data to
+         * @param level the compression level
+         * @throws IOException if the gzip header could not be written
+         */
+        CompressingOutputStream(OutputStream outputStream, int level) throws IOException {
+            super(new LevelGZIPOutputStream(outputStream, level), BUFFER_SIZE);
+        }
+
+        /**
+         * Writes the buffer and what is left of the compressed data
+         * @throws IOException if the compressed data could not be written
+         */
+        void finish() throws IOException {
+            flushBuffer();
+            ((LevelGZIPOutputStream) this.out).finish();
+        }
+
+        /**
+         * Writes the buffer to the gzip stream without flushing it, as flushing a gzip stream does not compress
+         * anything sooner
+         * @throws IOException if the buffer could not be written
+         */
+        private void flushBuffer() throws IOException {
+            if(this.count > 0){
+                this.out.write(this.buf, 0, this.count);
+                this.count = 0;
+            }
+        }
+    }
+
+    /**
+     * A gzip stream with a chosen compression level which releases its deflater when finished rather than when
+     * closed, as the stream beneath it is closed separately
+     */
+    private static class LevelGZIPOutputStream extends GZIPOutputStream {
+
+        /**
+         * Constructor
+         * @param outputStream the stream to write the compressed data to
+         * @param level the compression level
+         * @throws IOException if the gzip header could not be written
+         */
+        LevelGZIPOutputStream(OutputStream outputStream, int level) throws IOException {
+            super(outputStream, BUFFER_SIZE);
+            this.def.setLevel(level);
+        }
+
+        /**
+         * Writes what is left of the compressed data and releases the deflater
+         * @throws IOException if the compressed data could not be written
+         */
+        @Override
+        public void finish() throws IOException {
+            if(!this.def.finished()){
+                super.finish();
+                this.out.flush();
+                this.def.end();
+            }
+        }
+    }
+}
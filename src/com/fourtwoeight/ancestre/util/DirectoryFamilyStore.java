@@ -0,0 +1,296 @@
+package com.fourtwoeight.ancestre.util;
+
+import com.fourtwoeight.ancestre.model.Family;
+import com.fourtwoeight.ancestre.model.Person;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * A family stored as a directory with a small file for each person, so a save only rewrites the persons which have
+ * changed. Persons are sharded into sub directories by the first two characters of their uuid, each of which holds
+ * a .rel file with the relationships of the persons in it. The family name is kept in a .fam file with no members.
+ *
+ * <pre>
+ *   Smith.famd/family.fam
+ *   Smith.famd/3f/3f2504e0-4f89-11d3-9a0c-0305e82c3301.per
+ *   Smith.famd/3f/relationships.rel
+ * </pre>
+ */
+class DirectoryFamilyStore {
+
+    // Package Static Fields ===========================================================================================
+
+    static final String FAMILY_FILE = "family.fam";
+
+    static final String PERSON_EXTENSION = ".per";
+
+    static final String RELATIONSHIP_FILE = "relationships.rel";
+
+    // Private Static Fields ===========================================================================================
+
+    private static final Logger LOGGER = Logger.getLogger(DirectoryFamilyStore.class.getName());
+
+    /**
+     * The number of characters of a uuid which name its shard
+     */
+    private static final int SHARD_LENGTH = 2;
+
+    // Public Methods ==================================================================================================
+
+    /**
+     * Constructor
+     * @param directory the directory the family is stored in
+     */
+    DirectoryFamilyStore(File directory){
+        this.directory = directory;
+    }
+
+    /**
+     * Reads every person in the store into the family and parses the relationships of each shard. The relationships
+     * are returned rather than applied so the caller can resolve them once every person has been added.
+     * @param family the family to load into
+     * @param codec the codec to read the family and person files with
+     * @param relationshipReader the reader to parse the .rel files with
+     * @param progress the progress of the load, started with the number of person files
+     * @return the relationships of every person, null if the directory is not a family store
+     * @throws IOException if a file could not be read
+     * @throws XMLStreamException if a file is not well formed
+     */
+    List<RelationshipRecord> load(Family family, FamilyXmlCodec codec, RelationshipReader relationshipReader,
+                                  Progress progress) throws IOException, XMLStreamException {
+        File familyFile = new File(this.directory, FAMILY_FILE);
+        if(!familyFile.isFile()){
+            LOGGER.warning("Not a family store: " + this.directory.getName());
+            return null;
+        }
+
+        try (InputStream familyInputStream = CompressedStreams.decompress(new FileInputStream(familyFile))) {
+            if(!codec.read(family, familyInputStream)){
+                return null;
+            }
+        }
+
+        // List every shard up front so the number of persons is known
+        Map<File, List<File>> shards = new LinkedHashMap<>();
+        long personCount = 0;
+        for(File shard : shards()){
+            List<File> personFiles = personFiles(shard);
+            shards.put(shard, personFiles);
+            personCount += personFiles.size();
+            progress.checkCancelled();
+        }
+        progress.start(Progress.UNKNOWN, personCount);
+
+        List<RelationshipRecord> records = new ArrayList<>();
+        for(Map.Entry<File, List<File>> shard : shards.entrySet()){
+            for(File personFile : shard.getValue()){
+                try (InputStream personInputStream = CompressedStreams.decompress(
+                        new ProgressInputStream(new FileInputStream(personFile), progress))) {
+                    Person person = codec.readPerson(personInputStream);
+                    if(person != null){
+                        family.addPerson(person);
+                    }
+                    else{
+                        LOGGER.warning("Skipping file which is not a person: " + personFile.getName());
+                    }
+                }
+                progress.addPersons(1);
+            }
+
+            File relationshipFile = new File(shard.getKey(), RELATIONSHIP_FILE);
+            if(relationshipFile.isFile()){
+                try (InputStream relationshipInputStream = CompressedStreams.decompress(
+                        new ProgressInputStream(new FileInputStream(relationshipFile), progress))) {
+                    List<RelationshipRecord> shardRecords = relationshipReader.parse(relationshipInputStream);
+                    if(shardRecords == null){
+                        return null;
+                    }
+                    records.addAll(shardRecords);
+                }
+            }
+        }
+
+        return records;
+    }
+
+    /**
+     * Saves the family to the store. Only persons who are dirty or have no file yet are written, along with the .rel
+     * file of each shard they are in, and the files of persons no longer in the family are deleted. Each file written
+     * is marked clean once every file has been written.
+     * @param family the family to save
+     * @param full 'true' to write every person whether or not they are dirty, for a store which may not hold the
+     *             family as it was last saved
+     * @param codec the codec to write the family and person files with
+     * @param relationshipWriter the writer to write the .rel files with
+     * @param progress the progress of the save, started with the number of persons to be written
+     * @return the number of files written or deleted
+     * @throws IOException if a file could not be written
+     * @throws XMLStreamException if a .rel file could not be written
+     */
+    int save(Family family, boolean full, FamilyXmlCodec codec, RelationshipWriter relationshipWriter,
+             Progress progress) throws IOException, XMLStreamException {
+        if(!this.directory.isDirectory() && !this.directory.mkdirs()){
+            throw new IOException("Unable to create directory: " + this.directory.getName());
+        }
+
+        // Group the members by shard, the uuids already stored are found by listing each shard
+        Map<String, List<Person>> members = new TreeMap<>();
+        for(Person person : family.getMemberView()){
+            members.computeIfAbsent(shardName(person.getUUIDString()), shard -> new ArrayList<>()).add(person);
+        }
+        Map<String, Set<String>> stored = new HashMap<>();
+        for(File shard : shards()){
+            Set<String> uuids = new HashSet<>();
+            for(File personFile : personFiles(shard)){
+                String name = personFile.getName();
+                uuids.add(name.substring(0, name.length() - PERSON_EXTENSION.length()));
+            }
+            stored.put(shard.getName(), uuids);
+            progress.checkCancelled();
+        }
+
+        List<Person> written = new ArrayList<>();
+        Set<String> changedShards = new HashSet<>();
+        int fileCount = 0;
+
+        for(Map.Entry<String, List<Person>> shard : members.entrySet()){
+            Set<String> storedUUIDs = stored.getOrDefault(shard.getKey(), new HashSet<>());
+            for(Person person : shard.getValue()){
+                if(full || person.isDirty() || !storedUUIDs.contains(person.getUUIDString())){
+                    written.add(person);
+                    changedShards.add(shard.getKey());
+                }
+                storedUUIDs.remove(person.getUUIDString());
+            }
+        }
+
+        // Forcing every person of a full save would flush the disk once per person, so they are only forced when few
+        boolean force = written.size() < family.getMemberView().size() / 2;
+        progress.start(Progress.UNKNOWN, written.size());
+
+        for(Person person : written){
+            File shard = new File(this.directory, shardName(person.getUUIDString()));
+            if(!shard.isDirectory() && !shard.mkdir()){
+                throw new IOException("Unable to create directory: " + shard.getName());
+            }
+            try (PendingFile personFile = new PendingFile(new File(shard, person.getUUIDString() + PERSON_EXTENSION),
+                    progress)) {
+                codec.writePerson(person, personFile.getOutputStream());
+                if(force){
+                    personFile.force();
+                }
+                personFile.commit();
+            }
+            progress.addPersons(1);
+            fileCount++;
+        }
+
+        // Whatever is left of the stored uuids are persons who have been removed
+        for(Map.Entry<String, Set<String>> shard : stored.entrySet()){
+            if(!shard.getValue().isEmpty()){
+                changedShards.add(shard.getKey());
+            }
+            File shardDirectory = new File(this.directory, shard.getKey());
+            for(String uuid : shard.getValue()){
+                Files.deleteIfExists(new File(shardDirectory, uuid + PERSON_EXTENSION).toPath());
+                fileCount++;
+            }
+        }
+
+        for(String shardName : changedShards){
+            File shard = new File(this.directory, shardName);
+            List<Person> shardMembers = members.get(shardName);
+            File relationshipFile = new File(shard, RELATIONSHIP_FILE);
+
+            if(shardMembers == null){
+                Files.deleteIfExists(relationshipFile.toPath());
+            }
+            else{
+                try (PendingFile pendingRelationshipFile = new PendingFile(relationshipFile)) {
+                    relationshipWriter.write(shardMembers, pendingRelationshipFile.getOutputStream());
+                    pendingRelationshipFile.force();
+                    pendingRelationshipFile.commit();
+                }
+            }
+            PendingFile.syncDirectory(shard);
+            fileCount++;
+        }
+
+        try (PendingFile familyFile = new PendingFile(new File(this.directory, FAMILY_FILE))) {
+            codec.write(new Family(family.getFamilyName()), familyFile.getOutputStream());
+            familyFile.force();
+            familyFile.commit();
+        }
+        PendingFile.syncDirectory(this.directory);
+        fileCount++;
+
+        for(Person person : written){
+            person.setDirty(false);
+        }
+
+        LOGGER.fine("Saved " + written.size() + " of " + family.getMemberView().size() + " persons to: "
+                + this.directory.getName());
+        return fileCount;
+    }
+
+    // Private Methods =================================================================================================
+
+    /**
+     * @param uuid a uuid string
+     * @return the name of the shard the person with the uuid is stored in
+     */
+    private String shardName(String uuid){
+        return uuid.substring(0, SHARD_LENGTH);
+    }
+
+    /**
+     * @return the shard directories in the store
+     */
+    private List<File> shards(){
+        List<File> shards = new ArrayList<>();
+        File[] files = this.directory.listFiles();
+
+        if(files != null){
+            for(File file : files){
+                if(file.isDirectory() && file.getName().length() == SHARD_LENGTH){
+                    shards.add(file);
+                }
+            }
+        }
+        return shards;
+    }
+
+    /**
+     * @param shard a shard directory
+     * @return the person files in the shard
+     */
+    private List<File> personFiles(File shard){
+        List<File> personFiles = new ArrayList<>();
+        File[] files = shard.listFiles((dir, name) -> name.endsWith(PERSON_EXTENSION));
+
+        if(files != null){
+            for(File file : files){
+                personFiles.add(file);
+            }
+        }
+        return personFiles;
+    }
+
+    // Private Fields ==================================================================================================
+
+    private final File directory;
+}
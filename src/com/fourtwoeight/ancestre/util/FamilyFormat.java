@@ -0,0 +1,73 @@
+package com.fourtwoeight.ancestre.util;
+
+import java.io.File;
+
+/**
+ * The on disk formats a family can be saved in
+ */
+public enum FamilyFormat {
+
+    /**
+     * A .fam file describing each person with a .rel file alongside it describing their relationships
+     */
+    XML(".fam"),
+
+    /**
+     * A single binary file holding both the persons and their relationships
+     */
+    BINARY(".famb"),
+
+    /**
+     * A GEDCOM 5.5.1 file, for exchanging families with other genealogy programs
+     */
+    GEDCOM(".ged"),
+
+    /**
+     * A directory with a file for each person, so saving after an edit only rewrites the persons who changed
+     */
+    DIRECTORY(".famd"),
+
+    /**
+     * A single B-tree file keyed by person uuid, so persons can be looked up and edited without loading the family
+     */
+    BTREE(".famt");
+
+    // Public Methods ==================================================================================================
+
+    /**
+     * @return the file extension for the format, including the leading '.'
+     */
+    public String getExtension(){
+        return this.extension;
+    }
+
+    /**
+     * Determines the format of a family file from its extension. Files with an unknown extension are treated as XML.
+     * @param familyFile the family file
+     * @return the format of the family file
+     */
+    public static FamilyFormat fromFile(File familyFile){
+        FamilyFormat format = XML;
+
+        for(FamilyFormat candidate : values()){
+            if(familyFile.getName().toLowerCase().endsWith(candidate.extension)){
+                format = candidate;
+            }
+        }
+        return format;
+    }
+
+    // Private Methods =================================================================================================
+
+    /**
+     * Constructor
+     * @param extension the file extension for the format
+     */
+    FamilyFormat(String extension){
+        this.extension = extension;
+    }
+
+    // Private Fields ==================================================================================================
+
+    private final String extension;
+}
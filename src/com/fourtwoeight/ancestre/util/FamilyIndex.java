@@ -0,0 +1,298 @@
+package com.fourtwoeight.ancestre.util;
+
+import com.fourtwoeight.ancestre.model.Person;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * An index of an uncompressed .fam file, saved alongside it as a .fidx file, giving the byte range of each person's
+ * element in the .fam file and the parents and children of each person. A person and their lineage can be found and
+ * read from the .fam file without reading the rest of it. Indexes are memory mapped when opened.
+ *
+ * <pre>
+ *   header     magic, version, person count, child count, length of the .fam file
+ *   entries    per person in uuid order: uuid, offset, length, father id, mother id, first child, child count
+ *   children   the ids of each person's children, in the order of their entries
+ * </pre>
+ *
+ * Ids are the positions of the entries, -1 for a parent who is not a member of the family. Children who are not
+ * members of the family are left out.
+ */
+class FamilyIndex {
+
+    // Package Static Fields ===========================================================================================
+
+    static final String EXTENSION = ".fidx";
+
+    static final int MAGIC = 0x41464958;
+
+    static final int VERSION = 1;
+
+    // Private Static Fields ===========================================================================================
+
+    private static final Logger LOGGER = Logger.getLogger(FamilyIndex.class.getName());
+
+    private static final int HEADER_SIZE = 24;
+
+    private static final int ENTRY_SIZE = 44;
+
+    private static final int NO_PERSON = -1;
+
+    // Package Static Methods ==========================================================================================
+
+    /**
+     * @param familyFile a .fam file
+     * @return the index file alongside the .fam file
+     */
+    static File forFamilyFile(File familyFile){
+        String[] split = familyFile.getName().split("\\.");
+        String familyFileName = (split.length > 0) ? split[0] : familyFile.getName();
+        return new File(familyFile.getAbsoluteFile().getParentFile(), familyFileName + EXTENSION);
+    }
+
+    /**
+     * Writes the index of a .fam file. The stream is flushed but not closed.
+     * @param members the members of the family in the order they were written to the .fam file
+     * @param offsets the offset of each member's element in the .fam file, followed by the offset just past the last
+     * @param familyLength the length of the .fam file
+     * @param outputStream the stream to write the index to
+     * @throws IOException if the index could not be written
+     */
+    static void write(Person[] members, long[] offsets, long familyLength, OutputStream outputStream)
+            throws IOException {
+        // Ids are assigned in uuid order, each entry refers back to the member it was written as
+        Integer[] order = new Integer[members.length];
+        for(int i = 0; i < order.length; i++){
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> members[a].getUUID().compareTo(members[b].getUUID()));
+
+        IdentityHashMap<Person, Integer> ids = new IdentityHashMap<>();
+        for(int id = 0; id < order.length; id++){
+            ids.put(members[order[id]], id);
+        }
+
+        // Children who are members are laid out one person after another
+        int[] fathers = new int[members.length];
+        int[] mothers = new int[members.length];
+        int[] firstChildren = new int[members.length];
+        int[] childCounts = new int[members.length];
+        int childCount = 0;
+        for(int id = 0; id < order.length; id++){
+            Person member = members[order[id]];
+            fathers[id] = ids.getOrDefault(member.getFather(), NO_PERSON);
+            mothers[id] = ids.getOrDefault(member.getMother(), NO_PERSON);
+            firstChildren[id] = childCount;
+            for(Person child : member.getChildren()){
+                if(ids.containsKey(child)){
+                    childCounts[id]++;
+                }
+            }
+            childCount += childCounts[id];
+        }
+
+        int[] children = new int[childCount];
+        int next = 0;
+        for(int id = 0; id < order.length; id++){
+            for(Person child : members[order[id]].getChildren()){
+                Integer childId = ids.get(child);
+                if(childId != null){
+                    children[next++] = childId;
+                }
+            }
+        }
+
+        DataOutputStream output = new DataOutputStream(outputStream);
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(members.length);
+        output.writeInt(childCount);
+        output.writeLong(familyLength);
+
+        for(int id = 0; id < order.length; id++){
+            int member = order[id];
+            output.writeLong(members[member].getUUID().getMostSignificantBits());
+            output.writeLong(members[member].getUUID().getLeastSignificantBits());
+            output.writeLong(offsets[member]);
+            output.writeInt((int) (offsets[member + 1] - offsets[member]));
+            output.writeInt(fathers[id]);
+            output.writeInt(mothers[id]);
+            output.writeInt(firstChildren[id]);
+            output.writeInt(childCounts[id]);
+        }
+        for(int child : children){
+            output.writeInt(child);
+        }
+
+        output.flush();
+    }
+
+    /**
+     * Memory maps an index
+     * @param indexFile the index file
+     * @return the index
+     * @throws IOException if the file could not be mapped or is not a supported index
+     */
+    static FamilyIndex open(File indexFile) throws IOException {
+        LOGGER.fine("Mapping family index: " + indexFile.getName());
+
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            if(channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE){
+                throw new IOException("Not a family index: " + indexFile.getName());
+            }
+            // The mapping remains valid once the channel is closed
+            return new FamilyIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), indexFile);
+        }
+    }
+
+    // Package Methods =================================================================================================
+
+    /**
+     * @return the length the .fam file had when it was indexed
+     */
+    long getFamilyLength(){
+        return this.familyLength;
+    }
+
+    /**
+     * @return the number of persons in the index
+     */
+    int size(){
+        return this.personCount;
+    }
+
+    /**
+     * Finds a person by binary search of the entries
+     * @param uuid the uuid of the person
+     * @return the id of the person, -1 if they are not in the index
+     */
+    int find(UUID uuid){
+        int low = 0;
+        int high = this.personCount - 1;
+
+        while(low <= high){
+            int middle = (low + high) >>> 1;
+            int comparison = getUUID(middle).compareTo(uuid);
+
+            if(comparison < 0){
+                low = middle + 1;
+            }
+            else if(comparison > 0){
+                high = middle - 1;
+            }
+            else{
+                return middle;
+            }
+        }
+        return NO_PERSON;
+    }
+
+    /**
+     * @param id the id of a person
+     * @return the uuid of the person
+     */
+    UUID getUUID(int id){
+        int entry = entry(id);
+        return new UUID(this.buffer.getLong(entry), this.buffer.getLong(entry + 8));
+    }
+
+    /**
+     * @param id the id of a person
+     * @return the offset of the person's element in the .fam file
+     */
+    long getOffset(int id){
+        return this.buffer.getLong(entry(id) + 16);
+    }
+
+    /**
+     * @param id the id of a person
+     * @return the length in bytes of the person's element in the .fam file
+     */
+    int getLength(int id){
+        return this.buffer.getInt(entry(id) + 24);
+    }
+
+    /**
+     * @param id the id of a person
+     * @return the id of the person's father, -1 if they have none in the family
+     */
+    int getFather(int id){
+        return this.buffer.getInt(entry(id) + 28);
+    }
+
+    /**
+     * @param id the id of a person
+     * @return the id of the person's mother, -1 if they have none in the family
+     */
+    int getMother(int id){
+        return this.buffer.getInt(entry(id) + 32);
+    }
+
+    /**
+     * @param id the id of a person
+     * @return the ids of the person's children
+     */
+    int[] getChildren(int id){
+        int entry = entry(id);
+        int firstChild = this.buffer.getInt(entry + 36);
+        int[] children = new int[this.buffer.getInt(entry + 40)];
+
+        for(int i = 0; i < children.length; i++){
+            children[i] = this.buffer.getInt(this.childrenOffset + 4 * (firstChild + i));
+        }
+        return children;
+    }
+
+    // Private Methods =================================================================================================
+
+    /**
+     * Constructor, reads the header
+     * @param buffer the mapped index
+     * @param indexFile the index file, for error messages
+     * @throws IOException if the buffer is not a supported index
+     */
+    private FamilyIndex(ByteBuffer buffer, File indexFile) throws IOException {
+        this.buffer = buffer;
+
+        if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION){
+            throw new IOException("Not a supported family index: " + indexFile.getName());
+        }
+        this.personCount = buffer.getInt(8);
+        int childCount = buffer.getInt(12);
+        this.familyLength = buffer.getLong(16);
+        long childrenOffset = HEADER_SIZE + (long) ENTRY_SIZE * this.personCount;
+
+        if(this.personCount < 0 || childCount < 0 || childrenOffset + 4L * childCount != buffer.capacity()){
+            throw new IOException("Truncated family index: " + indexFile.getName());
+        }
+        this.childrenOffset = (int) childrenOffset;
+    }
+
+    /**
+     * @param id the id of a person
+     * @return the position of the person's entry
+     */
+    private int entry(int id){
+        return (int) (HEADER_SIZE + (long) ENTRY_SIZE * id);
+    }
+
+    // Private Fields ==================================================================================================
+
+    private final ByteBuffer buffer;
+
+    private final int personCount;
+
+    private final long familyLength;
+
+    private final int childrenOffset;
+}
@@ -0,0 +1,340 @@
+package com.fourtwoeight.ancestre.util;
+
+import com.fourtwoeight.ancestre.model.Family;
+import com.fourtwoeight.ancestre.model.Person;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.logging.Logger;
+
+import static com.fourtwoeight.ancestre.util.BinaryFamilyCodec.*;
+
+/**
+ * An append-only journal of changes made to a family since its family file was last saved. Each batch of changes holds
+ * the current state of every person a command touched: an upsert carrying the person's full record, or a removal if
+ * they are no longer a member. Replaying a batch twice leaves the family as replaying it once, so a journal which
+ * survives a save is harmless. The file is laid out as
+ * <pre>
+ *   header   magic, version
+ *   batches  each a byte length and CRC32 of the payload, then the payload:
+ *            a varint entry count, then per entry the operation and UUID, and for an upsert the strings and relatives
+ *            the record refers to followed by a varint length and the record itself
+ * </pre>
+ * The strings, relatives and record of an upsert are a PersonValue.
+ */
+public class FamilyJournal {
+
+    // Public Static Fields ============================================================================================
+
+    public static final String EXTENSION = ".jnl";
+
+    // Package Static Fields ===========================================================================================
+
+    static final int MAGIC = 0x414E434A;
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 8;
+
+    static final int UPSERT = 1;
+    static final int REMOVE = 2;
+
+    // Private Static Fields ===========================================================================================
+
+    private static final Logger LOGGER = Logger.getLogger(FamilyJournal.class.getName());
+
+    // Public Methods ==================================================================================================
+
+    /**
+     * Constructor
+     * @param journalFile the journal file, it is created on the first record
+     */
+    public FamilyJournal(File journalFile){
+        this.journalFile = journalFile;
+    }
+
+    /**
+     * Returns the journal file which belongs to a family file. The journal is named after the whole name of the family
+     * file, so family files which differ only in their extension, such as foo.fam and foo.famb, never share one.
+     * @param familyFile the family file
+     * @return the journal file alongside the family file
+     */
+    public static File forFamilyFile(File familyFile){
+        return new File(familyFile.getAbsoluteFile().getParentFile(), familyFile.getName() + EXTENSION);
+    }
+
+    /**
+     * Appends the current state of the persons to the journal as a single batch, forced to disk before returning. A
+     * header left incomplete by a crash is written again.
+     * @param family the family the persons belong to
+     * @param persons the persons which have changed
+     * @throws IOException if the batch could not be written
+     */
+    public void record(Family family, Collection<Person> persons) throws IOException {
+        LOGGER.fine("Journaling " + persons.size() + " changed persons.");
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(payload);
+
+        writeVarInt(output, persons.size());
+        for(Person person : persons){
+            writeEntry(output, family, person);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload.toByteArray());
+
+        try (FileOutputStream fileOutputStream = new FileOutputStream(this.journalFile, true)) {
+            FileChannel channel = fileOutputStream.getChannel();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.size() + HEADER_SIZE + 8);
+            DataOutputStream batch = new DataOutputStream(bytes);
+
+            // A journal shorter than its header holds no batch, so it is started again
+            if(channel.size() < HEADER_SIZE){
+                channel.truncate(0);
+                batch.writeInt(MAGIC);
+                batch.writeInt(VERSION);
+            }
+            batch.writeInt(payload.size());
+            batch.writeInt((int) crc.getValue());
+            payload.writeTo(batch);
+
+            // Written in one call so a batch is never interleaved with another
+            fileOutputStream.write(bytes.toByteArray());
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Applies every batch in the journal to the family in the order they were recorded. A batch or header left
+     * incomplete by a crash is discarded and cut from the journal so later batches are appended after the last complete
+     * one.
+     * @param family the family to apply the changes to
+     * @return the number of batches applied
+     * @throws IOException if the journal could not be read or is not a journal
+     */
+    public int replay(Family family) throws IOException {
+        int batches = 0;
+
+        if(!this.journalFile.isFile() || this.journalFile.length() == 0){
+            return batches;
+        }
+
+        LOGGER.fine("Replaying journal: " + this.journalFile.getName());
+        try (RandomAccessFile file = new RandomAccessFile(this.journalFile, "rw")) {
+            if(file.length() < HEADER_SIZE){
+                LOGGER.warning("Discarding incomplete journal header in " + this.journalFile.getName());
+                file.setLength(0);
+                return batches;
+            }
+            if(file.readInt() != MAGIC){
+                throw new IOException("Not a family journal: " + this.journalFile.getName());
+            }
+            int version = file.readInt();
+            if(version != VERSION){
+                throw new IOException("Unsupported family journal version: " + version);
+            }
+
+            long validLength = file.getFilePointer();
+            byte[] payload;
+            while((payload = readBatch(file)) != null){
+                applyBatch(family, payload);
+                batches++;
+                validLength = file.getFilePointer();
+            }
+
+            if(validLength < file.length()){
+                LOGGER.warning("Discarding incomplete journal batch in " + this.journalFile.getName());
+                file.setLength(validLength);
+            }
+        }
+
+        return batches;
+    }
+
+    /**
+     * @return the size of the journal in bytes, 0 if it does not exist
+     */
+    public long length(){
+        return this.journalFile.length();
+    }
+
+    /**
+     * Discards the batches in the first part of the journal, called once their changes are part of the family file.
+     * Batches appended after that point are kept.
+     * @param length the length the journal had when the family file was written
+     * @throws IOException if the journal could not be rewritten
+     */
+    public void discard(long length) throws IOException {
+        if(length >= this.journalFile.length()){
+            if(!delete()){
+                throw new IOException("Unable to delete journal: " + this.journalFile.getName());
+            }
+        }
+        else if(length > HEADER_SIZE){
+            try (RandomAccessFile file = new RandomAccessFile(this.journalFile, "rw")) {
+                byte[] remaining = new byte[(int) (file.length() - length)];
+                file.seek(length);
+                file.readFully(remaining);
+                file.seek(HEADER_SIZE);
+                file.write(remaining);
+                file.setLength(HEADER_SIZE + remaining.length);
+            }
+        }
+    }
+
+    /**
+     * Deletes the journal, called once its changes are part of the family file
+     * @return 'true' if the journal no longer exists. 'false' otherwise.
+     */
+    public boolean delete(){
+        return !this.journalFile.exists() || this.journalFile.delete();
+    }
+
+    // Private Methods =================================================================================================
+
+    /**
+     * Writes the entry for a single person, an upsert if they are a member of the family and a removal otherwise
+     * @param output the output to write to
+     * @param family the family the person belongs to
+     * @param person the person
+     * @throws IOException if the entry could not be written
+     */
+    private void writeEntry(DataOutputStream output, Family family, Person person) throws IOException {
+        boolean member = family.isMember(person);
+        output.writeByte(member ? UPSERT : REMOVE);
+        output.writeLong(person.getUUID().getMostSignificantBits());
+        output.writeLong(person.getUUID().getLeastSignificantBits());
+
+        if(member){
+            PersonValue.write(output, person, family::isMember);
+        }
+    }
+
+    /**
+     * Reads the next complete batch
+     * @param file the journal positioned at the start of a batch
+     * @return the payload of the batch, null if there are no more complete batches
+     * @throws IOException if the journal could not be read
+     */
+    private byte[] readBatch(RandomAccessFile file) throws IOException {
+        if(file.length() - file.getFilePointer() < 8){
+            return null;
+        }
+
+        int length = file.readInt();
+        int checksum = file.readInt();
+        if(length < 0 || length > file.length() - file.getFilePointer()){
+            return null;
+        }
+
+        byte[] payload = new byte[length];
+        file.readFully(payload);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return ((int) crc.getValue() == checksum) ? payload : null;
+    }
+
+    /**
+     * Applies a batch to the family. Every upserted person is added before any record is read so persons in the same
+     * batch can refer to each other.
+     * @param family the family to apply the batch to
+     * @param payload the payload of the batch
+     * @throws IOException if the batch is malformed
+     */
+    private void applyBatch(Family family, byte[] payload) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+        int entryCount = readVarInt(input);
+        List<Entry> entries = new ArrayList<>(entryCount);
+
+        for(int i = 0; i < entryCount; i++){
+            entries.add(readEntry(input));
+        }
+
+        for(Entry entry : entries){
+            Person person = family.getPerson(entry.uuid);
+            if(entry.operation == UPSERT && person == null){
+                person = new Person();
+                person.setUUID(entry.uuid);
+                family.addPerson(person);
+            }
+            else if(entry.operation == REMOVE && person != null){
+                family.removePerson(person);
+            }
+        }
+
+        for(Entry entry : entries){
+            if(entry.operation == UPSERT){
+                applyUpsert(family, family.getPerson(entry.uuid), entry);
+            }
+        }
+    }
+
+    /**
+     * Reads a single entry
+     * @param input the input positioned at the entry
+     * @return the entry read
+     * @throws IOException if the entry is malformed
+     */
+    private Entry readEntry(DataInputStream input) throws IOException {
+        Entry entry = new Entry();
+        entry.operation = input.readUnsignedByte();
+        entry.uuid = new UUID(input.readLong(), input.readLong());
+
+        if(entry.operation == UPSERT){
+            entry.value = PersonValue.read(input);
+        }
+        else if(entry.operation != REMOVE){
+            throw new IOException("Unknown journal operation: " + entry.operation);
+        }
+
+        return entry;
+    }
+
+    /**
+     * Replaces the details and relationships of a person with those recorded in an upsert
+     * @param family the family to resolve relatives against
+     * @param person the person to update
+     * @param entry the upsert
+     * @throws IOException if the record is malformed
+     */
+    private void applyUpsert(Family family, Person person, Entry entry) throws IOException {
+        entry.value.apply(person, uuid -> {
+            Person relative = family.getPerson(uuid);
+            if(relative == null){
+                LOGGER.warning("Unable to find person for UUID: " + uuid);
+            }
+            return relative;
+        });
+    }
+
+    // Private Classes =================================================================================================
+
+    /**
+     * A single decoded journal entry
+     */
+    private static class Entry {
+
+        private int operation;
+
+        private UUID uuid;
+
+        private PersonValue value;
+    }
+
+    // Private Fields ==================================================================================================
+
+    private final File journalFile;
+}
@@ -0,0 +1,38 @@
+package com.fourtwoeight.ancestre.util;
+
+import com.fourtwoeight.ancestre.model.Family;
+
+import java.io.File;
+
+/**
+ * Loads and saves families in one of the family formats. The FileManager goes through the storage registered for a
+ * format for every load and save, holding the lock for the family file while it does, so a storage need not be thread
+ * safe for the same file. See FileManager.registerStorage.
+ *
+ * A storage starts the progress it is given with the totals it knows and counts the bytes and persons it reads or
+ * writes against it, which also stops it with a CancellationException once the progress is cancelled. It need not
+ * finish the progress.
+ */
+public interface FamilyStorage {
+
+    /**
+     * Loads a family from a family file
+     * @param family the family to load into
+     * @param familyFile the family file to load, which exists and is readable
+     * @param progress the progress of the load
+     * @param errorMsg the error message to alert the user if not loaded successfully
+     * @return 'true' if loaded successfully. 'false' otherwise.
+     */
+    boolean load(Family family, File familyFile, Progress progress, StringBuilder errorMsg);
+
+    /**
+     * Saves a family to a family file
+     * @param family the family to be saved
+     * @param fileName the name of the family file to be saved, without an extension
+     * @param directory the directory to save the family, which exists
+     * @param progress the progress of the save
+     * @param errorMsg the error message to alert the user if not saved successfully
+     * @return 'true' if saved successfully. 'false' otherwise.
+     */
+    boolean save(Family family, String fileName, File directory, Progress progress, StringBuilder errorMsg);
+}
@@ -0,0 +1,324 @@
+package com.fourtwoeight.ancestre.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Checks that a .fam and .rel pair is intact and consistent without loading the family. Each file is streamed once,
+ * checking the checksum it was saved with as it is read. Only the uuids of the members are kept, as pairs of longs, so
+ * a family of a million persons is verified in about 16MB.
+ */
+class FamilyVerifier {
+
+    // Private Static Fields ===========================================================================================
+
+    private static final Logger LOGGER = Logger.getLogger(FamilyVerifier.class.getName());
+
+    // Package Methods =================================================================================================
+
+    /**
+     * Constructor
+     * @param familyCodec the codec to read the .fam file with
+     * @param relationshipReader the reader to read the .rel file with
+     */
+    FamilyVerifier(FamilyXmlCodec familyCodec, RelationshipReader relationshipReader){
+        this.familyCodec = familyCodec;
+        this.relationshipReader = relationshipReader;
+    }
+
+    /**
+     * Verifies a .fam and .rel pair. The pair is intact if neither file has been changed since it was saved, and
+     * consistent if every member of the .fam file has a distinct uuid and every uuid in the .rel file is a member.
+     * Files saved before checksums were added are only checked for consistency.
+     * @param familyFile the .fam file
+     * @param relationshipFile the .rel file
+     * @param errorMsg the problems found, if any
+     * @return 'true' if the pair is intact and consistent. 'false' otherwise.
+     * @throws Exception if either file could not be read or is not well formed
+     */
+    boolean verify(File familyFile, File relationshipFile, StringBuilder errorMsg) throws Exception {
+        UUIDArray members = new UUIDArray();
+        int[] invalidMembers = new int[1];
+        boolean verified = true;
+
+        try (ChecksumInputStream familyInputStream = new ChecksumInputStream(
+                CompressedStreams.decompress(new FileInputStream(familyFile)))) {
+            boolean family = this.familyCodec.readMemberUUIDs(familyInputStream, uuid -> {
+                UUID parsed = parse(uuid);
+                if(parsed != null){
+                    members.add(parsed);
+                }
+                else{
+                    invalidMembers[0]++;
+                }
+            });
+
+            if(!family){
+                problem(errorMsg, familyFile.getName() + " is not a family file.");
+                return false;
+            }
+            verified &= checkTrailer(familyInputStream, familyFile, errorMsg);
+        }
+
+        if(invalidMembers[0] > 0){
+            problem(errorMsg, familyFile.getName() + " has " + invalidMembers[0] + " members without a valid uuid.");
+            verified = false;
+        }
+
+        members.sort();
+        UUID duplicate = members.findDuplicate();
+        if(duplicate != null){
+            problem(errorMsg, familyFile.getName() + " has more than one member with uuid: " + duplicate + ".");
+            verified = false;
+        }
+
+        int[] unknownReferences = new int[1];
+        String[] firstUnknown = new String[1];
+
+        try (ChecksumInputStream relationshipInputStream = new ChecksumInputStream(
+                CompressedStreams.decompress(new FileInputStream(relationshipFile)))) {
+            boolean relationships = this.relationshipReader.scan(relationshipInputStream, record -> {
+                checkReference(members, record.getUUID(), unknownReferences, firstUnknown);
+                for(String relative : record.getRelatives()){
+                    checkReference(members, relative, unknownReferences, firstUnknown);
+                }
+            });
+
+            if(!relationships){
+                problem(errorMsg, relationshipFile.getName() + " is not a relationship file.");
+                return false;
+            }
+            verified &= checkTrailer(relationshipInputStream, relationshipFile, errorMsg);
+        }
+
+        if(unknownReferences[0] > 0){
+            problem(errorMsg, relationshipFile.getName() + " refers " + unknownReferences[0] + " times to persons "
+                    + "who are not members of " + familyFile.getName() + ", first: " + firstUnknown[0] + ".");
+            verified = false;
+        }
+
+        LOGGER.fine("Verified " + members.size() + " members of: " + familyFile.getName() + ", "
+                + (verified ? "no problems found." : "found problems."));
+        return verified;
+    }
+
+    // Private Methods =================================================================================================
+
+    /**
+     * Reads the rest of a file and checks its trailer
+     * @param inputStream the stream the file was read with
+     * @param file the file, for error messages
+     * @param errorMsg the problems found
+     * @return 'true' if the file matches its checksum or has none. 'false' otherwise.
+     * @throws Exception if the file could not be read
+     */
+    private boolean checkTrailer(ChecksumInputStream inputStream, File file, StringBuilder errorMsg)
+            throws Exception {
+        boolean intact = true;
+
+        if(!inputStream.finish()){
+            LOGGER.info(file.getName() + " was saved without a checksum.");
+        }
+        else if(!inputStream.isIntact()){
+            problem(errorMsg, file.getName() + " does not match the checksum it was saved with.");
+            intact = false;
+        }
+        return intact;
+    }
+
+    /**
+     * Counts a uuid which is not a member
+     * @param members the sorted uuids of the members
+     * @param uuid the uuid string referred to
+     * @param unknownReferences the count of references to persons who are not members
+     * @param firstUnknown the first uuid string referred to which is not a member
+     */
+    private void checkReference(UUIDArray members, String uuid, int[] unknownReferences, String[] firstUnknown){
+        UUID parsed = parse(uuid);
+
+        if(parsed == null || !members.contains(parsed)){
+            if(unknownReferences[0]++ == 0){
+                firstUnknown[0] = uuid;
+            }
+        }
+    }
+
+    /**
+     * @param uuid a uuid string, may be null
+     * @return the uuid, null if the string is not a uuid
+     */
+    private UUID parse(String uuid){
+        UUID parsed = null;
+
+        if(uuid != null){
+            try {
+                parsed = UUID.fromString(uuid.trim());
+            } catch (IllegalArgumentException e){
+                LOGGER.fine("Not a UUID: " + uuid);
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * Appends a problem to the error message
+     * @param errorMsg the problems found so far
+     * @param problem the problem
+     */
+    private void problem(StringBuilder errorMsg, String problem){
+        if(errorMsg.length() > 0){
+            errorMsg.append(' ');
+        }
+        errorMsg.append(problem);
+        LOGGER.warning(problem);
+    }
+
+    // Private Classes =================================================================================================
+
+    /**
+     * A growable array of uuids held as pairs of longs, which can be sorted and searched in the order of
+     * UUID.compareTo
+     */
+    private static class UUIDArray {
+
+        /**
+         * @param uuid the uuid to add
+         */
+        void add(UUID uuid){
+            if(2 * this.size == this.bits.length){
+                this.bits = Arrays.copyOf(this.bits, 2 * this.bits.length);
+            }
+            this.bits[2 * this.size] = uuid.getMostSignificantBits();
+            this.bits[2 * this.size + 1] = uuid.getLeastSignificantBits();
+            this.size++;
+        }
+
+        /**
+         * @return the number of uuids added
+         */
+        int size(){
+            return this.size;
+        }
+
+        /**
+         * Sorts the uuids, which must be done before they are searched
+         */
+        void sort(){
+            quickSort(0, this.size - 1);
+        }
+
+        /**
+         * @return a uuid which was added more than once, null if there is none. Only valid once sorted.
+         */
+        UUID findDuplicate(){
+            for(int i = 1; i < this.size; i++){
+                if(compare(i - 1, this.bits[2 * i], this.bits[2 * i + 1]) == 0){
+                    return new UUID(this.bits[2 * i], this.bits[2 * i + 1]);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @param uuid a uuid
+         * @return 'true' if the uuid was added. 'false' otherwise. Only valid once sorted.
+         */
+        boolean contains(UUID uuid){
+            long most = uuid.getMostSignificantBits();
+            long least = uuid.getLeastSignificantBits();
+            int low = 0;
+            int high = this.size - 1;
+
+            while(low <= high){
+                int middle = (low + high) >>> 1;
+                int comparison = compare(middle, most, least);
+
+                if(comparison < 0){
+                    low = middle + 1;
+                }
+                else if(comparison > 0){
+                    high = middle - 1;
+                }
+                else{
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Compares a uuid in the array to another as UUID.compareTo does
+         * @param index the index of the uuid in the array
+         * @param most the most significant bits of the other uuid
+         * @param least the least significant bits of the other uuid
+         * @return less than, equal to or greater than 0 as the uuid in the array is less than, equal to or greater
+         * than the other
+         */
+        private int compare(int index, long most, long least){
+            int comparison = Long.compare(this.bits[2 * index], most);
+            return (comparison != 0) ? comparison : Long.compare(this.bits[2 * index + 1], least);
+        }
+
+        /**
+         * Sorts a range of the uuids, recursing into the smaller side so the stack stays shallow
+         * @param low the first index of the range
+         * @param high the last index of the range
+         */
+        private void quickSort(int low, int high){
+            while(low < high){
+                int middle = (low + high) >>> 1;
+                long most = this.bits[2 * middle];
+                long least = this.bits[2 * middle + 1];
+                int i = low;
+                int j = high;
+
+                while(i <= j){
+                    while(compare(i, most, least) < 0){
+                        i++;
+                    }
+                    while(compare(j, most, least) > 0){
+                        j--;
+                    }
+                    if(i <= j){
+                        swap(i++, j--);
+                    }
+                }
+
+                if(j - low < high - i){
+                    quickSort(low, j);
+                    low = i;
+                }
+                else{
+                    quickSort(i, high);
+                    high = j;
+                }
+            }
+        }
+
+        /**
+         * @param a the index of a uuid
+         * @param b the index of the uuid to swap it with
+         */
+        private void swap(int a, int b){
+            long most = this.bits[2 * a];
+            long least = this.bits[2 * a + 1];
+            this.bits[2 * a] = this.bits[2 * b];
+            this.bits[2 * a + 1] = this.bits[2 * b + 1];
+            this.bits[2 * b] = most;
+            this.bits[2 * b + 1] = least;
+        }
+
+        private long[] bits = new long[64];
+
+        private int size;
+    }
+
+    // Private Fields ==================================================================================================
+
+    private final FamilyXmlCodec familyCodec;
+
+    private final RelationshipReader relationshipReader;
+}
@@ -0,0 +1,639 @@
+package com.fourtwoeight.ancestre.util;
+
+import com.fourtwoeight.ancestre.model.Family;
+import com.fourtwoeight.ancestre.model.Person;
+
+import javax.xml.bind.DatatypeConverter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import static com.fourtwoeight.ancestre.util.XmlStreamUtil.skipElement;
+
+/**
+ * Reads and writes the .fam family file without going through JAXB. The output is byte for byte what the JAXB
+ * marshaller produced for Family and Person with formatted output enabled. Persons are written directly to the stream
+ * and read one at a time with StAX, being added to the family as soon as they are complete.
+ */
+public class FamilyXmlCodec {
+
+    // Private Static Fields ===========================================================================================
+
+    private static final Logger LOGGER = Logger.getLogger(FamilyXmlCodec.class.getName());
+
+    private static final String DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+
+    private static final String INDENT = "    ";
+
+    private static final Date PURE_GREGORIAN = new Date(Long.MIN_VALUE);
+
+    private static final String FAMILY = "family";
+    private static final String FAMILY_NAME = "familyName";
+    private static final String FAMILY_MEMBERS = "familyMembers";
+    private static final String PERSON = "person";
+    private static final String UUID_ATTRIBUTE = "uuid";
+    private static final String BIRTH_DATE = "birthDate";
+    private static final String DEATH_DATE = "deathDate";
+    private static final String DESCRIPTION = "description";
+    private static final String FIRST_NAME = "firstName";
+    private static final String IMAGE_PATH = "imagePath";
+    private static final String LAST_NAME = "lastName";
+    private static final String MIDDLE_NAMES = "middleNames";
+    private static final String SEX = "sex";
+
+    // Public Methods ==================================================================================================
+
+    /**
+     * Constructor
+     * @param inputFactory the factory used to create stream readers
+     */
+    public FamilyXmlCodec(XMLInputFactory inputFactory){
+        this.inputFactory = inputFactory;
+    }
+
+    /**
+     * Writes the family and all of its members to the output stream. The stream is flushed but not closed.
+     * @param family the family to write
+     * @param outputStream the stream to write the .fam data to
+     * @throws IOException if the data could not be written
+     */
+    public void write(Family family, OutputStream outputStream) throws IOException {
+        write(family, outputStream, new Progress());
+    }
+
+    /**
+     * Writes the family and all of its members to the output stream, counting each member written against the
+     * progress. The stream is flushed but not closed.
+     * @param family the family to write
+     * @param outputStream the stream to write the .fam data to
+     * @param progress the progress of the save
+     * @throws IOException if the data could not be written
+     */
+    public void write(Family family, OutputStream outputStream, Progress progress) throws IOException {
+        write(family, family.getMemberView().toArray(new Person[0]), outputStream, progress);
+    }
+
+    /**
+     * Writes the family with the given members in the given order, counting each member written against the
+     * progress. The stream is flushed but not closed.
+     * @param family the family to write
+     * @param members the members of the family
+     * @param outputStream the stream to write the .fam data to
+     * @param progress the progress of the save
+     * @return the byte offset of each member's element in the stream, followed by the offset just past the last
+     * @throws IOException if the data could not be written
+     */
+    long[] write(Family family, Person[] members, OutputStream outputStream, Progress progress) throws IOException {
+        LOGGER.fine("Writing family: " + family.getFamilyName());
+        CountingOutputStream countingStream = new CountingOutputStream(outputStream);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(countingStream, StandardCharsets.UTF_8));
+        long[] offsets = new long[members.length + 1];
+
+        writer.write(DECLARATION);
+        writer.write('<');
+        writer.write(FAMILY);
+        writeAttribute(writer, FAMILY_NAME, family.getFamilyName());
+
+        if(members.length == 0){
+            writer.write("/>\n");
+        }
+        else{
+            writer.write(">\n");
+            for(int i = 0; i < members.length; i++){
+                // Flushing the writer brings the count up to the start of the element
+                writer.flush();
+                offsets[i] = countingStream.getCount();
+                writePersonElement(writer, FAMILY_MEMBERS, members[i], 1);
+                progress.addPersons(1);
+            }
+            writer.flush();
+            offsets[members.length] = countingStream.getCount();
+            writeEndTag(writer, FAMILY);
+            writer.write('\n');
+        }
+        writer.flush();
+        outputStream.flush();
+
+        return offsets;
+    }
+
+    /**
+     * Writes a single person as a standalone document to the output stream. The stream is flushed but not closed.
+     * @param person the person to write
+     * @param outputStream the stream to write to
+     * @throws IOException if the data could not be written
+     */
+    public void writePerson(Person person, OutputStream outputStream) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+
+        writer.write(DECLARATION);
+        writePersonElement(writer, PERSON, person, 0);
+        writer.flush();
+    }
+
+    /**
+     * Reads a .fam file, setting the family name and adding every person found to the family
+     * @param family the family to load into
+     * @param inputStream the stream to read the .fam data from
+     * @return 'true' if the document was a family document. 'false' otherwise.
+     * @throws XMLStreamException if the stream is not well formed
+     */
+    public boolean read(Family family, InputStream inputStream) throws XMLStreamException {
+        return read(family, inputStream, new Progress());
+    }
+
+    /**
+     * Reads a .fam file, setting the family name and adding every person found to the family, counting each person
+     * read against the progress
+     * @param family the family to load into
+     * @param inputStream the stream to read the .fam data from
+     * @param progress the progress of the load
+     * @return 'true' if the document was a family document. 'false' otherwise.
+     * @throws XMLStreamException if the stream is not well formed
+     */
+    public boolean read(Family family, InputStream inputStream, Progress progress) throws XMLStreamException {
+        LOGGER.fine("Reading family.");
+        boolean loaded = false;
+        XMLStreamReader reader = this.inputFactory.createXMLStreamReader(inputStream);
+
+        try {
+            reader.nextTag();
+
+            if(FAMILY.equals(reader.getLocalName())){
+                family.setFamilyName(reader.getAttributeValue(null, FAMILY_NAME));
+
+                while(reader.nextTag() == XMLStreamConstants.START_ELEMENT){
+                    if(FAMILY_MEMBERS.equals(reader.getLocalName())){
+                        family.addPerson(readPersonElement(reader));
+                        progress.addPersons(1);
+                    }
+                    else{
+                        skipElement(reader);
+                    }
+                }
+                loaded = true;
+            }
+            else{
+                LOGGER.severe("Could not extract family element.");
+            }
+        } finally {
+            reader.close();
+        }
+
+        return loaded;
+    }
+
+    /**
+     * Reads a single person written by writePerson
+     * @param inputStream the stream to read from
+     * @return the person read, null if the document is not a person document
+     * @throws XMLStreamException if the stream is not well formed
+     */
+    public Person readPerson(InputStream inputStream) throws XMLStreamException {
+        return readPerson(inputStream, PERSON);
+    }
+
+    /**
+     * Reads the element of a single member of a .fam file, cut from the file at the range given by a FamilyIndex
+     * @param inputStream the stream to read the element from
+     * @return the person read, null if the element is not a member element
+     * @throws XMLStreamException if the stream is not well formed
+     */
+    Person readMember(InputStream inputStream) throws XMLStreamException {
+        return readPerson(inputStream, FAMILY_MEMBERS);
+    }
+
+    /**
+     * Reads the uuid of every member of a .fam file without decoding the members
+     * @param inputStream the stream to read the .fam data from
+     * @param uuids given the uuid string of each member in the order they were read, null for a member without one
+     * @return 'true' if the document was a family document. 'false' otherwise.
+     * @throws XMLStreamException if the stream is not well formed
+     */
+    boolean readMemberUUIDs(InputStream inputStream, Consumer<String> uuids) throws XMLStreamException {
+        boolean read = false;
+        XMLStreamReader reader = this.inputFactory.createXMLStreamReader(inputStream);
+
+        try {
+            reader.nextTag();
+
+            if(FAMILY.equals(reader.getLocalName())){
+                while(reader.nextTag() == XMLStreamConstants.START_ELEMENT){
+                    if(FAMILY_MEMBERS.equals(reader.getLocalName())){
+                        uuids.accept(reader.getAttributeValue(null, UUID_ATTRIBUTE));
+                    }
+                    skipElement(reader);
+                }
+                read = true;
+            }
+        } finally {
+            reader.close();
+        }
+
+        return read;
+    }
+
+    /**
+     * Reads the name of a family from the start of a .fam file, without reading its members
+     * @param inputStream the stream to read the .fam data from
+     * @return the name of the family, null if it has none
+     * @throws XMLStreamException if the stream is not a family document
+     */
+    String readFamilyName(InputStream inputStream) throws XMLStreamException {
+        XMLStreamReader reader = this.inputFactory.createXMLStreamReader(inputStream);
+
+        try {
+            reader.nextTag();
+
+            if(!FAMILY.equals(reader.getLocalName())){
+                throw new XMLStreamException("Could not extract family element.");
+            }
+            return reader.getAttributeValue(null, FAMILY_NAME);
+        } finally {
+            reader.close();
+        }
+    }
+
+    // Private Methods =================================================================================================
+
+    /**
+     * Reads a document holding a single person element
+     * @param inputStream the stream to read from
+     * @param elementName the name of the person element
+     * @return the person read, null if the document is not a person element with the name
+     * @throws XMLStreamException if the stream is not well formed
+     */
+    private Person readPerson(InputStream inputStream, String elementName) throws XMLStreamException {
+        Person person = null;
+        XMLStreamReader reader = this.inputFactory.createXMLStreamReader(inputStream);
+
+        try {
+            reader.nextTag();
+
+            if(elementName.equals(reader.getLocalName())){
+                person = readPersonElement(reader);
+            }
+            else{
+                LOGGER.severe("Could not extract person element.");
+            }
+        } finally {
+            reader.close();
+        }
+
+        return person;
+    }
+
+    /**
+     * Writes a person element followed by a line break. Properties are written in the alphabetical order JAXB uses and
+     * null properties are omitted.
+     * @param writer the writer to write to
+     * @param elementName the name of the person element
+     * @param person the person to write
+     * @param depth the depth of the person element
+     * @throws IOException if the data could not be written
+     */
+    private void writePersonElement(Writer writer, String elementName, Person person, int depth) throws IOException {
+        boolean empty = person.getBirthDate() == null
+                && person.getDeathDate() == null
+                && person.getDescription() == null
+                && person.getFirstName() == null
+                && person.getImagePath() == null
+                && person.getLastName() == null
+                && (person.getMiddleNames() == null || person.getMiddleNames().isEmpty())
+                && person.getSex() == null;
+
+        writeIndent(writer, depth);
+        writer.write('<');
+        writer.write(elementName);
+        if(person.getUUID() != null){
+            writeAttribute(writer, UUID_ATTRIBUTE, person.getUUIDString());
+        }
+
+        if(empty){
+            writer.write("/>\n");
+        }
+        else{
+            writer.write(">\n");
+            writeCalendar(writer, BIRTH_DATE, person.getBirthDate(), depth + 1);
+            writeCalendar(writer, DEATH_DATE, person.getDeathDate(), depth + 1);
+            writeText(writer, DESCRIPTION, person.getDescription(), depth + 1);
+            writeText(writer, FIRST_NAME, person.getFirstName(), depth + 1);
+            writeText(writer, IMAGE_PATH, person.getImagePath(), depth + 1);
+            writeText(writer, LAST_NAME, person.getLastName(), depth + 1);
+
+            if(person.getMiddleNames() != null){
+                for(String middleName : person.getMiddleNames()){
+                    writeText(writer, MIDDLE_NAMES, middleName, depth + 1);
+                }
+            }
+
+            if(person.getSex() != null){
+                writeText(writer, SEX, person.getSex().name(), depth + 1);
+            }
+
+            writeIndent(writer, depth);
+            writeEndTag(writer, elementName);
+            writer.write('\n');
+        }
+    }
+
+    /**
+     * Reads the person element the reader is positioned on. The reader is left on the end of the element.
+     * @param reader the reader positioned at a person element
+     * @return the person read
+     * @throws XMLStreamException if the stream is not well formed
+     */
+    private Person readPersonElement(XMLStreamReader reader) throws XMLStreamException {
+        Person person = new Person();
+        String uuid = reader.getAttributeValue(null, UUID_ATTRIBUTE);
+
+        if(uuid != null){
+            person.setUUID(UUID.fromString(uuid));
+        }
+
+        while(reader.nextTag() == XMLStreamConstants.START_ELEMENT){
+            String elementName = reader.getLocalName();
+
+            if(FIRST_NAME.equals(elementName)){
+                person.setFirstName(reader.getElementText());
+            }
+            else if(MIDDLE_NAMES.equals(elementName)){
+                person.getMiddleNames().add(reader.getElementText());
+            }
+            else if(LAST_NAME.equals(elementName)){
+                person.setLastName(reader.getElementText());
+            }
+            else if(SEX.equals(elementName)){
+                person.setSex(Person.SEX.valueOf(reader.getElementText().trim()));
+            }
+            else if(BIRTH_DATE.equals(elementName)){
+                person.setBirthDate(parseDateTime(reader.getElementText().trim()));
+            }
+            else if(DEATH_DATE.equals(elementName)){
+                person.setDeathDate(parseDateTime(reader.getElementText().trim()));
+            }
+            else if(DESCRIPTION.equals(elementName)){
+                person.setDescription(reader.getElementText());
+            }
+            else if(IMAGE_PATH.equals(elementName)){
+                person.setImagePath(reader.getElementText());
+            }
+            else{
+                skipElement(reader);
+            }
+        }
+
+        return person;
+    }
+
+    /**
+     * Parses an xsd:dateTime value. The yyyy-MM-ddTHH:mm:ss[.SSS] form with a Z or +hh:mm zone that printDateTime
+     * produces is parsed directly, anything else is handed to DatatypeConverter. Both produce the same proleptic
+     * Gregorian calendar that JAXB does.
+     * @param value the value to parse
+     * @return the parsed calendar
+     * @throws IllegalArgumentException if the value is not a valid xsd:dateTime
+     */
+    private Calendar parseDateTime(String value){
+        int length = value.length();
+        int zoneStart = 19;
+
+        if(length < 20 || value.charAt(4) != '-' || value.charAt(7) != '-' || value.charAt(10) != 'T'
+                || value.charAt(13) != ':' || value.charAt(16) != ':'){
+            return DatatypeConverter.parseDateTime(value);
+        }
+
+        int millisecond = 0;
+        if(value.charAt(zoneStart) == '.'){
+            if(length < 24 || !isDigits(value, 20, 23) || Character.isDigit(value.charAt(23))){
+                return DatatypeConverter.parseDateTime(value);
+            }
+            millisecond = Integer.parseInt(value.substring(20, 23));
+            zoneStart = 23;
+        }
+
+        String zone = value.substring(zoneStart);
+        if(!isDigits(value, 0, 4) || !isDigits(value, 5, 7) || !isDigits(value, 8, 10) || !isDigits(value, 11, 13)
+                || !isDigits(value, 14, 16) || !isDigits(value, 17, 19)
+                || !(zone.equals("Z") || (zone.length() == 6 && zone.charAt(3) == ':'
+                    && (zone.charAt(0) == '+' || zone.charAt(0) == '-')))){
+            return DatatypeConverter.parseDateTime(value);
+        }
+
+        TimeZone timeZone = this.timeZones.get(zone);
+        if(timeZone == null){
+            timeZone = TimeZone.getTimeZone(zone.equals("Z") ? "GMT+00:00" : "GMT" + zone);
+            this.timeZones.put(zone, timeZone);
+        }
+
+        GregorianCalendar calendar = new GregorianCalendar(timeZone, Locale.getDefault());
+        calendar.clear();
+        calendar.setGregorianChange(PURE_GREGORIAN);
+        calendar.set(Integer.parseInt(value.substring(0, 4)),
+                Integer.parseInt(value.substring(5, 7)) - 1,
+                Integer.parseInt(value.substring(8, 10)),
+                Integer.parseInt(value.substring(11, 13)),
+                Integer.parseInt(value.substring(14, 16)),
+                Integer.parseInt(value.substring(17, 19)));
+        calendar.set(Calendar.MILLISECOND, millisecond);
+
+        // Reject out of range fields such as February 30th the same way DatatypeConverter does
+        calendar.setLenient(false);
+        calendar.getTimeInMillis();
+        calendar.setLenient(true);
+        return calendar;
+    }
+
+    /**
+     * @param value the string to check
+     * @param start the first index to check
+     * @param end the index after the last index to check
+     * @return 'true' if every character in the range is an ASCII digit. 'false' otherwise.
+     */
+    private boolean isDigits(String value, int start, int end){
+        for(int i = start; i < end; i++){
+            char c = value.charAt(i);
+            if(c < '0' || c > '9'){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes a text element on its own line, nothing is written if the value is null
+     * @param writer the writer to write to
+     * @param elementName the name of the element
+     * @param value the text content of the element
+     * @param depth the depth of the element
+     * @throws IOException if the data could not be written
+     */
+    private void writeText(Writer writer, String elementName, String value, int depth) throws IOException {
+        if(value != null){
+            writeIndent(writer, depth);
+            writer.write('<');
+            writer.write(elementName);
+            writer.write('>');
+            writeEscaped(writer, value, false);
+            writeEndTag(writer, elementName);
+            writer.write('\n');
+        }
+    }
+
+    /**
+     * Writes a calendar as an xsd:dateTime element, nothing is written if the calendar is null
+     * @param writer the writer to write to
+     * @param elementName the name of the element
+     * @param calendar the calendar to write
+     * @param depth the depth of the element
+     * @throws IOException if the data could not be written
+     */
+    private void writeCalendar(Writer writer, String elementName, Calendar calendar, int depth) throws IOException {
+        if(calendar != null){
+            writeText(writer, elementName, DatatypeConverter.printDateTime(calendar), depth);
+        }
+    }
+
+    /**
+     * Writes an attribute preceded by a space, nothing is written if the value is null
+     * @param writer the writer to write to
+     * @param name the name of the attribute
+     * @param value the value of the attribute
+     * @throws IOException if the data could not be written
+     */
+    private void writeAttribute(Writer writer, String name, String value) throws IOException {
+        if(value != null){
+            writer.write(' ');
+            writer.write(name);
+            writer.write("=\"");
+            writeEscaped(writer, value, true);
+            writer.write('"');
+        }
+    }
+
+    /**
+     * Writes the closing tag for an element
+     * @param writer the writer to write to
+     * @param elementName the name of the element
+     * @throws IOException if the data could not be written
+     */
+    private void writeEndTag(Writer writer, String elementName) throws IOException {
+        writer.write("</");
+        writer.write(elementName);
+        writer.write('>');
+    }
+
+    /**
+     * Writes four spaces of indentation for each level of depth
+     * @param writer the writer to write to
+     * @param depth the number of indents to write
+     * @throws IOException if the data could not be written
+     */
+    private void writeIndent(Writer writer, int depth) throws IOException {
+        for(int i = 0; i < depth; i++){
+            writer.write(INDENT);
+        }
+    }
+
+    /**
+     * Writes the value escaping the same characters the JAXB marshaller does, so that carriage returns survive a round
+     * trip and the output matches files written by earlier versions.
+     * @param writer the writer to write to
+     * @param value the value to escape
+     * @param attribute whether the value is an attribute value, in which case quotes are also escaped
+     * @throws IOException if the data could not be written
+     */
+    private void writeEscaped(Writer writer, String value, boolean attribute) throws IOException {
+        int start = 0;
+
+        for(int i = 0; i < value.length(); i++){
+            String escape;
+
+            switch(value.charAt(i)){
+                case '&': escape = "&amp;"; break;
+                case '<': escape = "&lt;"; break;
+                case '>': escape = "&gt;"; break;
+                case '\r': escape = "&#xD;"; break;
+                case '"': escape = attribute ? "&quot;" : null; break;
+                default: escape = null;
+            }
+
+            if(escape != null){
+                writer.write(value, start, i - start);
+                writer.write(escape);
+                start = i + 1;
+            }
+        }
+        writer.write(value, start, value.length() - start);
+    }
+
+    // Private Classes =================================================================================================
+
+    /**
+     * Counts the bytes written to a stream. Flushes are not passed on so the writer above can be flushed to bring the
+     * count up to date without flushing the file beneath.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        /**
+         * Constructor
+         * @param outputStream the stream to write to
+         */
+        CountingOutputStream(OutputStream outputStream){
+            super(outputStream);
+        }
+
+        /**
+         * @return the number of bytes written
+         */
+        long getCount(){
+            return this.count;
+        }
+
+        @Override
+        public void write(int value) throws IOException {
+            this.out.write(value);
+            this.count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            this.out.write(bytes, offset, length);
+            this.count += length;
+        }
+
+        @Override
+        public void flush(){
+            // Flushed by the codec once everything has been written
+        }
+
+        private long count;
+    }
+
+    // Private Fields ==================================================================================================
+
+    private XMLInputFactory inputFactory;
+
+    /**
+     * Time zones already looked up by parseDateTime, keyed by their xsd:dateTime suffix
+     */
+    private HashMap<String, TimeZone> timeZones = new HashMap<>();
+}
@@ -2,26 +2,37 @@ package com.fourtwoeight.ancestre.util;
 
 import com.fourtwoeight.ancestre.model.Family;
 import com.fourtwoeight.ancestre.model.Person;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 public class FileManager {
@@ -32,14 +43,20 @@ public class FileManager {
 
     private static final Logger LOGGER = Logger.getLogger(FileManager.class.getName());
 
-    private static String UUID = "uuid";
-    private static String RELATIONSHIPS = "Relationships";
-    private static String PERSON = "Person";
-    private static String FATHER = "Father";
-    private static String MOTHER = "Mother";
-    private static String CUR_SPOUSE = "CurrentSpouse";
-    private static String SPOUSES = "Spouses";
-    private static String CHILDREN = "Children";
+    /**
+     * The smallest journal which is worth compacting, in bytes
+     */
+    private static final long MIN_COMPACTION_LENGTH = 64 * 1024;
+
+    /**
+     * The number of locks files are spread across, see fileLock
+     */
+    private static final int FILE_LOCK_COUNT = 64;
+
+    /**
+     * The extension of the marker written beside a .fam file once both temporary files of a save are complete
+     */
+    private static final String COMMIT_EXTENSION = ".commit";
 
     // Public Methods ==================================================================================================
 
@@ -47,13 +64,53 @@ public class FileManager {
     /**
      * @return The singleton instance of the FileManager
      */
-    public static FileManager getInstance() {
+    public static synchronized FileManager getInstance() {
         if(instance == null){
             instance = new FileManager();
         }
         return instance;
     }
 
+    /**
+     * @return the level .fam and .rel files are compressed with, 0 if they are saved uncompressed
+     */
+    public int getCompressionLevel(){
+        return this.compressionLevel;
+    }
+
+    /**
+     * Sets the level .fam and .rel files are gzip compressed with when saved. Compressed files are recognised when
+     * loaded, so files saved at any level can be loaded whatever the current level.
+     * @param compressionLevel 0 to save uncompressed, otherwise from 1 for the fastest to 9 for the smallest files
+     */
+    public void setCompressionLevel(int compressionLevel){
+        if(compressionLevel < CompressedStreams.NO_COMPRESSION
+                || compressionLevel > CompressedStreams.BEST_COMPRESSION){
+            throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+        }
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Replaces the storage families in a format are loaded and saved with, so a format can be kept in another backend
+     * @param format the format
+     * @param storage the storage to load and save the format with
+     */
+    public void registerStorage(FamilyFormat format, FamilyStorage storage){
+        if(storage == null){
+            throw new IllegalArgumentException("No storage given for format: " + format);
+        }
+        this.storages.put(format, storage);
+    }
+
+    /**
+     * @param format a format
+     * @return the storage families in the format are loaded and saved with
+     */
+    public FamilyStorage getStorage(FamilyFormat format){
+        return this.storages.get(format);
+    }
+
     /**
      * Saves a person object to the provided fileStream
      * @param person the Person to be saved
@@ -64,9 +121,9 @@ public class FileManager {
         boolean saved = false;
 
         try {
-            personMarshaller.marshal(person, fileStream);
+            this.familyCodec.get().writePerson(person, fileStream);
             saved = true;
-        } catch (JAXBException e) {
+        } catch (Exception e) {
             LOGGER.severe("Unable to save person: " + person.getFullName() + ". Caught Exception: " + e);
         }
 
@@ -81,41 +138,120 @@ public class FileManager {
      * @return 'true' if loaded successfully. 'false' otherwise
      */
     public boolean load(Family family, File familyFile, StringBuilder errorMsg){
+        return load(family, familyFile, new Progress(), errorMsg);
+    }
+
+    /**
+     * Loads a family from the provided family file, reporting its progress. Cancelling the progress stops the load,
+     * leaving the family partly loaded.
+     * @param family the reference to the family object to load data into
+     * @param familyFile the family file to load
+     * @param progress the progress of the load, finished when this returns
+     * @param errorMsg the error message to alert the user if not saved successfully
+     * @return 'true' if loaded successfully. 'false' otherwise
+     */
+    public boolean load(Family family, File familyFile, Progress progress, StringBuilder errorMsg){
         boolean loaded = false;
         // clear out error message
         errorMsg.delete(0, errorMsg.length());
 
-        if(familyFile.isFile()){
+        FamilyFormat format = FamilyFormat.fromFile(familyFile);
+
+        if((format == FamilyFormat.DIRECTORY) ? familyFile.isDirectory() : familyFile.isFile()){
             if(familyFile.canRead()){
+                synchronized (fileLock(familyFile)){
+                    loaded = getStorage(format).load(family, familyFile, progress, errorMsg);
 
-                // Load the family
-                try (FileInputStream familyInputStream = new FileInputStream(familyFile)) {
-                    loaded = loadFamily(family, familyInputStream);
-                    familyInputStream.close();
-                } catch( Exception e){
-                    errorMsg.append("Unable to load .fam file.");
-                    LOGGER.severe("Caught exception: " + e.toString());
+                    if(loaded){
+                        loaded = replayJournal(family, familyFile, errorMsg);
+                    }
+                }
+
+                if(!loaded && progress.isCancelled()){
+                    errorMsg.delete(0, errorMsg.length());
+                    errorMsg.append("Loading " + familyFile.getName() + " was cancelled.");
+                    LOGGER.info(errorMsg.toString());
                 }
+            }
+            else{
+                errorMsg.append("The selected file: " + familyFile.getName() + " is not readable.");
+                LOGGER.warning(errorMsg.toString());
+            }
+        }
+        else{
+            errorMsg.append("The selected file: " + familyFile.getName() + " is not a file.");
+            LOGGER.warning(errorMsg.toString());
+        }
+
+        if(!loaded && errorMsg.length() == 0){
+            errorMsg.append("Unable to load from file: " + familyFile.getName());
+        }
+
+        progress.finish();
+        return loaded;
+    }
+
+    /**
+     * Loads a family from the provided family file in the background. Nothing else may use the family until the load
+     * completes. See load.
+     * @param family the reference to the family object to load data into
+     * @param familyFile the family file to load
+     * @param progress the progress of the load, cancelling it stops the load
+     * @param errorMsg the error message to alert the user if not loaded successfully, set before the load completes
+     * @return completes with 'true' if loaded successfully. 'false' otherwise.
+     */
+    public CompletableFuture<Boolean> loadAsync(Family family, File familyFile, Progress progress,
+                                                StringBuilder errorMsg){
+        return CompletableFuture.supplyAsync(() -> load(family, familyFile, progress, errorMsg), this.ioExecutor);
+    }
 
-                if(loaded){
-                    // Get the parse the familyFile name
-                    String[] split = familyFile.getName().split("\\.");
-                    String familyFileName = (split.length > 0) ? split[0] : familyFile.getName();
+    /**
+     * Loads the ancestors or descendants of a person within a number of generations, without loading the rest of
+     * their family. Only the persons in the lineage are read from an uncompressed .fam file saved with its index, from
+     * a binary family file or from a B-tree family file. Any other file, or one with journaled changes, is loaded in
+     * full first. The persons loaded are linked as father, mother and child within the lineage, so the family is only
+     * part of the one in the file and must not be saved over it.
+     * @param family the reference to the family object to load the lineage into
+     * @param familyFile the family file to load from
+     * @param root the uuid of the person the lineage starts from
+     * @param lineage whether to load the ancestors or the descendants of the person
+     * @param generations how many generations to load, 0 for only the person
+     * @param errorMsg the error message to alert the user if not loaded successfully
+     * @return 'true' if loaded successfully. 'false' otherwise
+     */
+    public boolean loadLineage(Family family, File familyFile, UUID root, Lineage lineage, int generations,
+                               StringBuilder errorMsg){
+        boolean loaded = false;
+        // clear out error message
+        errorMsg.delete(0, errorMsg.length());
 
-                    File relationshipFile = new File(familyFile.getParent() +
-                            "/" + familyFileName + ".rel");
+        if(generations < 0){
+            throw new IllegalArgumentException("Invalid number of generations: " + generations);
+        }
 
-                    LOGGER.finest("Loading relationship file with path: " + relationshipFile.getAbsolutePath());
+        FamilyFormat format = FamilyFormat.fromFile(familyFile);
 
-                    // Load the relationship file
-                    try(FileInputStream relationshipInputStream = new FileInputStream(relationshipFile)){
-                        loaded = loadRelationships(family, relationshipInputStream);
-                        relationshipInputStream.close();
-                    }catch (Exception e){
-                        errorMsg.append("Unable to to load .rel file.");
+        if((format == FamilyFormat.DIRECTORY) ? familyFile.isDirectory() : familyFile.isFile()){
+            if(familyFile.canRead()){
+                List<Person> persons = null;
+
+                synchronized (fileLock(familyFile)){
+                    try {
+                        persons = readLineage(family, familyFile, format, root, lineage, generations, errorMsg);
+                    } catch (Exception e){
+                        errorMsg.append("Unable to load from file: " + familyFile.getName());
                         LOGGER.severe("Caught exception: " + e.toString());
                     }
                 }
+
+                if(persons != null){
+                    persons.forEach(family::addPerson);
+                    loaded = true;
+                }
+                else if(errorMsg.length() == 0){
+                    errorMsg.append("Unable to find person: " + root + " in file: " + familyFile.getName());
+                    LOGGER.warning(errorMsg.toString());
+                }
             }
             else{
                 errorMsg.append("The selected file: " + familyFile.getName() + " is not readable.");
@@ -127,15 +263,91 @@ public class FileManager {
             LOGGER.warning(errorMsg.toString());
         }
 
-        if(!loaded && errorMsg.length() == 0){
-            errorMsg.append("Unable to load from file: " + familyFile.getName());
+        return loaded;
+    }
+
+    /**
+     * Checks that a .fam file and the .rel file alongside it are intact and consistent, without loading the family.
+     * Each file is streamed once and checked against the checksum it was saved with, every member of the .fam file
+     * must have a distinct uuid and every uuid in the .rel file must be a member. Files saved before checksums were
+     * added are only checked for consistency. Nothing is recovered or changed.
+     * @param familyFile the .fam file to verify
+     * @param errorMsg the problems found, or why the files could not be verified
+     * @return 'true' if the files are intact and consistent. 'false' otherwise
+     */
+    public boolean verify(File familyFile, StringBuilder errorMsg){
+        boolean verified = false;
+        // clear out error message
+        errorMsg.delete(0, errorMsg.length());
+
+        String[] split = familyFile.getName().split("\\.");
+        String familyFileName = (split.length > 0) ? split[0] : familyFile.getName();
+        File relationshipFile = new File(familyFile.getAbsoluteFile().getParentFile(), familyFileName + ".rel");
+
+        if(FamilyFormat.fromFile(familyFile) != FamilyFormat.XML){
+            errorMsg.append("Only " + FamilyFormat.XML.getExtension() + " files can be verified.");
+            LOGGER.warning(errorMsg.toString());
+        }
+        else if(!familyFile.isFile() || !familyFile.canRead()){
+            errorMsg.append("The selected file: " + familyFile.getName() + " is not a readable file.");
+            LOGGER.warning(errorMsg.toString());
+        }
+        else if(!relationshipFile.isFile() || !relationshipFile.canRead()){
+            errorMsg.append("The relationship file: " + relationshipFile.getName() + " is not a readable file.");
+            LOGGER.warning(errorMsg.toString());
+        }
+        else{
+            FamilyVerifier verifier = new FamilyVerifier(this.familyCodec.get(),
+                    new RelationshipReader(this.xmlInputFactory.get()));
+
+            // Held so a save cannot replace one file of the pair while the other is being read
+            synchronized (fileLock(familyFile)){
+                try {
+                    verified = verifier.verify(familyFile, relationshipFile, errorMsg);
+                } catch (Exception e){
+                    errorMsg.append("Unable to verify " + familyFile.getName() + ".");
+                    LOGGER.severe("Caught exception: " + e.toString());
+                }
+            }
         }
 
-        return loaded;
+        return verified;
+    }
+
+    /**
+     * Opens a binary family file as a read-only family. The file is memory mapped and persons are only decoded as they
+     * are accessed, so large archives open almost immediately.
+     * @param familyFile the binary family file to open
+     * @param errorMsg the error message to alert the user if not opened successfully
+     * @return the read-only family, null if the file could not be opened
+     */
+    public Family openArchive(File familyFile, StringBuilder errorMsg){
+        Family family = null;
+        // clear out error message
+        errorMsg.delete(0, errorMsg.length());
+
+        if(FamilyFormat.fromFile(familyFile) != FamilyFormat.BINARY){
+            errorMsg.append("Only " + FamilyFormat.BINARY.getExtension() + " files can be opened as an archive.");
+            LOGGER.warning(errorMsg.toString());
+        }
+        else if(!familyFile.isFile() || !familyFile.canRead()){
+            errorMsg.append("The selected file: " + familyFile.getName() + " is not a readable file.");
+            LOGGER.warning(errorMsg.toString());
+        }
+        else{
+            try {
+                family = MappedFamily.open(familyFile);
+            } catch (Exception e){
+                errorMsg.append("Unable to open " + familyFile.getName() + " as an archive.");
+                LOGGER.severe("Caught exception: " + e.toString());
+            }
+        }
+
+        return family;
     }
 
     /**
-     * Saves the family and all supporting files
+     * Saves the family and all supporting files in the XML format
      * @param family the family to be saved
      * @param fileName the name of the family file to be saved
      * @param directory the directory to save the family
@@ -143,49 +355,185 @@ public class FileManager {
      * @return 'true' if saved successfully. 'false' otherwise.
      */
     public boolean save(Family family, String fileName, File directory, StringBuilder errorMsg){
-        boolean saved = false;
-        // clear out error message
-        errorMsg.delete(0, errorMsg.length());
+        return save(family, fileName, directory, FamilyFormat.XML, errorMsg);
+    }
 
-        // Create the family file
-        if(directory.isDirectory()){
-            // Create Family and Relationship File
-            File familyFile = new File(directory.getAbsolutePath() + "/" + fileName +".fam");
-            File relationshipFile = new File(directory.getAbsolutePath() + "/" + fileName + ".rel");
-
-            // Save the family file
-            try (FileOutputStream familyOutputStream = new FileOutputStream(familyFile)) {
-                saved = saveFamily(family, familyOutputStream);
-                familyOutputStream.close();
-            } catch (Exception e){
-                errorMsg.append("Unable to save .fam file.");
-                LOGGER.severe("Caught exception: " + e.toString());
+    /**
+     * Saves the family and all supporting files in the given format
+     * @param family the family to be saved
+     * @param fileName the name of the family file to be saved, without an extension
+     * @param directory the directory to save the family
+     * @param format the format to save the family in
+     * @param errorMsg the error message to alert the user if not saved successfully
+     * @return 'true' if saved successfully. 'false' otherwise.
+     */
+    public boolean save(Family family, String fileName, File directory, FamilyFormat format, StringBuilder errorMsg){
+        return save(family, fileName, directory, format, new Progress(), errorMsg);
+    }
+
+    /**
+     * Saves the family and all supporting files in the given format, reporting its progress. Cancelling the progress
+     * stops the save, leaving any family file already saved as it was.
+     * @param family the family to be saved
+     * @param fileName the name of the family file to be saved, without an extension
+     * @param directory the directory to save the family
+     * @param format the format to save the family in
+     * @param progress the progress of the save, finished when this returns
+     * @param errorMsg the error message to alert the user if not saved successfully
+     * @return 'true' if saved successfully. 'false' otherwise.
+     */
+    public boolean save(Family family, String fileName, File directory, FamilyFormat format, Progress progress,
+                        StringBuilder errorMsg){
+        boolean saved = saveFiles(family, fileName, directory, format, progress, errorMsg);
+
+        // The family file now holds every change, so any journal alongside it is stale
+        if(saved){
+            discardJournal(FamilyJournal.forFamilyFile(familyFile(fileName, directory, format)), Long.MAX_VALUE);
+        }
+        return saved;
+    }
+
+    /**
+     * Saves the family in the background. A snapshot of the family is taken on the calling thread, which must be the
+     * only thread changing the family at the time, and is written by the save thread so the family can continue to be
+     * edited. Saves are written one at a time in the order they are requested. Changes journaled against the family
+     * file after the snapshot is taken are kept.
+     * @param family the family to be saved
+     * @param fileName the name of the family file to be saved, without an extension
+     * @param directory the directory to save the family
+     * @param format the format to save the family in
+     * @param errorMsg the error message to alert the user if not saved successfully, set before the save completes
+     * @return completes with 'true' if saved successfully. 'false' otherwise.
+     */
+    public CompletableFuture<Boolean> saveAsync(Family family, String fileName, File directory, FamilyFormat format,
+                                               StringBuilder errorMsg){
+        return saveAsync(family, fileName, directory, format, new Progress(), errorMsg);
+    }
+
+    /**
+     * Saves the family in the background, reporting its progress. Cancelling the progress stops the save, leaving any
+     * family file already saved as it was. See saveAsync.
+     * @param family the family to be saved
+     * @param fileName the name of the family file to be saved, without an extension
+     * @param directory the directory to save the family
+     * @param format the format to save the family in
+     * @param progress the progress of the save, finished when it completes
+     * @param errorMsg the error message to alert the user if not saved successfully, set before the save completes
+     * @return completes with 'true' if saved successfully. 'false' otherwise.
+     */
+    public CompletableFuture<Boolean> saveAsync(Family family, String fileName, File directory, FamilyFormat format,
+                                               Progress progress, StringBuilder errorMsg){
+        Family snapshot = family.snapshot();
+        File journalFile = FamilyJournal.forFamilyFile(familyFile(fileName, directory, format));
+        long journalLength;
+
+        synchronized (this.journalLock){
+            journalLength = new FamilyJournal(journalFile).length();
+        }
+
+        // The snapshot carries which persons are dirty, the family is clean unless the save fails
+        List<Person> dirtyPersons = new ArrayList<>();
+        if(format == FamilyFormat.DIRECTORY){
+            this.storeDirectories.put(snapshot, this.storeDirectories.get(family));
+            for(Person person : family.getMemberView()){
+                if(person.isDirty()){
+                    dirtyPersons.add(person);
+                    person.setDirty(false);
+                }
             }
+        }
 
-            // Save the relationship file
+        return CompletableFuture.supplyAsync(() -> {
+            boolean saved = saveFiles(snapshot, fileName, directory, format, progress, errorMsg);
             if(saved){
-               try(FileOutputStream relationshipOutputStream = new FileOutputStream(relationshipFile)){
-                    saved = saveFamilyRelationships(family, relationshipOutputStream);
-                    relationshipOutputStream.close();
-               } catch (Exception e){
-                   errorMsg.append("Unable to save .rel file.");
-                   LOGGER.severe("Caught exception: " + e.toString());
-               }
+                discardJournal(journalFile, journalLength);
             }
-        }
-        else{
-            errorMsg.append(directory.getName() + " is not a directory.");
-            LOGGER.warning(errorMsg.toString());
-        }
+            if(format == FamilyFormat.DIRECTORY){
+                if(saved){
+                    this.storeDirectories.put(family, this.storeDirectories.get(snapshot));
+                }
+                else{
+                    this.storeDirectories.remove(family);
+                    dirtyPersons.forEach(person -> person.setDirty(true));
+                }
+            }
+            return saved;
+        }, this.saveExecutor);
+    }
 
-        if(!saved & errorMsg.length() == 0){
-            errorMsg.append("Unable to save family: " + family.getFamilyName());
+    /**
+     * Records the current state of the changed persons in the journal alongside the family file, so only the changes
+     * are written rather than the whole family. The changes are applied when the family file is next loaded.
+     * @param family the family the persons belong to
+     * @param familyFile the family file the family was loaded from or saved to
+     * @param changedPersons the persons which have been added, changed or removed
+     * @param errorMsg the error message to alert the user if not saved successfully
+     * @return 'true' if saved successfully. 'false' otherwise.
+     */
+    public boolean saveChanges(Family family, File familyFile, Collection<Person> changedPersons,
+                               StringBuilder errorMsg){
+        boolean saved = false;
+        // clear out error message
+        errorMsg.delete(0, errorMsg.length());
+
+        try {
+            synchronized (this.journalLock){
+                new FamilyJournal(FamilyJournal.forFamilyFile(familyFile)).record(family, changedPersons);
+            }
+            saved = true;
+        } catch (Exception e){
+            errorMsg.append("Unable to save changes to family: " + family.getFamilyName());
+            LOGGER.severe("Caught exception: " + e.toString());
         }
+
         return saved;
     }
 
+    /**
+     * Returns whether the journal alongside a family file has grown large enough that it should be compacted
+     * @param familyFile the family file
+     * @return 'true' if the journal is more than half the size of the family file. 'false' otherwise.
+     */
+    public boolean needsCompaction(File familyFile){
+        long journalLength = new FamilyJournal(FamilyJournal.forFamilyFile(familyFile)).length();
+        return journalLength > Math.max(MIN_COMPACTION_LENGTH, familyFile.length() / 2);
+    }
 
+    /**
+     * Compacts the journal into the family file in the background by saving the whole family in the family file's
+     * format. See saveAsync.
+     * @param family the family, including every journaled change
+     * @param familyFile the family file to save to
+     * @param errorMsg the error message to alert the user if not compacted successfully
+     * @return completes with 'true' if compacted successfully. 'false' otherwise.
+     */
+    public CompletableFuture<Boolean> compact(Family family, File familyFile, StringBuilder errorMsg){
+        LOGGER.fine("Compacting journal for: " + familyFile.getName());
+        FamilyFormat format = FamilyFormat.fromFile(familyFile);
+        String familyFileName = familyFile.getName();
+
+        // Files with an unknown extension are saved as XML alongside rather than over a file of another format
+        if(familyFileName.toLowerCase().endsWith(format.getExtension())){
+            familyFileName = familyFileName.substring(0, familyFileName.length() - format.getExtension().length());
+        }
 
+        return saveAsync(family, familyFileName, familyFile.getAbsoluteFile().getParentFile(), format, errorMsg);
+    }
+
+    /**
+     * Converts a family file from one format to another by loading it and saving it in the new format
+     * @param familyFile the family file to convert, its format is determined by its extension
+     * @param fileName the name of the converted family file, without an extension
+     * @param directory the directory to save the converted family
+     * @param format the format to convert to
+     * @param errorMsg the error message to alert the user if not converted successfully
+     * @return 'true' if converted successfully. 'false' otherwise.
+     */
+    public boolean convert(File familyFile, String fileName, File directory, FamilyFormat format,
+                           StringBuilder errorMsg){
+        Family family = new Family();
+        return load(family, familyFile, errorMsg) && save(family, fileName, directory, format, errorMsg);
+    }
 
     // Private Methods =================================================================================================
 
@@ -194,463 +542,880 @@ public class FileManager {
      */
     private FileManager(){
         LOGGER.fine("Initializing FileManager.");
-        try {
-            // Set up person context and marshaller
-            this.personContext = JAXBContext.newInstance(Person.class);
-            this.personMarshaller = this.personContext.createMarshaller();
-            this.personMarshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-
-            // Set up family context and marshaller
-            this.familyContext = JAXBContext.newInstance(Family.class);
-            this.familyMarshaller = this.familyContext.createMarshaller();
-            this.familyMarshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-            this.familyUnmarshaller = this.familyContext.createUnmarshaller();
-
-            // Set up DocumentBuilderFactory
-            this.documentBuilderFactory = DocumentBuilderFactory.newInstance();
 
-            // Set up TransformerFactory
-            this.transformerFactory = TransformerFactory.newInstance();
-        } catch (JAXBException e) {
-            LOGGER.severe("Unable to initialize FileManager. Caught Exception: " + e);
+        // Set up the xml factories and codec, which are not thread safe so each thread has its own
+        this.xmlInputFactory = ThreadLocal.withInitial(() -> {
+            // Family files never need external entities
+            XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+            inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            return inputFactory;
+        });
+        this.xmlOutputFactory = ThreadLocal.withInitial(XMLOutputFactory::newInstance);
+        this.familyCodec = ThreadLocal.withInitial(() -> new FamilyXmlCodec(this.xmlInputFactory.get()));
+
+        // The binary codec has no state so it is shared
+        this.binaryCodec = new BinaryFamilyCodec();
+
+        // Set up the locks for saving and loading files
+        this.fileLocks = new Object[FILE_LOCK_COUNT];
+        for(int i = 0; i < this.fileLocks.length; i++){
+            this.fileLocks[i] = new Object();
         }
+
+        // Set up the storage for each format, the built in formats are loaded and saved by the file manager itself
+        this.storages = Collections.synchronizedMap(new EnumMap<>(FamilyFormat.class));
+        this.storages.put(FamilyFormat.XML, new MethodStorage(this::loadXml, this::saveXml));
+        this.storages.put(FamilyFormat.BINARY, new MethodStorage(this::loadBinary, this::saveBinary));
+        this.storages.put(FamilyFormat.GEDCOM, new MethodStorage(this::loadGedcom, this::saveGedcom));
+        this.storages.put(FamilyFormat.DIRECTORY, new MethodStorage(this::loadDirectory, this::saveDirectory));
+        this.storages.put(FamilyFormat.BTREE, new BTreeFamilyStorage());
+
+        // Set up the save thread, saves are written in the order they are requested
+        this.saveExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "FileManager-save");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Set up the io threads, which read or write the second file of a .fam and .rel pair
+        this.ioExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "FileManager-io");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     /**
-     * Saves a family object to the provided fileStream
+     * Saves the family and all supporting files in the given format, leaving any journal alongside them untouched
      * @param family the family to be saved
-     * @param fileStream the file to be saved too
-     * @return Whether the family was saved successfully
+     * @param fileName the name of the family file to be saved, without an extension
+     * @param directory the directory to save the family
+     * @param format the format to save the family in
+     * @param progress the progress of the save, finished when this returns
+     * @param errorMsg the error message to alert the user if not saved successfully
+     * @return 'true' if saved successfully. 'false' otherwise.
      */
-    private boolean saveFamily(Family family, FileOutputStream fileStream){
-        LOGGER.fine("Entering saveFamily()");
+    private boolean saveFiles(Family family, String fileName, File directory, FamilyFormat format, Progress progress,
+                              StringBuilder errorMsg){
         boolean saved = false;
-        try {
-            familyMarshaller.marshal(family, fileStream);
-            saved = true;
-        } catch (Exception e) {
-            LOGGER.severe("Unable to save family: " + family.getFamilyName() + ". Caught Exception: " + e);
+        // clear out error message
+        errorMsg.delete(0, errorMsg.length());
+
+        // Create the family file
+        if(directory.isDirectory()){
+            synchronized (fileLock(new File(directory, fileName))){
+                saved = getStorage(format).save(family, fileName, directory, progress, errorMsg);
+            }
+
+            if(!saved && progress.isCancelled()){
+                errorMsg.delete(0, errorMsg.length());
+                errorMsg.append("Saving " + fileName + format.getExtension() + " was cancelled.");
+                LOGGER.info(errorMsg.toString());
+            }
+        }
+        else{
+            errorMsg.append(directory.getName() + " is not a directory.");
+            LOGGER.warning(errorMsg.toString());
         }
+
+        if(!saved & errorMsg.length() == 0){
+            errorMsg.append("Unable to save family: " + family.getFamilyName());
+        }
+
+        progress.finish();
         return saved;
     }
 
     /**
-     * Helper method to write out a file which describes the relationships between different family members
-     * @param family the family to save
-     * @param fileStream the fileStream to save the file too
-     * @return 'true' if the file was saved successfully, 'false' otherwise
+     * @param fileName the name of the family file, without an extension
+     * @param directory the directory of the family file
+     * @param format the format of the family file
+     * @return the family file, or store directory, a family saved in the format is written to
      */
-    private boolean saveFamilyRelationships(Family family, FileOutputStream fileStream){
-        boolean saved = true;
-
-        Document document;
-        Element rootElement;
-        Element personElement;
-        Element fatherElement;
-        Element motherElement;
-        Element currentSpouseElement;
+    private static File familyFile(String fileName, File directory, FamilyFormat format){
+        return new File(directory.getAbsoluteFile(), fileName + format.getExtension());
+    }
 
-        try {
-            DocumentBuilder docBuilder = this.documentBuilderFactory.newDocumentBuilder();
+    /**
+     * Returns the lock held while a family file is saved or loaded, so two threads never write the same temporary
+     * files and a load never recovers a save which is still being written. Every file with the same name in the same
+     * directory, whatever its extension, shares a lock. Files are spread across a fixed set of locks, so unrelated
+     * files occasionally share one.
+     * @param file the family file, with or without its extension
+     * @return the lock for the file
+     */
+    private Object fileLock(File file){
+        String[] split = file.getName().split("\\.");
+        String fileName = (split.length > 0) ? split[0] : file.getName();
+        File parent = file.getAbsoluteFile().getParentFile();
+        int hash = new File(parent, fileName).toPath().normalize().hashCode();
 
-            document = docBuilder.newDocument();
+        return this.fileLocks[(hash & Integer.MAX_VALUE) % this.fileLocks.length];
+    }
 
-            rootElement = document.createElement(RELATIONSHIPS);
+    /**
+     * Discards the part of a journal which is now part of the family file
+     * @param journalFile the journal file
+     * @param length the length the journal had when the family was saved
+     */
+    private void discardJournal(File journalFile, long length){
+        synchronized (this.journalLock){
+            try {
+                new FamilyJournal(journalFile).discard(length);
+            } catch (Exception e){
+                LOGGER.warning("Unable to discard journal: " + journalFile.getName() + ". Caught exception: " + e);
+            }
+        }
+    }
 
-            List<Person> familyMemebers = family.getFamilyMembers();
+    /**
+     * Applies the journal alongside a family file to the loaded family, if there is one
+     * @param family the loaded family
+     * @param familyFile the family file the family was loaded from
+     * @param errorMsg the error message to alert the user if not loaded successfully
+     * @return 'true' if the journal was applied or there is no journal. 'false' otherwise.
+     */
+    private boolean replayJournal(Family family, File familyFile, StringBuilder errorMsg){
+        boolean replayed = false;
 
-            // Create relationship for each family member
-            for(Person person : familyMemebers){
+        try {
+            int batches = new FamilyJournal(FamilyJournal.forFamilyFile(familyFile)).replay(family);
+            LOGGER.fine("Replayed " + batches + " journaled changes.");
+            replayed = true;
+        } catch (Exception e){
+            errorMsg.append("Unable to load " + FamilyJournal.EXTENSION + " file.");
+            LOGGER.severe("Caught exception: " + e.toString());
+        }
 
-                // Create the person
-                personElement = document.createElement(PERSON);
-                personElement.setAttribute(UUID, person.getUUIDString());
+        return replayed;
+    }
 
-                // Set up parents
-                if(person.getFather() != null){
-                    fatherElement = document.createElement(FATHER);
-                    fatherElement.setAttribute(UUID, person.getFather().getUUIDString());
-                    personElement.appendChild(fatherElement);
+    /**
+     * Reads the persons of a lineage from the family file, or from the whole family when they cannot be read on
+     * their own. Sets the family name.
+     * @param family the family the lineage will be loaded into
+     * @param familyFile the family file
+     * @param format the format of the family file
+     * @param root the uuid of the person the lineage starts from
+     * @param lineage whether to read ancestors or descendants
+     * @param generations how many generations to read
+     * @param errorMsg the error message to alert the user if not loaded successfully
+     * @return the persons of the lineage, null if the root person was not found or the family could not be loaded
+     * @throws Exception if the family file could not be read
+     */
+    private List<Person> readLineage(Family family, File familyFile, FamilyFormat format, UUID root, Lineage lineage,
+                                     int generations, StringBuilder errorMsg) throws Exception {
+        List<Person> persons = null;
+        boolean read = false;
+
+        // Journaled changes can only be applied to the whole family
+        if(FamilyJournal.forFamilyFile(familyFile).length() == 0){
+            try {
+                if(format == FamilyFormat.XML){
+                    File indexFile = FamilyIndex.forFamilyFile(familyFile);
+
+                    if(indexFile.isFile()){
+                        try (FileChannel channel = FileChannel.open(familyFile.toPath(), StandardOpenOption.READ);
+                             InputStream familyInputStream = new FileInputStream(familyFile)) {
+                            FamilyIndex index = FamilyIndex.open(indexFile);
+
+                            // An index left behind by a compressed or interrupted save no longer matches the file
+                            if(index.getFamilyLength() == channel.size()){
+                                persons = LineageReader.read(uuid -> readIndexedPerson(index, channel, uuid), root,
+                                        lineage, generations);
+                                family.setFamilyName(this.familyCodec.get().readFamilyName(familyInputStream));
+                                read = true;
+                            }
+                        }
+                    }
                 }
-
-                if(person.getMother() != null){
-                    motherElement = document.createElement(MOTHER);
-                    motherElement.setAttribute(UUID,person.getMother().getUUIDString());
-                    personElement.appendChild(motherElement);
+                else if(format == FamilyFormat.BINARY){
+                    MappedFamily mappedFamily = MappedFamily.open(familyFile);
+                    persons = LineageReader.read(mappedFamily::getPerson, root, lineage,
+                            generations);
+                    family.setFamilyName(mappedFamily.getFamilyName());
+                    read = true;
                 }
-
-                // Set up current spouse
-                if(person.getCurrentSpouse() != null){
-                    currentSpouseElement = document.createElement(CUR_SPOUSE);
-                    currentSpouseElement.setAttribute(UUID,person.getCurrentSpouse().getUUIDString());
-                    personElement.appendChild(currentSpouseElement);
+                else if(format == FamilyFormat.BTREE){
+                    try (BTreeFamilyStore store = new BTreeFamilyStore(familyFile)) {
+                        persons = LineageReader.read(store::getPerson, root, lineage, generations);
+                        family.setFamilyName(store.getFamilyName());
+                        read = true;
+                    }
                 }
+            } catch (Exception e){
+                LOGGER.warning("Unable to read lineage from: " + familyFile.getName() + ", loading it in full. "
+                        + "Caught exception: " + e);
+            }
+        }
 
-                // Set up spouses
-                generateListOfUUIDElements(person.getSpouses(), document, personElement, SPOUSES);
-
-                // Set up Children
-                generateListOfUUIDElements(person.getChildren(), document, personElement, CHILDREN);
+        if(!read){
+            LOGGER.fine("Loading all of: " + familyFile.getName() + " to read lineage.");
+            Family wholeFamily = new Family();
 
-                rootElement.appendChild(personElement);
+            if(getStorage(format).load(wholeFamily, familyFile, new Progress(), errorMsg)
+                    && replayJournal(wholeFamily, familyFile, errorMsg)){
+                persons = LineageReader.read(wholeFamily::getPerson, root, lineage,
+                        generations);
+                family.setFamilyName(wholeFamily.getFamilyName());
             }
+            else if(errorMsg.length() == 0){
+                errorMsg.append("Unable to load from file: " + familyFile.getName());
+            }
+        }
 
-            document.appendChild(rootElement);
+        return persons;
+    }
 
-            // Set up transformer
-            Transformer transformer = this.transformerFactory.newTransformer();
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            transformer.setOutputProperty(OutputKeys.METHOD, "xml");
-            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
-            transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
+    /**
+     * Reads a single person from a .fam file at the byte range given by its index. Their father, mother and children
+     * are given with only their uuids.
+     * @param index the index of the .fam file
+     * @param channel the .fam file
+     * @param uuid the uuid of the person
+     * @return the person, null if they are not in the index
+     * @throws IOException if the person could not be read or the index does not match the file
+     */
+    private Person readIndexedPerson(FamilyIndex index, FileChannel channel, UUID uuid) throws IOException {
+        int id = index.find(uuid);
+        if(id < 0){
+            return null;
+        }
 
+        ByteBuffer buffer = ByteBuffer.allocate(index.getLength(id));
+        long offset = index.getOffset(id);
+        while(buffer.hasRemaining()){
+            if(channel.read(buffer, offset + buffer.position()) < 0){
+                throw new EOFException("Family index refers past the end of the file.");
+            }
+        }
 
-            // Write to file
-            transformer.transform(new DOMSource(document), new StreamResult(fileStream));
+        Person person;
+        try {
+            person = this.familyCodec.get().readMember(new ByteArrayInputStream(buffer.array()));
+        } catch (XMLStreamException e){
+            throw new IOException("Family index does not match the file.", e);
+        }
+        if(person == null || !uuid.equals(person.getUUID())){
+            throw new IOException("Family index does not match the file.");
+        }
 
-        } catch (Exception e) {
-            LOGGER.severe("Unable to save family relationship file for family: " + family.getFamilyName() + ". "
-             + "Caught Exception: " + e);
-            saved = false;
+        person.setFather(indexedRelative(index, index.getFather(id)));
+        person.setMother(indexedRelative(index, index.getMother(id)));
+        for(int child : index.getChildren(id)){
+            person.addChild(indexedRelative(index, child));
         }
+        return person;
+    }
 
-        return saved;
+    /**
+     * @param index the index of a .fam file
+     * @param id the id of a person in the index, -1 for none
+     * @return a person with only the uuid of the person, null for none
+     */
+    private Person indexedRelative(FamilyIndex index, int id){
+        Person relative = null;
+
+        if(id >= 0){
+            relative = new Person();
+            relative.setUUID(index.getUUID(id));
+        }
+        return relative;
     }
 
     /**
-     * Helper method which loops through a list of persons, creating a uuid for each person and appending to the
-     * rootElement
-     * @param people the list to create uuids from
-     * @param document the document to create elements from
-     * @param rootElement the root element to append too
-     * @param elementName the name of the element which the list of people represents
+     * Loads a family from a .fam file and the .rel file alongside it
+     * @param family the family to load into
+     * @param familyFile the .fam file to load
+     * @param progress the progress of the load
+     * @param errorMsg the error message to alert the user if not loaded successfully
+     * @return 'true' if loaded successfully. 'false' otherwise.
      */
-    private void generateListOfUUIDElements(List<Person> people, Document document, Element rootElement, String elementName){
-        LOGGER.finer("Generating list of UUID elements.");
-        Element uuidElement = null;
-        Element element = null;
-        if(!people.isEmpty()){
-            element = document.createElement(elementName);
+    private boolean loadXml(Family family, File familyFile, Progress progress, StringBuilder errorMsg){
+        boolean loaded = false;
+
+        // Get the parse the familyFile name
+        String[] split = familyFile.getName().split("\\.");
+        String familyFileName = (split.length > 0) ? split[0] : familyFile.getName();
+
+        File relationshipFile = new File(familyFile.getParent() +
+                "/" + familyFileName + ".rel");
+
+        try {
+            recoverXml(familyFile, relationshipFile);
+        } catch (Exception e){
+            LOGGER.warning("Unable to recover interrupted save of: " + familyFile.getName() + ". Caught exception: "
+                    + e);
+        }
+
+        progress.start(familyFile.length() + relationshipFile.length(), Progress.UNKNOWN);
+
+        // The relationship file is parsed on an io thread while the family is loaded on this one
+        LOGGER.finest("Loading relationship file with path: " + relationshipFile.getAbsolutePath());
+        Future<List<RelationshipRecord>> relationships = this.ioExecutor.submit(
+                () -> parseRelationships(relationshipFile, progress));
+
+        // Load the family
+        try (InputStream familyInputStream = CompressedStreams.decompress(
+                new ProgressInputStream(new FileInputStream(familyFile), progress))) {
+            loaded = loadFamily(family, familyInputStream, progress);
+        } catch( Exception e){
+            errorMsg.append("Unable to load .fam file.");
+            LOGGER.severe("Caught exception: " + e.toString());
+        }
+
+        // Load the relationship file
+        List<RelationshipRecord> records = null;
+        try {
+            records = relationships.get();
+        } catch (Exception e){
+            LOGGER.severe("Caught exception: " + e.toString());
+        }
 
-            for(Person person: people){
-                uuidElement = document.createElement(UUID);
-                uuidElement.appendChild(document.createTextNode(person.getUUIDString()));
-                element.appendChild(uuidElement);
+        if(records == null){
+            if(loaded){
+                errorMsg.append("Unable to to load .rel file.");
             }
-            rootElement.appendChild(element);
+            loaded = false;
+        }
+        else if(progress.isCancelled()){
+            // A family without its relationships is not loaded, the cancel is reported like any other
+            loaded = false;
         }
+        else if(loaded){
+            loaded = resolveRelationships(family, records);
+        }
+
+        return loaded;
     }
 
     /**
-     * Loads a .fam file into a family object
-     * @puaram family the family to load into
-     * @param fileInputStream the file stream to load from
-     * @return 'true' if family was loaded successfully. 'false' otherwise.
+     * Loads a family from a binary family file
+     * @param family the family to load into
+     * @param familyFile the binary family file to load
+     * @param progress the progress of the load
+     * @param errorMsg the error message to alert the user if not loaded successfully
+     * @return 'true' if loaded successfully. 'false' otherwise.
      */
-    private boolean loadFamily(Family family, FileInputStream fileInputStream){
-        LOGGER.info("Loading family.");
+    private boolean loadBinary(Family family, File familyFile, Progress progress, StringBuilder errorMsg){
         boolean loaded = false;
+
         try {
-            family = (Family)this.familyUnmarshaller.unmarshal(fileInputStream);
-            loaded = true;
-            LOGGER.finer("Unmarshalled family.");
-        } catch (JAXBException e) {
-            LOGGER.severe("Caught Exception: " + e.toString());
+            // A left over temporary file is from a save which never replaced the family file
+            Files.deleteIfExists(PendingFile.tempFile(familyFile).toPath());
+        } catch (Exception e){
+            LOGGER.warning("Unable to delete temporary file for: " + familyFile.getName() + ". Caught exception: " + e);
         }
+
+        progress.start(familyFile.length(), Progress.UNKNOWN);
+
+        try (FileInputStream familyInputStream = new FileInputStream(familyFile)) {
+            loaded = this.binaryCodec.read(family,
+                    new BufferedInputStream(new ProgressInputStream(familyInputStream, progress)), progress);
+        } catch (Exception e){
+            errorMsg.append("Unable to load " + FamilyFormat.BINARY.getExtension() + " file.");
+            LOGGER.severe("Caught exception: " + e.toString());
+        }
+
         return loaded;
     }
 
     /**
-     * Loads a .rel file and updates the family object to have the correct relationships
-     * @param family the family to update
-     * @param fileInputStream the file stream to load from
-     * @return 'true' if the relationship data was loaded successfully. 'false' otherwise.
+     * Loads a family from a GEDCOM file. A file which does not name the family is named after the file.
+     * @param family the family to load into
+     * @param familyFile the GEDCOM file to load
+     * @param progress the progress of the load
+     * @param errorMsg the error message to alert the user if not loaded successfully
+     * @return 'true' if loaded successfully. 'false' otherwise.
      */
-    private boolean loadRelationships(Family family, FileInputStream fileInputStream){
-        LOGGER.fine("Loading relationships.");
-        boolean loaded = true;
-
-        Document document;
-        Element rootElement;
-        NodeList nodeList;
+    private boolean loadGedcom(Family family, File familyFile, Progress progress, StringBuilder errorMsg){
+        boolean loaded = false;
 
         try {
-            DocumentBuilder builder = this.documentBuilderFactory.newDocumentBuilder();
-            document = builder.parse(fileInputStream);
+            // A left over temporary file is from a save which never replaced the family file
+            Files.deleteIfExists(PendingFile.tempFile(familyFile).toPath());
+        } catch (Exception e){
+            LOGGER.warning("Unable to delete temporary file for: " + familyFile.getName() + ". Caught exception: " + e);
+        }
 
-            nodeList = document.getElementsByTagName(RELATIONSHIPS);
+        progress.start(familyFile.length(), Progress.UNKNOWN);
 
-            if(nodeList.getLength() == 1){
-                rootElement = (Element) nodeList.item(0);
-                NodeList personNodes = rootElement.getChildNodes();
-                Node personNode = null;
+        try (FileInputStream familyInputStream = new FileInputStream(familyFile)) {
+            loaded = new GedcomReader().read(family, new ProgressInputStream(familyInputStream, progress), progress);
 
-                LOGGER.finer("Extracting data for each person.");
-                for(int i = 0; i < personNodes.getLength(); i++){
-                    personNode = personNodes.item(i);
-                    loaded &= extractRelationships(personNode, family);
-                    System.out.println(loaded);
-                }
+            if(loaded && family.getFamilyName() == null){
+                String fileName = familyFile.getName();
+                int nameLength = fileName.length() - FamilyFormat.GEDCOM.getExtension().length();
+                family.setFamilyName(fileName.substring(0, nameLength));
             }
-            else{
-                LOGGER.severe("Could not extract relationship element.");
-                loaded = false;
-            }
-
-        } catch (Exception e) {
-            LOGGER.severe("Caught Exception: " + e.toString());
+        } catch (Exception e){
+            errorMsg.append("Unable to load " + FamilyFormat.GEDCOM.getExtension() + " file.");
+            LOGGER.severe("Caught exception: " + e.toString());
         }
 
         return loaded;
     }
 
     /**
-     * Extracts the relationship data for a specific person
-     * @param personNode the person node being extracted
-     * @param family the family object to be updated
-     * @return 'true' if all data was extracted successfully. 'false' otherwise.
+     * Loads a family from a directory store. The persons loaded are clean, and the family is remembered as being in
+     * the store so it can be saved back to it incrementally.
+     * @param family the family to load into
+     * @param familyFile the directory store to load
+     * @param progress the progress of the load
+     * @param errorMsg the error message to alert the user if not loaded successfully
+     * @return 'true' if loaded successfully. 'false' otherwise.
      */
-    private boolean extractRelationships(Node personNode, Family family){
-        LOGGER.finer("Extracting relationships for person node");
-        boolean extracted = false;
+    private boolean loadDirectory(Family family, File familyFile, Progress progress, StringBuilder errorMsg){
+        boolean loaded = false;
 
-        Person person;
-        Element personElement;
-        String personUUID;
-
-        if(personNode.getNodeName() == PERSON){
-            // Identify person
-            personElement = (Element) personNode;
-            personUUID = personElement.getAttribute(UUID);
-            person = family.getPerson(personUUID);
-
-            // Extract relationships for each person
-            if(person != null){
-                extracted = extractFather(personElement, person, family);
-                System.out.println(extracted);
-                extracted &= extractMother(personElement, person, family);
-                System.out.println(extracted);
-                extracted &= extractCurrentSpouse(personElement, person, family);
-                System.out.println(extracted);
-                extracted &= extractSpouses(personElement, person, family);
-                System.out.println(extracted);
-                extracted &= extractChildren(personElement, person, family);
-                System.out.println(extracted);
-            }
-            else{
-                LOGGER.warning("Unable to find person for UUID: " + personElement.getAttribute(UUID));
-            }
+        try {
+            List<RelationshipRecord> records = new DirectoryFamilyStore(familyFile).load(family,
+                    this.familyCodec.get(), new RelationshipReader(this.xmlInputFactory.get()), progress);
 
+            if(records != null){
+                loaded = resolveRelationships(family, records);
+                for(Person person : family.getMemberView()){
+                    person.setDirty(false);
+                }
+                this.storeDirectories.put(family, familyFile.getAbsoluteFile());
+            }
+        } catch (Exception e){
+            errorMsg.append("Unable to load " + FamilyFormat.DIRECTORY.getExtension() + " directory.");
+            LOGGER.severe("Caught exception: " + e.toString());
         }
-        // not a person node
-        else{
-            extracted = true;
-        }
-        System.out.println("ExtractRelationships: " + extracted);
-        return extracted;
+
+        return loaded;
     }
 
     /**
-     * Attempts to extract the father of the person element passed in
-     * @param personElement the person element being extracted
-     * @param person the person object with the same uuid as the personElement
-     * @param family the family object to be updated
-     * @return 'true' if no parsing errors were found
+     * Saves the family as a .fam file with a .rel file alongside it. Both files are written to temporary files at the
+     * same time, the .rel file on an io thread, and forced to disk before either is moved into place. A commit marker
+     * is then forced to disk, and from then on the temporary files are kept until moved, so an interrupted save can be
+     * finished by recoverXml.
+     * @param family the family to be saved
+     * @param fileName the name of the family file to be saved
+     * @param directory the directory to save the family
+     * @param progress the progress of the save
+     * @param errorMsg the error message to alert the user if not saved successfully
+     * @return 'true' if saved successfully. 'false' otherwise.
      */
-    private boolean extractFather(Element personElement, Person person, Family family){
-        LOGGER.finer("Extracting father for " + person.getFullName() + ".");
-        boolean extracted = false;
-        NodeList nodeList = personElement.getElementsByTagName(FATHER);
+    private boolean saveXml(Family family, String fileName, File directory, Progress progress,
+                            StringBuilder errorMsg){
+        boolean saved = false;
 
-        // Check if the node exists
-        if(nodeList.getLength() == 1){
-            Element fatherElement = (Element)nodeList.item(0);
+        // Create Family and Relationship File
+        File familyFile = new File(directory.getAbsolutePath() + "/" + fileName +".fam");
+        File relationshipFile = new File(directory.getAbsolutePath() + "/" + fileName + ".rel");
+        File indexFile = FamilyIndex.forFamilyFile(familyFile);
+        Person[] members = family.getMemberView().toArray(new Person[0]);
+        int compressionLevel = this.compressionLevel;
 
-            Person father = family.getPerson(fatherElement.getAttribute(UUID));
+        progress.start(Progress.UNKNOWN, members.length);
 
-            // Set the extracted father
-            if(father != null){
-                person.setFather(father);
-                extracted = true;
+        // Both temporary files exist before either is written
+        try (PendingFile pendingFamilyFile = new PendingFile(familyFile, progress);
+             PendingFile pendingRelationshipFile = new PendingFile(relationshipFile, progress);
+             PendingFile pendingIndexFile = new PendingFile(indexFile)) {
+            Future<Boolean> relationshipsSaved = this.ioExecutor.submit(
+                    () -> saveFamilyRelationships(family, pendingRelationshipFile, compressionLevel));
+            long[] offsets = saveFamily(family, members, pendingFamilyFile, compressionLevel, progress);
+
+            if(offsets == null){
+                errorMsg.append("Unable to save .fam file.");
             }
-            else{
-                LOGGER.warning("Unable to find person for UUID: " + personElement.getAttribute(UUID));
+            if(!relationshipsSaved.get()){
+                errorMsg.append("Unable to save .rel file.");
             }
+            else if(offsets != null){
+                // Offsets into a compressed file cannot be read from, so only uncompressed files are indexed
+                boolean indexed = compressionLevel == CompressedStreams.NO_COMPRESSION
+                        && saveFamilyIndex(members, offsets, familyFile, pendingIndexFile);
+
+                // The old index is removed first so it is never left beside a .fam file it does not match
+                Files.deleteIfExists(indexFile.toPath());
+                File commitMarker = commitMarker(familyFile);
+                writeCommitMarker(commitMarker);
+                pendingRelationshipFile.keep();
+                pendingFamilyFile.keep();
+
+                pendingRelationshipFile.commit();
+                pendingFamilyFile.commit();
+                if(indexed){
+                    pendingIndexFile.commit();
+                }
+                PendingFile.syncDirectory(directory);
+                Files.delete(commitMarker.toPath());
+                saved = true;
+            }
+        } catch (Exception e){
+            errorMsg.append("Unable to save " + fileName + ".");
+            LOGGER.severe("Caught exception: " + e.toString());
         }
-        // there was not father to extract
-        else{
-            extracted = true;
-        }
-        return extracted;
+
+        return saved;
     }
 
     /**
-     * Attempts to extract the mother of the person element passed in
-     * @param personElement the person element being extracted
-     * @param person the person object with the same uuid as the personElement
-     * @param family the family object to be updated
-     * @return 'true' if no parsing errors were found
+     * Saves the family as a single binary family file. The family is written to a temporary file and forced to disk
+     * before it is moved into place.
+     * @param family the family to be saved
+     * @param fileName the name of the family file to be saved
+     * @param directory the directory to save the family
+     * @param progress the progress of the save
+     * @param errorMsg the error message to alert the user if not saved successfully
+     * @return 'true' if saved successfully. 'false' otherwise.
      */
-    private boolean extractMother(Element personElement, Person person, Family family){
-        LOGGER.finer("Extracting Mother for " + person.getFullName() + ".");
-        boolean extracted = false;
-        NodeList nodeList = personElement.getElementsByTagName(MOTHER);
-
-        // Check if the node exists
-        if(nodeList.getLength() == 1){
-            Element motherElement = (Element)nodeList.item(0);
+    private boolean saveBinary(Family family, String fileName, File directory, Progress progress,
+                               StringBuilder errorMsg){
+        boolean saved = false;
+        File familyFile = new File(directory.getAbsolutePath() + "/" + fileName + FamilyFormat.BINARY.getExtension());
 
-            Person mother = family.getPerson(motherElement.getAttribute(UUID));
+        progress.start(Progress.UNKNOWN, family.getMemberView().size());
 
-            // Set the extracted father
-            if(mother != null){
-                person.setMother(mother);
-                extracted = true;
-            }
-            else{
-                LOGGER.warning("Unable to find person for UUID: " + personElement.getAttribute(UUID));
-            }
-        }
-        // There was not mother to extract
-        else{
-            extracted = true;
+        try (PendingFile pendingFamilyFile = new PendingFile(familyFile, progress)) {
+            this.binaryCodec.write(family, pendingFamilyFile.getOutputStream(), progress);
+            pendingFamilyFile.force();
+            pendingFamilyFile.commit();
+            PendingFile.syncDirectory(directory);
+            saved = true;
+        } catch (Exception e){
+            errorMsg.append("Unable to save " + FamilyFormat.BINARY.getExtension() + " file.");
+            LOGGER.severe("Caught exception: " + e.toString());
         }
-        return extracted;
+
+        return saved;
     }
 
     /**
-     * Attempts to extract the currentSpouse of the person element passed in
-     * @param personElement the person element being extracted
-     * @param person the person object with the same uuid as the personElement
-     * @param family the family object to be updated
-     * @return 'true' if no parsing errors were found
+     * Saves the family as a GEDCOM file. The family is written to a temporary file and forced to disk before it is
+     * moved into place.
+     * @param family the family to be saved
+     * @param fileName the name of the family file to be saved
+     * @param directory the directory to save the family
+     * @param progress the progress of the save
+     * @param errorMsg the error message to alert the user if not saved successfully
+     * @return 'true' if saved successfully. 'false' otherwise.
      */
-    private boolean extractCurrentSpouse(Element personElement, Person person, Family family){
-        LOGGER.finer("Extracting current spouse for " + person.getFullName() + ".");
-        boolean extracted = false;
-        NodeList nodeList = personElement.getElementsByTagName(CUR_SPOUSE);
+    private boolean saveGedcom(Family family, String fileName, File directory, Progress progress,
+                               StringBuilder errorMsg){
+        boolean saved = false;
+        File familyFile = new File(directory.getAbsolutePath() + "/" + fileName + FamilyFormat.GEDCOM.getExtension());
+
+        progress.start(Progress.UNKNOWN, family.getMemberView().size());
+
+        try (PendingFile pendingFamilyFile = new PendingFile(familyFile, progress)) {
+            new GedcomWriter().write(family, pendingFamilyFile.getOutputStream(), progress);
+            pendingFamilyFile.force();
+            pendingFamilyFile.commit();
+            PendingFile.syncDirectory(directory);
+            saved = true;
+        } catch (Exception e){
+            errorMsg.append("Unable to save " + FamilyFormat.GEDCOM.getExtension() + " file.");
+            LOGGER.severe("Caught exception: " + e.toString());
+        }
 
-        // Check if the node exists
-        if(nodeList.getLength() == 1){
-            Element curSpouseElement = (Element)nodeList.item(0);
+        return saved;
+    }
 
-            Person currentSpouse = family.getPerson(curSpouseElement.getAttribute(UUID));
+    /**
+     * Saves the family to a directory store. Only the dirty persons are written if the family was loaded from or last
+     * saved to the same store, otherwise every person is.
+     * @param family the family to be saved
+     * @param fileName the name of the family file to be saved
+     * @param directory the directory to save the family
+     * @param progress the progress of the save
+     * @param errorMsg the error message to alert the user if not saved successfully
+     * @return 'true' if saved successfully. 'false' otherwise.
+     */
+    private boolean saveDirectory(Family family, String fileName, File directory, Progress progress,
+                                  StringBuilder errorMsg){
+        boolean saved = false;
+        File storeDirectory = new File(directory.getAbsoluteFile(), fileName + FamilyFormat.DIRECTORY.getExtension());
+        boolean full = !storeDirectory.equals(this.storeDirectories.get(family));
 
-            // Set the extracted father
-            if(currentSpouse != null){
-                person.setCurrentSpouse(currentSpouse);
-                extracted = true;
-            }
-            else{
-                LOGGER.warning("Unable to find person for UUID: " + personElement.getAttribute(UUID));
-            }
+        try {
+            int fileCount = new DirectoryFamilyStore(storeDirectory).save(family, full, this.familyCodec.get(),
+                    new RelationshipWriter(this.xmlOutputFactory.get()), progress);
+            LOGGER.fine("Wrote " + fileCount + " files to: " + storeDirectory.getName());
+            this.storeDirectories.put(family, storeDirectory);
+            saved = true;
+        } catch (Exception e){
+            this.storeDirectories.remove(family);
+            errorMsg.append("Unable to save " + FamilyFormat.DIRECTORY.getExtension() + " directory.");
+            LOGGER.severe("Caught exception: " + e.toString());
         }
-        // There was not mother to extract
-        else{
-            extracted = true;
+
+        return saved;
+    }
+
+    /**
+     * Writes a family object to a pending .fam file and forces it to disk
+     * @param family the family to be saved
+     * @param members the members of the family, in the order to write them
+     * @param familyFile the pending file to be saved too
+     * @param compressionLevel the level to compress the file at
+     * @param progress the progress of the save
+     * @return the offset of each member in the uncompressed data followed by its length, null if the family was not
+     * saved successfully
+     */
+    private long[] saveFamily(Family family, Person[] members, PendingFile familyFile, int compressionLevel,
+                              Progress progress){
+        LOGGER.fine("Entering saveFamily()");
+        long[] offsets = null;
+        try {
+            OutputStream outputStream = CompressedStreams.compress(familyFile.getOutputStream(), compressionLevel);
+            ChecksumOutputStream checksumStream = new ChecksumOutputStream(outputStream);
+            long[] written = this.familyCodec.get().write(family, members, checksumStream, progress);
+            checksumStream.writeTrailer();
+            CompressedStreams.finish(outputStream);
+            familyFile.force();
+            offsets = written;
+        } catch (Exception e) {
+            LOGGER.severe("Unable to save family: " + family.getFamilyName() + ". Caught Exception: " + e);
         }
-        return extracted;
+        return offsets;
     }
 
     /**
-     * Attempts to extract the list of spouses of the person element passed in
-     * @param personElement the person element being extracted
-     * @param person the person object with the same uuid as the personElement
-     * @param family the family object to be updated
-     * @return 'true' if no parsing errors were found
+     * Writes the index of an uncompressed .fam file to a pending .fidx file and forces it to disk. A family saved
+     * without its index can still be loaded, so a failure is only logged.
+     * @param members the members of the family in the order they were written
+     * @param offsets the offset of each member in the .fam file, followed by the offset just past the last
+     * @param familyFile the .fam file
+     * @param indexFile the pending file to save the index to
+     * @return 'true' if the index was saved successfully, 'false' otherwise
      */
-    private boolean extractSpouses(Element personElement, Person person, Family family){
-        LOGGER.finer("Extracting spouses for " + person.getFullName() + ".");
-        boolean extracted = false;
-        NodeList nodeList = personElement.getElementsByTagName(SPOUSES);
+    private boolean saveFamilyIndex(Person[] members, long[] offsets, File familyFile, PendingFile indexFile){
+        boolean saved = false;
 
-        // Check if the node exists
-        if(nodeList.getLength() == 1){
-            Element spousesElement = (Element)nodeList.item(0);
+        try {
+            FamilyIndex.write(members, offsets, PendingFile.tempFile(familyFile).length(), indexFile.getOutputStream());
+            indexFile.force();
+            saved = true;
+        } catch (Exception e) {
+            LOGGER.warning("Unable to save index of: " + familyFile.getName() + ". Caught Exception: " + e);
+        }
 
-            NodeList spouseList = spousesElement.getElementsByTagName(UUID);
-            Element spouseElement;
-            Person spouse;
+        return saved;
+    }
 
-            for(int i = 0; i < spouseList.getLength(); i++){
-                spouseElement = (Element)spouseList.item(i);
-                spouse = family.getPerson(spouseElement.getTextContent());
+    /**
+     * Helper method to write out a file which describes the relationships between different family members. The file
+     * is forced to disk once written.
+     * @param family the family to save
+     * @param relationshipFile the pending file to save the relationships too
+     * @param compressionLevel the level to compress the file at
+     * @return 'true' if the file was saved successfully, 'false' otherwise
+     */
+    private boolean saveFamilyRelationships(Family family, PendingFile relationshipFile, int compressionLevel){
+        boolean saved = false;
 
-                // Set the spouse
-                if(spouse != null){
-                    person.addSpouse(spouse);
-                    extracted = true;
-                }
-                else{
-                    LOGGER.warning("Unable to find person for UUID: " + personElement.getAttribute(UUID));
-                }
+        try {
+            OutputStream outputStream = CompressedStreams.compress(relationshipFile.getOutputStream(),
+                    compressionLevel);
+            ChecksumOutputStream checksumStream = new ChecksumOutputStream(outputStream);
+            new RelationshipWriter(this.xmlOutputFactory.get()).write(family, checksumStream);
+            checksumStream.writeTrailer();
+            CompressedStreams.finish(outputStream);
+            relationshipFile.force();
+            saved = true;
+        } catch (Exception e) {
+            LOGGER.severe("Unable to save family relationship file for family: " + family.getFamilyName() + ". "
+             + "Caught Exception: " + e);
+        }
+
+        return saved;
+    }
+
+    /**
+     * Recovers from a save of a .fam and .rel file which was interrupted. The commit marker is only written once both
+     * temporary files are complete and forced, so with it present whichever temporary files are left are moved into
+     * place to finish the save. Without it the save had not finished writing, and the temporary files are deleted,
+     * leaving the previous pair.
+     * @param familyFile the .fam file
+     * @param relationshipFile the .rel file
+     * @throws IOException if the interrupted save could not be completed or cleaned up
+     */
+    private void recoverXml(File familyFile, File relationshipFile) throws IOException {
+        File familyTempFile = PendingFile.tempFile(familyFile);
+        File relationshipTempFile = PendingFile.tempFile(relationshipFile);
+        File commitMarker = commitMarker(familyFile);
+
+        if(commitMarker.exists()){
+            LOGGER.warning("Completing interrupted save of: " + familyFile.getName());
+            if(relationshipTempFile.exists()){
+                Files.move(relationshipTempFile.toPath(), relationshipFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            if(familyTempFile.exists()){
+                Files.move(familyTempFile.toPath(), familyFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
             }
+            PendingFile.syncDirectory(familyFile.getAbsoluteFile().getParentFile());
+            Files.delete(commitMarker.toPath());
         }
-        // No spouses to extract
         else{
-            extracted = true;
+            Files.deleteIfExists(familyTempFile.toPath());
+            Files.deleteIfExists(relationshipTempFile.toPath());
         }
-        return extracted;
+        Files.deleteIfExists(PendingFile.tempFile(FamilyIndex.forFamilyFile(familyFile)).toPath());
     }
 
     /**
-     * Attempts to extract the list of children of the person element passed in
-     * @param personElement the person element being extracted
-     * @param person the person object with the same uuid as the personElement
-     * @param family the family object to be updated
-     * @return 'true' if no parsing errors were found
+     * @param familyFile the .fam file
+     * @return the marker showing both temporary files of a save of the .fam file are complete
      */
-    private boolean extractChildren(Element personElement, Person person, Family family){
-        LOGGER.finer("Extracting children for " + person.getFullName() + ".");
-        boolean extracted = false;
-        NodeList nodeList = personElement.getElementsByTagName(CHILDREN);
+    private static File commitMarker(File familyFile){
+        return new File(familyFile.getPath() + COMMIT_EXTENSION);
+    }
 
-        // Check if the node exists
-        if(nodeList.getLength() == 1){
-            Element childrenElement = (Element)nodeList.item(0);
+    /**
+     * Creates a commit marker and forces it, and the directory entry for it, to disk
+     * @param commitMarker the marker
+     * @throws IOException if the marker could not be written
+     */
+    private static void writeCommitMarker(File commitMarker) throws IOException {
+        try (FileChannel channel = FileChannel.open(commitMarker.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        PendingFile.syncDirectory(commitMarker.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * Loads a .fam file into a family object
+     * @param family the family to load into
+     * @param inputStream the uncompressed stream to load from
+     * @param progress the progress of the load
+     * @return 'true' if family was loaded successfully. 'false' otherwise.
+     */
+    private boolean loadFamily(Family family, InputStream inputStream, Progress progress){
+        LOGGER.info("Loading family.");
+        boolean loaded = false;
+        try {
+            loaded = this.familyCodec.get().read(family, inputStream, progress);
+            LOGGER.finer("Read family.");
+        } catch (Exception e) {
+            LOGGER.severe("Caught Exception: " + e.toString());
+        }
+        return loaded;
+    }
 
-            NodeList childrenList = childrenElement.getElementsByTagName(UUID);
-            Element childElement;
-            Person child;
+    /**
+     * Parses a .rel file without resolving it against a family
+     * @param relationshipFile the .rel file
+     * @param progress the progress of the load
+     * @return the relationships of each person, null if the file is not a .rel file
+     * @throws Exception if the file could not be read or is not well formed
+     */
+    private List<RelationshipRecord> parseRelationships(File relationshipFile, Progress progress) throws Exception {
+        try (InputStream relationshipInputStream = CompressedStreams.decompress(
+                new ProgressInputStream(new FileInputStream(relationshipFile), progress))) {
+            return new RelationshipReader(this.xmlInputFactory.get()).parse(relationshipInputStream);
+        }
+    }
 
-            for(int i = 0; i < childrenList.getLength(); i++){
-                childElement = (Element)childrenList.item(i);
-                child = family.getPerson(childElement.getTextContent());
+    /**
+     * Applies parsed relationships to the members of a family. The records are split into chunks which are applied in
+     * parallel, then any records for a person which already had a record are applied one at a time.
+     * @param family the family to update
+     * @param records the relationships of each person
+     * @return 'true' if every relationship was resolved. 'false' otherwise.
+     */
+    private boolean resolveRelationships(Family family, List<RelationshipRecord> records){
+        LOGGER.fine("Resolving relationships.");
+        boolean resolved = ForkJoinPool.commonPool().invoke(new RelationshipTask(family, records, 0, records.size()));
 
-                // Set the spouse
-                if(child != null){
-                    person.addSpouse(child);
-                    extracted = true;
-                }
-                else{
-                    LOGGER.warning("Unable to find person for UUID: " + personElement.getAttribute(UUID));
-                }
+        for(RelationshipRecord record : records){
+            if(record.isDuplicate()){
+                resolved &= record.apply(family);
             }
         }
-        // No children to extract
-        else{
-            extracted = true;
-        }
 
-
-        return extracted;
+        return resolved;
     }
 
     // Private Fields ==================================================================================================
 
-    private JAXBContext personContext;
+    private ThreadLocal<XMLInputFactory> xmlInputFactory;
 
-    private Marshaller personMarshaller;
+    private ThreadLocal<XMLOutputFactory> xmlOutputFactory;
 
-    private JAXBContext familyContext;
+    private ThreadLocal<FamilyXmlCodec> familyCodec;
 
-    private Marshaller familyMarshaller;
+    private BinaryFamilyCodec binaryCodec;
 
-    private Unmarshaller familyUnmarshaller;
+    private ExecutorService saveExecutor;
 
-    private DocumentBuilderFactory documentBuilderFactory;
+    private ExecutorService ioExecutor;
 
-    private TransformerFactory transformerFactory;
+    /**
+     * The level .fam and .rel files are compressed with, read by the save thread
+     */
+    private volatile int compressionLevel = CompressedStreams.NO_COMPRESSION;
 
-    private Transformer transformer;
+    /**
+     * Guards journal files, which are appended to by the state manager and trimmed by the save thread
+     */
+    private final Object journalLock = new Object();
+
+    private Object[] fileLocks;
+
+    /**
+     * The storage each format is loaded and saved with, replaced while loads and saves may be running
+     */
+    private Map<FamilyFormat, FamilyStorage> storages;
+
+    /**
+     * The directory store each family was loaded from or last saved to, which can be saved to incrementally
+     */
+    private final Map<Family, File> storeDirectories = Collections.synchronizedMap(new WeakHashMap<>());
+
+    // Private Classes =================================================================================================
+
+    /**
+     * A load method of the file manager
+     */
+    private interface Loader {
+        boolean load(Family family, File familyFile, Progress progress, StringBuilder errorMsg);
+    }
+
+    /**
+     * A save method of the file manager
+     */
+    private interface Saver {
+        boolean save(Family family, String fileName, File directory, Progress progress, StringBuilder errorMsg);
+    }
+
+    /**
+     * The storage for a format which the file manager loads and saves itself
+     */
+    private static class MethodStorage implements FamilyStorage {
+
+        /**
+         * Constructor
+         * @param loader the method which loads the format
+         * @param saver the method which saves the format
+         */
+        MethodStorage(Loader loader, Saver saver){
+            this.loader = loader;
+            this.saver = saver;
+        }
+
+        @Override
+        public boolean load(Family family, File familyFile, Progress progress, StringBuilder errorMsg){
+            return this.loader.load(family, familyFile, progress, errorMsg);
+        }
+
+        @Override
+        public boolean save(Family family, String fileName, File directory, Progress progress,
+                            StringBuilder errorMsg){
+            return this.saver.save(family, fileName, directory, progress, errorMsg);
+        }
+
+        private final Loader loader;
+
+        private final Saver saver;
+    }
 }
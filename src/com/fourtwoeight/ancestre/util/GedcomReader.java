@@ -0,0 +1,528 @@
+package com.fourtwoeight.ancestre.util;
+
+import com.fourtwoeight.ancestre.model.Family;
+import com.fourtwoeight.ancestre.model.Person;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import static com.fourtwoeight.ancestre.util.GedcomSchema.*;
+
+/**
+ * Reads a GEDCOM 5.5.1 file into a family one line at a time, so the text of the file is never held in memory. INDI
+ * records become persons, with their name, sex, birth and death dates, note, image and _UID. FAM records link their
+ * HUSB and WIFE as spouses, and as current spouses unless the family has a DIV event, and their CHIL as the children
+ * of both. Persons are added to the family as soon as their record ends. The file is read as UTF-8, which ASCII files
+ * also are.
+ */
+public class GedcomReader {
+
+    // Private Static Fields ===========================================================================================
+
+    private static final Logger LOGGER = Logger.getLogger(GedcomReader.class.getName());
+
+    /**
+     * Words in a GEDCOM date which qualify the date rather than being part of it
+     */
+    private static final HashSet<String> DATE_QUALIFIERS = new HashSet<>(Arrays.asList(
+            "ABT", "CAL", "EST", "BEF", "AFT", "BET", "FROM", "INT"));
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    // Public Methods ==================================================================================================
+
+    /**
+     * Reads a GEDCOM file, adding every individual in it to the family. The family name is set if the file has one.
+     * @param family the family to load into
+     * @param inputStream the stream to read the GEDCOM data from
+     * @return 'true' if the stream was a GEDCOM file. 'false' otherwise.
+     * @throws IOException if the stream could not be read
+     */
+    public boolean read(Family family, InputStream inputStream) throws IOException {
+        return read(family, inputStream, new Progress());
+    }
+
+    /**
+     * Reads a GEDCOM file, adding every individual in it to the family and counting each against the progress. The
+     * family name is set if the file has one.
+     * @param family the family to load into
+     * @param inputStream the stream to read the GEDCOM data from
+     * @param progress the progress of the load
+     * @return 'true' if the stream was a GEDCOM file. 'false' otherwise.
+     * @throws IOException if the stream could not be read
+     */
+    public boolean read(Family family, InputStream inputStream, Progress progress) throws IOException {
+        LOGGER.fine("Reading GEDCOM.");
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+        Import gedcomImport = new Import(family, progress);
+        String line = reader.readLine();
+
+        // Skip a byte order mark
+        if(line != null && line.startsWith("\uFEFF")){
+            line = line.substring(1);
+        }
+        if(line == null || !gedcomImport.parse(line) || gedcomImport.level != 0 || !HEAD.equals(gedcomImport.tag)){
+            LOGGER.severe("Not a GEDCOM file.");
+            return false;
+        }
+
+        do {
+            if(gedcomImport.parse(line)){
+                if(gedcomImport.level == 0 && TRLR.equals(gedcomImport.tag)){
+                    break;
+                }
+                gedcomImport.processLine();
+            }
+        } while((line = reader.readLine()) != null);
+
+        gedcomImport.finish();
+        return true;
+    }
+
+    // Package Static Methods ==========================================================================================
+
+    /**
+     * Parses a GEDCOM date such as 2 JAN 1900, ABT 1900 or BET MAR 1900 AND 1901. Qualifiers are ignored and the
+     * first date of a range or period is used. A missing day or month is taken as the first.
+     * @param value the date value
+     * @return the date, null if the value does not contain a date
+     */
+    static Calendar parseDate(String value){
+        List<String> parts = new ArrayList<>();
+        boolean bc = false;
+
+        for(String word : WHITESPACE.split(value.trim().toUpperCase())){
+            if(word.equals("AND") || word.equals("TO") || word.startsWith("(")){
+                if(!parts.isEmpty()){
+                    break;
+                }
+            }
+            else if(word.equals(BC) || word.equals("BC") || word.equals("B.C")){
+                bc = true;
+            }
+            else if(!word.isEmpty() && !word.startsWith("@#") && !DATE_QUALIFIERS.contains(word)){
+                parts.add(word);
+            }
+        }
+
+        if(parts.isEmpty() || parts.size() > 3){
+            return null;
+        }
+
+        try {
+            // Dual dated years such as 1699/00 use the first year
+            String yearPart = parts.get(parts.size() - 1);
+            if(yearPart.contains("/")){
+                yearPart = yearPart.substring(0, yearPart.indexOf('/'));
+            }
+            int year = Integer.parseInt(yearPart);
+            int month = (parts.size() > 1) ? Arrays.asList(MONTHS).indexOf(parts.get(parts.size() - 2)) : 0;
+            int day = (parts.size() > 2) ? Integer.parseInt(parts.get(0)) : 1;
+
+            if(month < 0 || year <= 0){
+                return null;
+            }
+
+            GregorianCalendar calendar = new GregorianCalendar();
+            calendar.clear();
+            calendar.setLenient(false);
+            calendar.set(Calendar.ERA, bc ? GregorianCalendar.BC : GregorianCalendar.AD);
+            calendar.set(year, month, day);
+            calendar.getTimeInMillis();
+            calendar.setLenient(true);
+            return calendar;
+        } catch (IllegalArgumentException e){
+            LOGGER.fine("Unable to parse GEDCOM date: " + value);
+            return null;
+        }
+    }
+
+    // Private Classes =================================================================================================
+
+    /**
+     * The state of a single import: the line being processed, the record it belongs to and the persons found so far
+     */
+    private static class Import {
+
+        /**
+         * Constructor
+         * @param family the family to load into
+         * @param progress the progress of the load
+         */
+        Import(Family family, Progress progress){
+            this.family = family;
+            this.progress = progress;
+        }
+
+        /**
+         * Splits a line into its level, cross reference id, tag and value
+         * @param line the line
+         * @return 'true' if the line was well formed. 'false' otherwise.
+         */
+        boolean parse(String line){
+            line = line.trim();
+            int space = line.indexOf(' ');
+            if(space < 0){
+                return false;
+            }
+
+            try {
+                this.level = Integer.parseInt(line.substring(0, space));
+            } catch (NumberFormatException e){
+                LOGGER.warning("Skipping malformed GEDCOM line: " + line);
+                return false;
+            }
+
+            int start = space + 1;
+            this.xref = null;
+            if(line.startsWith("@", start)){
+                int end = line.indexOf(' ', start);
+                if(end < 0){
+                    return false;
+                }
+                this.xref = line.substring(start, end);
+                start = end + 1;
+            }
+
+            int end = line.indexOf(' ', start);
+            this.tag = (end < 0) ? line.substring(start) : line.substring(start, end);
+            this.value = (end < 0) ? "" : line.substring(end + 1);
+            return !this.tag.isEmpty();
+        }
+
+        /**
+         * Applies the current line to the record it belongs to, finishing the previous record at each level 0 line
+         */
+        void processLine(){
+            if(this.level == 0){
+                finishRecord();
+                this.record = this.tag;
+
+                if(INDI.equals(this.tag) && this.xref != null){
+                    startIndividual();
+                }
+                else if(FAM.equals(this.tag)){
+                    this.husband = null;
+                    this.wife = null;
+                    this.children.clear();
+                    this.divorced = false;
+                }
+            }
+            else if(INDI.equals(this.record) && this.person != null){
+                processIndividualLine();
+            }
+            else if(FAM.equals(this.record)){
+                processFamilyLine();
+            }
+            else if(HEAD.equals(this.record) && this.level == 1){
+                if(FAMILY_NAME.equals(this.tag)){
+                    this.family.setFamilyName(unescape(this.value));
+                }
+                else if(CHAR.equals(this.tag) && !UTF_8.equalsIgnoreCase(this.value)
+                        && !"ASCII".equalsIgnoreCase(this.value)){
+                    LOGGER.warning("GEDCOM character set " + this.value + " is read as UTF-8.");
+                }
+            }
+        }
+
+        /**
+         * Finishes the last record and removes any person referred to by a family but never defined
+         */
+        void finish(){
+            finishRecord();
+
+            for(String undefinedXref : this.undefined){
+                LOGGER.warning("Individual referred to but not defined: " + undefinedXref);
+                unlink(this.persons.get(undefinedXref));
+            }
+        }
+
+        /**
+         * Starts an INDI record
+         */
+        private void startIndividual(){
+            if(this.persons.containsKey(this.xref) && !this.undefined.contains(this.xref)){
+                LOGGER.warning("Individual defined more than once: " + this.xref);
+                this.person = null;
+                return;
+            }
+
+            this.person = person(this.xref);
+            this.undefined.remove(this.xref);
+            this.event = null;
+            this.named = false;
+            this.note = null;
+        }
+
+        /**
+         * Applies a line within an INDI record
+         */
+        private void processIndividualLine(){
+            if(this.level == 1){
+                this.event = this.tag;
+
+                if(NAME.equals(this.tag) && !this.named){
+                    setName(this.person, unescape(this.value));
+                    this.named = true;
+                }
+                else if(SEX.equals(this.tag)){
+                    this.person.setSex(MALE.equalsIgnoreCase(this.value) ? Person.SEX.MALE
+                            : FEMALE.equalsIgnoreCase(this.value) ? Person.SEX.FEMALE : null);
+                }
+                else if(NOTE.equals(this.tag)){
+                    // Notes kept in their own record are not imported
+                    if(this.value.startsWith("@")){
+                        this.event = null;
+                    }
+                    else{
+                        if(this.note == null){
+                            this.note = new StringBuilder();
+                        }
+                        else{
+                            this.note.append('\n');
+                        }
+                        this.note.append(unescape(this.value));
+                    }
+                }
+                else if(UID.equals(this.tag)){
+                    setUUID(this.person, this.value.trim());
+                }
+            }
+            else if(this.level == 2 && this.event != null){
+                if(DATE.equals(this.tag) && BIRT.equals(this.event) && this.person.getBirthDate() == null){
+                    this.person.setBirthDate(parseDate(this.value));
+                }
+                else if(DATE.equals(this.tag) && DEAT.equals(this.event) && this.person.getDeathDate() == null){
+                    this.person.setDeathDate(parseDate(this.value));
+                }
+                else if(FILE.equals(this.tag) && OBJE.equals(this.event) && this.person.getImagePath() == null){
+                    this.person.setImagePath(unescape(this.value));
+                }
+                else if(CONT.equals(this.tag) && NOTE.equals(this.event)){
+                    this.note.append('\n').append(unescape(this.value));
+                }
+                else if(CONC.equals(this.tag) && NOTE.equals(this.event)){
+                    this.note.append(unescape(this.value));
+                }
+            }
+        }
+
+        /**
+         * Applies a line within a FAM record
+         */
+        private void processFamilyLine(){
+            if(this.level == 1){
+                if(HUSB.equals(this.tag)){
+                    this.husband = this.value.trim();
+                }
+                else if(WIFE.equals(this.tag)){
+                    this.wife = this.value.trim();
+                }
+                else if(CHIL.equals(this.tag)){
+                    this.children.add(this.value.trim());
+                }
+                else if(DIV.equals(this.tag)){
+                    this.divorced = true;
+                }
+            }
+        }
+
+        /**
+         * Finishes the current record, adding an individual to the family or linking the members of a family
+         */
+        private void finishRecord(){
+            if(INDI.equals(this.record) && this.person != null){
+                if(this.note != null){
+                    this.person.setDescription(this.note.toString());
+                }
+                if(this.person.getUUID() == null){
+                    this.person.setUUID(UUID.randomUUID());
+                }
+                else if(this.family.getPerson(this.person.getUUID()) != null){
+                    LOGGER.warning("Duplicate _UID, giving individual a new one: " + this.person.getUUIDString());
+                    this.person.setUUID(UUID.randomUUID());
+                }
+                this.family.addPerson(this.person);
+                this.person = null;
+                this.progress.addPersons(1);
+            }
+            else if(FAM.equals(this.record)){
+                Person husband = (this.husband != null) ? person(this.husband) : null;
+                Person wife = (this.wife != null) ? person(this.wife) : null;
+
+                if(husband != null && wife != null){
+                    husband.addSpouse(wife);
+                    wife.addSpouse(husband);
+                    if(!this.divorced){
+                        husband.setCurrentSpouse(wife);
+                        wife.setCurrentSpouse(husband);
+                    }
+                }
+
+                for(String childXref : this.children){
+                    Person child = person(childXref);
+                    if(husband != null){
+                        child.setFather(husband);
+                        husband.addChild(child);
+                    }
+                    if(wife != null){
+                        child.setMother(wife);
+                        wife.addChild(child);
+                    }
+                }
+            }
+            this.record = null;
+        }
+
+        /**
+         * Returns the person for a cross reference id, creating them if they have not been seen yet. Persons created
+         * before their INDI record are undefined until it is read. A person is only given a random uuid at the end of
+         * their record if it has no _UID, as generating one is slow.
+         * @param xref the cross reference id
+         * @return the person
+         */
+        private Person person(String xref){
+            Person person = this.persons.get(xref);
+
+            if(person == null){
+                person = new Person();
+                this.persons.put(xref, person);
+                this.undefined.add(xref);
+            }
+            return person;
+        }
+
+        /**
+         * Removes a person who is not part of the family from the relationships of their relatives
+         * @param person the person to remove
+         */
+        private void unlink(Person person){
+            for(Person child : person.getChildren()){
+                if(child.getFather() == person){
+                    child.setFather(null);
+                }
+                if(child.getMother() == person){
+                    child.setMother(null);
+                }
+            }
+            for(Person spouse : person.getSpouses()){
+                spouse.removeSpouse(person);
+                if(spouse.getCurrentSpouse() == person){
+                    spouse.setCurrentSpouse(null);
+                }
+            }
+            if(person.getFather() != null){
+                person.getFather().removeChild(person);
+            }
+            if(person.getMother() != null){
+                person.getMother().removeChild(person);
+            }
+        }
+
+        /**
+         * Sets the names of a person from a GEDCOM name such as John Paul /Smith/. The first given name becomes the
+         * first name and the rest become middle names.
+         * @param person the person
+         * @param name the GEDCOM name
+         */
+        private void setName(Person person, String name){
+            int slash = name.indexOf('/');
+            String givenNames = (slash < 0) ? name : name.substring(0, slash);
+
+            if(slash >= 0){
+                int end = name.indexOf('/', slash + 1);
+                String surname = ((end < 0) ? name.substring(slash + 1) : name.substring(slash + 1, end)).trim();
+                person.setLastName(surname.isEmpty() ? null : surname);
+            }
+
+            for(String givenName : WHITESPACE.split(givenNames.trim())){
+                if(givenName.isEmpty()){
+                    continue;
+                }
+                if(person.getFirstName() == null){
+                    person.setFirstName(givenName);
+                }
+                else{
+                    person.getMiddleNames().add(givenName);
+                }
+            }
+        }
+
+        /**
+         * Sets the uuid of a person from a _UID value, which may be written with or without dashes
+         * @param person the person
+         * @param uid the _UID value
+         */
+        private void setUUID(Person person, String uid){
+            String hex = uid.replace("-", "");
+
+            try {
+                if(hex.length() >= 32){
+                    person.setUUID(new UUID(Long.parseUnsignedLong(hex.substring(0, 16), 16),
+                            Long.parseUnsignedLong(hex.substring(16, 32), 16)));
+                }
+            } catch (NumberFormatException e){
+                LOGGER.fine("Ignoring _UID which is not a UUID: " + uid);
+            }
+        }
+
+        /**
+         * @param value a text value
+         * @return the value with each doubled @ made single again
+         */
+        private String unescape(String value){
+            return value.replace("@@", "@");
+        }
+
+        // Line ========================================================================================================
+
+        private int level;
+
+        private String xref;
+
+        private String tag;
+
+        private String value;
+
+        // Records =====================================================================================================
+
+        private final Family family;
+
+        private final Progress progress;
+
+        private final HashMap<String, Person> persons = new HashMap<>();
+
+        private final HashSet<String> undefined = new HashSet<>();
+
+        private String record;
+
+        private Person person;
+
+        private String event;
+
+        private boolean named;
+
+        private StringBuilder note;
+
+        private String husband;
+
+        private String wife;
+
+        private final List<String> children = new ArrayList<>();
+
+        private boolean divorced;
+    }
+}
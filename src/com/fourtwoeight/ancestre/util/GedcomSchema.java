@@ -0,0 +1,61 @@
+package com.fourtwoeight.ancestre.util;
+
+/**
+ * Tags and values used when reading and writing GEDCOM 5.5.1 files
+ */
+final class GedcomSchema {
+
+    // Package Static Fields ===========================================================================================
+
+    static final String HEAD = "HEAD";
+    static final String TRLR = "TRLR";
+    static final String INDI = "INDI";
+    static final String FAM = "FAM";
+
+    static final String SOUR = "SOUR";
+    static final String GEDC = "GEDC";
+    static final String VERS = "VERS";
+    static final String FORM = "FORM";
+    static final String CHAR = "CHAR";
+    static final String FAMILY_NAME = "_FAMILY";
+
+    static final String NAME = "NAME";
+    static final String GIVN = "GIVN";
+    static final String SURN = "SURN";
+    static final String SEX = "SEX";
+    static final String BIRT = "BIRT";
+    static final String DEAT = "DEAT";
+    static final String DATE = "DATE";
+    static final String NOTE = "NOTE";
+    static final String CONT = "CONT";
+    static final String CONC = "CONC";
+    static final String OBJE = "OBJE";
+    static final String FILE = "FILE";
+    static final String UID = "_UID";
+    static final String FAMS = "FAMS";
+    static final String FAMC = "FAMC";
+
+    static final String HUSB = "HUSB";
+    static final String WIFE = "WIFE";
+    static final String CHIL = "CHIL";
+    static final String MARR = "MARR";
+    static final String DIV = "DIV";
+
+    static final String VERSION = "5.5.1";
+    static final String LINEAGE_LINKED = "LINEAGE-LINKED";
+    static final String UTF_8 = "UTF-8";
+    static final String MALE = "M";
+    static final String FEMALE = "F";
+    static final String BC = "B.C.";
+    static final String OCCURRED = "Y";
+
+    static final String[] MONTHS =
+            {"JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"};
+
+    // Private Methods =================================================================================================
+
+    /**
+     * Private Constructor
+     */
+    private GedcomSchema(){}
+}
@@ -0,0 +1,431 @@
+package com.fourtwoeight.ancestre.util;
+
+import com.fourtwoeight.ancestre.model.Family;
+import com.fourtwoeight.ancestre.model.Person;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import static com.fourtwoeight.ancestre.util.GedcomSchema.*;
+
+/**
+ * Writes a family as a UTF-8 GEDCOM 5.5.1 file. Each person is written as an INDI record and each couple, or single
+ * parent, as a FAM record linking them to each other and to their children. Records are written to the stream as they
+ * are visited; only the record ids and couples are held in memory.
+ */
+public class GedcomWriter {
+
+    // Private Static Fields ===========================================================================================
+
+    private static final Logger LOGGER = Logger.getLogger(GedcomWriter.class.getName());
+
+    /**
+     * Longest value written on a single line before it is continued with CONC
+     */
+    private static final int MAX_VALUE_LENGTH = 200;
+
+    // Public Methods ==================================================================================================
+
+    /**
+     * Writes the family and all of its members to the output stream. The stream is flushed but not closed.
+     * Relationships with persons outside the family are left out.
+     * @param family the family to write
+     * @param outputStream the stream to write to
+     * @throws IOException if the data could not be written
+     */
+    public void write(Family family, OutputStream outputStream) throws IOException {
+        write(family, outputStream, new Progress());
+    }
+
+    /**
+     * Writes the family and all of its members to the output stream, counting each member written against the
+     * progress. The stream is flushed but not closed. Relationships with persons outside the family are left out.
+     * @param family the family to write
+     * @param outputStream the stream to write to
+     * @param progress the progress of the save
+     * @throws IOException if the data could not be written
+     */
+    public void write(Family family, OutputStream outputStream, Progress progress) throws IOException {
+        LOGGER.fine("Writing GEDCOM for family: " + family.getFamilyName());
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+
+        // Give every person an id and find every couple
+        IdentityHashMap<Person, Integer> ids = new IdentityHashMap<>();
+        for(Person person : family.getMemberView()){
+            ids.put(person, ids.size() + 1);
+        }
+
+        LinkedHashMap<Couple, List<Person>> couples = new LinkedHashMap<>();
+        IdentityHashMap<Person, List<Integer>> spouseIn = new IdentityHashMap<>();
+        IdentityHashMap<Person, Integer> childIn = new IdentityHashMap<>();
+        for(Person person : family.getMemberView()){
+            Person father = ids.containsKey(person.getFather()) ? person.getFather() : null;
+            Person mother = ids.containsKey(person.getMother()) ? person.getMother() : null;
+            if(father != null || mother != null){
+                addCouple(couples, new Couple(father, mother)).add(person);
+            }
+        }
+
+        // Parents are found first, so spouses who are also parents join their family with father and mother in place
+        for(Person person : family.getMemberView()){
+            for(Person spouse : person.getSpouses()){
+                if(ids.containsKey(spouse)){
+                    addCouple(couples, Couple.ofSpouses(person, spouse));
+                }
+            }
+        }
+
+        int familyId = 1;
+        for(Map.Entry<Couple, List<Person>> entry : couples.entrySet()){
+            Couple couple = entry.getKey();
+            addLink(spouseIn, couple.husband, familyId);
+            addLink(spouseIn, couple.wife, familyId);
+            for(Person child : entry.getValue()){
+                childIn.put(child, familyId);
+            }
+            familyId++;
+        }
+
+        writeHeader(writer, family);
+
+        for(Person person : family.getMemberView()){
+            writeIndividual(writer, person, ids.get(person), spouseIn.get(person), childIn.get(person));
+            progress.addPersons(1);
+        }
+
+        familyId = 1;
+        for(Map.Entry<Couple, List<Person>> entry : couples.entrySet()){
+            writeFamily(writer, familyId++, entry.getKey(), entry.getValue(), ids);
+        }
+
+        writeLine(writer, 0, TRLR, null);
+        writer.flush();
+    }
+
+    // Private Methods =================================================================================================
+
+    /**
+     * Writes the HEAD record
+     * @param writer the writer to write to
+     * @param family the family being written
+     * @throws IOException if the data could not be written
+     */
+    private void writeHeader(Writer writer, Family family) throws IOException {
+        writeLine(writer, 0, HEAD, null);
+        writeLine(writer, 1, SOUR, "AncestrE");
+        writeLine(writer, 1, GEDC, null);
+        writeLine(writer, 2, VERS, VERSION);
+        writeLine(writer, 2, FORM, LINEAGE_LINKED);
+        writeLine(writer, 1, CHAR, UTF_8);
+        if(family.getFamilyName() != null){
+            writeLine(writer, 1, FAMILY_NAME, escape(family.getFamilyName()));
+        }
+    }
+
+    /**
+     * Writes the INDI record for a person
+     * @param writer the writer to write to
+     * @param person the person to write
+     * @param id the id of the person
+     * @param spouseIn the ids of the families the person is a spouse in, may be null
+     * @param childIn the id of the family the person is a child in, may be null
+     * @throws IOException if the data could not be written
+     */
+    private void writeIndividual(Writer writer, Person person, int id, List<Integer> spouseIn, Integer childIn)
+            throws IOException {
+        writer.write("0 @I" + id + "@ " + INDI + "\n");
+
+        String givenNames = givenNames(person);
+        if(givenNames != null || person.getLastName() != null){
+            StringBuilder name = new StringBuilder();
+            if(givenNames != null){
+                name.append(givenNames);
+            }
+            if(person.getLastName() != null){
+                name.append(name.length() > 0 ? " /" : "/").append(person.getLastName()).append('/');
+            }
+            writeLine(writer, 1, NAME, escape(name.toString()));
+            if(givenNames != null){
+                writeLine(writer, 2, GIVN, escape(givenNames));
+            }
+            if(person.getLastName() != null){
+                writeLine(writer, 2, SURN, escape(person.getLastName()));
+            }
+        }
+
+        if(person.getSex() != null){
+            writeLine(writer, 1, SEX, person.getSex() == Person.SEX.MALE ? MALE : FEMALE);
+        }
+        writeEvent(writer, BIRT, person.getBirthDate());
+        writeEvent(writer, DEAT, person.getDeathDate());
+
+        if(person.getDescription() != null){
+            writeText(writer, 1, NOTE, escape(person.getDescription()));
+        }
+        if(person.getImagePath() != null){
+            writeLine(writer, 1, OBJE, null);
+            writeLine(writer, 2, FILE, escape(person.getImagePath()));
+        }
+        writeLine(writer, 1, UID, person.getUUIDString());
+
+        if(childIn != null){
+            writeLine(writer, 1, FAMC, "@F" + childIn + "@");
+        }
+        if(spouseIn != null){
+            for(Integer familyId : spouseIn){
+                writeLine(writer, 1, FAMS, "@F" + familyId + "@");
+            }
+        }
+    }
+
+    /**
+     * Writes the FAM record for a couple and their children
+     * @param writer the writer to write to
+     * @param id the id of the family
+     * @param couple the couple, either of whom may be null
+     * @param children the children of the couple
+     * @param ids the id of every person
+     * @throws IOException if the data could not be written
+     */
+    private void writeFamily(Writer writer, int id, Couple couple, List<Person> children, Map<Person, Integer> ids)
+            throws IOException {
+        writer.write("0 @F" + id + "@ " + FAM + "\n");
+
+        if(couple.husband != null){
+            writeLine(writer, 1, HUSB, "@I" + ids.get(couple.husband) + "@");
+        }
+        if(couple.wife != null){
+            writeLine(writer, 1, WIFE, "@I" + ids.get(couple.wife) + "@");
+        }
+
+        // Spouses are written as married, and as divorced once they are no longer each other's current spouse
+        if(couple.husband != null && couple.wife != null && couple.husband.getSpouses().contains(couple.wife)){
+            writeLine(writer, 1, MARR, OCCURRED);
+            if(couple.husband.getCurrentSpouse() != couple.wife && couple.wife.getCurrentSpouse() != couple.husband){
+                writeLine(writer, 1, DIV, OCCURRED);
+            }
+        }
+
+        for(Person child : children){
+            writeLine(writer, 1, CHIL, "@I" + ids.get(child) + "@");
+        }
+    }
+
+    /**
+     * Writes a birth or death event with its date
+     * @param writer the writer to write to
+     * @param tag the event tag
+     * @param date the date of the event, nothing is written if null
+     * @throws IOException if the data could not be written
+     */
+    private void writeEvent(Writer writer, String tag, Calendar date) throws IOException {
+        if(date != null){
+            writeLine(writer, 1, tag, null);
+            writeLine(writer, 2, DATE, formatDate(date));
+        }
+    }
+
+    /**
+     * Writes a text value, breaking it onto CONT lines at line breaks and CONC lines where it is too long
+     * @param writer the writer to write to
+     * @param level the level of the first line
+     * @param tag the tag of the first line
+     * @param text the text to write
+     * @throws IOException if the data could not be written
+     */
+    private void writeText(Writer writer, int level, String tag, String text) throws IOException {
+        String[] lines = text.split("\r\n|\r|\n", -1);
+
+        for(int i = 0; i < lines.length; i++){
+            String line = lines[i];
+            String lineTag = (i == 0) ? tag : CONT;
+            int lineLevel = (i == 0) ? level : level + 1;
+
+            // Never break next to a space, as some readers trim the lines they join
+            while(line.length() > MAX_VALUE_LENGTH){
+                int split = MAX_VALUE_LENGTH;
+                while(split > 1 && (line.charAt(split - 1) == ' ' || line.charAt(split) == ' ')){
+                    split--;
+                }
+                writeLine(writer, lineLevel, lineTag, line.substring(0, split));
+                line = line.substring(split);
+                lineTag = CONC;
+                lineLevel = level + 1;
+            }
+            writeLine(writer, lineLevel, lineTag, line);
+        }
+    }
+
+    /**
+     * Writes a single GEDCOM line
+     * @param writer the writer to write to
+     * @param level the level of the line
+     * @param tag the tag of the line
+     * @param value the value of the line, null or empty for none
+     * @throws IOException if the data could not be written
+     */
+    private void writeLine(Writer writer, int level, String tag, String value) throws IOException {
+        writer.write(Integer.toString(level));
+        writer.write(' ');
+        writer.write(tag);
+        if(value != null && !value.isEmpty()){
+            writer.write(' ');
+            writer.write(value);
+        }
+        writer.write('\n');
+    }
+
+    /**
+     * Formats a date as a GEDCOM date such as 2 JAN 1900, in the calendar's own time zone
+     * @param date the date
+     * @return the formatted date
+     */
+    private String formatDate(Calendar date){
+        StringBuilder builder = new StringBuilder();
+        builder.append(date.get(Calendar.DAY_OF_MONTH)).append(' ');
+        builder.append(MONTHS[date.get(Calendar.MONTH)]).append(' ');
+        builder.append(date.get(Calendar.YEAR));
+        if(date.get(Calendar.ERA) == GregorianCalendar.BC){
+            builder.append(' ').append(BC);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param person the person
+     * @return the first and middle names of the person separated by spaces, null if they have none
+     */
+    private String givenNames(Person person){
+        StringBuilder builder = new StringBuilder();
+
+        if(person.getFirstName() != null){
+            builder.append(person.getFirstName());
+        }
+        if(person.getMiddleNames() != null){
+            for(String middleName : person.getMiddleNames()){
+                if(builder.length() > 0){
+                    builder.append(' ');
+                }
+                builder.append(middleName);
+            }
+        }
+
+        return (builder.length() > 0) ? builder.toString() : null;
+    }
+
+    /**
+     * @param value a text value
+     * @return the value with each @ doubled, as GEDCOM requires outside of pointers
+     */
+    private String escape(String value){
+        return value.replace("@", "@@");
+    }
+
+    /**
+     * Adds a couple if it has not been seen before
+     * @param couples the couples found so far, with their children
+     * @param couple the couple
+     * @return the children of the couple
+     */
+    private List<Person> addCouple(Map<Couple, List<Person>> couples, Couple couple){
+        List<Person> children = couples.get(couple);
+        if(children == null){
+            children = new ArrayList<>();
+            couples.put(couple, children);
+        }
+        return children;
+    }
+
+    /**
+     * Records that a person is a spouse in a family
+     * @param links the families each person is a spouse in
+     * @param person the person, nothing is recorded if null
+     * @param familyId the id of the family
+     */
+    private void addLink(Map<Person, List<Integer>> links, Person person, int familyId){
+        if(person != null){
+            List<Integer> familyIds = links.get(person);
+            if(familyIds == null){
+                familyIds = new ArrayList<>();
+                links.put(person, familyIds);
+            }
+            familyIds.add(familyId);
+        }
+    }
+
+    // Private Classes =================================================================================================
+
+    /**
+     * Two partners, or a single parent, identified by the persons themselves. Couples are equal when they hold the same
+     * two persons in either order, so the parents of a child and the same two persons as spouses are one couple.
+     */
+    private static class Couple {
+
+        /**
+         * Constructor
+         * @param husband the father, or the partner written as HUSB, may be null
+         * @param wife the mother, or the partner written as WIFE, may be null
+         */
+        Couple(Person husband, Person wife){
+            this.husband = husband;
+            this.wife = wife;
+        }
+
+        /**
+         * Makes the couple of two spouses who are not known as anyone's parents. A male partner or, failing that, the
+         * partner with the lower uuid is the husband, so the same two spouses are always written the same way round.
+         * @param first one spouse
+         * @param second the other spouse
+         * @return the couple
+         */
+        static Couple ofSpouses(Person first, Person second){
+            return isHusband(second, first) ? new Couple(second, first) : new Couple(first, second);
+        }
+
+        /**
+         * @param candidate the partner which may be the husband
+         * @param other the other partner
+         * @return 'true' if the candidate should be the husband. 'false' otherwise.
+         */
+        private static boolean isHusband(Person candidate, Person other){
+            if(candidate == null || other == null){
+                return false;
+            }
+            if(candidate.getSex() != other.getSex()){
+                return candidate.getSex() == Person.SEX.MALE || other.getSex() == Person.SEX.FEMALE;
+            }
+            return candidate.getUUID().compareTo(other.getUUID()) < 0;
+        }
+
+        @Override
+        public boolean equals(Object object){
+            if(!(object instanceof Couple)){
+                return false;
+            }
+            Couple other = (Couple) object;
+            return (other.husband == this.husband && other.wife == this.wife)
+                    || (other.husband == this.wife && other.wife == this.husband);
+        }
+
+        @Override
+        public int hashCode(){
+            return System.identityHashCode(this.husband) + System.identityHashCode(this.wife);
+        }
+
+        private final Person husband;
+
+        private final Person wife;
+    }
+}
@@ -0,0 +1,17 @@
+package com.fourtwoeight.ancestre.util;
+
+/**
+ * The relatives of a person which can be loaded without the rest of their family, see FileManager.loadLineage
+ */
+public enum Lineage {
+
+    /**
+     * The person, their parents, their parents' parents and so on
+     */
+    ANCESTORS,
+
+    /**
+     * The person, their children, their children's children and so on
+     */
+    DESCENDANTS
+}
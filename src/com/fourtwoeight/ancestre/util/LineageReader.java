@@ -0,0 +1,124 @@
+package com.fourtwoeight.ancestre.util;
+
+import com.fourtwoeight.ancestre.model.Person;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Reads the ancestors or descendants of a person one person at a time, generation by generation, so only the persons
+ * in the lineage are read from the family file. Each person read is copied, and the copies are linked to each other
+ * as father, mother and child where both are in the lineage. Spouses are not linked.
+ */
+class LineageReader {
+
+    // Package Static Methods ==========================================================================================
+
+    /**
+     * Reads a lineage
+     * @param source finds each person in the family file
+     * @param root the uuid of the person the lineage starts from
+     * @param lineage whether to follow parents or children
+     * @param generations how many generations to follow, 0 for only the root person
+     * @return the persons of the lineage, root first and then generation by generation, null if the root person is
+     * not in the family
+     * @throws IOException if a person could not be read
+     */
+    static List<Person> read(PersonSource source, UUID root, Lineage lineage, int generations) throws IOException {
+        if(generations < 0){
+            throw new IllegalArgumentException("Invalid number of generations: " + generations);
+        }
+
+        // The persons as read, which refer to their relatives, in the order they were found
+        Map<UUID, Person> found = new LinkedHashMap<>();
+        ArrayDeque<UUID> queue = new ArrayDeque<>();
+        ArrayDeque<Integer> depths = new ArrayDeque<>();
+        queue.add(root);
+        depths.add(0);
+
+        while(!queue.isEmpty()){
+            UUID uuid = queue.poll();
+            int depth = depths.poll();
+            if(found.containsKey(uuid)){
+                continue;
+            }
+
+            Person person = source.find(uuid);
+            if(person == null){
+                if(found.isEmpty()){
+                    return null;
+                }
+                continue;
+            }
+            found.put(uuid, person);
+
+            if(depth < generations){
+                List<Person> next = new ArrayList<>(2);
+                if(lineage == Lineage.ANCESTORS){
+                    next.add(person.getFather());
+                    next.add(person.getMother());
+                }
+                else{
+                    next.addAll(person.getChildren());
+                }
+                for(Person relative : next){
+                    if(relative != null && !found.containsKey(relative.getUUID())){
+                        queue.add(relative.getUUID());
+                        depths.add(depth + 1);
+                    }
+                }
+            }
+        }
+
+        Map<UUID, Person> copies = new LinkedHashMap<>();
+        for(Person person : found.values()){
+            copies.put(person.getUUID(), new Person(person));
+        }
+
+        for(Person person : found.values()){
+            Person copy = copies.get(person.getUUID());
+            copy.setFather(copyOf(copies, person.getFather()));
+            copy.setMother(copyOf(copies, person.getMother()));
+            for(Person child : person.getChildren()){
+                Person childCopy = copyOf(copies, child);
+                if(childCopy != null){
+                    copy.addChild(childCopy);
+                }
+            }
+            copy.setDirty(false);
+        }
+
+        return new ArrayList<>(copies.values());
+    }
+
+    // Private Static Methods ==========================================================================================
+
+    /**
+     * @param copies the copy of each person in the lineage
+     * @param relative a relative as read, may be null
+     * @return the copy of the relative, null if they are not in the lineage
+     */
+    private static Person copyOf(Map<UUID, Person> copies, Person relative){
+        return (relative != null) ? copies.get(relative.getUUID()) : null;
+    }
+
+    // Package Classes =================================================================================================
+
+    /**
+     * Finds a person in a family file. Their father, mother and children need only have their uuids.
+     */
+    interface PersonSource {
+
+        /**
+         * @param uuid the uuid of the person
+         * @return the person, null if they are not in the family
+         * @throws IOException if the person could not be read
+         */
+        Person find(UUID uuid) throws IOException;
+    }
+}
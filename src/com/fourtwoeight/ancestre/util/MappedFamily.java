@@ -0,0 +1,343 @@
+package com.fourtwoeight.ancestre.util;
+
+import com.fourtwoeight.ancestre.model.Family;
+import com.fourtwoeight.ancestre.model.Person;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static com.fourtwoeight.ancestre.util.BinaryFamilyCodec.*;
+
+/**
+ * A read-only family backed by a memory mapped binary family file. Opening the family only reads the header; persons
+ * are decoded from the mapped file the first time they are asked for and their relationships are decoded the first
+ * time they are used. Persons are only weakly held by the family, so the heap used grows with the persons being viewed
+ * rather than with the size of the family. Changes made to a person are not written back to the file.
+ */
+public class MappedFamily extends Family {
+
+    // Private Static Fields ===========================================================================================
+
+    private static final Logger LOGGER = Logger.getLogger(MappedFamily.class.getName());
+
+    // Public Methods ==================================================================================================
+
+    /**
+     * Memory maps a binary family file
+     * @param familyFile the binary family file to open
+     * @return the family backed by the file
+     * @throws IOException if the file could not be mapped or is not a supported binary family file
+     */
+    public static MappedFamily open(File familyFile) throws IOException {
+        LOGGER.fine("Mapping binary family: " + familyFile.getName());
+
+        try (FileChannel channel = FileChannel.open(familyFile.toPath(), StandardOpenOption.READ)) {
+            if(channel.size() > Integer.MAX_VALUE){
+                throw new IOException("Binary family file is too large to map: " + familyFile.getName());
+            }
+            // The mapping remains valid once the channel is closed
+            return new MappedFamily(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Returns the person mapped to the uuid, decoding them from the file if they are not already in memory
+     * @param uuid the uuid of the person
+     * @return the Person mapped to the uuid, null if they are not part of the family or the uuid is null
+     */
+    @Override
+    public Person getPerson(UUID uuid){
+        if(uuid == null){
+            return null;
+        }
+        int id = find(uuid);
+        return (id >= 0) ? person(id) : null;
+    }
+
+    /**
+     * Returns a list of family members. Every member is decoded, so getMemberView should be preferred for large
+     * families.
+     * @return the list of family members
+     */
+    @Override
+    public List<Person> getFamilyMembers(){
+        return new LinkedList<Person>(getMemberView());
+    }
+
+    /**
+     * Returns a read-only view of the family members. Members are decoded as the view is iterated.
+     * @return the unmodifiable collection of family members
+     */
+    @Override
+    public Collection<Person> getMemberView(){
+        return new AbstractCollection<Person>() {
+            @Override
+            public Iterator<Person> iterator(){
+                return new Iterator<Person>() {
+                    @Override
+                    public boolean hasNext(){
+                        return this.id < personCount;
+                    }
+
+                    @Override
+                    public Person next(){
+                        if(!hasNext()){
+                            throw new NoSuchElementException();
+                        }
+                        return person(this.id++);
+                    }
+
+                    private int id;
+                };
+            }
+
+            @Override
+            public int size(){
+                return personCount;
+            }
+        };
+    }
+
+    /**
+     * Returns whether the person is part of the family
+     * @param person the person to check from family
+     * @return 'true' if the person was decoded from this family, 'false' otherwise
+     */
+    @Override
+    public boolean isMember(Person person){
+        return person instanceof MappedPerson && ((MappedPerson) person).getFamily() == this;
+    }
+
+    /**
+     * Not supported, the family is read-only
+     * @param person the person to add
+     */
+    @Override
+    public void addPerson(Person person){
+        throw new UnsupportedOperationException("Mapped families are read-only.");
+    }
+
+    /**
+     * Not supported, the family is read-only
+     * @param person the person to remove
+     */
+    @Override
+    public void removePerson(Person person){
+        throw new UnsupportedOperationException("Mapped families are read-only.");
+    }
+
+    /**
+     * @return the number of persons in the family
+     */
+    @Override
+    public int size(){
+        return this.personCount;
+    }
+
+    // Package Methods =================================================================================================
+
+    /**
+     * Returns the person with the id, decoding them if they are not already in memory. The same instance is returned
+     * for as long as the person is reachable.
+     * @param id the id of the person
+     * @return the person with the id
+     */
+    synchronized Person person(int id){
+        expungeCollected();
+
+        PersonReference reference = this.persons.get(id);
+        MappedPerson person = (reference != null) ? reference.get() : null;
+
+        if(person == null){
+            long entry = this.personIndexOffset + (long) INDEX_ENTRY_SIZE * id;
+            long recordOffset = this.recordsOffset + this.buffer.getLong((int) entry + 16);
+            person = new MappedPerson(this);
+            person.setUUID(new UUID(this.buffer.getLong((int) entry), this.buffer.getLong((int) entry + 8)));
+
+            ByteBuffer record = at(recordOffset);
+            try {
+                readDetails(new DataInputStream(new ByteBufferInputStream(record)), person, this::string);
+            } catch (IOException e){
+                throw new UncheckedIOException(e);
+            }
+            person.setRelationshipsOffset(record.position());
+            this.persons.put(id, new PersonReference(id, person, this.collected));
+        }
+
+        return person;
+    }
+
+    /**
+     * Decodes the relationships of a person decoded from this family
+     * @param person the person to fill in
+     * @param relationshipsOffset the offset of the relationships portion of the person's record
+     */
+    synchronized void readPersonRelationships(MappedPerson person, long relationshipsOffset){
+        try {
+            readRelationships(new DataInputStream(new ByteBufferInputStream(at(relationshipsOffset))), person,
+                    this::person);
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Private Methods =================================================================================================
+
+    /**
+     * Constructor, reads and validates the header
+     * @param buffer the mapped binary family file
+     * @throws IOException if the buffer does not hold a supported binary family file
+     */
+    private MappedFamily(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+
+        if(buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC){
+            throw new IOException("Not a binary family file.");
+        }
+        int version = buffer.getInt(4);
+        if(version != VERSION){
+            throw new IOException("Unsupported binary family version: " + version);
+        }
+
+        this.personCount = buffer.getInt(8);
+        this.stringCount = buffer.getInt(12);
+        this.stringDataOffset = HEADER_SIZE + 4L * this.stringCount;
+        this.personIndexOffset = buffer.getLong(24);
+        this.recordsOffset = buffer.getLong(32);
+
+        if(this.personIndexOffset < this.stringDataOffset
+                || this.recordsOffset != this.personIndexOffset + (long) INDEX_ENTRY_SIZE * this.personCount
+                || this.recordsOffset > buffer.limit()){
+            throw new IOException("Binary family file is truncated or corrupt.");
+        }
+
+        setFamilyName(string(buffer.getInt(16)));
+    }
+
+    /**
+     * Binary searches the person index for a uuid
+     * @param uuid the uuid to search for
+     * @return the id of the person, -1 if they are not part of the family
+     */
+    private int find(UUID uuid){
+        int low = 0;
+        int high = this.personCount - 1;
+
+        while(low <= high){
+            int middle = (low + high) >>> 1;
+            int entry = (int) (this.personIndexOffset + (long) INDEX_ENTRY_SIZE * middle);
+            int comparison = new UUID(this.buffer.getLong(entry), this.buffer.getLong(entry + 8)).compareTo(uuid);
+
+            if(comparison < 0){
+                low = middle + 1;
+            }
+            else if(comparison > 0){
+                high = middle - 1;
+            }
+            else{
+                return middle;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Decodes a string from the string table
+     * @param reference the string reference
+     * @return the referenced string, null for reference 0
+     */
+    private String string(int reference){
+        if(reference == 0){
+            return null;
+        }
+        if(reference > this.stringCount){
+            throw new IllegalStateException("String reference out of range: " + reference);
+        }
+
+        int offset = this.buffer.getInt(HEADER_SIZE + 4 * (reference - 1));
+        try {
+            return readString(new DataInputStream(new ByteBufferInputStream(at(this.stringDataOffset + offset))));
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param offset the offset into the file
+     * @return an independent view of the mapped file positioned at the offset
+     */
+    private ByteBuffer at(long offset){
+        ByteBuffer view = this.buffer.duplicate();
+        view.position((int) offset);
+        return view;
+    }
+
+    /**
+     * Removes the cache entries of persons which have been garbage collected
+     */
+    private void expungeCollected(){
+        PersonReference reference;
+
+        while((reference = (PersonReference) this.collected.poll()) != null){
+            if(this.persons.get(reference.id) == reference){
+                this.persons.remove(reference.id);
+            }
+        }
+    }
+
+    // Private Classes =================================================================================================
+
+    /**
+     * A weak reference to a decoded person which remembers the person's id
+     */
+    private static class PersonReference extends WeakReference<MappedPerson> {
+
+        /**
+         * Constructor
+         * @param id the id of the person
+         * @param person the person
+         * @param queue the queue the reference is enqueued on once the person is collected
+         */
+        PersonReference(int id, MappedPerson person, ReferenceQueue<MappedPerson> queue){
+            super(person, queue);
+            this.id = id;
+        }
+
+        private final int id;
+    }
+
+    // Private Fields ==================================================================================================
+
+    private final ByteBuffer buffer;
+
+    private final int personCount;
+
+    private final int stringCount;
+
+    private final long stringDataOffset;
+
+    private final long personIndexOffset;
+
+    private final long recordsOffset;
+
+    private final HashMap<Integer, PersonReference> persons = new HashMap<>();
+
+    private final ReferenceQueue<MappedPerson> collected = new ReferenceQueue<>();
+}
@@ -0,0 +1,156 @@
+package com.fourtwoeight.ancestre.util;
+
+import com.fourtwoeight.ancestre.model.Person;
+
+import java.util.List;
+
+/**
+ * A person decoded from a mapped family. The person's details are decoded up front, their relationships are decoded
+ * from the mapped file the first time any of them are used.
+ */
+class MappedPerson extends Person {
+
+    // Public Methods ==================================================================================================
+
+    /**
+     * Constructor
+     * @param family the family the person was decoded from
+     */
+    MappedPerson(MappedFamily family){
+        this.family = family;
+    }
+
+    /**
+     * @return the person's mother
+     */
+    @Override
+    public Person getMother(){
+        resolveRelationships();
+        return super.getMother();
+    }
+
+    /**
+     * Sets the mother of the person
+     * @param mother the mother of the person
+     */
+    @Override
+    public void setMother(Person mother){
+        resolveRelationships();
+        super.setMother(mother);
+    }
+
+    /**
+     * @return the father of the person
+     */
+    @Override
+    public Person getFather(){
+        resolveRelationships();
+        return super.getFather();
+    }
+
+    /**
+     * Sets the father of the person
+     * @param father the father of the person
+     */
+    @Override
+    public void setFather(Person father){
+        resolveRelationships();
+        super.setFather(father);
+    }
+
+    /**
+     * @return the current spouse for the person
+     */
+    @Override
+    public Person getCurrentSpouse(){
+        resolveRelationships();
+        return super.getCurrentSpouse();
+    }
+
+    /**
+     * Sets the current spouse for the person
+     * @param currentSpouse the person the person is currently in a relationship with
+     */
+    @Override
+    public void setCurrentSpouse(Person currentSpouse){
+        resolveRelationships();
+        super.setCurrentSpouse(currentSpouse);
+    }
+
+    /**
+     * @return the list of spouses this person has had
+     */
+    @Override
+    public List<Person> getSpouses(){
+        resolveRelationships();
+        return super.getSpouses();
+    }
+
+    /**
+     * Adds a spouse to the list of spouses
+     * @param spouse the spouse to add
+     */
+    @Override
+    public void addSpouse(Person spouse){
+        resolveRelationships();
+        super.addSpouse(spouse);
+    }
+
+    /**
+     * @return the list of children that the person has
+     */
+    @Override
+    public List<Person> getChildren(){
+        resolveRelationships();
+        return super.getChildren();
+    }
+
+    /**
+     * Adds a Person to the list of children the person has add
+     * @param child the Person to be added as a child
+     */
+    @Override
+    public void addChild(Person child){
+        resolveRelationships();
+        super.addChild(child);
+    }
+
+    // Package Methods =================================================================================================
+
+    /**
+     * @return the family the person was decoded from
+     */
+    MappedFamily getFamily(){
+        return this.family;
+    }
+
+    /**
+     * @param relationshipsOffset the offset of the relationships portion of the person's record
+     */
+    void setRelationshipsOffset(long relationshipsOffset){
+        this.relationshipsOffset = relationshipsOffset;
+    }
+
+    // Private Methods =================================================================================================
+
+    /**
+     * Decodes the person's relationships if they have not been already. The person is marked as resolved first so the
+     * setters used while decoding do not recurse.
+     */
+    private void resolveRelationships(){
+        synchronized (this.family){
+            if(!this.resolved){
+                this.resolved = true;
+                this.family.readPersonRelationships(this, this.relationshipsOffset);
+            }
+        }
+    }
+
+    // Private Fields ==================================================================================================
+
+    private final MappedFamily family;
+
+    private long relationshipsOffset;
+
+    private boolean resolved;
+}
@@ -0,0 +1,140 @@
+package com.fourtwoeight.ancestre.util;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+
+/**
+ * A file being written to a temporary file alongside its target. The target is only replaced once the temporary file
+ * has been forced to disk and is moved over it, so a crash part way through leaves the target as it was. A pending file
+ * which is closed without being committed is deleted.
+ */
+class PendingFile implements Closeable {
+
+    // Package Static Fields ===========================================================================================
+
+    static final String TEMP_EXTENSION = ".tmp";
+
+    // Private Static Fields ===========================================================================================
+
+    private static final Logger LOGGER = Logger.getLogger(PendingFile.class.getName());
+
+    // Public Methods ==================================================================================================
+
+    /**
+     * Constructor, creates the temporary file
+     * @param target the file to be replaced
+     * @throws IOException if the temporary file could not be created
+     */
+    PendingFile(File target) throws IOException {
+        this(target, new Progress());
+    }
+
+    /**
+     * Constructor, creates the temporary file
+     * @param target the file to be replaced
+     * @param progress the progress to count the bytes written against
+     * @throws IOException if the temporary file could not be created
+     */
+    PendingFile(File target, Progress progress) throws IOException {
+        this.target = target;
+        this.tempFile = tempFile(target);
+        this.fileOutputStream = new FileOutputStream(this.tempFile);
+        this.outputStream = new BufferedOutputStream(new ProgressOutputStream(this.fileOutputStream, progress));
+    }
+
+    /**
+     * @param target the file to be replaced
+     * @return the temporary file which is written in place of the target
+     */
+    static File tempFile(File target){
+        return new File(target.getPath() + TEMP_EXTENSION);
+    }
+
+    /**
+     * Forces the directory entries of the directory to disk so a move into it survives a crash. Not every platform
+     * allows a directory to be opened, in which case this does nothing.
+     * @param directory the directory
+     */
+    static void syncDirectory(File directory){
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e){
+            LOGGER.finer("Unable to sync directory: " + directory.getName() + ". Caught exception: " + e);
+        }
+    }
+
+    /**
+     * @return the stream to write the contents of the file to, it is closed by the pending file
+     */
+    OutputStream getOutputStream(){
+        return this.outputStream;
+    }
+
+    /**
+     * Flushes the contents written so far and forces them to disk
+     * @throws IOException if the contents could not be forced
+     */
+    void force() throws IOException {
+        this.outputStream.flush();
+        this.fileOutputStream.getChannel().force(true);
+    }
+
+    /**
+     * Keeps the temporary file if the pending file is closed without being committed, so a save which has been marked
+     * complete can still be finished by recovery
+     */
+    void keep(){
+        this.kept = true;
+    }
+
+    /**
+     * Closes the temporary file and atomically moves it over the target. The contents must already have been forced.
+     * @throws IOException if the temporary file could not be moved
+     */
+    void commit() throws IOException {
+        this.outputStream.close();
+        Files.move(this.tempFile.toPath(), this.target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        this.committed = true;
+    }
+
+    /**
+     * Closes the temporary file, deleting it if it was neither committed nor kept
+     * @throws IOException if the temporary file could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if(!this.committed){
+            try {
+                this.outputStream.close();
+            } finally {
+                if(!this.kept && this.tempFile.exists() && !this.tempFile.delete()){
+                    LOGGER.warning("Unable to delete temporary file: " + this.tempFile.getName());
+                }
+            }
+        }
+    }
+
+    // Private Fields ==================================================================================================
+
+    private final File target;
+
+    private final File tempFile;
+
+    private final FileOutputStream fileOutputStream;
+
+    private final OutputStream outputStream;
+
+    private boolean committed;
+
+    private boolean kept;
+}
@@ -0,0 +1,172 @@
+package com.fourtwoeight.ancestre.util;
+
+import com.fourtwoeight.ancestre.model.Person;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static com.fourtwoeight.ancestre.util.BinaryFamilyCodec.*;
+
+/**
+ * The details and relationships of a single person encoded without reference to the rest of the family, so it can be
+ * stored on its own. It is laid out as the strings the record refers to, the uuids of the relatives it refers to, then
+ * a varint length and the record itself in the binary family record layout, with string references and person ids
+ * local to the value.
+ */
+class PersonValue {
+
+    // Package Static Methods ==========================================================================================
+
+    /**
+     * Writes the value of a person
+     * @param output the output to write to
+     * @param person the person
+     * @param included whether a relative is written, relatives which are not are left out of the value
+     * @throws IOException if the value could not be written
+     */
+    static void write(DataOutput output, Person person, Predicate<Person> included) throws IOException {
+        LinkedHashMap<String, Integer> strings = new LinkedHashMap<>();
+        addStrings(strings, person);
+
+        IdentityHashMap<Person, Integer> ids = new IdentityHashMap<>();
+        List<Person> relatives = new ArrayList<>();
+        addRelative(ids, relatives, included, person.getFather());
+        addRelative(ids, relatives, included, person.getMother());
+        addRelative(ids, relatives, included, person.getCurrentSpouse());
+        for(Person spouse : person.getSpouses()){
+            addRelative(ids, relatives, included, spouse);
+        }
+        for(Person child : person.getChildren()){
+            addRelative(ids, relatives, included, child);
+        }
+
+        writeVarInt(output, strings.size());
+        for(String string : strings.keySet()){
+            writeString(output, string);
+        }
+        writeVarInt(output, relatives.size());
+        for(Person relative : relatives){
+            output.writeLong(relative.getUUID().getMostSignificantBits());
+            output.writeLong(relative.getUUID().getLeastSignificantBits());
+        }
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        writeRecord(new DataOutputStream(record), person, strings, ids);
+        writeVarInt(output, record.size());
+        output.write(record.toByteArray());
+    }
+
+    /**
+     * Encodes the value of a person
+     * @param person the person
+     * @param included whether a relative is written, relatives which are not are left out of the value
+     * @return the encoded value
+     * @throws IOException if the value could not be written
+     */
+    static byte[] encode(Person person, Predicate<Person> included) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        write(new DataOutputStream(bytes), person, included);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads a value written by write
+     * @param input the input positioned at the value
+     * @return the value read
+     * @throws IOException if the value is malformed
+     */
+    static PersonValue read(DataInput input) throws IOException {
+        PersonValue value = new PersonValue();
+
+        value.strings = new String[readVarInt(input)];
+        for(int i = 0; i < value.strings.length; i++){
+            value.strings[i] = readString(input);
+        }
+
+        value.relatives = new UUID[readVarInt(input)];
+        for(int i = 0; i < value.relatives.length; i++){
+            value.relatives[i] = new UUID(input.readLong(), input.readLong());
+        }
+
+        value.record = new byte[readVarInt(input)];
+        input.readFully(value.record);
+        return value;
+    }
+
+    /**
+     * Decodes a value returned by encode
+     * @param bytes the encoded value
+     * @return the value
+     * @throws IOException if the value is malformed
+     */
+    static PersonValue decode(byte[] bytes) throws IOException {
+        return read(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    // Package Methods =================================================================================================
+
+    /**
+     * Replaces the details and relationships of a person with those in the value
+     * @param person the person to update
+     * @param resolver finds the person for the uuid of a relative, relatives it returns null for are left out
+     * @throws IOException if the record is malformed
+     */
+    void apply(Person person, Function<UUID, Person> resolver) throws IOException {
+        person.getMiddleNames().clear();
+        person.getSpouses().clear();
+        person.getChildren().clear();
+
+        Person[] persons = new Person[this.relatives.length];
+        for(int i = 0; i < persons.length; i++){
+            persons[i] = resolver.apply(this.relatives[i]);
+        }
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(this.record));
+        readDetails(input, person, reference -> string(this.strings, reference));
+        readRelationships(input, person, id -> persons[id]);
+    }
+
+    /**
+     * @return the uuids of the relatives the value refers to
+     */
+    UUID[] getRelatives(){
+        return this.relatives;
+    }
+
+    // Private Static Methods ==========================================================================================
+
+    /**
+     * Gives a relative an id local to the value
+     * @param ids the local id of each relative
+     * @param relatives the relatives in id order
+     * @param included whether the relative is written
+     * @param relative the relative, may be null
+     */
+    private static void addRelative(IdentityHashMap<Person, Integer> ids, List<Person> relatives,
+                                    Predicate<Person> included, Person relative){
+        if(relative != null && !ids.containsKey(relative) && included.test(relative)){
+            ids.put(relative, relatives.size());
+            relatives.add(relative);
+        }
+    }
+
+    // Private Fields ==================================================================================================
+
+    private String[] strings;
+
+    private UUID[] relatives;
+
+    private byte[] record;
+}
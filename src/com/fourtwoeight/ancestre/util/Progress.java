@@ -0,0 +1,187 @@
+package com.fourtwoeight.ancestre.util;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The progress of a load or save, which the thread showing it polls while the file manager updates it. Bytes are the
+ * bytes of the family files read or written, persons are the persons decoded or encoded. Either total may be unknown,
+ * in which case progress is measured against the other.
+ *
+ * A progress also cancels the operation it is passed to. Once cancelled, the next update throws a
+ * CancellationException, the operation stops without replacing any file it was saving, and it reports that it was
+ * cancelled. A storage should update its progress at least every few thousand bytes or persons so a cancel takes
+ * effect promptly.
+ */
+public class Progress {
+
+    // Public Static Fields ============================================================================================
+
+    /**
+     * The total of a count which is not known
+     */
+    public static final long UNKNOWN = -1;
+
+    // Public Methods ==================================================================================================
+
+    /**
+     * Starts measuring the operation. The time remaining is estimated from the time since it was started.
+     * @param totalBytes the bytes the operation will read or write, UNKNOWN if it is not known
+     * @param totalPersons the persons the operation will decode or encode, UNKNOWN if it is not known
+     */
+    public void start(long totalBytes, long totalPersons){
+        this.totalBytes = totalBytes;
+        this.totalPersons = totalPersons;
+        this.startTime = System.nanoTime();
+        this.started = true;
+    }
+
+    /**
+     * Marks the operation as finished, whether or not it succeeded
+     */
+    public void finish(){
+        this.done = true;
+    }
+
+    /**
+     * Counts bytes read or written
+     * @param bytes the number of bytes
+     * @throws CancellationException if the operation has been cancelled
+     */
+    public void addBytes(long bytes){
+        this.bytes.addAndGet(bytes);
+        checkCancelled();
+    }
+
+    /**
+     * Counts persons decoded or encoded
+     * @param persons the number of persons
+     * @throws CancellationException if the operation has been cancelled
+     */
+    public void addPersons(long persons){
+        this.persons.addAndGet(persons);
+        checkCancelled();
+    }
+
+    /**
+     * @throws CancellationException if the operation has been cancelled
+     */
+    public void checkCancelled(){
+        if(this.cancelled){
+            throw new CancellationException("Cancelled by the user.");
+        }
+    }
+
+    /**
+     * Asks the operation to stop at its next update
+     */
+    public void cancel(){
+        this.cancelled = true;
+    }
+
+    /**
+     * @return 'true' if the operation has been asked to stop. 'false' otherwise.
+     */
+    public boolean isCancelled(){
+        return this.cancelled;
+    }
+
+    /**
+     * @return 'true' if the operation has been started. 'false' otherwise.
+     */
+    public boolean isStarted(){
+        return this.started;
+    }
+
+    /**
+     * @return 'true' if the operation has finished. 'false' otherwise.
+     */
+    public boolean isDone(){
+        return this.done;
+    }
+
+    /**
+     * @return the bytes read or written so far
+     */
+    public long getBytes(){
+        return this.bytes.get();
+    }
+
+    /**
+     * @return the bytes the operation will read or write, UNKNOWN if it is not known
+     */
+    public long getTotalBytes(){
+        return this.totalBytes;
+    }
+
+    /**
+     * @return the persons decoded or encoded so far
+     */
+    public long getPersons(){
+        return this.persons.get();
+    }
+
+    /**
+     * @return the persons the operation will decode or encode, UNKNOWN if it is not known
+     */
+    public long getTotalPersons(){
+        return this.totalPersons;
+    }
+
+    /**
+     * @return how much of the operation is done, from 0 to 1, or UNKNOWN if neither total is known
+     */
+    public double getFraction(){
+        double fraction = UNKNOWN;
+
+        if(this.done){
+            fraction = 1;
+        }
+        else if(this.totalBytes > 0){
+            fraction = Math.min(1.0, (double) this.bytes.get() / this.totalBytes);
+        }
+        else if(this.totalPersons > 0){
+            fraction = Math.min(1.0, (double) this.persons.get() / this.totalPersons);
+        }
+        return fraction;
+    }
+
+    /**
+     * Estimates the time left assuming the rest of the operation goes as fast as it has so far
+     * @return the estimated milliseconds left, UNKNOWN if it cannot be estimated yet
+     */
+    public long getRemainingMillis(){
+        double fraction = getFraction();
+        long remaining = UNKNOWN;
+
+        if(this.done){
+            remaining = 0;
+        }
+        else if(this.started && fraction > 0){
+            double elapsedMillis = (System.nanoTime() - this.startTime) / 1e6;
+            remaining = (long) (elapsedMillis * (1 - fraction) / fraction);
+        }
+        return remaining;
+    }
+
+    // Private Fields ==================================================================================================
+
+    /**
+     * Read and written by both the threads doing the operation and the thread showing it
+     */
+    private final AtomicLong bytes = new AtomicLong();
+
+    private final AtomicLong persons = new AtomicLong();
+
+    private volatile long totalBytes = UNKNOWN;
+
+    private volatile long totalPersons = UNKNOWN;
+
+    private volatile long startTime;
+
+    private volatile boolean started;
+
+    private volatile boolean done;
+
+    private volatile boolean cancelled;
+}
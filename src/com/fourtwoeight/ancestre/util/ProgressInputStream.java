@@ -0,0 +1,83 @@
+package com.fourtwoeight.ancestre.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from a stream against a progress, so reading stops once the progress is cancelled. It is
+ * placed directly over the file stream so the bytes counted are those of the file, compressed or not, and should be
+ * buffered above as every read is counted.
+ */
+class ProgressInputStream extends FilterInputStream {
+
+    // Public Methods ==================================================================================================
+
+    /**
+     * Constructor
+     * @param inputStream the stream to read from
+     * @param progress the progress to count the bytes read against
+     */
+    ProgressInputStream(InputStream inputStream, Progress progress){
+        super(inputStream);
+        this.progress = progress;
+    }
+
+    /**
+     * @return the next byte, or -1 if the end of the stream has been reached
+     * @throws IOException if the stream could not be read
+     */
+    @Override
+    public int read() throws IOException {
+        int value = this.in.read();
+        if(value >= 0){
+            this.progress.addBytes(1);
+        }
+        return value;
+    }
+
+    /**
+     * Reads up to length bytes into the array
+     * @param bytes the array to read into
+     * @param offset the offset in the array to start writing at
+     * @param length the maximum number of bytes to read
+     * @return the number of bytes read, or -1 if the end of the stream has been reached
+     * @throws IOException if the stream could not be read
+     */
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        int count = this.in.read(bytes, offset, length);
+        if(count > 0){
+            this.progress.addBytes(count);
+        }
+        return count;
+    }
+
+    /**
+     * Skips bytes, counting them as read
+     * @param length the number of bytes to skip
+     * @return the number of bytes skipped
+     * @throws IOException if the stream could not be skipped
+     */
+    @Override
+    public long skip(long length) throws IOException {
+        long count = this.in.skip(length);
+        if(count > 0){
+            this.progress.addBytes(count);
+        }
+        return count;
+    }
+
+    /**
+     * Marks are not supported as bytes read again would be counted twice
+     * @return 'false'
+     */
+    @Override
+    public boolean markSupported(){
+        return false;
+    }
+
+    // Private Fields ==================================================================================================
+
+    private final Progress progress;
+}
@@ -0,0 +1,53 @@
+package com.fourtwoeight.ancestre.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes written to a stream against a progress, so writing stops once the progress is cancelled. It is
+ * placed directly over the file stream so the bytes counted are those of the file, and should be buffered above as
+ * every write is counted.
+ */
+class ProgressOutputStream extends FilterOutputStream {
+
+    // Public Methods ==================================================================================================
+
+    /**
+     * Constructor
+     * @param outputStream the stream to write to
+     * @param progress the progress to count the bytes written against
+     */
+    ProgressOutputStream(OutputStream outputStream, Progress progress){
+        super(outputStream);
+        this.progress = progress;
+    }
+
+    /**
+     * Writes a byte
+     * @param value the byte
+     * @throws IOException if the byte could not be written
+     */
+    @Override
+    public void write(int value) throws IOException {
+        this.out.write(value);
+        this.progress.addBytes(1);
+    }
+
+    /**
+     * Writes length bytes from the array, in one write rather than a byte at a time as FilterOutputStream does
+     * @param bytes the array to write from
+     * @param offset the offset in the array to start reading at
+     * @param length the number of bytes to write
+     * @throws IOException if the bytes could not be written
+     */
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        this.out.write(bytes, offset, length);
+        this.progress.addBytes(length);
+    }
+
+    // Private Fields ==================================================================================================
+
+    private final Progress progress;
+}
@@ -0,0 +1,242 @@
+package com.fourtwoeight.ancestre.util;
+
+import com.fourtwoeight.ancestre.model.Family;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import static com.fourtwoeight.ancestre.util.XmlStreamUtil.skipElement;
+import static com.fourtwoeight.ancestre.util.RelationshipSchema.*;
+
+/**
+ * Streams a .rel file and applies the relationships it describes to the members of a family. The file is read in a
+ * single forward pass so only the element currently being parsed is held in memory, regardless of family size.
+ */
+public class RelationshipReader {
+
+    // Private Static Fields ===========================================================================================
+
+    private static final Logger LOGGER = Logger.getLogger(RelationshipReader.class.getName());
+
+    // Public Methods ==================================================================================================
+
+    /**
+     * Constructor
+     * @param inputFactory the factory used to create stream readers
+     */
+    public RelationshipReader(XMLInputFactory inputFactory){
+        this.inputFactory = inputFactory;
+    }
+
+    /**
+     * Reads the relationship data from the input stream and updates the members of the family. Every person referenced
+     * must already be a member of the family.
+     * @param family the family to update
+     * @param inputStream the stream to read the .rel data from
+     * @return 'true' if every relationship was resolved. 'false' otherwise.
+     * @throws XMLStreamException if the stream is not well formed
+     */
+    public boolean read(Family family, InputStream inputStream) throws XMLStreamException {
+        LOGGER.fine("Reading relationships.");
+        boolean loaded = true;
+        XMLStreamReader reader = this.inputFactory.createXMLStreamReader(inputStream);
+
+        try {
+            if(readRoot(reader)){
+                RelationshipRecord record;
+                while((record = readNextPerson(reader)) != null){
+                    loaded &= record.apply(family);
+                }
+            }
+            else{
+                loaded = false;
+            }
+        } finally {
+            reader.close();
+        }
+
+        return loaded;
+    }
+
+    /**
+     * Reads the relationship data from the input stream without resolving it, so it can be read before the family
+     * it belongs to has been loaded. Records after the first for the same person are marked as duplicates.
+     * @param inputStream the stream to read the .rel data from
+     * @return the relationships of each person in the order they were read, null if the stream is not a .rel file
+     * @throws XMLStreamException if the stream is not well formed
+     */
+    List<RelationshipRecord> parse(InputStream inputStream) throws XMLStreamException {
+        LOGGER.fine("Parsing relationships.");
+        List<RelationshipRecord> records = null;
+        XMLStreamReader reader = this.inputFactory.createXMLStreamReader(inputStream);
+
+        try {
+            if(readRoot(reader)){
+                records = new ArrayList<>();
+                HashSet<String> uuids = new HashSet<>();
+                RelationshipRecord record;
+
+                while((record = readNextPerson(reader)) != null){
+                    record.setDuplicate(!uuids.add(record.getUUID()));
+                    records.add(record);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        return records;
+    }
+
+    /**
+     * Reads the relationship data from the input stream one person at a time, without resolving it or keeping it
+     * @param inputStream the stream to read the .rel data from
+     * @param records given the relationships of each person in the order they were read
+     * @return 'true' if the stream is a .rel file. 'false' otherwise.
+     * @throws XMLStreamException if the stream is not well formed
+     */
+    boolean scan(InputStream inputStream, Consumer<RelationshipRecord> records) throws XMLStreamException {
+        LOGGER.fine("Scanning relationships.");
+        boolean read = false;
+        XMLStreamReader reader = this.inputFactory.createXMLStreamReader(inputStream);
+
+        try {
+            if(readRoot(reader)){
+                RelationshipRecord record;
+                while((record = readNextPerson(reader)) != null){
+                    records.accept(record);
+                }
+                read = true;
+            }
+        } finally {
+            reader.close();
+        }
+
+        return read;
+    }
+
+    // Private Methods =================================================================================================
+
+    /**
+     * Reads up to the root element
+     * @param reader the reader at the start of the document
+     * @return 'true' if the root element is a Relationships element. 'false' otherwise.
+     * @throws XMLStreamException if the stream is not well formed
+     */
+    private boolean readRoot(XMLStreamReader reader) throws XMLStreamException {
+        reader.nextTag();
+
+        if(RELATIONSHIPS.equals(reader.getLocalName())){
+            LOGGER.finer("Extracting data for each person.");
+            return true;
+        }
+
+        LOGGER.severe("Could not extract relationship element.");
+        return false;
+    }
+
+    /**
+     * Reads the next Person element, skipping any other elements before it
+     * @param reader the reader positioned within the Relationships element
+     * @return the relationships of the person, null once the end of the Relationships element is reached
+     * @throws XMLStreamException if the stream is not well formed
+     */
+    private RelationshipRecord readNextPerson(XMLStreamReader reader) throws XMLStreamException {
+        while(reader.nextTag() == XMLStreamConstants.START_ELEMENT){
+            if(PERSON.equals(reader.getLocalName())){
+                return readPerson(reader);
+            }
+            skipElement(reader);
+        }
+        return null;
+    }
+
+    /**
+     * Reads a single Person element. The reader must be positioned on the start of the element and is left on its end.
+     * @param reader the reader positioned at a Person element
+     * @return the relationships of the person
+     * @throws XMLStreamException if the stream is not well formed
+     */
+    private RelationshipRecord readPerson(XMLStreamReader reader) throws XMLStreamException {
+        RelationshipRecord record = new RelationshipRecord(attribute(reader));
+
+        while(reader.nextTag() == XMLStreamConstants.START_ELEMENT){
+            String elementName = reader.getLocalName();
+
+            if(FATHER.equals(elementName)){
+                record.setFather(attribute(reader));
+                skipElement(reader);
+            }
+            else if(MOTHER.equals(elementName)){
+                record.setMother(attribute(reader));
+                skipElement(reader);
+            }
+            else if(CUR_SPOUSE.equals(elementName)){
+                record.setCurrentSpouse(attribute(reader));
+                skipElement(reader);
+            }
+            else if(SPOUSES.equals(elementName)){
+                while(reader.nextTag() == XMLStreamConstants.START_ELEMENT){
+                    String spouse = readUUIDElement(reader);
+                    if(spouse != null){
+                        record.addSpouse(spouse);
+                    }
+                }
+            }
+            else if(CHILDREN.equals(elementName)){
+                while(reader.nextTag() == XMLStreamConstants.START_ELEMENT){
+                    String child = readUUIDElement(reader);
+                    if(child != null){
+                        record.addChild(child);
+                    }
+                }
+            }
+            else{
+                skipElement(reader);
+            }
+        }
+
+        return record;
+    }
+
+    /**
+     * Reads a uuid element from a Spouses or Children list
+     * @param reader the reader positioned at the uuid element
+     * @return the uuid string, null if the element is not a uuid
+     * @throws XMLStreamException if the stream is not well formed
+     */
+    private String readUUIDElement(XMLStreamReader reader) throws XMLStreamException {
+        String uuid = null;
+
+        if(UUID.equals(reader.getLocalName())){
+            uuid = reader.getElementText().trim();
+        }
+        else{
+            LOGGER.warning("Unexpected element in list: " + reader.getLocalName());
+            skipElement(reader);
+        }
+
+        return uuid;
+    }
+
+    /**
+     * @param reader the reader positioned at an element
+     * @return the uuid attribute of the element, empty if it has none so it fails to resolve
+     */
+    private String attribute(XMLStreamReader reader){
+        String uuid = reader.getAttributeValue(null, UUID);
+        return (uuid != null) ? uuid : "";
+    }
+
+    // Private Fields ==================================================================================================
+
+    private XMLInputFactory inputFactory;
+}
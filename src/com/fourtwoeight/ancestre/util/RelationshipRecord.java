@@ -0,0 +1,193 @@
+package com.fourtwoeight.ancestre.util;
+
+import com.fourtwoeight.ancestre.model.Family;
+import com.fourtwoeight.ancestre.model.Person;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * The relationships of a single person as read from a .rel file, with relatives still referred to by uuid string.
+ */
+class RelationshipRecord {
+
+    // Private Static Fields ===========================================================================================
+
+    private static final Logger LOGGER = Logger.getLogger(RelationshipRecord.class.getName());
+
+    // Public Methods ==================================================================================================
+
+    /**
+     * Constructor
+     * @param uuid the uuid string of the person the relationships belong to
+     */
+    RelationshipRecord(String uuid){
+        this.uuid = uuid;
+    }
+
+    /**
+     * Resolves every uuid against the family and applies the relationships to the person. Only the person the record
+     * belongs to is changed, so records for different persons can be applied at the same time.
+     * @param family the family to resolve uuids against, which must not be changed while the record is applied
+     * @return 'true' if every relationship was resolved. 'false' otherwise.
+     */
+    boolean apply(Family family){
+        Person person = family.getPerson(this.uuid);
+
+        if(person == null){
+            LOGGER.warning("Unable to find person for UUID: " + this.uuid);
+            return false;
+        }
+
+        boolean resolved = true;
+        Person relative;
+
+        if(this.father != null){
+            relative = resolve(this.father, family);
+            if(relative != null){
+                person.setFather(relative);
+            }
+            resolved &= relative != null;
+        }
+        if(this.mother != null){
+            relative = resolve(this.mother, family);
+            if(relative != null){
+                person.setMother(relative);
+            }
+            resolved &= relative != null;
+        }
+        if(this.currentSpouse != null){
+            relative = resolve(this.currentSpouse, family);
+            if(relative != null){
+                person.setCurrentSpouse(relative);
+            }
+            resolved &= relative != null;
+        }
+        for(String spouse : this.spouses){
+            relative = resolve(spouse, family);
+            if(relative != null){
+                person.addSpouse(relative);
+            }
+            resolved &= relative != null;
+        }
+        for(String child : this.children){
+            relative = resolve(child, family);
+            if(relative != null){
+                person.addChild(relative);
+            }
+            resolved &= relative != null;
+        }
+
+        return resolved;
+    }
+
+    /**
+     * @return the uuid string of the person the relationships belong to
+     */
+    String getUUID(){
+        return this.uuid;
+    }
+
+    /**
+     * @return the uuid strings of the father, mother, current spouse, spouses and children, in that order
+     */
+    List<String> getRelatives(){
+        List<String> relatives = new ArrayList<>(this.spouses.size() + this.children.size() + 3);
+
+        if(this.father != null){
+            relatives.add(this.father);
+        }
+        if(this.mother != null){
+            relatives.add(this.mother);
+        }
+        if(this.currentSpouse != null){
+            relatives.add(this.currentSpouse);
+        }
+        relatives.addAll(this.spouses);
+        relatives.addAll(this.children);
+        return relatives;
+    }
+
+    /**
+     * @param father the uuid string of the father, null if there is none
+     */
+    void setFather(String father){
+        this.father = father;
+    }
+
+    /**
+     * @param mother the uuid string of the mother, null if there is none
+     */
+    void setMother(String mother){
+        this.mother = mother;
+    }
+
+    /**
+     * @param currentSpouse the uuid string of the current spouse, null if there is none
+     */
+    void setCurrentSpouse(String currentSpouse){
+        this.currentSpouse = currentSpouse;
+    }
+
+    /**
+     * @param spouse the uuid string of a spouse to add
+     */
+    void addSpouse(String spouse){
+        this.spouses.add(spouse);
+    }
+
+    /**
+     * @param child the uuid string of a child to add
+     */
+    void addChild(String child){
+        this.children.add(child);
+    }
+
+    /**
+     * @return 'true' if an earlier record in the same file belongs to the same person. 'false' otherwise.
+     */
+    boolean isDuplicate(){
+        return this.duplicate;
+    }
+
+    /**
+     * @param duplicate whether an earlier record in the same file belongs to the same person
+     */
+    void setDuplicate(boolean duplicate){
+        this.duplicate = duplicate;
+    }
+
+    // Private Methods =================================================================================================
+
+    /**
+     * Looks up the person for the uuid, logging a warning if they are not part of the family
+     * @param uuid the uuid string of the person
+     * @param family the family to search
+     * @return the person mapped to the uuid, null if not found
+     */
+    private Person resolve(String uuid, Family family){
+        Person person = family.getPerson(uuid);
+
+        if(person == null){
+            LOGGER.warning("Unable to find person for UUID: " + uuid);
+        }
+        return person;
+    }
+
+    // Private Fields ==================================================================================================
+
+    private final String uuid;
+
+    private String father;
+
+    private String mother;
+
+    private String currentSpouse;
+
+    private final List<String> spouses = new ArrayList<>();
+
+    private final List<String> children = new ArrayList<>();
+
+    private boolean duplicate;
+}
@@ -0,0 +1,25 @@
+package com.fourtwoeight.ancestre.util;
+
+/**
+ * Element and attribute names used by the .rel relationship file
+ */
+final class RelationshipSchema {
+
+    // Package Static Fields ===========================================================================================
+
+    static final String UUID = "uuid";
+    static final String RELATIONSHIPS = "Relationships";
+    static final String PERSON = "Person";
+    static final String FATHER = "Father";
+    static final String MOTHER = "Mother";
+    static final String CUR_SPOUSE = "CurrentSpouse";
+    static final String SPOUSES = "Spouses";
+    static final String CHILDREN = "Children";
+
+    // Private Methods =================================================================================================
+
+    /**
+     * Private Constructor
+     */
+    private RelationshipSchema(){}
+}
@@ -0,0 +1,71 @@
+package com.fourtwoeight.ancestre.util;
+
+import com.fourtwoeight.ancestre.model.Family;
+
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Applies a range of relationship records to a family, splitting the range in half until it is small enough to apply
+ * directly so the halves can be applied on different threads. Duplicate records are left for the caller to apply one
+ * at a time, as they change a person another record also changes.
+ */
+class RelationshipTask extends RecursiveTask<Boolean> {
+
+    // Private Static Fields ===========================================================================================
+
+    private static final int THRESHOLD = 1024;
+
+    // Public Methods ==================================================================================================
+
+    /**
+     * Constructor
+     * @param family the family to apply the records to, its members must not change while the task runs
+     * @param records the records
+     * @param start the index of the first record in the range
+     * @param end the index after the last record in the range
+     */
+    RelationshipTask(Family family, List<RelationshipRecord> records, int start, int end){
+        this.family = family;
+        this.records = records;
+        this.start = start;
+        this.end = end;
+    }
+
+    // Protected Methods ===============================================================================================
+
+    /**
+     * @return 'true' if every relationship in the range was resolved. 'false' otherwise.
+     */
+    @Override
+    protected Boolean compute(){
+        if(this.end - this.start <= THRESHOLD){
+            boolean resolved = true;
+            for(int i = this.start; i < this.end; i++){
+                RelationshipRecord record = this.records.get(i);
+                if(!record.isDuplicate()){
+                    resolved &= record.apply(this.family);
+                }
+            }
+            return resolved;
+        }
+
+        int middle = (this.start + this.end) >>> 1;
+        RelationshipTask first = new RelationshipTask(this.family, this.records, this.start, middle);
+        RelationshipTask second = new RelationshipTask(this.family, this.records, middle, this.end);
+
+        first.fork();
+        boolean resolved = second.compute();
+        return first.join() & resolved;
+    }
+
+    // Private Fields ==================================================================================================
+
+    private final Family family;
+
+    private final List<RelationshipRecord> records;
+
+    private final int start;
+
+    private final int end;
+}
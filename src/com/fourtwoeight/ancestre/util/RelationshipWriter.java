@@ -0,0 +1,155 @@
+package com.fourtwoeight.ancestre.util;
+
+import com.fourtwoeight.ancestre.model.Family;
+import com.fourtwoeight.ancestre.model.Person;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static com.fourtwoeight.ancestre.util.XmlStreamUtil.newLine;
+import static com.fourtwoeight.ancestre.util.RelationshipSchema.*;
+
+/**
+ * Writes the relationships of a family as a .rel file. Each person is written to the stream as soon as it is visited
+ * so the memory used does not grow with the size of the family.
+ */
+public class RelationshipWriter {
+
+    // Private Static Fields ===========================================================================================
+
+    private static final Logger LOGGER = Logger.getLogger(RelationshipWriter.class.getName());
+
+    private static final String ENCODING = "UTF-8";
+
+    // Public Methods ==================================================================================================
+
+    /**
+     * Constructor
+     * @param outputFactory the factory used to create stream writers
+     */
+    public RelationshipWriter(XMLOutputFactory outputFactory){
+        this.outputFactory = outputFactory;
+    }
+
+    /**
+     * Writes the relationships for every member of the family to the output stream. The stream is flushed but not
+     * closed.
+     * @param family the family to write
+     * @param outputStream the stream to write the .rel data to
+     * @throws XMLStreamException if the data could not be written
+     */
+    public void write(Family family, OutputStream outputStream) throws XMLStreamException {
+        LOGGER.fine("Writing relationships for family: " + family.getFamilyName());
+        write(family.getMemberView(), outputStream);
+    }
+
+    /**
+     * Writes the relationships for some of the members of a family to the output stream. Relatives are written by uuid
+     * whether or not they are among the persons written. The stream is flushed but not closed.
+     * @param persons the persons to write
+     * @param outputStream the stream to write the .rel data to
+     * @throws XMLStreamException if the data could not be written
+     */
+    public void write(Collection<Person> persons, OutputStream outputStream) throws XMLStreamException {
+        XMLStreamWriter writer = this.outputFactory.createXMLStreamWriter(outputStream, ENCODING);
+
+        try {
+            writer.writeStartDocument(ENCODING, "1.0");
+            newLine(writer, 0);
+            writer.writeStartElement(RELATIONSHIPS);
+
+            for(Person person : persons){
+                writePerson(writer, person);
+            }
+
+            newLine(writer, 0);
+            writer.writeEndElement();
+            newLine(writer, 0);
+            writer.writeEndDocument();
+            writer.flush();
+        } finally {
+            writer.close();
+        }
+    }
+
+    // Private Methods =================================================================================================
+
+    /**
+     * Writes the Person element describing the relationships of a single person
+     * @param writer the writer to write to
+     * @param person the person to write
+     * @throws XMLStreamException if the data could not be written
+     */
+    private void writePerson(XMLStreamWriter writer, Person person) throws XMLStreamException {
+        newLine(writer, 1);
+        writer.writeStartElement(PERSON);
+        writer.writeAttribute(UUID, person.getUUIDString());
+
+        boolean hasChildren = writeReference(writer, FATHER, person.getFather());
+        hasChildren |= writeReference(writer, MOTHER, person.getMother());
+        hasChildren |= writeReference(writer, CUR_SPOUSE, person.getCurrentSpouse());
+        hasChildren |= writeList(writer, SPOUSES, person.getSpouses());
+        hasChildren |= writeList(writer, CHILDREN, person.getChildren());
+
+        if(hasChildren){
+            newLine(writer, 1);
+        }
+        writer.writeEndElement();
+    }
+
+    /**
+     * Writes an empty element referencing a single person by uuid attribute
+     * @param writer the writer to write to
+     * @param elementName the name of the element
+     * @param relative the person being referenced, nothing is written if null
+     * @return 'true' if an element was written. 'false' otherwise.
+     * @throws XMLStreamException if the data could not be written
+     */
+    private boolean writeReference(XMLStreamWriter writer, String elementName, Person relative)
+            throws XMLStreamException {
+        if(relative == null){
+            return false;
+        }
+
+        newLine(writer, 2);
+        writer.writeEmptyElement(elementName);
+        writer.writeAttribute(UUID, relative.getUUIDString());
+        return true;
+    }
+
+    /**
+     * Writes an element containing a uuid element for each person in the list
+     * @param writer the writer to write to
+     * @param elementName the name of the element which the list of people represents
+     * @param people the list of people, nothing is written if empty
+     * @return 'true' if an element was written. 'false' otherwise.
+     * @throws XMLStreamException if the data could not be written
+     */
+    private boolean writeList(XMLStreamWriter writer, String elementName, List<Person> people)
+            throws XMLStreamException {
+        if(people.isEmpty()){
+            return false;
+        }
+
+        newLine(writer, 2);
+        writer.writeStartElement(elementName);
+        for(Person person : people){
+            newLine(writer, 3);
+            writer.writeStartElement(UUID);
+            writer.writeCharacters(person.getUUIDString());
+            writer.writeEndElement();
+        }
+        newLine(writer, 2);
+        writer.writeEndElement();
+        return true;
+    }
+
+    // Private Fields ==================================================================================================
+
+    private XMLOutputFactory outputFactory;
+}
@@ -0,0 +1,58 @@
+package com.fourtwoeight.ancestre.util;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Helpers shared by the StAX based readers and writers
+ */
+final class XmlStreamUtil {
+
+    // Private Static Fields ===========================================================================================
+
+    private static final String INDENT = "    ";
+
+    // Package Static Methods ==========================================================================================
+
+    /**
+     * Consumes the current element along with all of its children. The reader must be positioned on the start of the
+     * element and is left on its end.
+     * @param reader the reader positioned at the element to skip
+     * @throws XMLStreamException if the stream is not well formed
+     */
+    static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+
+        while(depth > 0){
+            int event = reader.next();
+            if(event == XMLStreamConstants.START_ELEMENT){
+                depth++;
+            }
+            else if(event == XMLStreamConstants.END_ELEMENT){
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Writes a line break followed by four spaces of indentation for each level of depth
+     * @param writer the writer to write to
+     * @param depth the number of indents to write
+     * @throws XMLStreamException if the data could not be written
+     */
+    static void newLine(XMLStreamWriter writer, int depth) throws XMLStreamException {
+        writer.writeCharacters("\n");
+        for(int i = 0; i < depth; i++){
+            writer.writeCharacters(INDENT);
+        }
+    }
+
+    // Private Methods =================================================================================================
+
+    /**
+     * Private Constructor
+     */
+    private XmlStreamUtil(){}
+}